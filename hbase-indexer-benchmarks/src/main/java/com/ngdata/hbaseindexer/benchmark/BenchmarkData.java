@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.ngdata.hbaseindexer.conf.FieldDefinition;
+import com.ngdata.hbaseindexer.conf.FieldDefinition.ValueSource;
+import com.ngdata.sep.SepEvent;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Generates the rows that the benchmarks work on. All rows have the same shape: a number of qualifiers
+ * {@code q0000, q0001, ...} in a single column family, whose values cycle through the types in {@link #FIELD_TYPES}.
+ * String values have a configurable size, the other types have their natural binary encoding.
+ * <p>
+ * The data is generated from a fixed seed, so that every benchmark run works on the same rows.
+ */
+public class BenchmarkData {
+
+    public static final byte[] TABLE = Bytes.toBytes("benchmark");
+    public static final String TABLE_NAME = "benchmark";
+    public static final byte[] FAMILY = Bytes.toBytes("cf");
+
+    /**
+     * The types of the qualifiers, qualifier {@code i} has type {@code FIELD_TYPES[i % FIELD_TYPES.length]}.
+     */
+    public static final String[] FIELD_TYPES = { "string", "long", "string", "int", "string", "double" };
+
+    private static final long SEED = 0x5EED;
+    private static final byte[] PRINTABLE = Bytes.toBytes("abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789");
+
+    private final Random random = new Random(SEED);
+
+    public static byte[] qualifier(int index) {
+        return Bytes.toBytes(String.format("q%04d", index));
+    }
+
+    /**
+     * Returns a random row key, spread like the hashed or UUID-based keys that are common in indexed tables.
+     */
+    public byte[] row() {
+        return Bytes.toBytes(String.format("%016x", random.nextLong()));
+    }
+
+    public byte[] stringValue(int size) {
+        byte[] value = new byte[size];
+        for (int i = 0; i < size; i++) {
+            value[i] = PRINTABLE[random.nextInt(PRINTABLE.length)];
+        }
+        return value;
+    }
+
+    public byte[] value(String type, int stringSize) {
+        if ("long".equals(type)) {
+            return Bytes.toBytes(random.nextLong());
+        } else if ("int".equals(type)) {
+            return Bytes.toBytes(random.nextInt());
+        } else if ("double".equals(type)) {
+            return Bytes.toBytes(random.nextDouble());
+        } else {
+            return stringValue(stringSize);
+        }
+    }
+
+    /**
+     * Generate the KeyValues of a row, sorted as HBase would return them.
+     *
+     * @param qualifierCount number of qualifiers in the row
+     * @param valueSize size of the string values, in bytes
+     */
+    public List<KeyValue> keyValues(byte[] row, int qualifierCount, int valueSize) {
+        long timestamp = System.currentTimeMillis();
+        List<KeyValue> keyValues = new ArrayList<KeyValue>(qualifierCount);
+        for (int i = 0; i < qualifierCount; i++) {
+            keyValues.add(new KeyValue(row, FAMILY, qualifier(i), timestamp,
+                    value(FIELD_TYPES[i % FIELD_TYPES.length], valueSize)));
+        }
+        return keyValues;
+    }
+
+    public SepEvent event(int qualifierCount, int valueSize) {
+        byte[] row = row();
+        return new SepEvent(TABLE, row, keyValues(row, qualifierCount, valueSize), null);
+    }
+
+    public List<SepEvent> events(int eventCount, int qualifierCount, int valueSize) {
+        List<SepEvent> events = new ArrayList<SepEvent>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            events.add(event(qualifierCount, valueSize));
+        }
+        return events;
+    }
+
+    /**
+     * Field definitions that index every qualifier of the generated rows into its own field, with the type of the
+     * qualifier.
+     */
+    public static List<FieldDefinition> fieldDefinitions(int qualifierCount) {
+        List<FieldDefinition> fieldDefinitions = new ArrayList<FieldDefinition>(qualifierCount);
+        for (int i = 0; i < qualifierCount; i++) {
+            String type = FIELD_TYPES[i % FIELD_TYPES.length];
+            String qualifier = Bytes.toString(qualifier(i));
+            fieldDefinitions.add(new FieldDefinition(qualifier + "_" + type, Bytes.toString(FAMILY) + ":" + qualifier,
+                    ValueSource.VALUE, type));
+        }
+        return fieldDefinitions;
+    }
+
+}
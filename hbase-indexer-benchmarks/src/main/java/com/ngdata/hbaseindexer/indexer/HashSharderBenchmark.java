@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import java.util.concurrent.TimeUnit;
+
+import com.ngdata.hbaseindexer.benchmark.BenchmarkData;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link HashSharder#getShard(String)}, which is called for every document that is sent to a classic
+ * sharded Solr setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashSharderBenchmark {
+
+    private static final int ID_COUNT = 1024;
+
+    @Param({ "4", "16" })
+    public int numShards;
+
+    /** Length of the document ids. */
+    @Param({ "16", "64" })
+    public int idLength;
+
+    private HashSharder sharder;
+    private String[] ids;
+    private int index;
+
+    @Setup
+    public void setUp() throws SharderException {
+        sharder = new HashSharder(numShards);
+        BenchmarkData data = new BenchmarkData();
+        ids = new String[ID_COUNT];
+        for (int i = 0; i < ID_COUNT; i++) {
+            ids[i] = Bytes.toString(data.stringValue(idLength));
+        }
+    }
+
+    @Benchmark
+    public int getShard() throws SharderException {
+        index = (index + 1) % ID_COUNT;
+        return sharder.getShard(ids[index]);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ngdata.hbaseindexer.benchmark.BenchmarkData;
+import com.ngdata.hbaseindexer.conf.DocumentExtractDefinition;
+import com.ngdata.hbaseindexer.conf.IndexerConf;
+import com.ngdata.hbaseindexer.conf.IndexerConf.MappingType;
+import com.ngdata.hbaseindexer.conf.IndexerConf.RowReadMode;
+import com.ngdata.hbaseindexer.conf.IndexerConfBuilder;
+import com.ngdata.hbaseindexer.parse.DefaultResultToSolrMapper;
+import com.ngdata.sep.SepEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@code calculateIndexUpdates} of the row- and column-based indexers for one batch of events, which covers
+ * the deduplication of the events, the unique key formatting and the mapping to Solr documents. Rows are never
+ * re-read, so that no HBase is needed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexerBenchmark {
+
+    @Param({ "ROW", "COLUMN" })
+    public MappingType mappingType;
+
+    /** Number of events in the batch. */
+    @Param({ "1", "100" })
+    public int batchSize;
+
+    /** Number of cells in every event, all of which are indexed. */
+    @Param({ "4", "32", "256" })
+    public int qualifierCount;
+
+    /** Size of the string values, in bytes. */
+    @Param({ "16", "256" })
+    public int valueSize;
+
+    private Indexer indexer;
+    private List<RowData> rowDataList;
+
+    @Setup
+    public void setUp() {
+        IndexerConf conf = new IndexerConfBuilder()
+                .table(BenchmarkData.TABLE_NAME)
+                .mappingType(mappingType)
+                .rowReadMode(RowReadMode.NEVER)
+                .build();
+        DefaultResultToSolrMapper mapper = new DefaultResultToSolrMapper("benchmark",
+                BenchmarkData.fieldDefinitions(qualifierCount), Collections.<DocumentExtractDefinition>emptyList());
+        indexer = Indexer.createIndexer("benchmark", conf, BenchmarkData.TABLE_NAME, mapper, null, null, null);
+
+        rowDataList = new ArrayList<RowData>(batchSize);
+        for (SepEvent event : new BenchmarkData().events(batchSize, qualifierCount, valueSize)) {
+            rowDataList.add(new SepEventRowData(event));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        indexer.stop();
+    }
+
+    @Benchmark
+    public SolrUpdateCollector calculateIndexUpdates() throws IOException {
+        SolrUpdateCollector updateCollector = new SolrUpdateCollector(rowDataList.size());
+        indexer.calculateIndexUpdates(rowDataList, updateCollector);
+        return updateCollector;
+    }
+
+}
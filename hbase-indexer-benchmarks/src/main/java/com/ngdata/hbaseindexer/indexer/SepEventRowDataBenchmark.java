@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import java.util.concurrent.TimeUnit;
+
+import com.ngdata.hbaseindexer.benchmark.BenchmarkData;
+import com.ngdata.sep.SepEvent;
+import org.apache.hadoop.hbase.client.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the conversion of a SEP event to a {@link Result}. As Results can build their lookup structures lazily,
+ * {@link #toResultAndGetValue()} also looks up a single value, which is what the mappers do first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SepEventRowDataBenchmark {
+
+    private static final int ROW_COUNT = 1024;
+
+    /** Number of cells in every event. */
+    @Param({ "4", "32", "256" })
+    public int qualifierCount;
+
+    /** Size of the string values, in bytes. */
+    @Param({ "16", "256" })
+    public int valueSize;
+
+    private SepEventRowData[] rowDatas;
+    private byte[] lastQualifier;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData data = new BenchmarkData();
+        rowDatas = new SepEventRowData[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            SepEvent event = data.event(qualifierCount, valueSize);
+            rowDatas[i] = new SepEventRowData(event);
+        }
+        lastQualifier = BenchmarkData.qualifier(qualifierCount - 1);
+    }
+
+    private SepEventRowData nextRowData() {
+        index = (index + 1) % ROW_COUNT;
+        return rowDatas[index];
+    }
+
+    @Benchmark
+    public Result toResult() {
+        return nextRowData().toResult();
+    }
+
+    @Benchmark
+    public byte[] toResultAndGetValue() {
+        return nextRowData().toResult().getValue(BenchmarkData.FAMILY, lastQualifier);
+    }
+
+}
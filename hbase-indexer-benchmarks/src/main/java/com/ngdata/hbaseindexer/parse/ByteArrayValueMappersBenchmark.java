@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.parse;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.ngdata.hbaseindexer.benchmark.BenchmarkData;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the mapping of a single cell value by the built-in {@link ByteArrayValueMapper}s. The value size only
+ * applies to the string mapper, the other types have a fixed size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ByteArrayValueMappersBenchmark {
+
+    private static final int VALUE_COUNT = 1024;
+
+    @Param({ "string", "int", "long", "short", "float", "double", "boolean", "bigdecimal" })
+    public String type;
+
+    /** Size of the string values, in bytes. */
+    @Param({ "16", "256" })
+    public int valueSize;
+
+    private ByteArrayValueMapper mapper;
+    private byte[][] values;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        mapper = ByteArrayValueMappers.getMapper(type);
+        BenchmarkData data = new BenchmarkData();
+        Random random = new Random(VALUE_COUNT);
+        values = new byte[VALUE_COUNT][];
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            if ("short".equals(type)) {
+                values[i] = Bytes.toBytes((short)random.nextInt());
+            } else if ("float".equals(type)) {
+                values[i] = Bytes.toBytes(random.nextFloat());
+            } else if ("boolean".equals(type)) {
+                values[i] = Bytes.toBytes(random.nextBoolean());
+            } else if ("bigdecimal".equals(type)) {
+                values[i] = Bytes.toBytes(BigDecimal.valueOf(random.nextLong(), 4));
+            } else {
+                values[i] = data.value(type, valueSize);
+            }
+        }
+    }
+
+    @Benchmark
+    public Collection<Object> map() {
+        index = (index + 1) % VALUE_COUNT;
+        return mapper.map(values[index]);
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.parse;
+
+import static com.ngdata.sep.impl.HBaseShims.newResult;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ngdata.hbaseindexer.benchmark.BenchmarkData;
+import com.ngdata.hbaseindexer.conf.DocumentExtractDefinition;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.solr.common.SolrInputDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link DefaultResultToSolrMapper} on a single row of which every cell is mapped to a field.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResultToSolrMapperBenchmark {
+
+    /** Number of cells in the row, all of which are indexed. */
+    @Param({ "4", "32", "256" })
+    public int qualifierCount;
+
+    /** Size of the string values, in bytes. */
+    @Param({ "16", "256" })
+    public int valueSize;
+
+    private DefaultResultToSolrMapper mapper;
+    private List<KeyValue> keyValues;
+    private Result result;
+    private LastDocumentUpdateWriter updateWriter;
+
+    @Setup
+    public void setUp() {
+        mapper = new DefaultResultToSolrMapper("benchmark", BenchmarkData.fieldDefinitions(qualifierCount),
+                Collections.<DocumentExtractDefinition>emptyList());
+        BenchmarkData data = new BenchmarkData();
+        keyValues = data.keyValues(data.row(), qualifierCount, valueSize);
+        result = newResult(keyValues);
+        updateWriter = new LastDocumentUpdateWriter();
+    }
+
+    @Benchmark
+    public SolrInputDocument map() {
+        mapper.map(result, updateWriter);
+        return updateWriter.document;
+    }
+
+    @Benchmark
+    public boolean containsRequiredData() {
+        return mapper.containsRequiredData(result);
+    }
+
+    @Benchmark
+    public int isRelevantKV() {
+        int relevant = 0;
+        for (KeyValue keyValue : keyValues) {
+            if (mapper.isRelevantKV(keyValue)) {
+                relevant++;
+            }
+        }
+        return relevant;
+    }
+
+    /**
+     * Keeps the last added document, so that it can be returned from the benchmark.
+     */
+    private static class LastDocumentUpdateWriter implements SolrUpdateWriter {
+        private SolrInputDocument document;
+
+        @Override
+        public void add(SolrInputDocument solrDocument) {
+            document = solrDocument;
+        }
+
+        @Override
+        public void deleteById(String documentId) {
+        }
+
+        @Override
+        public void deleteByQuery(String query) {
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.parse.extract;
+
+import static com.ngdata.sep.impl.HBaseShims.newResult;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ngdata.hbaseindexer.benchmark.BenchmarkData;
+import com.ngdata.hbaseindexer.conf.FieldDefinition.ValueSource;
+import com.ngdata.hbaseindexer.parse.ByteArrayExtractor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the prefix-matching extractors ({@code cf:prefix*} field expressions) on a single row. The prefix
+ * {@code q00} matches the first 100 qualifiers of the row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrefixMatchingExtractorBenchmark {
+
+    private static final String PREFIX = "q00";
+
+    /** Extract the cell values, or the remainder of the qualifiers. */
+    @Param({ "VALUE", "QUALIFIER" })
+    public ValueSource valueSource;
+
+    /** Number of cells in the row. */
+    @Param({ "4", "32", "256" })
+    public int qualifierCount;
+
+    /** Size of the string values, in bytes. */
+    @Param({ "16" })
+    public int valueSize;
+
+    private ByteArrayExtractor extractor;
+    private List<KeyValue> keyValues;
+    private Result result;
+
+    @Setup
+    public void setUp() {
+        extractor = ByteArrayExtractors.getExtractor(Bytes.toString(BenchmarkData.FAMILY) + ":" + PREFIX + "*",
+                valueSource);
+        BenchmarkData data = new BenchmarkData();
+        keyValues = data.keyValues(data.row(), qualifierCount, valueSize);
+        result = newResult(keyValues);
+    }
+
+    @Benchmark
+    public Collection<byte[]> extract() {
+        return extractor.extract(result);
+    }
+
+    @Benchmark
+    public int isApplicable() {
+        int applicable = 0;
+        for (KeyValue keyValue : keyValues) {
+            if (extractor.isApplicable(keyValue)) {
+                applicable++;
+            }
+        }
+        return applicable;
+    }
+
+}
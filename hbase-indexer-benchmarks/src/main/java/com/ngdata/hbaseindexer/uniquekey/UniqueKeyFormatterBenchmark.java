@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.uniquekey;
+
+import java.util.concurrent.TimeUnit;
+
+import com.ngdata.hbaseindexer.benchmark.BenchmarkData;
+import org.apache.hadoop.hbase.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the formatting of document ids by the {@link BaseUniqueKeyFormatter}s: {@code formatRow} is used for
+ * row-based indexing, {@code formatKeyValue} for column-based indexing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UniqueKeyFormatterBenchmark {
+
+    private static final int KEY_VALUE_COUNT = 1024;
+
+    @Param({ "string", "hex" })
+    public String formatterType;
+
+    /** Length of the row keys. */
+    @Param({ "16", "64" })
+    public int rowLength;
+
+    private BaseUniqueKeyFormatter formatter;
+    private KeyValue[] keyValues;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        formatter = "hex".equals(formatterType) ? new HexUniqueKeyFormatter() : new StringUniqueKeyFormatter();
+        BenchmarkData data = new BenchmarkData();
+        keyValues = new KeyValue[KEY_VALUE_COUNT];
+        for (int i = 0; i < KEY_VALUE_COUNT; i++) {
+            keyValues[i] = new KeyValue(data.stringValue(rowLength), BenchmarkData.FAMILY,
+                    BenchmarkData.qualifier(i % 100), data.stringValue(16));
+        }
+    }
+
+    private KeyValue nextKeyValue() {
+        index = (index + 1) % KEY_VALUE_COUNT;
+        return keyValues[index];
+    }
+
+    @Benchmark
+    public String formatRow() {
+        return formatter.formatRow(nextKeyValue().getRow());
+    }
+
+    @Benchmark
+    public String formatKeyValue() {
+        return formatter.formatKeyValue(nextKeyValue());
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.ngdata.hbaseindexer.benchmark.BenchmarkData;
+import com.ngdata.sep.EventListener;
+import com.ngdata.sep.SepEvent;
+import com.ngdata.sep.util.concurrent.PartitionedExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the scheduling of the events of a replication shipment by the {@link SepEventExecutor}, one shipment per
+ * operation.
+ * <p>
+ * {@link #scheduleShipment()} executes the batches on the scheduling thread, which isolates the cost of partitioning
+ * and batching the events. {@link #shipmentRoundTrip()} runs them on a {@link PartitionedExecutor} as the SepConsumer
+ * does, and also includes the hand-off to the worker threads and the wait for the shipment to complete.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SepEventExecutorBenchmark {
+
+    /** Number of events in a shipment. */
+    @Param({ "100", "1000" })
+    public int eventCount;
+
+    /** Number of cells in every event. */
+    @Param({ "4", "32" })
+    public int qualifierCount;
+
+    /** Number of events that are passed to the listener at once. */
+    @Param({ "1", "10", "100" })
+    public int batchSize;
+
+    @Param({ "10" })
+    public int threads;
+
+    private List<SepEvent> events;
+    private SepMetrics sepMetrics;
+    private PartitionedExecutor partitionedExecutor;
+    private SepEventExecutor inlineExecutor;
+    private SepEventExecutor threadedExecutor;
+
+    @Setup
+    public void setUp() {
+        events = new BenchmarkData().events(eventCount, qualifierCount, 16);
+        sepMetrics = new SepMetrics("sep-benchmark");
+        EventListener listener = new CountingEventListener();
+
+        List<Executor> inlineExecutors = new ArrayList<Executor>(threads);
+        for (int i = 0; i < threads; i++) {
+            inlineExecutors.add(MoreExecutors.sameThreadExecutor());
+        }
+        inlineExecutor = new SepEventExecutor(listener, inlineExecutors, batchSize, sepMetrics);
+
+        partitionedExecutor = new PartitionedExecutor(threads, threads, threads * 100, Executors.defaultThreadFactory());
+        threadedExecutor = new SepEventExecutor(listener, partitionedExecutor.getPartitions(), batchSize, sepMetrics);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        partitionedExecutor.shutdown();
+        partitionedExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        sepMetrics.shutdown();
+    }
+
+    @Benchmark
+    public int scheduleShipment() throws InterruptedException {
+        return runShipment(inlineExecutor);
+    }
+
+    @Benchmark
+    public int shipmentRoundTrip() throws InterruptedException {
+        return runShipment(threadedExecutor);
+    }
+
+    private int runShipment(SepEventExecutor eventExecutor) throws InterruptedException {
+        SepEventExecutor.Shipment shipment = eventExecutor.startShipment();
+        try {
+            for (SepEvent event : events) {
+                shipment.scheduleSepEvent(event);
+            }
+            shipment.flush();
+            shipment.awaitCompletion();
+            return shipment.getBatchCount();
+        } finally {
+            shipment.release();
+        }
+    }
+
+    /**
+     * Only counts the events, so that the measurements are about the executor itself.
+     */
+    private static class CountingEventListener implements EventListener {
+        private final AtomicLong eventCount = new AtomicLong();
+
+        @Override
+        public void processEvents(List<SepEvent> events) {
+            eventCount.addAndGet(events.size());
+        }
+    }
+
+}
@@ -275,11 +275,15 @@ public abstract class AddOrUpdateIndexerCli extends BaseIndexCli {
             // Switch from cloud to classic -- remove any cloud specific parameters
             removeUnlessExplicit(explicit, connectionParams, SolrConnectionParams.COLLECTION);
             removeUnlessExplicit(explicit, connectionParams, SolrConnectionParams.ZOOKEEPER);
+            removeUnlessExplicit(explicit, connectionParams, SolrConnectionParams.CLOUD_LEADER_ROUTING);
         } else if (oldSolrMode.equals("classic") && newSolrMode.equals("cloud")) {
             // Switch from classic to cloud -- remove any cloud specific parameters
             removeUnlessExplicit(explicit, connectionParams, SolrConnectionParams.SHARDER_TYPE);
             removeUnlessExplicit(explicit, connectionParams, SolrConnectionParams.MAX_CONNECTIONS);
             removeUnlessExplicit(explicit, connectionParams, SolrConnectionParams.MAX_CONNECTIONS_PER_HOST);
+            removeUnlessExplicit(explicit, connectionParams, SolrConnectionParams.UPDATE_RUNNERS);
+            removeUnlessExplicit(explicit, connectionParams, SolrConnectionParams.UPDATE_QUEUE_SIZE);
+            removeUnlessExplicit(explicit, connectionParams, SolrConnectionParams.UPDATE_BATCH_SIZE);
 
             // remove any solr.shard.* parameter that wasn't set explicitly
             List<String> shardParams = Lists.newArrayList();
@@ -352,7 +356,13 @@ public abstract class AddOrUpdateIndexerCli extends BaseIndexCli {
                 SolrConnectionParams.SHARDER_TYPE,
                 SolrConnectionParams.ZOOKEEPER,
                 SolrConnectionParams.MAX_CONNECTIONS,
-                SolrConnectionParams.MAX_CONNECTIONS_PER_HOST
+                SolrConnectionParams.MAX_CONNECTIONS_PER_HOST,
+                SolrConnectionParams.REQUEST_WRITER,
+                SolrConnectionParams.REQUEST_COMPRESSION,
+                SolrConnectionParams.UPDATE_RUNNERS,
+                SolrConnectionParams.UPDATE_QUEUE_SIZE,
+                SolrConnectionParams.UPDATE_BATCH_SIZE,
+                SolrConnectionParams.CLOUD_LEADER_ROUTING
         );
         if (fixed.contains(param)) {
             return true;
@@ -52,4 +52,40 @@ public class SolrConnectionParams {
      */
     public static final String MAX_CONNECTIONS = "solr.conn.max";
 
+    /**
+     * The format in which update requests are sent to Solr: "xml" (the default), or "javabin". Javabin requests are
+     * cheaper to serialize, and are streamed to Solr while the documents are being serialized instead of being
+     * built completely in memory first.
+     */
+    public static final String REQUEST_WRITER = "solr.request.writer";
+
+    /**
+     * The compression of the bodies of requests sent to Solr: "none" (the default), "gzip" or "deflate". The servlet
+     * container in which Solr runs needs to decompress the requests according to their Content-Encoding header.
+     */
+    public static final String REQUEST_COMPRESSION = "solr.request.compression";
+
+    /**
+     * The number of threads per shard that stream updates to Solr in classic mode, each of them keeping a request in
+     * flight. 0 (the default) writes the updates on the indexer threads.
+     */
+    public static final String UPDATE_RUNNERS = "solr.update.runners";
+
+    /**
+     * The maximum number of updates that can be queued per shard for the update runner threads.
+     */
+    public static final String UPDATE_QUEUE_SIZE = "solr.update.queueSize";
+
+    /**
+     * The maximum number of documents that the update runner threads merge into a single request.
+     */
+    public static final String UPDATE_BATCH_SIZE = "solr.update.batchSize";
+
+    /**
+     * If {@link #MODE} is cloud, "true" sends the updates directly to the leaders of the shards that they belong to,
+     * instead of to any node of the collection. The leaders are only written concurrently if
+     * {@code hbaseindexer.indexer.shard.write.threads} is set, otherwise one after the other. Defaults to "false".
+     */
+    public static final String CLOUD_LEADER_ROUTING = "solr.cloud.leaderRouting";
+
 }
@@ -54,4 +54,32 @@ public class SolrConnectionParamUtil {
         return Integer.parseInt(Optional.fromNullable(connectionParameters.get(SolrConnectionParams.MAX_CONNECTIONS)).or("32"));
     }
 
+    public static String getSolrRequestWriter(Map<String, String> connectionParameters) {
+        return Optional.fromNullable(connectionParameters.get(SolrConnectionParams.REQUEST_WRITER)).or("xml").toLowerCase();
+    }
+
+    public static String getSolrRequestCompression(Map<String, String> connectionParameters) {
+        return Optional.fromNullable(connectionParameters.get(SolrConnectionParams.REQUEST_COMPRESSION)).or("none")
+                .toLowerCase();
+    }
+
+    public static boolean isSolrCloudLeaderRouting(Map<String, String> connectionParameters) {
+        return Boolean.parseBoolean(
+                Optional.fromNullable(connectionParameters.get(SolrConnectionParams.CLOUD_LEADER_ROUTING)).or("false"));
+    }
+
+    public static int getSolrUpdateRunners(Map<String, String> connectionParameters) {
+        return Integer.parseInt(Optional.fromNullable(connectionParameters.get(SolrConnectionParams.UPDATE_RUNNERS)).or("0"));
+    }
+
+    public static int getSolrUpdateQueueSize(Map<String, String> connectionParameters) {
+        return Integer.parseInt(
+                Optional.fromNullable(connectionParameters.get(SolrConnectionParams.UPDATE_QUEUE_SIZE)).or("100"));
+    }
+
+    public static int getSolrUpdateBatchSize(Map<String, String> connectionParameters) {
+        return Integer.parseInt(
+                Optional.fromNullable(connectionParameters.get(SolrConnectionParams.UPDATE_BATCH_SIZE)).or("500"));
+    }
+
 }
@@ -65,7 +65,16 @@ public class IndexerConf {
         /**
          * Never re-read a row to be indexed after a mutation event.
          */
-        NEVER
+        NEVER,
+
+        /**
+         * Send the changes of a mutation event to Solr as an atomic update of the existing document, if the mutation
+         * event itself does not include sufficient information to perform indexing. This requires a mapper that
+         * implements {@link com.ngdata.hbaseindexer.parse.AtomicUpdateMapper}, and a Solr schema in which all fields
+         * are stored. Changes that can't be expressed as an atomic update make the row be re-read, as with
+         * {@link #DYNAMIC}.
+         */
+        ATOMIC
     }
 
     public static final MappingType DEFAULT_MAPPING_TYPE = MappingType.ROW;
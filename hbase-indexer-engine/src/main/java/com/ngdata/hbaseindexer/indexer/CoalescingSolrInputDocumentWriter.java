@@ -0,0 +1,291 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static com.ngdata.hbaseindexer.metrics.IndexerMetricsUtil.metricName;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+/**
+ * Merges the adds and deletes that are written concurrently by the indexer threads into larger requests per shard,
+ * which are then written by a delegate writer.
+ * <p>
+ * The first thread that writes to a shard for which nothing is pending becomes responsible for flushing the pending
+ * updates of the shard. It waits until the maximum number of documents or bytes is reached, or until the linger time
+ * has passed, and then writes the merged updates with the delegate writer. Every thread that contributed to the
+ * flush blocks until the flush is done, and gets the exception if it failed. A write that returns normally has thus
+ * been written to Solr, which keeps the at-least-once guarantee of the indexing intact.
+ * <p>
+ * The error handling of the delegate applies to the merged requests: a document that is refused by Solr is logged
+ * and skipped by the direct Solr writers, other errors make all contributing writes fail.
+ * <p>
+ * Delete queries are passed on to the delegate directly.
+ */
+public class CoalescingSolrInputDocumentWriter implements SolrInputDocumentWriter {
+
+    private final SolrInputDocumentWriter delegate;
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final long lingerMillis;
+    private final Map<Integer, PendingAdds> pendingAdds = Maps.newHashMap();
+    private final Map<Integer, PendingDeletes> pendingDeletes = Maps.newHashMap();
+    private final Histogram flushSizeHistogram;
+
+    /**
+     * @param indexName name of the index, used for the metrics
+     * @param delegate writer to write the merged updates with
+     * @param maxDocuments number of documents (or deletes) after which the updates of a shard are flushed
+     * @param maxBytes estimated size (in bytes) after which the updates of a shard are flushed
+     * @param lingerMillis maximum time (in milliseconds) that updates wait for other updates to be merged with
+     */
+    public CoalescingSolrInputDocumentWriter(String indexName, SolrInputDocumentWriter delegate, int maxDocuments,
+            long maxBytes, long lingerMillis) {
+        Preconditions.checkArgument(maxDocuments > 0, "Max documents must be > 0");
+        Preconditions.checkArgument(maxBytes > 0, "Max bytes must be > 0");
+        Preconditions.checkArgument(lingerMillis >= 0, "Linger time must be >= 0");
+        this.delegate = delegate;
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.flushSizeHistogram = Metrics.newHistogram(metricName(getClass(), "Coalesced update size", indexName),
+                true);
+    }
+
+    @Override
+    public void add(int shard, Map<String, SolrInputDocument> inputDocumentMap) throws SolrServerException, IOException {
+        PendingAdds batch;
+        boolean leader = false;
+        synchronized (this) {
+            batch = pendingAdds.get(shard);
+            if (batch == null) {
+                batch = new PendingAdds(shard);
+                pendingAdds.put(shard, batch);
+                leader = true;
+            }
+            batch.add(inputDocumentMap);
+            if (batch.isFull()) {
+                closeBatch(pendingAdds, batch);
+            }
+        }
+        complete(batch, pendingAdds, leader);
+    }
+
+    @Override
+    public void deleteById(int shard, List<String> idsToDelete) throws SolrServerException, IOException {
+        PendingDeletes batch;
+        boolean leader = false;
+        synchronized (this) {
+            batch = pendingDeletes.get(shard);
+            if (batch == null) {
+                batch = new PendingDeletes(shard);
+                pendingDeletes.put(shard, batch);
+                leader = true;
+            }
+            batch.add(idsToDelete);
+            if (batch.isFull()) {
+                closeBatch(pendingDeletes, batch);
+            }
+        }
+        complete(batch, pendingDeletes, leader);
+    }
+
+    @Override
+    public void deleteByQuery(String deleteQuery) throws SolrServerException, IOException {
+        delegate.deleteByQuery(deleteQuery);
+    }
+
+    @Override
+    public void close() throws SolrServerException, IOException {
+        delegate.close();
+    }
+
+    /**
+     * Stop accepting updates in a batch, and wake up its leader. Must be called while holding the lock.
+     */
+    private void closeBatch(Map<Integer, ? extends Batch> pending, Batch batch) {
+        if (pending.get(batch.shard) == batch) {
+            pending.remove(batch.shard);
+        }
+        batch.closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Flush the batch if this thread is its leader, and wait for the outcome of the flush.
+     */
+    private void complete(Batch batch, Map<Integer, ? extends Batch> pending, boolean leader)
+            throws SolrServerException, IOException {
+        if (leader) {
+            awaitFlush(batch, pending);
+            Throwable failure = null;
+            try {
+                flushSizeHistogram.update(batch.size);
+                batch.flush();
+            } catch (Throwable t) {
+                failure = t;
+            }
+            batch.flushed(failure);
+        } else {
+            try {
+                batch.awaitFlushed();
+            } catch (InterruptedException e) {
+                // The updates may or may not get written, so they have to be considered as failed
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for Solr updates to be flushed");
+            }
+        }
+
+        Throwable failure = batch.failure;
+        if (failure instanceof SolrServerException) {
+            throw (SolrServerException)failure;
+        } else if (failure instanceof IOException) {
+            throw (IOException)failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if (failure instanceof Error) {
+            throw (Error)failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    /**
+     * Wait until a batch is full or has lingered long enough. The batch is closed when this returns.
+     */
+    private synchronized void awaitFlush(Batch batch, Map<Integer, ? extends Batch> pending) {
+        long deadline = System.currentTimeMillis() + lingerMillis;
+        long remaining = lingerMillis;
+        while (!batch.closed && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                // Flush right away, the other contributors depend on this thread
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        if (!batch.closed) {
+            closeBatch(pending, batch);
+        }
+    }
+
+    /**
+     * Estimate the size of a document in a request, only the field names and values are taken into account.
+     */
+    static long estimateSize(SolrInputDocument document) {
+        long size = 0;
+        for (SolrInputField field : document) {
+            size += field.getName().length();
+            for (Object value : field.getValues()) {
+                if (value instanceof byte[]) {
+                    size += ((byte[])value).length;
+                } else if (value != null) {
+                    size += value.toString().length();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * The updates for a shard that are flushed together.
+     */
+    private abstract class Batch {
+        private final CountDownLatch flushed = new CountDownLatch(1);
+        protected final int shard;
+        protected int size;
+        protected long bytes;
+        /** Closed batches don't accept any more updates, guarded by the lock of the writer. */
+        private boolean closed;
+        private volatile Throwable failure;
+
+        Batch(int shard) {
+            this.shard = shard;
+        }
+
+        boolean isFull() {
+            return size >= maxDocuments || bytes >= maxBytes;
+        }
+
+        abstract void flush() throws SolrServerException, IOException;
+
+        void flushed(Throwable failure) {
+            this.failure = failure;
+            flushed.countDown();
+        }
+
+        void awaitFlushed() throws InterruptedException {
+            flushed.await();
+        }
+    }
+
+    private class PendingAdds extends Batch {
+        private final Map<String, SolrInputDocument> documents = Maps.newLinkedHashMap();
+
+        PendingAdds(int shard) {
+            super(shard);
+        }
+
+        void add(Map<String, SolrInputDocument> inputDocumentMap) {
+            for (Map.Entry<String, SolrInputDocument> entry : inputDocumentMap.entrySet()) {
+                documents.put(entry.getKey(), entry.getValue());
+                bytes += estimateSize(entry.getValue());
+            }
+            size = documents.size();
+        }
+
+        @Override
+        void flush() throws SolrServerException, IOException {
+            delegate.add(shard, documents);
+        }
+    }
+
+    private class PendingDeletes extends Batch {
+        private final List<String> ids = Lists.newArrayList();
+
+        PendingDeletes(int shard) {
+            super(shard);
+        }
+
+        void add(List<String> idsToDelete) {
+            ids.addAll(idsToDelete);
+            for (String id : idsToDelete) {
+                bytes += id.length();
+            }
+            size = ids.size();
+        }
+
+        @Override
+        void flush() throws SolrServerException, IOException {
+            delegate.deleteById(shard, ids);
+        }
+    }
+
+}
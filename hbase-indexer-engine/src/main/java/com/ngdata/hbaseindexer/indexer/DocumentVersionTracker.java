@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Keeps track of the most recent HBase timestamp that has been indexed for each Solr document, so that stale events
+ * can be dropped before they are mapped and sent to Solr. Events become stale when HBase replays a batch of events,
+ * e.g. when retrying a shipment after a partial failure, after newer events of the same documents have already been
+ * indexed.
+ * <p>
+ * An event is only considered stale if its timestamps are strictly older than the indexed ones, so replays of the most
+ * recent changes are still indexed. This assumes that cells aren't written with explicit timestamps that are older
+ * than those of the cells that they replace.
+ * <p>
+ * The number of tracked documents is bounded: the least recently used documents are forgotten, and their events are
+ * never considered stale.
+ */
+public class DocumentVersionTracker {
+
+    private final Cache<String, Long> versions;
+
+    /**
+     * @param maxDocuments maximum number of documents to keep track of
+     */
+    public DocumentVersionTracker(long maxDocuments) {
+        Preconditions.checkArgument(maxDocuments > 0, "Max documents must be > 0");
+        this.versions = CacheBuilder.newBuilder().maximumSize(maxDocuments).build();
+    }
+
+    /**
+     * Determine if a change of a document is older than what has already been indexed for the document.
+     */
+    boolean isStale(String documentId, long timestamp) {
+        Long version = versions.getIfPresent(documentId);
+        return version != null && timestamp < version;
+    }
+
+    /**
+     * Record the versions of documents that have been indexed successfully. The events of a document are processed
+     * by one thread at a time, so there are no concurrent updates of the same document.
+     *
+     * @param documentVersions map of document ids to the most recent timestamp of their indexed changes
+     */
+    void update(Map<String, Long> documentVersions) {
+        for (Map.Entry<String, Long> entry : documentVersions.entrySet()) {
+            Long version = versions.getIfPresent(entry.getKey());
+            if (version == null || version < entry.getValue()) {
+                versions.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public long size() {
+        return versions.size();
+    }
+
+}
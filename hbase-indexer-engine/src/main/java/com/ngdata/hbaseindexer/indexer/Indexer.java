@@ -19,11 +19,18 @@ import static com.ngdata.hbaseindexer.metrics.IndexerMetricsUtil.metricName;
 import static com.ngdata.sep.impl.HBaseShims.newResult;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
@@ -35,17 +42,21 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
+import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
 import com.ngdata.hbaseindexer.ConfigureUtil;
 import com.ngdata.hbaseindexer.conf.IndexerConf;
 import com.ngdata.hbaseindexer.conf.IndexerConf.RowReadMode;
 import com.ngdata.hbaseindexer.metrics.IndexerMetricsUtil;
+import com.ngdata.hbaseindexer.parse.AtomicUpdateMapper;
 import com.ngdata.hbaseindexer.parse.ResultToSolrMapper;
 import com.ngdata.hbaseindexer.parse.SolrUpdateWriter;
 import com.ngdata.hbaseindexer.uniquekey.UniqueKeyFormatter;
 import com.ngdata.hbaseindexer.uniquekey.UniqueTableKeyFormatter;
 import com.ngdata.sep.util.io.Closer;
 import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.core.TimerContext;
 import org.apache.commons.logging.Log;
@@ -74,7 +85,10 @@ public abstract class Indexer {
     private SolrInputDocumentWriter solrWriter;
     protected ResultToSolrMapper mapper;
     protected UniqueKeyFormatter uniqueKeyFormatter;
+    protected DocumentVersionTracker versionTracker;
+    private ExecutorService shardWriteExecutor;
     private Timer indexingTimer;
+    protected Meter staleEventMeter;
 
 
     /**
@@ -82,11 +96,33 @@ public abstract class Indexer {
      */
     public static Indexer createIndexer(String indexerName, IndexerConf conf, String tableName, ResultToSolrMapper mapper,
                                         HTablePool tablePool, Sharder sharder, SolrInputDocumentWriter solrWriter) {
+        return createIndexer(indexerName, conf, tableName, mapper, tablePool, sharder, solrWriter, null, null, null,
+                null);
+    }
+
+    /**
+     * Instantiate an indexer based on the given {@link IndexerConf}.
+     *
+     * @param rowIndexingPipeline pipeline to read and map the rows of a batch with, only used for row-based indexing.
+     *        If null, the rows are read and mapped on the calling thread.
+     * @param rowCache cache of the rows that are re-read, only used for row-based indexing with a
+     *        {@link RowReadMode} other than {@link RowReadMode#NEVER}. If null, rows are always re-read from HBase.
+     * @param versionTracker tracks the indexed versions of documents to drop stale events. If null, all events are
+     *        indexed.
+     * @param shardWriteExecutor executor to write the updates for the different shards concurrently with, only used
+     *        with a sharder. If null, the shards are written one after the other.
+     */
+    public static Indexer createIndexer(String indexerName, IndexerConf conf, String tableName, ResultToSolrMapper mapper,
+                                        HTablePool tablePool, Sharder sharder, SolrInputDocumentWriter solrWriter,
+                                        RowIndexingPipeline rowIndexingPipeline, RowCache rowCache,
+                                        DocumentVersionTracker versionTracker, ExecutorService shardWriteExecutor) {
         switch (conf.getMappingType()) {
             case COLUMN:
-                return new ColumnBasedIndexer(indexerName, conf, tableName, mapper, sharder, solrWriter);
+                return new ColumnBasedIndexer(indexerName, conf, tableName, mapper, sharder, solrWriter,
+                        versionTracker, shardWriteExecutor);
             case ROW:
-                return new RowBasedIndexer(indexerName, conf, tableName, mapper, tablePool, sharder, solrWriter);
+                return new RowBasedIndexer(indexerName, conf, tableName, mapper, tablePool, sharder, solrWriter,
+                        rowIndexingPipeline, rowCache, versionTracker, shardWriteExecutor);
             default:
                 throw new IllegalStateException("Can't determine the type of indexing to use for mapping type "
                         + conf.getMappingType());
@@ -94,7 +130,8 @@ public abstract class Indexer {
     }
 
     Indexer(String indexerName, IndexerConf conf, String tableName, ResultToSolrMapper mapper, Sharder sharder,
-            SolrInputDocumentWriter solrWriter) {
+            SolrInputDocumentWriter solrWriter, DocumentVersionTracker versionTracker,
+            ExecutorService shardWriteExecutor) {
         this.indexerName = indexerName;
         this.conf = conf;
         this.tableName = tableName;
@@ -107,9 +144,13 @@ public abstract class Indexer {
         ConfigureUtil.configure(uniqueKeyFormatter, conf.getGlobalParams());
         this.sharder = sharder;
         this.solrWriter = solrWriter;
+        this.versionTracker = versionTracker;
+        this.shardWriteExecutor = shardWriteExecutor;
         this.indexingTimer = Metrics.newTimer(metricName(getClass(),
                 "Index update calculation timer", indexerName),
                 TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        this.staleEventMeter = Metrics.newMeter(metricName(getClass(), "Stale events", indexerName),
+                "Events dropped because newer changes were already indexed", TimeUnit.SECONDS);
 
     }
 
@@ -122,6 +163,13 @@ public abstract class Indexer {
         return indexerName;
     }
 
+    /**
+     * Returns the mapper that is used to map HBase data to Solr documents.
+     */
+    ResultToSolrMapper getMapper() {
+        return mapper;
+    }
+
 
     /**
      * Build all new documents and ids to delete based on a list of {@code RowData}s.
@@ -160,17 +208,21 @@ public abstract class Indexer {
             }
         } else {
             // with sharding
+            Map<Integer, Map<String, SolrInputDocument>> addsByShard = Collections.emptyMap();
+            Map<Integer, Collection<String>> idsByShard = Collections.emptyMap();
             if (!updateCollector.getDocumentsToAdd().isEmpty()) {
-                Map<Integer, Map<String, SolrInputDocument>> addsByShard = shardByMapKey(updateCollector.getDocumentsToAdd());
-                for (Map.Entry<Integer, Map<String, SolrInputDocument>> entry : addsByShard.entrySet()) {
-                    solrWriter.add(entry.getKey(), entry.getValue());
-                }
+                addsByShard = shardByMapKey(updateCollector.getDocumentsToAdd());
             }
             if (!updateCollector.getIdsToDelete().isEmpty()) {
-                Map<Integer, Collection<String>> idsByShard = shardByValue(updateCollector.getIdsToDelete());
-                for (Map.Entry<Integer, Collection<String>> entry : idsByShard.entrySet()) {
-                    solrWriter.deleteById(entry.getKey(), Lists.newArrayList(entry.getValue()));
+                idsByShard = shardByValue(updateCollector.getIdsToDelete());
+            }
+            Set<Integer> shards = Sets.union(addsByShard.keySet(), idsByShard.keySet());
+            if (shardWriteExecutor == null || shards.size() <= 1) {
+                for (Integer shard : shards) {
+                    writeShard(shard, addsByShard.get(shard), idsByShard.get(shard));
                 }
+            } else {
+                writeShardsConcurrently(shards, addsByShard, idsByShard);
             }
         }
 
@@ -178,6 +230,77 @@ public abstract class Indexer {
             solrWriter.deleteByQuery(deleteQuery);
         }
 
+        if (versionTracker != null) {
+            // Only now that the updates have been written, replays of the events can be considered stale
+            versionTracker.update(updateCollector.getDocumentVersions());
+        }
+
+    }
+
+    /**
+     * Write the adds and deletes for a single shard.
+     */
+    private void writeShard(int shard, Map<String, SolrInputDocument> adds, Collection<String> idsToDelete)
+            throws SolrServerException, IOException {
+        if (adds != null) {
+            solrWriter.add(shard, adds);
+        }
+        if (idsToDelete != null) {
+            solrWriter.deleteById(shard, Lists.newArrayList(idsToDelete));
+        }
+    }
+
+    /**
+     * Write the updates for each shard as a separate task on the shard write executor. All tasks are awaited, also
+     * when one of them fails, after which the first failure is thrown. The handling of errors within the writes for a
+     * shard, such as retrying the documents individually on a bad request, is left to the {@link SolrInputDocumentWriter}.
+     * When the indexer thread is interrupted, the remaining tasks are cancelled instead.
+     */
+    private void writeShardsConcurrently(Set<Integer> shards, final Map<Integer, Map<String, SolrInputDocument>> addsByShard,
+                                         final Map<Integer, Collection<String>> idsByShard)
+            throws SolrServerException, IOException {
+        List<Future<Void>> futures = Lists.newArrayListWithCapacity(shards.size());
+        for (final Integer shard : shards) {
+            futures.add(shardWriteExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    writeShard(shard, addsByShard.get(shard), idsByShard.get(shard));
+                    return null;
+                }
+            }));
+        }
+
+        Throwable failure = null;
+        try {
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // The indexer is being stopped, so don't wait for writes that might never complete
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing to the Solr shards");
+        }
+
+        if (failure instanceof SolrServerException) {
+            throw (SolrServerException)failure;
+        } else if (failure instanceof IOException) {
+            throw (IOException)failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if (failure instanceof Error) {
+            throw (Error)failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
     }
 
     /**
@@ -222,56 +345,188 @@ public abstract class Indexer {
     static class RowBasedIndexer extends Indexer {
 
         private HTablePool tablePool;
+        private RowIndexingPipeline pipeline;
+        private RowCache rowCache;
         private Timer rowReadTimer;
+        private Histogram rowReadBatchSize;
+        private Meter rowCacheHitMeter;
+        private Meter rowCacheMissMeter;
 
         public RowBasedIndexer(String indexerName, IndexerConf conf, String tableName, ResultToSolrMapper mapper,
                                HTablePool tablePool,
                                Sharder sharder, SolrInputDocumentWriter solrWriter) {
-            super(indexerName, conf, tableName, mapper, sharder, solrWriter);
+            this(indexerName, conf, tableName, mapper, tablePool, sharder, solrWriter, null, null, null, null);
+        }
+
+        public RowBasedIndexer(String indexerName, IndexerConf conf, String tableName, ResultToSolrMapper mapper,
+                               HTablePool tablePool, Sharder sharder, SolrInputDocumentWriter solrWriter,
+                               RowIndexingPipeline pipeline, RowCache rowCache,
+                               DocumentVersionTracker versionTracker, ExecutorService shardWriteExecutor) {
+            super(indexerName, conf, tableName, mapper, sharder, solrWriter, versionTracker, shardWriteExecutor);
             this.tablePool = tablePool;
+            this.pipeline = pipeline;
+            this.rowCache = conf.getRowReadMode() != RowReadMode.NEVER ? rowCache : null;
             rowReadTimer = Metrics.newTimer(metricName(getClass(), "Row read timer", indexerName), TimeUnit.MILLISECONDS,
                     TimeUnit.SECONDS);
+            rowReadBatchSize = Metrics.newHistogram(metricName(getClass(), "Row read batch size", indexerName), true);
+            rowCacheHitMeter = Metrics.newMeter(metricName(getClass(), "Row cache hits", indexerName),
+                    "Rows taken from the row cache instead of being re-read", TimeUnit.SECONDS);
+            rowCacheMissMeter = Metrics.newMeter(metricName(getClass(), "Row cache misses", indexerName),
+                    "Rows re-read because they were not (completely) in the row cache", TimeUnit.SECONDS);
         }
 
-        private Result readRow(RowData rowData) throws IOException {
-            TimerContext timerContext = rowReadTimer.time();
-            try {
-                HTableInterface table = tablePool.getTable(rowData.getTable());
+        /**
+         * Read the rows of a number of RowData's, with a single multi-get per table. The HBase client executes the
+         * gets of a multi-get per region server, and in parallel over the region servers.
+         *
+         * @return the results, in the same order as the given RowData's
+         */
+        private Result[] rereadRows(List<RowData> rowDatas) throws IOException {
+            // Group the rows per table, keeping track of their position in the list
+            Map<String, List<Integer>> positionsByTable = Maps.newHashMap();
+            for (int i = 0; i < rowDatas.size(); i++) {
+                String tableName = Bytes.toString(rowDatas.get(i).getTable());
+                List<Integer> positions = positionsByTable.get(tableName);
+                if (positions == null) {
+                    positions = Lists.newArrayList();
+                    positionsByTable.put(tableName, positions);
+                }
+                positions.add(i);
+            }
+
+            Result[] results = new Result[rowDatas.size()];
+            for (Entry<String, List<Integer>> tableEntry : positionsByTable.entrySet()) {
+                List<Integer> positions = tableEntry.getValue();
+                List<Get> gets = Lists.newArrayListWithCapacity(positions.size());
+                for (int position : positions) {
+                    gets.add(mapper.getGet(rowDatas.get(position).getRow()));
+                }
+
+                Result[] tableResults;
+                TimerContext timerContext = rowReadTimer.time();
                 try {
-                    Get get = mapper.getGet(rowData.getRow());
-                    return table.get(get);
+                    HTableInterface table = tablePool.getTable(Bytes.toBytes(tableEntry.getKey()));
+                    try {
+                        tableResults = table.get(gets);
+                    } finally {
+                        table.close();
+                    }
                 } finally {
-                    table.close();
+                    timerContext.stop();
+                }
+                rowReadBatchSize.update(gets.size());
+
+                for (int i = 0; i < positions.size(); i++) {
+                    results[positions.get(i)] = tableResults[i];
                 }
-            } finally {
-                timerContext.stop();
             }
+            return results;
         }
 
         @Override
         protected void calculateIndexUpdates(List<RowData> rowDataList, SolrUpdateCollector updateCollector) throws IOException {
 
-            Map<String, RowData> idToRowData = calculateUniqueEvents(rowDataList);
+            if (rowCache != null) {
+                // All events are applied to the cache, not only the last one for each row
+                for (RowData rowData : rowDataList) {
+                    rowCache.apply(rowData.getTable(), rowData.getRow(), getRelevantKeyValues(rowData));
+                }
+            }
+
+            Map<String, RowData> idToRowData = calculateUniqueEvents(rowDataList, updateCollector);
 
-            for (RowData rowData : idToRowData.values()) {
-                String tableName = new String(rowData.getTable(), Charsets.UTF_8);
+            if (conf.getRowReadMode() == RowReadMode.ATOMIC && mapper instanceof AtomicUpdateMapper) {
+                mapAtomicUpdates(rowDataList, idToRowData, updateCollector);
+            }
+
+            List<String> documentIds = Lists.newArrayList(idToRowData.keySet());
+            List<RowData> rowDatas = Lists.newArrayListWithCapacity(documentIds.size());
+            for (String documentId : documentIds) {
+                rowDatas.add(idToRowData.get(documentId));
+            }
+
+            if (pipeline == null || documentIds.size() <= pipeline.getChunkSize()) {
+                mapRows(documentIds, rowDatas, readRows(rowDatas), updateCollector);
+            } else {
+                int chunkSize = pipeline.getChunkSize();
+                List<RowChunk> chunks = Lists.newArrayList();
+                for (int start = 0; start < documentIds.size(); start += chunkSize) {
+                    int end = Math.min(start + chunkSize, documentIds.size());
+                    chunks.add(new RowChunk(documentIds.subList(start, end), rowDatas.subList(start, end)));
+                }
+                pipeline.execute(chunks);
+                for (RowChunk chunk : chunks) {
+                    updateCollector.addAll(chunk.updateCollector);
+                }
+            }
+        }
 
-                Result result = rowData.toResult();
-                if (conf.getRowReadMode() == RowReadMode.DYNAMIC) {
-                    if (!mapper.containsRequiredData(result)) {
-                        result = readRow(rowData);
+        /**
+         * Get the data to index for a number of rows. This is the data of the events themselves, unless the rows need
+         * to be re-read, in which case they are all re-read at once.
+         *
+         * @return the results, in the same order as the given RowData's
+         */
+        private Result[] readRows(List<RowData> rowDatas) throws IOException {
+            Result[] results = new Result[rowDatas.size()];
+
+            // Collect the rows that need to be re-read, so that they can be read all at once
+            List<Integer> rereadPositions = Lists.newArrayList();
+            List<RowData> rowDatasToReread = Lists.newArrayList();
+            for (int i = 0; i < rowDatas.size(); i++) {
+                RowData rowData = rowDatas.get(i);
+                results[i] = rowData.toResult();
+                if (conf.getRowReadMode() != RowReadMode.NEVER) {
+                    if (!mapper.containsRequiredData(results[i])) {
+                        Result cachedResult = rowCache != null ? rowCache.get(rowData.getTable(), rowData.getRow()) : null;
+                        if (cachedResult != null && mapper.containsRequiredData(cachedResult)) {
+                            // The events of the row have already been applied to the cached copy
+                            results[i] = cachedResult;
+                            rowCacheHitMeter.mark();
+                        } else {
+                            rereadPositions.add(i);
+                            rowDatasToReread.add(rowData);
+                        }
                     }
                 }
+            }
 
-                boolean rowDeleted = result.isEmpty();
+            if (!rowDatasToReread.isEmpty()) {
+                Result[] rereadResults = rereadRows(rowDatasToReread);
+                for (int i = 0; i < rereadPositions.size(); i++) {
+                    results[rereadPositions.get(i)] = rereadResults[i];
+                    if (rowCache != null) {
+                        RowData rowData = rowDatasToReread.get(i);
+                        rowCache.put(rowData.getTable(), rowData.getRow(), rereadResults[i]);
+                        rowCacheMissMeter.mark();
+                    }
+                }
+            }
+            return results;
+        }
 
-                String documentId;
-                if (uniqueKeyFormatter instanceof UniqueTableKeyFormatter) {
-                    documentId = ((UniqueTableKeyFormatter) uniqueKeyFormatter).formatRow(rowData.getRow(),
-                            rowData.getTable());
-                } else {
-                    documentId = uniqueKeyFormatter.formatRow(rowData.getRow());
+        /**
+         * Get the KeyValues of an event that can affect the rows as they are read for indexing.
+         */
+        private List<KeyValue> getRelevantKeyValues(RowData rowData) {
+            List<KeyValue> relevantKeyValues = Lists.newArrayList();
+            for (KeyValue kv : rowData.getKeyValues()) {
+                if (mapper.isRelevantKV(kv) || kv.isDelete()) {
+                    relevantKeyValues.add(kv);
                 }
+            }
+            return relevantKeyValues;
+        }
+
+        private void mapRows(List<String> documentIds, List<RowData> rowDatas, Result[] results,
+                             SolrUpdateCollector updateCollector) {
+            for (int i = 0; i < documentIds.size(); i++) {
+                RowData rowData = rowDatas.get(i);
+                String documentId = documentIds.get(i);
+                Result result = results[i];
+                String tableName = new String(rowData.getTable(), Charsets.UTF_8);
+
+                boolean rowDeleted = result.isEmpty();
 
                 if (rowDeleted) {
                     // Delete row from Solr as well
@@ -291,47 +546,152 @@ public abstract class Indexer {
             }
         }
 
+        /**
+         * Send the changes of rows as atomic updates of their Solr documents, for the rows of which the last event
+         * doesn't contain all data needed for the mapping. The rows that are handled this way are removed from the
+         * given map, the others are left to be read and mapped in full. When versions are tracked, changes that are
+         * older than what has already been indexed for a document are left out.
+         */
+        private void mapAtomicUpdates(List<RowData> rowDataList, Map<String, RowData> idToRowData,
+                                      SolrUpdateCollector updateCollector) {
+            // The changes of all events of a row are combined, not only those of its last event
+            Map<String, List<KeyValue>> idToKeyValues = Maps.newHashMap();
+            for (RowData rowData : rowDataList) {
+                String documentId = formatDocumentId(rowData);
+                if (!idToRowData.containsKey(documentId)) {
+                    continue;
+                }
+                List<KeyValue> keyValues = idToKeyValues.get(documentId);
+                if (keyValues == null) {
+                    keyValues = Lists.newArrayList();
+                    idToKeyValues.put(documentId, keyValues);
+                }
+                for (KeyValue kv : getRelevantKeyValues(rowData)) {
+                    // Stale events (or parts of them) would overwrite newer values of the document
+                    if (versionTracker == null || !versionTracker.isStale(documentId, kv.getTimestamp())) {
+                        keyValues.add(kv);
+                    }
+                }
+            }
+
+            AtomicUpdateMapper atomicUpdateMapper = (AtomicUpdateMapper)mapper;
+            for (Iterator<Entry<String, RowData>> it = idToRowData.entrySet().iterator(); it.hasNext();) {
+                Entry<String, RowData> entry = it.next();
+                String documentId = entry.getKey();
+                RowData rowData = entry.getValue();
+                if (mapper.containsRequiredData(rowData.toResult())) {
+                    continue;
+                }
+                SolrInputDocument atomicUpdate = atomicUpdateMapper.mapAtomicUpdate(idToKeyValues.get(documentId));
+                if (atomicUpdate == null) {
+                    // Will be re-read
+                    continue;
+                }
+                it.remove();
+                if (!atomicUpdate.isEmpty()) {
+                    new IdAddingSolrUpdateWriter(conf.getUniqueKeyField(), documentId, conf.getTableNameField(),
+                            new String(rowData.getTable(), Charsets.UTF_8), updateCollector).add(atomicUpdate);
+                }
+            }
+        }
+
+        /**
+         * A chunk of the rows of a batch, which is read and mapped by the {@link RowIndexingPipeline}. Every chunk
+         * collects its own updates, these are merged once all chunks are done.
+         */
+        private class RowChunk implements RowIndexingPipeline.Chunk {
+            private final List<String> documentIds;
+            private final List<RowData> rowDatas;
+            private final SolrUpdateCollector updateCollector;
+            private Result[] results;
+
+            RowChunk(List<String> documentIds, List<RowData> rowDatas) {
+                this.documentIds = documentIds;
+                this.rowDatas = rowDatas;
+                this.updateCollector = new SolrUpdateCollector(documentIds.size());
+            }
+
+            @Override
+            public void read() throws IOException {
+                results = readRows(rowDatas);
+            }
+
+            @Override
+            public void map() {
+                mapRows(documentIds, rowDatas, results, updateCollector);
+            }
+        }
+
         /**
          * Calculate a map of Solr document ids to relevant RowData, only taking the most recent event for each document id..
+         * When versions are tracked, the most recent event is the one with the most recent timestamp, and stale events
+         * are left out.
          */
-        private Map<String, RowData> calculateUniqueEvents(List<RowData> rowDataList) {
+        private Map<String, RowData> calculateUniqueEvents(List<RowData> rowDataList,
+                                                           SolrUpdateCollector updateCollector) {
             Map<String, RowData> idToEvent = Maps.newHashMap();
             for (RowData rowData : rowDataList) {
                 // Check if the event contains changes to relevant key values
                 boolean relevant = false;
+                long timestamp = Long.MIN_VALUE;
                 for (KeyValue kv : rowData.getKeyValues()) {
                     if (mapper.isRelevantKV(kv) || kv.isDelete()) {
                         relevant = true;
-                        break;
+                        if (versionTracker == null) {
+                            break;
+                        }
+                        timestamp = Math.max(timestamp, kv.getTimestamp());
                     }
                 }
 
                 if (!relevant) {
                     continue;
                 }
-                if (uniqueKeyFormatter instanceof UniqueTableKeyFormatter) {
-                    idToEvent.put(((UniqueTableKeyFormatter) uniqueKeyFormatter).formatRow(rowData.getRow(),
-                            rowData.getTable()), rowData);
-                } else {
-                    idToEvent.put(uniqueKeyFormatter.formatRow(rowData.getRow()), rowData);
+                String documentId = formatDocumentId(rowData);
+                if (versionTracker != null) {
+                    if (versionTracker.isStale(documentId, timestamp)) {
+                        staleEventMeter.mark();
+                        continue;
+                    }
+                    Long batchVersion = updateCollector.getDocumentVersions().get(documentId);
+                    if (batchVersion != null && timestamp < batchVersion) {
+                        // A more recent event of the row is already part of this batch
+                        continue;
+                    }
+                    updateCollector.recordVersion(documentId, timestamp);
                 }
+                idToEvent.put(documentId, rowData);
 
             }
             return idToEvent;
         }
 
+        private String formatDocumentId(RowData rowData) {
+            if (uniqueKeyFormatter instanceof UniqueTableKeyFormatter) {
+                return ((UniqueTableKeyFormatter) uniqueKeyFormatter).formatRow(rowData.getRow(), rowData.getTable());
+            } else {
+                return uniqueKeyFormatter.formatRow(rowData.getRow());
+            }
+        }
+
     }
 
     static class ColumnBasedIndexer extends Indexer {
 
         public ColumnBasedIndexer(String indexerName, IndexerConf conf, String tableName, ResultToSolrMapper mapper,
                                   Sharder sharder, SolrInputDocumentWriter solrWriter) {
-            super(indexerName, conf, tableName, mapper, sharder, solrWriter);
+            this(indexerName, conf, tableName, mapper, sharder, solrWriter, null, null);
+        }
+
+        public ColumnBasedIndexer(String indexerName, IndexerConf conf, String tableName, ResultToSolrMapper mapper,
+                                  Sharder sharder, SolrInputDocumentWriter solrWriter,
+                                  DocumentVersionTracker versionTracker, ExecutorService shardWriteExecutor) {
+            super(indexerName, conf, tableName, mapper, sharder, solrWriter, versionTracker, shardWriteExecutor);
         }
 
         @Override
         protected void calculateIndexUpdates(List<RowData> rowDataList, SolrUpdateCollector updateCollector) throws IOException {
-            Map<String, KeyValue> idToKeyValue = calculateUniqueEvents(rowDataList);
+            Map<String, KeyValue> idToKeyValue = calculateUniqueEvents(rowDataList, updateCollector);
             for (Entry<String, KeyValue> idToKvEntry : idToKeyValue.entrySet()) {
                 String documentId = idToKvEntry.getKey();
 
@@ -428,8 +788,11 @@ public abstract class Indexer {
 
         /**
          * Calculate a map of Solr document ids to KeyValue, only taking the most recent event for each document id.
+         * When versions are tracked, the most recent event is the one with the most recent timestamp, and stale events
+         * are left out.
          */
-        private Map<String, KeyValue> calculateUniqueEvents(List<RowData> rowDataList) {
+        private Map<String, KeyValue> calculateUniqueEvents(List<RowData> rowDataList,
+                                                            SolrUpdateCollector updateCollector) {
             Map<String, KeyValue> idToKeyValue = Maps.newHashMap();
             for (RowData rowData : rowDataList) {
                 for (KeyValue kv : rowData.getKeyValues()) {
@@ -441,6 +804,18 @@ public abstract class Indexer {
                             id = uniqueKeyFormatter.formatKeyValue(kv);
                         }
 
+                        if (versionTracker != null) {
+                            if (versionTracker.isStale(id, kv.getTimestamp())) {
+                                staleEventMeter.mark();
+                                continue;
+                            }
+                            KeyValue batchKeyValue = idToKeyValue.get(id);
+                            if (batchKeyValue != null && kv.getTimestamp() < batchKeyValue.getTimestamp()) {
+                                continue;
+                            }
+                            updateCollector.recordVersion(id, kv.getTimestamp());
+                        }
+
                         idToKeyValue.put(id, kv);
                     }
                 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.ngdata.hbaseindexer.parse.ResultToSolrMapper;
+import com.ngdata.sep.SepEventFilter;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * {@link SepEventFilter} for an indexer, which accepts the table (or tables) that the indexer is defined on, and the
+ * columns that are read by its {@link ResultToSolrMapper}.
+ * <p>
+ * The relevant columns are taken from the {@code Get} of the mapper, which covers all data that the mapper needs to
+ * build a document. If the mapper doesn't restrict the columns (e.g. because it needs the complete row), all columns
+ * are accepted. The filter doesn't keep a reference to the mapper, so the mapper can be closed once the filter has
+ * been created, and the filter itself holds no resources.
+ */
+public class IndexerEventFilter implements SepEventFilter {
+
+    /**
+     * Row for which the Get is requested from the mapper, only the columns of the Get are used.
+     */
+    private static final byte[] DUMMY_ROW = Bytes.toBytes("row");
+
+    private final byte[] tableNameBytes;
+    private final Pattern tableNamePattern;
+    /** Relevant families, or null if all columns are relevant. */
+    private final byte[][] families;
+    /** Sorted relevant qualifiers per family, or null for families of which all qualifiers are relevant. */
+    private final byte[][][] qualifiers;
+
+    /**
+     * @param targetTableNameExpression name of the table for which updates are to be indexed
+     * @param targetTableIsRegex flag to determine if the table name expression is a regular expression or not
+     * @param mapper the mapper of the indexer, can be null in which case all columns are accepted
+     */
+    public IndexerEventFilter(String targetTableNameExpression, boolean targetTableIsRegex, ResultToSolrMapper mapper) {
+        if (targetTableIsRegex) {
+            tableNamePattern = Pattern.compile(targetTableNameExpression);
+            tableNameBytes = null;
+        } else {
+            tableNamePattern = null;
+            tableNameBytes = Bytes.toBytes(targetTableNameExpression);
+        }
+
+        Get get = mapper != null ? mapper.getGet(DUMMY_ROW) : null;
+        if (get == null || !get.hasFamilies()) {
+            families = null;
+            qualifiers = null;
+        } else {
+            Map<byte[], NavigableSet<byte[]>> familyMap = get.getFamilyMap();
+            families = new byte[familyMap.size()][];
+            qualifiers = new byte[familyMap.size()][][];
+            int i = 0;
+            for (Map.Entry<byte[], NavigableSet<byte[]>> familyEntry : familyMap.entrySet()) {
+                families[i] = familyEntry.getKey();
+                NavigableSet<byte[]> familyQualifiers = familyEntry.getValue();
+                // The qualifier sets of a Get are sorted in byte order already
+                qualifiers[i] = familyQualifiers == null || familyQualifiers.isEmpty()
+                        ? null : familyQualifiers.toArray(new byte[familyQualifiers.size()][]);
+                i++;
+            }
+        }
+    }
+
+    @Override
+    public boolean acceptTable(byte[] table) {
+        if (tableNamePattern != null) {
+            return tableNamePattern.matcher(new String(table, Charsets.UTF_8)).matches();
+        } else {
+            return Bytes.equals(tableNameBytes, table);
+        }
+    }
+
+    @Override
+    public boolean acceptColumn(byte[] familyArray, int familyOffset, int familyLength, byte[] qualifierArray,
+            int qualifierOffset, int qualifierLength) {
+        if (families == null) {
+            return true;
+        }
+        for (int i = 0; i < families.length; i++) {
+            if (Bytes.compareTo(families[i], 0, families[i].length, familyArray, familyOffset, familyLength) == 0) {
+                return qualifiers[i] == null
+                        || containsQualifier(qualifiers[i], qualifierArray, qualifierOffset, qualifierLength);
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsQualifier(byte[][] sortedQualifiers, byte[] qualifierArray, int qualifierOffset,
+            int qualifierLength) {
+        int low = 0;
+        int high = sortedQualifiers.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            byte[] qualifier = sortedQualifiers[mid];
+            int cmp = Bytes.compareTo(qualifier, 0, qualifier.length, qualifierArray, qualifierOffset,
+                    qualifierLength);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import com.ngdata.hbaseindexer.ConfKeys;
+import com.ngdata.hbaseindexer.model.api.IndexerModel;
+import com.ngdata.hbaseindexer.model.impl.IndexerModelImpl;
+import com.ngdata.sep.WALEditFilter;
+import com.ngdata.sep.WALEditFilterProvider;
+import com.ngdata.sep.impl.EventFilterWALEditFilter;
+import com.ngdata.sep.util.zookeeper.ZkUtil;
+import com.ngdata.sep.util.zookeeper.ZooKeeperItf;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * {@link WALEditFilterProvider} that strips the WAL edits of indexer subscriptions down to the tables and columns
+ * that are used by the indexers, before they are shipped from the region server to the indexer processes.
+ * <p>
+ * This provider is picked up by the {@code SepReplicationSource} through the {@code ServiceLoader} system when the
+ * hbase-indexer jars are on the classpath of the region server. It reads the indexer definitions from ZooKeeper, which
+ * requires {@code hbaseindexer.zookeeper.connectstring} to be set in the hbase-site.xml or hbase-indexer-site.xml on
+ * the region server. Without it, or for subscriptions that are not used by any indexer, no filter is provided.
+ */
+public class IndexerWALEditFilterProvider implements WALEditFilterProvider {
+
+    private static final String DEFAULT_ZK_ROOT_NODE = "/ngdata/hbaseindexer";
+    private static final Log log = LogFactory.getLog(IndexerWALEditFilterProvider.class);
+
+    /**
+     * Shared by the replication sources of all subscriptions within the region server.
+     */
+    private static IndexerModel indexerModel;
+
+    @Override
+    public WALEditFilter getWALEditFilter(String subscriptionId) {
+        try {
+            IndexerModel model = getIndexerModel();
+            if (model == null || !SubscriptionEventFilter.hasIndexers(subscriptionId, model)) {
+                return null;
+            }
+            return new EventFilterWALEditFilter(new SubscriptionEventFilter(subscriptionId, model));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            log.warn("Error loading indexer definitions for subscription " + subscriptionId + ", not filtering", e);
+            return null;
+        }
+    }
+
+    private static synchronized IndexerModel getIndexerModel() throws Exception {
+        if (indexerModel == null) {
+            // Not using HBaseIndexerConfiguration, as hbase-indexer-default.xml is typically not available here
+            Configuration conf = new Configuration();
+            conf.addResource("hbase-site.xml");
+            conf.addResource("hbase-indexer-site.xml");
+            String zkConnectString = conf.get(ConfKeys.ZK_CONNECT_STRING);
+            if (zkConnectString == null) {
+                log.debug("No " + ConfKeys.ZK_CONNECT_STRING + " configured, not filtering indexer subscriptions");
+                return null;
+            }
+            ZooKeeperItf zk = ZkUtil.connect(zkConnectString, conf.getInt(ConfKeys.ZK_SESSION_TIMEOUT, 30000));
+            indexerModel = new IndexerModelImpl(zk, conf.get(ConfKeys.ZK_ROOT_NODE, DEFAULT_ZK_ROOT_NODE));
+        }
+        return indexerModel;
+    }
+
+}
@@ -17,37 +17,42 @@ package com.ngdata.hbaseindexer.indexer;
 
 import static com.ngdata.hbaseindexer.metrics.IndexerMetricsUtil.metricName;
 
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.ngdata.sep.EventListener;
+import com.ngdata.sep.FilteringEventListener;
+import com.ngdata.sep.LagAwareEventListener;
 import com.ngdata.sep.SepEvent;
+import com.ngdata.sep.SepEventFilter;
 import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.Meter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * SEP {@code EventListener} that sends all events through an {@link Indexer}
  * to create index documents.
  */
-public class IndexingEventListener implements EventListener {
+public class IndexingEventListener implements FilteringEventListener, LagAwareEventListener {
     
     protected Log log = LogFactory.getLog(getClass());
     
     private final Indexer indexer;
     private final Meter incomingEventsMeter;
     private final Meter applicableEventsMeter;
+    private final Histogram replicationLagHistogram;
+    private final ConcurrentMap<String, Histogram> replicationLagHistogramsBySource =
+            new ConcurrentHashMap<String, Histogram>();
+    private final IndexerEventFilter eventFilter;
     private Predicate<SepEvent> tableEqualityPredicate;
     
     /**
@@ -63,26 +68,42 @@ public class IndexingEventListener implements EventListener {
                 "Rate of incoming SEP events", TimeUnit.SECONDS);
         applicableEventsMeter = Metrics.newMeter(metricName(getClass(), "Applicable events", indexer.getName()),
                 "Rate of incoming SEP events that are considered applicable", TimeUnit.SECONDS);
+        replicationLagHistogram = Metrics.newHistogram(metricName(getClass(), "Replication lag", indexer.getName()),
+                true);
 
-        if (targetTableIsRegex) {
-            final Pattern tableNamePattern = Pattern.compile(targetTableNameExpression);
-            tableEqualityPredicate = new Predicate<SepEvent>() {
+        eventFilter = new IndexerEventFilter(targetTableNameExpression, targetTableIsRegex, indexer.getMapper());
+        tableEqualityPredicate = new Predicate<SepEvent>() {
+            @Override
+            public boolean apply(@Nullable SepEvent event) {
+                return eventFilter.acceptTable(event.getTable());
+            }
+        };
 
-                @Override
-                public boolean apply(@Nullable SepEvent event) {
-                    return tableNamePattern.matcher(new String(event.getTable(), Charsets.UTF_8)).matches();
-                }
-            };
-        } else {
-            final byte[] tableNameBytes = Bytes.toBytes(targetTableNameExpression);
-            tableEqualityPredicate = new Predicate<SepEvent>() {
-                @Override
-                public boolean apply(@Nullable SepEvent event) {
-                    return Bytes.equals(tableNameBytes, event.getTable());
-                }
-            };
-        }
+    }
 
+    /**
+     * Returns a filter that accepts the table(s) and columns that are relevant to the indexer, so that the SEP can
+     * skip all other data before creating events for it.
+     */
+    @Override
+    public SepEventFilter getEventFilter() {
+        return eventFilter;
+    }
+
+    /**
+     * Records the replication lag of processed shipments, both over all region servers and per region server.
+     */
+    @Override
+    public void shipmentProcessed(String source, long lag) {
+        replicationLagHistogram.update(lag);
+        Histogram sourceHistogram = replicationLagHistogramsBySource.get(source);
+        if (sourceHistogram == null) {
+            // Metrics returns the existing histogram if another thread created it concurrently
+            sourceHistogram = Metrics.newHistogram(
+                    metricName(getClass(), "Replication lag from " + source, indexer.getName()), true);
+            replicationLagHistogramsBySource.put(source, sourceHistogram);
+        }
+        sourceHistogram.update(lag);
     }
 
     @Override
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static com.ngdata.hbaseindexer.metrics.IndexerMetricsUtil.metricName;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.CloudSolrServer;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.RequestWriter;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.cloud.ClusterState;
+import org.apache.solr.common.cloud.DocCollection;
+import org.apache.solr.common.cloud.DocRouter;
+import org.apache.solr.common.cloud.Replica;
+import org.apache.solr.common.cloud.Slice;
+import org.apache.solr.common.cloud.ZkCoreNodeProps;
+import org.apache.solr.common.params.MapSolrParams;
+import org.apache.solr.common.params.SolrParams;
+
+/**
+ * Writes updates to SolrCloud by sending them directly to the leaders of the shards that they belong to, instead of
+ * letting an arbitrary node forward them to the leaders.
+ * <p>
+ * The updates are routed with the {@link DocRouter} of the collection, in the same way as SolrCloud routes them itself
+ * (and as ForkedSolrCloudPartitioner does for the MapReduce indexer). The cluster state is the one that is kept up to
+ * date by the {@link CloudSolrServer} through its ZooKeeper watches, so the routing follows changes in the cluster.
+ * The updates for the different leaders are written concurrently if an executor is given, otherwise they are written
+ * one leader after the other.
+ * <p>
+ * Updates that can't be routed, e.g. because a shard has no live leader, are written through the
+ * {@link CloudSolrServer}, as are the updates for a leader that fail with a Solr or connection error, since the
+ * leadership might have moved in the meantime. The error handling of {@link DirectSolrInputDocumentWriter} applies to
+ * all writes.
+ */
+public class LeaderRoutingSolrInputDocumentWriter implements SolrInputDocumentWriter {
+
+    private final Log log = LogFactory.getLog(getClass());
+    private final String indexName;
+    private final CloudSolrServer cloudSolrServer;
+    private final String collection;
+    private final RequestWriter requestWriter;
+    private final ExecutorService executor;
+    private final DirectSolrInputDocumentWriter cloudWriter;
+    private final SolrParams emptySolrParams = new MapSolrParams(Collections.<String, String>emptyMap());
+    /** Writers for the current leaders by core URL, guarded by the lock of this writer. */
+    private final Map<String, DirectSolrInputDocumentWriter> leaderWriters = Maps.newHashMap();
+    /** The cluster state from which the current leaders were determined, guarded by the lock of this writer. */
+    private ClusterState leaderClusterState;
+    private final Meter fallbackMeter;
+
+    /**
+     * @param indexName name of the index, used for the metrics
+     * @param cloudSolrServer server for the collection, which needs to have its default collection set
+     * @param requestWriter request writer to use for the requests to the leaders
+     * @param executor executor to write the updates of the different leaders concurrently, can be null
+     */
+    public LeaderRoutingSolrInputDocumentWriter(String indexName, CloudSolrServer cloudSolrServer,
+            RequestWriter requestWriter, ExecutorService executor) {
+        if (cloudSolrServer.getDefaultCollection() == null) {
+            throw new IllegalArgumentException("The SolrCloud server has no default collection");
+        }
+        this.indexName = indexName;
+        this.cloudSolrServer = cloudSolrServer;
+        this.collection = cloudSolrServer.getDefaultCollection();
+        this.requestWriter = requestWriter;
+        this.executor = executor;
+        this.cloudWriter = new DirectSolrInputDocumentWriter(indexName, cloudSolrServer);
+        this.fallbackMeter = Metrics.newMeter(metricName(getClass(), "Unrouted updates", indexName),
+                "Updates not sent directly to a shard leader", TimeUnit.SECONDS);
+        cloudSolrServer.connect();
+    }
+
+    @Override
+    public void add(final int shard, Map<String, SolrInputDocument> inputDocumentMap)
+            throws SolrServerException, IOException {
+        ClusterState clusterState = refreshLeaders();
+        DocCollection docCollection = getDocCollection(clusterState);
+        final Map<String, Map<String, SolrInputDocument>> addsByLeader = Maps.newHashMap();
+        Map<String, SolrInputDocument> unroutedAdds = Maps.newHashMap();
+        for (Map.Entry<String, SolrInputDocument> entry : inputDocumentMap.entrySet()) {
+            String leaderUrl = getLeaderUrl(clusterState, docCollection, entry.getKey(), entry.getValue());
+            Map<String, SolrInputDocument> adds = leaderUrl != null ? addsByLeader.get(leaderUrl) : unroutedAdds;
+            if (adds == null) {
+                adds = Maps.newHashMap();
+                addsByLeader.put(leaderUrl, adds);
+            }
+            adds.put(entry.getKey(), entry.getValue());
+        }
+
+        List<Callable<Void>> writes = Lists.newArrayList();
+        for (final String leaderUrl : addsByLeader.keySet()) {
+            writes.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Map<String, SolrInputDocument> adds = addsByLeader.get(leaderUrl);
+                    try {
+                        getLeaderWriter(leaderUrl).add(shard, adds);
+                    } catch (SolrServerException e) {
+                        writeAddsThroughCloud(leaderUrl, adds, e);
+                    } catch (IOException e) {
+                        writeAddsThroughCloud(leaderUrl, adds, e);
+                    } catch (SolrException e) {
+                        writeAddsThroughCloud(leaderUrl, adds, e);
+                    }
+                    return null;
+                }
+            });
+        }
+        if (!unroutedAdds.isEmpty()) {
+            fallbackMeter.mark(unroutedAdds.size());
+            final Map<String, SolrInputDocument> adds = unroutedAdds;
+            writes.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    cloudWriter.add(shard, adds);
+                    return null;
+                }
+            });
+        }
+        writeAll(writes);
+    }
+
+    private void writeAddsThroughCloud(String leaderUrl, Map<String, SolrInputDocument> adds, Exception cause)
+            throws SolrServerException, IOException {
+        log.warn("Error writing to shard leader " + leaderUrl + ", writing through SolrCloud instead", cause);
+        fallbackMeter.mark(adds.size());
+        cloudWriter.add(-1, adds);
+    }
+
+    @Override
+    public void deleteById(final int shard, List<String> idsToDelete) throws SolrServerException, IOException {
+        ClusterState clusterState = refreshLeaders();
+        DocCollection docCollection = getDocCollection(clusterState);
+        final Map<String, List<String>> idsByLeader = Maps.newHashMap();
+        List<String> unroutedIds = Lists.newArrayList();
+        for (String id : idsToDelete) {
+            String leaderUrl = getLeaderUrl(clusterState, docCollection, id, null);
+            List<String> ids = leaderUrl != null ? idsByLeader.get(leaderUrl) : unroutedIds;
+            if (ids == null) {
+                ids = Lists.newArrayList();
+                idsByLeader.put(leaderUrl, ids);
+            }
+            ids.add(id);
+        }
+
+        List<Callable<Void>> writes = Lists.newArrayList();
+        for (final String leaderUrl : idsByLeader.keySet()) {
+            writes.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    List<String> ids = idsByLeader.get(leaderUrl);
+                    try {
+                        getLeaderWriter(leaderUrl).deleteById(shard, ids);
+                    } catch (SolrServerException e) {
+                        writeDeletesThroughCloud(leaderUrl, ids, e);
+                    } catch (IOException e) {
+                        writeDeletesThroughCloud(leaderUrl, ids, e);
+                    } catch (SolrException e) {
+                        writeDeletesThroughCloud(leaderUrl, ids, e);
+                    }
+                    return null;
+                }
+            });
+        }
+        if (!unroutedIds.isEmpty()) {
+            fallbackMeter.mark(unroutedIds.size());
+            final List<String> ids = unroutedIds;
+            writes.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    cloudWriter.deleteById(shard, ids);
+                    return null;
+                }
+            });
+        }
+        writeAll(writes);
+    }
+
+    private void writeDeletesThroughCloud(String leaderUrl, List<String> ids, Exception cause)
+            throws SolrServerException, IOException {
+        log.warn("Error deleting from shard leader " + leaderUrl + ", deleting through SolrCloud instead", cause);
+        fallbackMeter.mark(ids.size());
+        cloudWriter.deleteById(-1, ids);
+    }
+
+    /**
+     * Delete queries need to go to all shards, so they are left to SolrCloud.
+     */
+    @Override
+    public void deleteByQuery(String deleteQuery) throws SolrServerException, IOException {
+        cloudWriter.deleteByQuery(deleteQuery);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            for (DirectSolrInputDocumentWriter leaderWriter : leaderWriters.values()) {
+                leaderWriter.close();
+            }
+            leaderWriters.clear();
+        }
+        cloudWriter.close();
+    }
+
+    /**
+     * Get the current cluster state, and drop the writers of nodes that are no longer leader if it changed.
+     */
+    private ClusterState refreshLeaders() {
+        ClusterState clusterState = cloudSolrServer.getZkStateReader().getClusterState();
+        DocCollection docCollection = getDocCollection(clusterState);
+
+        synchronized (this) {
+            if (clusterState != leaderClusterState) {
+                leaderClusterState = clusterState;
+                Set<String> leaderUrls = Sets.newHashSet();
+                if (docCollection != null) {
+                    for (Slice slice : docCollection.getSlices()) {
+                        String leaderUrl = getLeaderUrl(clusterState, slice);
+                        if (leaderUrl != null) {
+                            leaderUrls.add(leaderUrl);
+                        }
+                    }
+                }
+                for (String leaderUrl : Lists.newArrayList(leaderWriters.keySet())) {
+                    if (!leaderUrls.contains(leaderUrl)) {
+                        // The servers share the HTTP client of the cloud server, so closing them doesn't affect
+                        // requests that are still running
+                        leaderWriters.remove(leaderUrl).close();
+                    }
+                }
+            }
+        }
+        return clusterState;
+    }
+
+    /**
+     * @return the collection, or null if it is not known (e.g. because it is an alias)
+     */
+    private DocCollection getDocCollection(ClusterState clusterState) {
+        return clusterState != null && clusterState.hasCollection(collection)
+                ? clusterState.getCollection(collection) : null;
+    }
+
+    /**
+     * Get the core URL of the leader of the shard that a document belongs to.
+     *
+     * @param document the document, or null for a delete
+     * @return the URL, or null if the document can't be routed to a live leader
+     */
+    private String getLeaderUrl(ClusterState clusterState, DocCollection docCollection, String id,
+            SolrInputDocument document) {
+        if (docCollection == null || docCollection.getRouter() == null) {
+            return null;
+        }
+        Slice slice;
+        try {
+            slice = docCollection.getRouter().getTargetSlice(id, document, emptySolrParams, docCollection);
+        } catch (SolrException e) {
+            // Typically a router that can't route without a shard parameter
+            return null;
+        }
+        return slice != null ? getLeaderUrl(clusterState, slice) : null;
+    }
+
+    private String getLeaderUrl(ClusterState clusterState, Slice slice) {
+        Replica leader = slice.getLeader();
+        if (leader == null || !clusterState.liveNodesContain(leader.getNodeName())) {
+            return null;
+        }
+        return new ZkCoreNodeProps(leader).getCoreUrl();
+    }
+
+    private synchronized DirectSolrInputDocumentWriter getLeaderWriter(String leaderUrl) {
+        DirectSolrInputDocumentWriter leaderWriter = leaderWriters.get(leaderUrl);
+        if (leaderWriter == null) {
+            leaderWriter = createLeaderWriter(leaderUrl);
+            leaderWriters.put(leaderUrl, leaderWriter);
+        }
+        return leaderWriter;
+    }
+
+    /**
+     * Create the writer for the core of a shard leader.
+     */
+    DirectSolrInputDocumentWriter createLeaderWriter(String leaderUrl) {
+        HttpSolrServer leaderServer = new HttpSolrServer(leaderUrl, cloudSolrServer.getLbServer().getHttpClient());
+        leaderServer.setRequestWriter(requestWriter);
+        return new DirectSolrInputDocumentWriter(indexName, leaderServer);
+    }
+
+    /**
+     * Run the writes, concurrently if there is an executor, and throw the first failure once all of them are done.
+     */
+    private void writeAll(List<Callable<Void>> writes) throws SolrServerException, IOException {
+        Throwable failure = null;
+        if (executor == null || writes.size() <= 1) {
+            for (Callable<Void> write : writes) {
+                try {
+                    write.call();
+                } catch (Exception e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        } else {
+            List<Future<Void>> futures = Lists.newArrayListWithCapacity(writes.size());
+            for (Callable<Void> write : writes) {
+                futures.add(executor.submit(write));
+            }
+
+            try {
+                for (Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        if (failure == null) {
+                            failure = e.getCause();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The indexer is being stopped, so don't wait for writes that might never complete
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing to the shard leaders");
+            }
+        }
+
+        if (failure instanceof SolrServerException) {
+            throw (SolrServerException)failure;
+        } else if (failure instanceof IOException) {
+            throw (IOException)failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if (failure instanceof Error) {
+            throw (Error)failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Compresses the bodies of the requests sent to Solr with gzip or deflate. The compressed body is written while the
+ * original body is being produced, so streamed requests stay streamed.
+ * <p>
+ * Needs to run before the standard protocol interceptors, as these derive the Content-Length and Content-Encoding
+ * headers from the entity.
+ */
+class RequestCompressionInterceptor implements HttpRequestInterceptor {
+
+    private final String encoding;
+
+    /**
+     * @param encoding "gzip" or "deflate"
+     */
+    RequestCompressionInterceptor(String encoding) {
+        if (!encoding.equals("gzip") && !encoding.equals("deflate")) {
+            throw new IllegalArgumentException("Unsupported request compression: " + encoding);
+        }
+        this.encoding = encoding;
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+        HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest)request;
+        HttpEntity entity = entityRequest.getEntity();
+        // Entities that are already encoded are left alone, this is also the case when a request is retried
+        if (entity == null || entity.getContentEncoding() != null || request.containsHeader(HTTP.CONTENT_ENCODING)) {
+            return;
+        }
+        entityRequest.setEntity(new CompressingEntity(entity, encoding));
+    }
+
+    static class CompressingEntity extends HttpEntityWrapper {
+        private final String encoding;
+
+        CompressingEntity(HttpEntity entity, String encoding) {
+            super(entity);
+            this.encoding = encoding;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return new BasicHeader(HTTP.CONTENT_ENCODING, encoding);
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public boolean isChunked() {
+            return true;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            throw new UnsupportedOperationException("The compressed content can only be written");
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            DeflaterOutputStream compressingStream = encoding.equals("gzip")
+                    ? new GZIPOutputStream(outstream) : new DeflaterOutputStream(outstream);
+            wrappedEntity.writeTo(compressingStream);
+            // Don't close the stream, that is up to the connection
+            compressingStream.finish();
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static com.ngdata.sep.impl.HBaseShims.newResult;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A bounded, short-lived cache of the rows that were re-read by a row-based indexer, so that frequently updated rows
+ * don't have to be read from HBase again for each of their events.
+ * <p>
+ * The changes of incoming events are applied to the cached rows with the same timestamp semantics as HBase: a put
+ * replaces an older (or equally old) cell of its column, and delete column and delete family markers remove the
+ * cells they cover. A marker for a single version of a cell could uncover an older version, so it evicts the row.
+ * <p>
+ * This is only accurate when all events of a row are applied to the cache, in order. That holds as long as a row's
+ * events reach the same indexer process, which is the case except when HBase switches to another replication sink
+ * (for instance after a failure). The entries therefore expire after a fixed time after they were read, regardless
+ * of the events applied to them since.
+ * <p>
+ * Rows are partitioned over the indexer threads, so a row is never accessed by two threads at once.
+ */
+public class RowCache {
+
+    private final Cache<RowKey, CachedRow> cache;
+    private final long ttlMillis;
+
+    /**
+     * @param maxRows maximum number of rows in the cache
+     * @param ttlMillis time (in milliseconds) after which a row is read from HBase again
+     */
+    public RowCache(long maxRows, long ttlMillis) {
+        Preconditions.checkArgument(maxRows > 0, "Max rows must be > 0");
+        Preconditions.checkArgument(ttlMillis > 0, "TTL must be > 0");
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxRows)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .build();
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the cached copy of a row, or null if the row is not cached.
+     */
+    Result get(byte[] table, byte[] row) {
+        RowKey key = new RowKey(table, row);
+        CachedRow cachedRow = cache.getIfPresent(key);
+        if (cachedRow == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - cachedRow.readTime > ttlMillis) {
+            cache.invalidate(key);
+            return null;
+        }
+        return cachedRow.result;
+    }
+
+    /**
+     * Cache a row that was just read from HBase. Rows that don't exist are not cached.
+     */
+    void put(byte[] table, byte[] row, Result result) {
+        if (result.isEmpty()) {
+            return;
+        }
+        cache.put(new RowKey(table, row), new CachedRow(result, System.currentTimeMillis()));
+    }
+
+    /**
+     * Apply the changes of an event to the cached copy of its row, if the row is cached.
+     *
+     * @param keyValues the changes to apply, those that are not needed by the indexer can be left out
+     */
+    void apply(byte[] table, byte[] row, List<KeyValue> keyValues) {
+        if (keyValues.isEmpty()) {
+            return;
+        }
+        RowKey key = new RowKey(table, row);
+        CachedRow cachedRow = cache.getIfPresent(key);
+        if (cachedRow == null) {
+            return;
+        }
+
+        List<KeyValue> cells = Lists.newArrayList(cachedRow.result.list());
+        for (KeyValue keyValue : keyValues) {
+            byte type = keyValue.getType();
+            if (type == KeyValue.Type.Put.getCode()) {
+                applyPut(cells, keyValue);
+            } else if (type == KeyValue.Type.DeleteColumn.getCode()) {
+                removeCells(cells, keyValue, true);
+            } else if (type == KeyValue.Type.DeleteFamily.getCode()) {
+                removeCells(cells, keyValue, false);
+            } else {
+                // Deletes of a single version, or unknown types
+                cache.invalidate(key);
+                return;
+            }
+        }
+
+        if (cells.isEmpty()) {
+            // The row doesn't exist anymore, or at least none of the cells that are needed
+            cache.invalidate(key);
+        } else {
+            Collections.sort(cells, KeyValue.COMPARATOR);
+            cache.put(key, new CachedRow(newResult(cells), cachedRow.readTime));
+        }
+    }
+
+    private static void applyPut(List<KeyValue> cells, KeyValue put) {
+        byte[] family = put.getFamily();
+        byte[] qualifier = put.getQualifier();
+        for (Iterator<KeyValue> it = cells.iterator(); it.hasNext();) {
+            KeyValue cell = it.next();
+            if (cell.matchingColumn(family, qualifier)) {
+                if (cell.getTimestamp() > put.getTimestamp()) {
+                    // The cached cell is more recent than the put, e.g. because the row was read after it
+                    return;
+                }
+                it.remove();
+            }
+        }
+        cells.add(put);
+    }
+
+    private static void removeCells(List<KeyValue> cells, KeyValue delete, boolean column) {
+        byte[] family = delete.getFamily();
+        byte[] qualifier = delete.getQualifier();
+        for (Iterator<KeyValue> it = cells.iterator(); it.hasNext();) {
+            KeyValue cell = it.next();
+            boolean covered = column ? cell.matchingColumn(family, qualifier) : cell.matchingFamily(family);
+            if (covered && cell.getTimestamp() <= delete.getTimestamp()) {
+                it.remove();
+            }
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static class CachedRow {
+        private final Result result;
+        private final long readTime;
+
+        CachedRow(Result result, long readTime) {
+            this.result = result;
+            this.readTime = readTime;
+        }
+    }
+
+    private static class RowKey {
+        private final byte[] table;
+        private final byte[] row;
+        private final int hashCode;
+
+        RowKey(byte[] table, byte[] row) {
+            this.table = table;
+            this.row = row;
+            this.hashCode = 31 * Bytes.hashCode(table) + Bytes.hashCode(row);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof RowKey)) {
+                return false;
+            }
+            RowKey other = (RowKey)obj;
+            return Arrays.equals(row, other.row) && Arrays.equals(table, other.table);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the row reads and the mapping of row-based indexing as two overlapping stages, so that the HBase reads of
+ * one chunk of rows happen while the previous chunk is being mapped to Solr documents.
+ * <p>
+ * A batch of rows is divided into chunks by the {@link Indexer}. The chunks are read on a pool of I/O threads and,
+ * once read, mapped on a pool of mapping threads. The number of chunks of a batch that are in flight at the same time
+ * is bounded, and both pools have a bounded queue: when a pool is saturated, its work is executed by the thread that
+ * hands it over. The calling (SEP) thread thereby slows down instead of queueing up ever more work. The same happens
+ * once the pipeline has been shut down, so that the batches that are still being indexed complete.
+ * <p>
+ * A single pipeline can be shared by all indexers of a process.
+ */
+public class RowIndexingPipeline {
+
+    private final ThreadPoolExecutor readExecutor;
+    private final ThreadPoolExecutor mapExecutor;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+
+    /**
+     * @param readThreads number of threads that read rows from HBase
+     * @param mapThreads number of threads that map rows to Solr documents
+     * @param queueCapacity number of chunks that can be queued for each of the stages
+     * @param chunkSize number of rows that are read and mapped together
+     * @param maxChunksInFlight maximum number of chunks of a single batch that are being read or mapped at once
+     */
+    public RowIndexingPipeline(int readThreads, int mapThreads, int queueCapacity, int chunkSize,
+            int maxChunksInFlight) {
+        Preconditions.checkArgument(chunkSize > 0, "Chunk size must be > 0");
+        Preconditions.checkArgument(maxChunksInFlight > 0, "Max chunks in flight must be > 0");
+        this.readExecutor = createExecutor(readThreads, queueCapacity, "indexer-row-read-%d");
+        this.mapExecutor = createExecutor(mapThreads, queueCapacity, "indexer-row-map-%d");
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads, int queueCapacity, String nameFormat) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build(),
+                new RunInCallerPolicy());
+    }
+
+    /**
+     * Number of rows in a chunk. Batches of at most this size are not worth pipelining.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * The work for a chunk of rows.
+     */
+    interface Chunk {
+        /**
+         * Read the rows of the chunk, called on a read thread.
+         */
+        void read() throws IOException;
+
+        /**
+         * Map the rows of the chunk, called on a mapping thread once {@link #read()} has completed.
+         */
+        void map() throws IOException;
+    }
+
+    /**
+     * Run the given chunks through the pipeline, and wait until all of them have been mapped. If a chunk fails, no
+     * further chunks are started, and the first failure is thrown once the chunks in flight have completed.
+     */
+    void execute(List<? extends Chunk> chunks) throws IOException {
+        ChunkTracker tracker = new ChunkTracker();
+        try {
+            for (Chunk chunk : chunks) {
+                tracker.inFlight.acquire();
+                if (tracker.getFailure() != null) {
+                    tracker.inFlight.release();
+                    break;
+                }
+                tracker.chunkStarted();
+                readExecutor.execute(new ReadStage(chunk, tracker));
+            }
+            tracker.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the row indexing pipeline");
+        }
+
+        Throwable failure = tracker.getFailure();
+        if (failure instanceof IOException) {
+            throw (IOException)failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if (failure instanceof Error) {
+            throw (Error)failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    public void shutdown() {
+        readExecutor.shutdown();
+        mapExecutor.shutdown();
+    }
+
+    /**
+     * Tracks the chunks of a single batch.
+     */
+    private class ChunkTracker {
+        private final Semaphore inFlight = new Semaphore(maxChunksInFlight);
+        private int pendingChunks;
+        private Throwable failure;
+
+        synchronized void chunkStarted() {
+            pendingChunks++;
+        }
+
+        synchronized void chunkCompleted(Throwable chunkFailure) {
+            if (chunkFailure != null && failure == null) {
+                failure = chunkFailure;
+            }
+            pendingChunks--;
+            inFlight.release();
+            notifyAll();
+        }
+
+        synchronized Throwable getFailure() {
+            return failure;
+        }
+
+        synchronized void awaitCompletion() throws InterruptedException {
+            while (pendingChunks > 0) {
+                wait();
+            }
+        }
+    }
+
+    private class ReadStage implements Runnable {
+        private final Chunk chunk;
+        private final ChunkTracker tracker;
+
+        ReadStage(Chunk chunk, ChunkTracker tracker) {
+            this.chunk = chunk;
+            this.tracker = tracker;
+        }
+
+        @Override
+        public void run() {
+            try {
+                chunk.read();
+                mapExecutor.execute(new MapStage(chunk, tracker));
+            } catch (Throwable t) {
+                tracker.chunkCompleted(t);
+            }
+        }
+    }
+
+    private class MapStage implements Runnable {
+        private final Chunk chunk;
+        private final ChunkTracker tracker;
+
+        MapStage(Chunk chunk, ChunkTracker tracker) {
+            this.chunk = chunk;
+            this.tracker = tracker;
+        }
+
+        @Override
+        public void run() {
+            Throwable failure = null;
+            try {
+                chunk.map();
+            } catch (Throwable t) {
+                failure = t;
+            }
+            tracker.chunkCompleted(failure);
+        }
+    }
+
+}
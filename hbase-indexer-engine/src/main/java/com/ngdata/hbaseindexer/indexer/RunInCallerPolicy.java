@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Runs a rejected task in the thread that submitted it, also when the executor has been shut down.
+ * <p>
+ * {@link ThreadPoolExecutor.CallerRunsPolicy} silently discards the tasks that are submitted after a shutdown, which
+ * leaves callers that wait for the outcome of their tasks hanging forever. With this policy, every submitted task is
+ * run, so that work that is still being handed to a shared pool while it is shut down completes.
+ */
+public class RunInCallerPolicy implements RejectedExecutionHandler {
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+        task.run();
+    }
+
+}
@@ -17,10 +17,8 @@ package com.ngdata.hbaseindexer.indexer;
 
 import static com.ngdata.sep.impl.HBaseShims.newResult;
 
-import java.util.Collections;
 import java.util.List;
 
-import com.google.common.collect.Lists;
 import com.ngdata.sep.SepEvent;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Result;
@@ -56,21 +54,12 @@ public class SepEventRowData implements RowData {
      * Makes a HBase Result object based on the KeyValue's from the SEP event. Usually, this will only be used in
      * situations where only new data is written (or updates are complete row updates), so we don't expect any
      * delete-type key-values, but just to be sure we filter them out.
+     * <p>
+     * The Result is built from the cells of the event as they were received where the HBase version allows it.
      */
     @Override
     public Result toResult() {
-        
-        List<KeyValue> filteredKeyValues = Lists.newArrayListWithCapacity(sepEvent.getKeyValues().size());
-        
-        for (KeyValue kv : getKeyValues()) {
-            if (!kv.isDelete() && !kv.isDeleteFamily()) {
-                filteredKeyValues.add(kv);
-            }
-        }
-
-        // A Result object requires that the KeyValues are sorted (e.g., it does binary search on them)
-        Collections.sort(filteredKeyValues, KeyValue.COMPARATOR);
-        return newResult(filteredKeyValues);
+        return newResult(sepEvent);
     }
 
 }
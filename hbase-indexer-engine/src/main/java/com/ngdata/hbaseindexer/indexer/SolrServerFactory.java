@@ -25,26 +25,38 @@ import com.google.common.collect.Lists;
 import com.ngdata.hbaseindexer.SolrConnectionParams;
 import com.ngdata.hbaseindexer.util.solr.SolrConnectionParamUtil;
 import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
 import org.apache.solr.client.solrj.impl.CloudSolrServer;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.RequestWriter;
 
 /**
  * Create cloud or classic {@link SolrServer} instances from a map of solr connection parameters.
  */
 public class SolrServerFactory {
-    public static SolrServer createCloudSolrServer(Map<String, String> connectionParameters) throws MalformedURLException {
+    public static CloudSolrServer createCloudSolrServer(Map<String, String> connectionParameters) throws MalformedURLException {
         String solrZk = connectionParameters.get(SolrConnectionParams.ZOOKEEPER);
         CloudSolrServer solr = new CloudSolrServer(solrZk);
         String collection = connectionParameters.get(SolrConnectionParams.COLLECTION);
         solr.setDefaultCollection(collection);
+        solr.getLbServer().setRequestWriter(createRequestWriter(connectionParameters));
+        configureRequestCompression(connectionParameters, solr.getLbServer().getHttpClient());
         return solr;
     }
 
+    /**
+     * Create the servers for the shards of a classic Solr setup. Request compression, if configured, is installed on
+     * the given HttpClient.
+     */
     public static List<SolrServer> createHttpSolrServers(Map<String, String> connectionParams, HttpClient httpClient) {
+        configureRequestCompression(connectionParams, httpClient);
         List<SolrServer> result = Lists.newArrayList();
         for (String shard : SolrConnectionParamUtil.getShards(connectionParams)) {
-            result.add(new HttpSolrServer(shard, httpClient));
+            HttpSolrServer solrServer = new HttpSolrServer(shard, httpClient);
+            solrServer.setRequestWriter(createRequestWriter(connectionParams));
+            result.add(solrServer);
         }
         if (result.size() == 0) {
             throw new RuntimeException(
@@ -54,6 +66,32 @@ public class SolrServerFactory {
         return result;
     }
 
+    public static RequestWriter createRequestWriter(Map<String, String> connectionParams) {
+        String requestWriter = SolrConnectionParamUtil.getSolrRequestWriter(connectionParams);
+        if (requestWriter.equals("xml")) {
+            return new RequestWriter();
+        } else if (requestWriter.equals("javabin")) {
+            return new BinaryRequestWriter();
+        } else {
+            throw new RuntimeException("Only 'xml' and 'javabin' are valid values for "
+                    + SolrConnectionParams.REQUEST_WRITER + ", but got " + requestWriter);
+        }
+    }
+
+    private static void configureRequestCompression(Map<String, String> connectionParams, HttpClient httpClient) {
+        String compression = SolrConnectionParamUtil.getSolrRequestCompression(connectionParams);
+        if (compression.equals("none")) {
+            return;
+        } else if (!compression.equals("gzip") && !compression.equals("deflate")) {
+            throw new RuntimeException("Only 'none', 'gzip' and 'deflate' are valid values for "
+                    + SolrConnectionParams.REQUEST_COMPRESSION + ", but got " + compression);
+        } else if (!(httpClient instanceof AbstractHttpClient)) {
+            throw new RuntimeException("Request compression is not supported for " + httpClient.getClass().getName());
+        }
+        // The interceptor only compresses requests that aren't encoded yet, so installing it twice does no harm
+        ((AbstractHttpClient)httpClient).addRequestInterceptor(new RequestCompressionInterceptor(compression), 0);
+    }
+
     public static Sharder createSharder(Map<String, String> connectionParams, int numShards) throws SharderException {
         String sharderType = connectionParams.get(SolrConnectionParams.SHARDER_TYPE);
         if (sharderType == null || sharderType.equals("default")) {
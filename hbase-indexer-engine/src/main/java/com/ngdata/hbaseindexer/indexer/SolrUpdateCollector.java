@@ -34,6 +34,8 @@ public class SolrUpdateCollector {
 
     private List<String> deleteQueries;
 
+    private Map<String, Long> documentVersions;
+
     /**
      * Instantiate with an expected initial capacity of added and deleted documents.
      */
@@ -41,6 +43,7 @@ public class SolrUpdateCollector {
         documentsToAdd = Maps.newHashMapWithExpectedSize(initialSize);
         idsToDelete = Lists.newArrayListWithCapacity(initialSize);
         deleteQueries = Lists.newArrayList();
+        documentVersions = Maps.newHashMap();
     }
 
     /**
@@ -70,6 +73,33 @@ public class SolrUpdateCollector {
         deleteQueries.add(deleteQuery);
     }
 
+    /**
+     * Add all updates that were collected by another collector.
+     * 
+     * @param updateCollector collector to take the updates from
+     */
+    public void addAll(SolrUpdateCollector updateCollector) {
+        documentsToAdd.putAll(updateCollector.getDocumentsToAdd());
+        idsToDelete.addAll(updateCollector.getIdsToDelete());
+        deleteQueries.addAll(updateCollector.getDeleteQueries());
+        for (Map.Entry<String, Long> entry : updateCollector.getDocumentVersions().entrySet()) {
+            recordVersion(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Record the most recent HBase timestamp of the changes that the updates of a document are based on.
+     *
+     * @param documentId id of the updated document
+     * @param timestamp HBase timestamp of a change
+     */
+    public void recordVersion(String documentId, long timestamp) {
+        Long version = documentVersions.get(documentId);
+        if (version == null || version < timestamp) {
+            documentVersions.put(documentId, timestamp);
+        }
+    }
+
     /**
      * Get all documents to be added in batch.
      * 
@@ -97,4 +127,13 @@ public class SolrUpdateCollector {
         return deleteQueries;
     }
 
+    /**
+     * Get the most recent HBase timestamp of the changes of each updated document, as far as they were recorded.
+     *
+     * @return map of document ids to timestamps
+     */
+    public Map<String, Long> getDocumentVersions() {
+        return documentVersions;
+    }
+
 }
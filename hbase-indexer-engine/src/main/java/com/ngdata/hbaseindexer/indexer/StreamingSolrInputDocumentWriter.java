@@ -0,0 +1,364 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static com.ngdata.hbaseindexer.metrics.IndexerMetricsUtil.metricName;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Keeps a number of requests in flight to each shard, by handing the updates to runner threads that are dedicated to
+ * the shard.
+ * <p>
+ * Each shard has a bounded queue of updates and a fixed number of runner threads. A runner takes the next update from
+ * the queue, merges it with the queued updates of the same kind up to the maximum batch size, and writes them with the
+ * delegate writer. With a delegate on top of a pooled HTTP client, every runner keeps its own persistent connection
+ * to the shard, so there are as many requests in flight per shard as there are runners. Writers block when the queue
+ * of a shard is full.
+ * <p>
+ * Updates can be submitted asynchronously with a callback that is told when the update has been flushed to Solr, or
+ * when it failed. The {@link SolrInputDocumentWriter} methods wait for the outcome, so that a write that returns
+ * normally has been written to Solr and the at-least-once guarantee of the indexing is kept. The error handling of the
+ * delegate applies to the merged requests.
+ * <p>
+ * Updates of the same shard can be written in a different order than they are submitted in. This is fine for the
+ * indexer, since the events of a row are handled by a single thread, which waits for its writes to complete.
+ */
+public class StreamingSolrInputDocumentWriter implements SolrInputDocumentWriter {
+
+    /**
+     * Is told about the outcome of an asynchronously submitted update. Called on a runner thread, so implementations
+     * should return quickly.
+     */
+    public interface UpdateCallback {
+        /**
+         * The update has been written to Solr.
+         */
+        void onFlushed();
+
+        /**
+         * The update could not be written to Solr.
+         */
+        void onError(Throwable failure);
+    }
+
+    private final Log log = LogFactory.getLog(getClass());
+    private final String indexName;
+    private final SolrInputDocumentWriter delegate;
+    private final int queueSize;
+    private final int runnersPerShard;
+    private final int maxBatchSize;
+    private final Map<Integer, ShardUpdater> shardUpdaters = Maps.newHashMap();
+    private final Histogram batchSizeHistogram;
+    /** Number of submitted updates whose outcome isn't known yet, guarded by the lock of the writer. */
+    private int pendingUpdates;
+    private boolean closed;
+
+    /**
+     * @param indexName name of the index, used for the metrics and the names of the runner threads
+     * @param delegate writer that writes the updates to Solr
+     * @param queueSize maximum number of updates that can be queued for a shard
+     * @param runnersPerShard number of threads that write the updates of a shard
+     * @param maxBatchSize maximum number of documents (or deletes) that are merged into a single request
+     */
+    public StreamingSolrInputDocumentWriter(String indexName, SolrInputDocumentWriter delegate, int queueSize,
+            int runnersPerShard, int maxBatchSize) {
+        Preconditions.checkArgument(queueSize > 0, "Queue size must be > 0");
+        Preconditions.checkArgument(runnersPerShard > 0, "Runners per shard must be > 0");
+        Preconditions.checkArgument(maxBatchSize > 0, "Max batch size must be > 0");
+        this.indexName = indexName;
+        this.delegate = delegate;
+        this.queueSize = queueSize;
+        this.runnersPerShard = runnersPerShard;
+        this.maxBatchSize = maxBatchSize;
+        this.batchSizeHistogram = Metrics.newHistogram(metricName(getClass(), "Streamed update size", indexName), true);
+    }
+
+    @Override
+    public void add(int shard, Map<String, SolrInputDocument> inputDocumentMap) throws SolrServerException, IOException {
+        Completion completion = new Completion();
+        addAsync(shard, inputDocumentMap, completion);
+        completion.await();
+    }
+
+    @Override
+    public void deleteById(int shard, List<String> idsToDelete) throws SolrServerException, IOException {
+        Completion completion = new Completion();
+        deleteByIdAsync(shard, idsToDelete, completion);
+        completion.await();
+    }
+
+    /**
+     * Submit documents to be added to a shard, blocks while the queue of the shard is full.
+     */
+    public void addAsync(int shard, Map<String, SolrInputDocument> inputDocumentMap, UpdateCallback callback)
+            throws InterruptedIOException {
+        submit(shard, new Update(inputDocumentMap, null, callback));
+    }
+
+    /**
+     * Submit document ids to be deleted from a shard, blocks while the queue of the shard is full.
+     */
+    public void deleteByIdAsync(int shard, List<String> idsToDelete, UpdateCallback callback)
+            throws InterruptedIOException {
+        submit(shard, new Update(null, idsToDelete, callback));
+    }
+
+    /**
+     * Delete queries are written directly, once all submitted updates have been flushed.
+     */
+    @Override
+    public void deleteByQuery(String deleteQuery) throws SolrServerException, IOException {
+        flush();
+        delegate.deleteByQuery(deleteQuery);
+    }
+
+    /**
+     * Wait until there are no more updates for which the outcome isn't known yet.
+     */
+    public synchronized void flush() throws InterruptedIOException {
+        while (pendingUpdates > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for Solr updates to be flushed");
+            }
+        }
+    }
+
+    /**
+     * Flush the submitted updates, stop the runner threads and close the delegate.
+     */
+    @Override
+    public void close() throws SolrServerException, IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                for (ShardUpdater shardUpdater : shardUpdaters.values()) {
+                    shardUpdater.stop();
+                }
+            }
+            delegate.close();
+        }
+    }
+
+    private void submit(int shard, Update update) throws InterruptedIOException {
+        ShardUpdater shardUpdater;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Writer for index " + indexName + " is closed");
+            }
+            shardUpdater = shardUpdaters.get(shard);
+            if (shardUpdater == null) {
+                shardUpdater = new ShardUpdater(shard);
+                shardUpdaters.put(shard, shardUpdater);
+            }
+            pendingUpdates++;
+        }
+        try {
+            shardUpdater.queue.put(update);
+        } catch (InterruptedException e) {
+            updatesCompleted(1);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing Solr updates");
+        }
+    }
+
+    private synchronized void updatesCompleted(int count) {
+        pendingUpdates -= count;
+        if (pendingUpdates == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Adds or deletes of a single writer.
+     */
+    private static class Update {
+        private final Map<String, SolrInputDocument> documents;
+        private final List<String> idsToDelete;
+        private final UpdateCallback callback;
+
+        Update(Map<String, SolrInputDocument> documents, List<String> idsToDelete, UpdateCallback callback) {
+            this.documents = documents;
+            this.idsToDelete = idsToDelete;
+            this.callback = callback;
+        }
+
+        boolean isAdd() {
+            return documents != null;
+        }
+
+        int size() {
+            return isAdd() ? documents.size() : idsToDelete.size();
+        }
+    }
+
+    /**
+     * The queue and runner threads of a shard.
+     */
+    private class ShardUpdater implements Runnable {
+        private final int shard;
+        private final BlockingQueue<Update> queue = new ArrayBlockingQueue<Update>(queueSize);
+        private final List<Thread> runners = Lists.newArrayList();
+
+        ShardUpdater(int shard) {
+            this.shard = shard;
+            String nameFormat = "solr-update-" + indexName + "-shard" + shard + "-%d";
+            ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+            for (int i = 0; i < runnersPerShard; i++) {
+                Thread runner = threadFactory.newThread(this);
+                runners.add(runner);
+                runner.start();
+            }
+        }
+
+        void stop() {
+            for (Thread runner : runners) {
+                runner.interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            // An update of the other kind than the batch that was being built, it starts the next batch
+            Update next = null;
+            while (true) {
+                List<Update> batch = Lists.newArrayList();
+                try {
+                    batch.add(next != null ? next : queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                next = null;
+                boolean adds = batch.get(0).isAdd();
+                int batchSize = batch.get(0).size();
+                while (batchSize < maxBatchSize) {
+                    Update update = queue.poll();
+                    if (update == null) {
+                        break;
+                    } else if (update.isAdd() != adds) {
+                        next = update;
+                        break;
+                    }
+                    batch.add(update);
+                    batchSize += update.size();
+                }
+                write(batch, adds, batchSize);
+            }
+        }
+
+        private void write(List<Update> batch, boolean adds, int batchSize) {
+            Throwable failure = null;
+            try {
+                batchSizeHistogram.update(batchSize);
+                if (adds) {
+                    Map<String, SolrInputDocument> documents = Maps.newLinkedHashMap();
+                    for (Update update : batch) {
+                        documents.putAll(update.documents);
+                    }
+                    delegate.add(shard, documents);
+                } else {
+                    List<String> idsToDelete = Lists.newArrayList();
+                    for (Update update : batch) {
+                        idsToDelete.addAll(update.idsToDelete);
+                    }
+                    delegate.deleteById(shard, idsToDelete);
+                }
+            } catch (Throwable t) {
+                failure = t;
+            }
+
+            for (Update update : batch) {
+                try {
+                    if (failure == null) {
+                        update.callback.onFlushed();
+                    } else {
+                        update.callback.onError(failure);
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Error in Solr update callback", e);
+                }
+            }
+            updatesCompleted(batch.size());
+        }
+    }
+
+    /**
+     * Callback that allows a writer to wait for the outcome of its update.
+     */
+    private static class Completion implements UpdateCallback {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable failure;
+
+        @Override
+        public void onFlushed() {
+            done.countDown();
+        }
+
+        @Override
+        public void onError(Throwable failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        void await() throws SolrServerException, IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                // The update may or may not get written, so it has to be considered as failed
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for Solr updates to be flushed");
+            }
+
+            if (failure instanceof SolrServerException) {
+                throw (SolrServerException)failure;
+            } else if (failure instanceof IOException) {
+                throw (IOException)failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException)failure;
+            } else if (failure instanceof Error) {
+                throw (Error)failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.ngdata.hbaseindexer.conf.IndexerComponentFactory;
+import com.ngdata.hbaseindexer.conf.IndexerComponentFactoryUtil;
+import com.ngdata.hbaseindexer.conf.IndexerConf;
+import com.ngdata.hbaseindexer.model.api.IndexerDefinition;
+import com.ngdata.hbaseindexer.model.api.IndexerModel;
+import com.ngdata.hbaseindexer.model.api.IndexerModelEvent;
+import com.ngdata.hbaseindexer.model.api.IndexerModelListener;
+import com.ngdata.hbaseindexer.parse.ResultToSolrMapper;
+import com.ngdata.sep.SepEventFilter;
+import com.ngdata.sep.util.io.Closer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link SepEventFilter} that accepts everything that is relevant to any of the indexers that consume a given SEP
+ * subscription.
+ * <p>
+ * The indexer definitions are followed via the {@link IndexerModel}: when an indexer changes, the filter is rebuilt
+ * upon its next use (rather than from the model listener, as building the mappers can be expensive). Whenever it
+ * is unclear what an indexer needs, e.g. because its configuration can't be read or because there are no indexers
+ * for the subscription, all data is accepted.
+ */
+public class SubscriptionEventFilter implements SepEventFilter, IndexerModelListener {
+
+    private final Log log = LogFactory.getLog(getClass());
+    private final String subscriptionId;
+    private final IndexerModel indexerModel;
+    private volatile boolean stale = true;
+    /** Filters of the indexers on the subscription, or null if all data is to be accepted. */
+    private volatile SepEventFilter[] indexerFilters;
+
+    public SubscriptionEventFilter(String subscriptionId, IndexerModel indexerModel) {
+        this.subscriptionId = subscriptionId;
+        this.indexerModel = indexerModel;
+        indexerModel.registerListener(this);
+    }
+
+    /**
+     * Returns true if any indexer currently consumes the given subscription.
+     */
+    public static boolean hasIndexers(String subscriptionId, IndexerModel indexerModel) {
+        for (IndexerDefinition indexerDef : indexerModel.getIndexers()) {
+            if (subscriptionId.equals(indexerDef.getSubscriptionId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void process(IndexerModelEvent event) {
+        stale = true;
+    }
+
+    @Override
+    public boolean acceptTable(byte[] table) {
+        SepEventFilter[] filters = getIndexerFilters();
+        if (filters == null) {
+            return true;
+        }
+        for (SepEventFilter filter : filters) {
+            if (filter.acceptTable(table)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean acceptColumn(byte[] familyArray, int familyOffset, int familyLength, byte[] qualifierArray,
+            int qualifierOffset, int qualifierLength) {
+        SepEventFilter[] filters = getIndexerFilters();
+        if (filters == null) {
+            return true;
+        }
+        for (SepEventFilter filter : filters) {
+            if (filter.acceptColumn(familyArray, familyOffset, familyLength, qualifierArray, qualifierOffset,
+                    qualifierLength)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private SepEventFilter[] getIndexerFilters() {
+        if (stale) {
+            rebuild();
+        }
+        return indexerFilters;
+    }
+
+    private synchronized void rebuild() {
+        if (!stale) {
+            return;
+        }
+        // Reset the flag first, so that changes that come in while rebuilding cause another rebuild
+        stale = false;
+        List<SepEventFilter> filters = Lists.newArrayList();
+        for (IndexerDefinition indexerDef : indexerModel.getIndexers()) {
+            if (!subscriptionId.equals(indexerDef.getSubscriptionId())) {
+                continue;
+            }
+            SepEventFilter filter = createIndexerFilter(indexerDef);
+            if (filter == null) {
+                indexerFilters = null;
+                return;
+            }
+            filters.add(filter);
+        }
+        if (filters.isEmpty()) {
+            log.info("No indexers found for subscription " + subscriptionId + ", not filtering");
+            indexerFilters = null;
+        } else {
+            indexerFilters = filters.toArray(new SepEventFilter[filters.size()]);
+        }
+    }
+
+    /**
+     * Create the filter for a single indexer, returns null if all data should be accepted for it.
+     */
+    SepEventFilter createIndexerFilter(IndexerDefinition indexerDef) {
+        try {
+            IndexerComponentFactory factory = IndexerComponentFactoryUtil.getComponentFactory(
+                    indexerDef.getIndexerComponentFactory(), new ByteArrayInputStream(indexerDef.getConfiguration()),
+                    indexerDef.getConnectionParams());
+            IndexerConf indexerConf = factory.createIndexerConf();
+            // The filter only takes the relevant columns from the mapper, so the mapper is closed right away
+            ResultToSolrMapper mapper = factory.createMapper(indexerDef.getName());
+            try {
+                return new IndexerEventFilter(indexerConf.getTable(), indexerConf.tableNameIsRegex(), mapper);
+            } finally {
+                Closer.close(mapper);
+            }
+        } catch (Throwable t) {
+            log.warn("Error creating event filter for indexer " + indexerDef.getName() + ", not filtering", t);
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionEventFilter[" + subscriptionId + "]";
+    }
+
+}
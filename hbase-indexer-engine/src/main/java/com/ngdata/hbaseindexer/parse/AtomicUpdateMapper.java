@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.parse;
+
+import java.util.List;
+
+import com.ngdata.hbaseindexer.conf.IndexerConf.RowReadMode;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Implemented by {@link ResultToSolrMapper}s that can map the changes of a row to a Solr atomic update of its
+ * document, instead of mapping the complete row. Used for row-based indexing with {@link RowReadMode#ATOMIC}.
+ */
+public interface AtomicUpdateMapper {
+
+    /**
+     * Map the changed KeyValues of a row to an atomic update of its Solr document.
+     *
+     * <p>The document does not need to contain the ID (unique key) for Solr, this will be added by the indexer.</p>
+     *
+     * @param keyValues the changed KeyValues of the row, puts as well as deletes
+     * @return the atomic update, an empty document if the changes don't affect the Solr document, or null if the
+     *         changes can't be expressed as an atomic update, in which case the complete row is mapped
+     */
+    SolrInputDocument mapAtomicUpdate(List<KeyValue> keyValues);
+}
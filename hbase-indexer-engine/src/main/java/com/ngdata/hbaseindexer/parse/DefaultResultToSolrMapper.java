@@ -19,9 +19,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.ngdata.hbaseindexer.ConfigureUtil;
 import com.ngdata.hbaseindexer.conf.DocumentExtractDefinition;
 import com.ngdata.hbaseindexer.conf.FieldDefinition;
@@ -40,12 +42,17 @@ import static com.ngdata.sep.impl.HBaseShims.newGet;
 /**
  * Parses HBase {@code Result} objects into a structure of fields and values.
  */
-public class DefaultResultToSolrMapper implements ResultToSolrMapper {
+public class DefaultResultToSolrMapper implements ResultToSolrMapper, AtomicUpdateMapper {
     
     /**
      * Map of Solr field names to transformers for extracting data from HBase {@code Result} objects.
      */
-    private List<SolrDocumentExtractor> resultDocumentExtractors;
+    private List<HBaseSolrDocumentExtractor> resultDocumentExtractors;
+
+    /**
+     * Names of the Solr fields that are filled in by more than one field definition.
+     */
+    private Set<String> sharedFieldNames;
 
     /**
      * Information to be used for constructing a Get to fetch data required for indexing.
@@ -69,7 +76,12 @@ public class DefaultResultToSolrMapper implements ResultToSolrMapper {
             List<DocumentExtractDefinition> documentExtractDefinitions) {
         extractors = Lists.newArrayList();
         resultDocumentExtractors = Lists.newArrayList();
+        sharedFieldNames = Sets.newHashSet();
+        Set<String> fieldNames = Sets.newHashSet();
         for (FieldDefinition fieldDefinition : fieldDefinitions) {
+            if (!fieldNames.add(fieldDefinition.getName())) {
+                sharedFieldNames.add(fieldDefinition.getName());
+            }
             ByteArrayExtractor byteArrayExtractor = ByteArrayExtractors.getExtractor(
                     fieldDefinition.getValueExpression(), fieldDefinition.getValueSource());
             ByteArrayValueMapper valueMapper = ByteArrayValueMappers.getMapper(fieldDefinition.getTypeName());
@@ -155,4 +167,45 @@ public class DefaultResultToSolrMapper implements ResultToSolrMapper {
         }
     }
 
+    /**
+     * Map the changes of a row to an atomic update that sets the fields that come from the changed columns. This is
+     * only possible when each of the affected fields comes from a single column, and when the changes are puts and
+     * deletes of complete columns: other deletes can uncover older values or delete the whole row.
+     */
+    @Override
+    public SolrInputDocument mapAtomicUpdate(List<KeyValue> keyValues) {
+        for (KeyValue keyValue : keyValues) {
+            byte type = keyValue.getType();
+            if (type != KeyValue.Type.Put.getCode() && type != KeyValue.Type.DeleteColumn.getCode()) {
+                return null;
+            }
+        }
+
+        TimerContext timerContext = mappingTimer.time();
+        try {
+            SolrInputDocument solrInputDocument = new SolrInputDocument();
+            for (HBaseSolrDocumentExtractor documentExtractor : resultDocumentExtractors) {
+                // The most recent change of the column determines the value of the field
+                KeyValue latestKeyValue = null;
+                for (KeyValue keyValue : keyValues) {
+                    if (documentExtractor.isApplicable(keyValue)) {
+                        if (!documentExtractor.isSingleColumn()
+                                || sharedFieldNames.contains(documentExtractor.getFieldName())) {
+                            return null;
+                        }
+                        if (latestKeyValue == null || keyValue.getTimestamp() >= latestKeyValue.getTimestamp()) {
+                            latestKeyValue = keyValue;
+                        }
+                    }
+                }
+                if (latestKeyValue != null) {
+                    documentExtractor.extractAtomicUpdate(latestKeyValue, solrInputDocument);
+                }
+            }
+            return solrInputDocument;
+        } finally {
+            timerContext.stop();
+        }
+    }
+
 }
@@ -15,9 +15,13 @@
  */
 package com.ngdata.hbaseindexer.parse;
 
+import static com.ngdata.sep.impl.HBaseShims.newResult;
+
+import java.util.Collections;
 import java.util.List;
 
 import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.solr.common.SolrInputDocument;
 
@@ -52,4 +56,38 @@ public class HBaseSolrDocumentExtractor implements SolrDocumentExtractor {
         solrInputDocument.addField(fieldName, values);
     }
 
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * Determine if the value of the field comes from a single column, in which case a change of that column
+     * determines the complete new value of the field.
+     */
+    public boolean isSingleColumn() {
+        return valueExtractor.getColumnFamily() != null && valueExtractor.getColumnQualifier() != null;
+    }
+
+    public boolean isApplicable(KeyValue keyValue) {
+        return valueExtractor.isApplicable(keyValue);
+    }
+
+    /**
+     * Add an atomic update that sets the field to the value of the given KeyValue, or removes the field if the
+     * KeyValue is a delete. Only applicable to fields that come from a single column.
+     *
+     * @param keyValue the most recent put or delete of the column
+     * @param solrInputDocument the atomic update document
+     */
+    public void extractAtomicUpdate(KeyValue keyValue, SolrInputDocument solrInputDocument) {
+        List<Object> values = Lists.newArrayList();
+        if (!keyValue.isDelete()) {
+            for (byte[] bytes : valueExtractor.extract(newResult(Collections.singletonList(keyValue)))) {
+                values.addAll(valueMapper.map(bytes));
+            }
+        }
+        // Setting a field to null removes it from the document
+        solrInputDocument.addField(fieldName, Collections.singletonMap("set", values.isEmpty() ? null : values));
+    }
+
 }
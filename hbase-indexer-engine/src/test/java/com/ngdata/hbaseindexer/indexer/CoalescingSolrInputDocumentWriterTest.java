@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class CoalescingSolrInputDocumentWriterTest {
+
+    private SolrInputDocumentWriter delegate;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        delegate = mock(SolrInputDocumentWriter.class);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private Future<Void> addAsync(final SolrInputDocumentWriter writer, final int shard, final String id) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                writer.add(shard, Collections.singletonMap(id, new SolrInputDocument()));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testAdd_MergedUntilMaxDocuments() throws Exception {
+        // The linger time is long enough for the batch to fill up first
+        CoalescingSolrInputDocumentWriter writer = new CoalescingSolrInputDocumentWriter("index", delegate, 2,
+                Long.MAX_VALUE, 10000L);
+
+        List<Future<Void>> futures = Lists.newArrayList(addAsync(writer, 0, "a"), addAsync(writer, 0, "b"));
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+
+        ArgumentCaptor<Map> documentsCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(delegate).add(eq(0), documentsCaptor.capture());
+        assertEquals(2, documentsCaptor.getValue().size());
+    }
+
+    @Test
+    public void testAdd_FlushedAfterLinger() throws Exception {
+        CoalescingSolrInputDocumentWriter writer = new CoalescingSolrInputDocumentWriter("index", delegate, 100,
+                Long.MAX_VALUE, 10L);
+
+        writer.add(0, ImmutableMap.of("a", new SolrInputDocument()));
+        writer.add(1, ImmutableMap.of("b", new SolrInputDocument()));
+
+        // Shards are never merged
+        verify(delegate).add(eq(0), anyMap());
+        verify(delegate).add(eq(1), anyMap());
+    }
+
+    @Test
+    public void testAdd_FailureThrownToAllContributors() throws Exception {
+        SolrServerException failure = new SolrServerException("Solr unavailable");
+        doThrow(failure).when(delegate).add(eq(0), anyMap());
+        CoalescingSolrInputDocumentWriter writer = new CoalescingSolrInputDocumentWriter("index", delegate, 2,
+                Long.MAX_VALUE, 10000L);
+
+        List<Future<Void>> futures = Lists.newArrayList(addAsync(writer, 0, "a"), addAsync(writer, 0, "b"));
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+                continue;
+            }
+            throw new AssertionError("Expected the flush failure to be thrown");
+        }
+        verify(delegate, times(1)).add(eq(0), anyMap());
+    }
+
+    @Test
+    public void testDeleteById_Merged() throws Exception {
+        final CoalescingSolrInputDocumentWriter writer = new CoalescingSolrInputDocumentWriter("index", delegate, 3,
+                Long.MAX_VALUE, 10000L);
+
+        Future<Void> future = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                writer.deleteById(-1, Lists.newArrayList("a", "b"));
+                return null;
+            }
+        });
+        writer.deleteById(-1, Lists.newArrayList("c"));
+        future.get();
+
+        ArgumentCaptor<List> idsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(delegate).deleteById(eq(-1), idsCaptor.capture());
+        assertEquals(3, idsCaptor.getValue().size());
+    }
+
+}
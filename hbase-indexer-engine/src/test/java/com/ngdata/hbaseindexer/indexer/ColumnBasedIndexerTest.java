@@ -229,6 +229,31 @@ public class ColumnBasedIndexerTest {
         assertEquals(1, documents.size());
         assertEquals(TABLE_NAME, documents.get(0).getFieldValue(CUSTOM_TABLE_FIELD));
     }
-    
+
+    @Test
+    public void testCalculateIndexUpdates_VersionTracking() throws IOException {
+        DocumentVersionTracker versionTracker = new DocumentVersionTracker(100);
+        ColumnBasedIndexer versionedIndexer = new ColumnBasedIndexer("column-based-versioned", indexerConf, TABLE_NAME,
+                mapper, null, solrWriter, versionTracker, null);
+
+        // The most recent change of the column wins, even if it comes first
+        KeyValue toAdd = new KeyValue("_row_".getBytes(), "_cf_".getBytes(), "_qual_".getBytes(), 5L, "value".getBytes());
+        KeyValue olderDelete = new KeyValue("_row_".getBytes(), "_cf_".getBytes(), "_qual_".getBytes(), 4L, Type.DeleteColumn);
+        versionedIndexer.calculateIndexUpdates(ImmutableList.of(createEventRowData("_row_", toAdd, olderDelete)),
+                updateCollector);
+
+        assertTrue(updateCollector.getIdsToDelete().isEmpty());
+        assertEquals(1, updateCollector.getDocumentsToAdd().size());
+        assertEquals(Long.valueOf(5L), updateCollector.getDocumentVersions().get("_row_-_cf_-_qual_"));
+
+        // Changes that are older than the indexed version are dropped
+        versionTracker.update(updateCollector.getDocumentVersions());
+        updateCollector = new SolrUpdateCollector(10);
+        versionedIndexer.calculateIndexUpdates(ImmutableList.of(createEventRowData("_row_", olderDelete)),
+                updateCollector);
+
+        assertTrue(updateCollector.getIdsToDelete().isEmpty());
+        assertTrue(updateCollector.getDocumentsToAdd().isEmpty());
+    }
 
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.ngdata.hbaseindexer.parse.ResultToSolrMapper;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class IndexerEventFilterTest {
+
+    private static ResultToSolrMapper mapperWithGet(Get get) {
+        ResultToSolrMapper mapper = mock(ResultToSolrMapper.class);
+        when(mapper.getGet(any(byte[].class))).thenReturn(get);
+        return mapper;
+    }
+
+    private static boolean acceptColumn(IndexerEventFilter filter, String family, String qualifier) {
+        // Embed the family and qualifier in a larger array, as they would be in a KeyValue
+        byte[] buffer = Bytes.toBytes("__" + family + qualifier + "__");
+        return filter.acceptColumn(buffer, 2, family.length(), buffer, 2 + family.length(), qualifier.length());
+    }
+
+    @Test
+    public void testAcceptTable_Exact() {
+        IndexerEventFilter filter = new IndexerEventFilter("mytable", false, null);
+        assertTrue(filter.acceptTable(Bytes.toBytes("mytable")));
+        assertFalse(filter.acceptTable(Bytes.toBytes("mytable2")));
+        assertFalse(filter.acceptTable(Bytes.toBytes("othertable")));
+    }
+
+    @Test
+    public void testAcceptTable_Regex() {
+        IndexerEventFilter filter = new IndexerEventFilter("my.*", true, null);
+        assertTrue(filter.acceptTable(Bytes.toBytes("mytable")));
+        assertTrue(filter.acceptTable(Bytes.toBytes("mytable2")));
+        assertFalse(filter.acceptTable(Bytes.toBytes("othertable")));
+    }
+
+    @Test
+    public void testAcceptColumn_NoMapper() {
+        IndexerEventFilter filter = new IndexerEventFilter("mytable", false, null);
+        assertTrue(acceptColumn(filter, "cf", "q"));
+    }
+
+    @Test
+    public void testAcceptColumn_NoColumnsInGet() {
+        IndexerEventFilter filter = new IndexerEventFilter("mytable", false, mapperWithGet(new Get(Bytes.toBytes("row"))));
+        assertTrue(acceptColumn(filter, "cf", "q"));
+    }
+
+    @Test
+    public void testAcceptColumn_NullGet() {
+        IndexerEventFilter filter = new IndexerEventFilter("mytable", false, mapperWithGet(null));
+        assertTrue(acceptColumn(filter, "cf", "q"));
+    }
+
+    @Test
+    public void testAcceptColumn_Family() {
+        Get get = new Get(Bytes.toBytes("row"));
+        get.addFamily(Bytes.toBytes("cf1"));
+        IndexerEventFilter filter = new IndexerEventFilter("mytable", false, mapperWithGet(get));
+
+        assertTrue(acceptColumn(filter, "cf1", "q1"));
+        assertTrue(acceptColumn(filter, "cf1", "anything"));
+        assertFalse(acceptColumn(filter, "cf2", "q1"));
+        assertFalse(acceptColumn(filter, "cf", "1q1"));
+    }
+
+    @Test
+    public void testAcceptColumn_Qualifiers() {
+        Get get = new Get(Bytes.toBytes("row"));
+        get.addColumn(Bytes.toBytes("cf1"), Bytes.toBytes("q3"));
+        get.addColumn(Bytes.toBytes("cf1"), Bytes.toBytes("q1"));
+        get.addColumn(Bytes.toBytes("cf1"), Bytes.toBytes("q2"));
+        get.addFamily(Bytes.toBytes("cf2"));
+        IndexerEventFilter filter = new IndexerEventFilter("mytable", false, mapperWithGet(get));
+
+        assertTrue(acceptColumn(filter, "cf1", "q1"));
+        assertTrue(acceptColumn(filter, "cf1", "q2"));
+        assertTrue(acceptColumn(filter, "cf1", "q3"));
+        assertFalse(acceptColumn(filter, "cf1", "q4"));
+        assertFalse(acceptColumn(filter, "cf1", "q"));
+        assertTrue(acceptColumn(filter, "cf2", "q4"));
+        assertFalse(acceptColumn(filter, "cf3", "q1"));
+    }
+
+}
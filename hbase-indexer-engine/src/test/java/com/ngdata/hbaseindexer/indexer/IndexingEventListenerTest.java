@@ -96,7 +96,7 @@ public class IndexingEventListenerTest {
     public void testNonExistingRow() throws Exception {
         IndexerConf conf = new IndexerConfBuilder().table(TABLE_A).build();
 
-        when(tableA.get(any(Get.class))).thenReturn(new Result());
+        when(tableA.get(anyListOf(Get.class))).thenReturn(new Result[] { new Result() });
 
         ResultToSolrMapper mapper = mock(ResultToSolrMapper.class);
         when(mapper.isRelevantKV(any(KeyValue.class))).thenReturn(true);
@@ -168,7 +168,7 @@ public class IndexingEventListenerTest {
 
         ResultToSolrMapper mapper = createHbaseToSolrMapper(false);
 
-        when(tableA.get(any(Get.class))).thenReturn(newResult(Lists.newArrayList(new KeyValue())));
+        when(tableA.get(anyListOf(Get.class))).thenReturn(new Result[] { newResult(Lists.newArrayList(new KeyValue())) });
 
         Indexer indexer = Indexer.createIndexer("index name", conf, "record", mapper, tablePool, null, solrDocumentWriter);
         IndexingEventListener indexingEventListener = new IndexingEventListener(indexer, TABLE_A, false);
@@ -185,7 +185,7 @@ public class IndexingEventListenerTest {
         assertEquals("row1", addedDocuments.get("row1").getFieldValue("id"));
 
         // Should have been called twice -- once during the setup, and once during the test itself
-        verify(tableA).get(any(Get.class));
+        verify(tableA).get(anyListOf(Get.class));
     }
 
     @Test
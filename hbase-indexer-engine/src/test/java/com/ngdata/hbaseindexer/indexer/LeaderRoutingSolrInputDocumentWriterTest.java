@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.CloudSolrServer;
+import org.apache.solr.client.solrj.request.RequestWriter;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.cloud.ClusterState;
+import org.apache.solr.common.cloud.DocCollection;
+import org.apache.solr.common.cloud.DocRouter;
+import org.apache.solr.common.cloud.Replica;
+import org.apache.solr.common.cloud.Slice;
+import org.apache.solr.common.cloud.ZkStateReader;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class LeaderRoutingSolrInputDocumentWriterTest {
+
+    private static final String LEADER1_URL = "http://node1:8983/solr/collection_shard1_replica1/";
+    private static final String LEADER2_URL = "http://node2:8983/solr/collection_shard2_replica1/";
+    private static final String LEADER3_URL = "http://node3:8983/solr/collection_shard1_replica2/";
+
+    private CloudSolrServer cloudSolrServer;
+    private ZkStateReader zkStateReader;
+    private ClusterState clusterState;
+    /** The writers that were created for the leaders, by core URL. */
+    private Map<String, DirectSolrInputDocumentWriter> leaderWriters;
+
+    @Before
+    public void setUp() {
+        cloudSolrServer = mock(CloudSolrServer.class);
+        when(cloudSolrServer.getDefaultCollection()).thenReturn("collection");
+        zkStateReader = mock(ZkStateReader.class);
+        when(cloudSolrServer.getZkStateReader()).thenReturn(zkStateReader);
+        clusterState = mock(ClusterState.class);
+        when(zkStateReader.getClusterState()).thenReturn(clusterState);
+        leaderWriters = Maps.newConcurrentMap();
+    }
+
+    private LeaderRoutingSolrInputDocumentWriter createWriter(ExecutorService executor) {
+        return new LeaderRoutingSolrInputDocumentWriter("index", cloudSolrServer, new RequestWriter(), executor) {
+            @Override
+            DirectSolrInputDocumentWriter createLeaderWriter(String leaderUrl) {
+                DirectSolrInputDocumentWriter leaderWriter = mock(DirectSolrInputDocumentWriter.class);
+                leaderWriters.put(leaderUrl, leaderWriter);
+                return leaderWriter;
+            }
+        };
+    }
+
+    /**
+     * Create a shard with a single replica, which is its leader.
+     */
+    private static Slice createSlice(String name, String node, String core) {
+        Map<String, Object> replicaProps = Maps.newHashMap();
+        replicaProps.put(ZkStateReader.BASE_URL_PROP, "http://" + node + ":8983/solr");
+        replicaProps.put(ZkStateReader.CORE_NAME_PROP, core);
+        replicaProps.put(ZkStateReader.NODE_NAME_PROP, node + ":8983_solr");
+        replicaProps.put(ZkStateReader.LEADER_PROP, "true");
+        Replica leader = new Replica(core, replicaProps);
+        Map<String, Replica> replicas = Maps.newHashMap();
+        replicas.put(leader.getName(), leader);
+        return new Slice(name, replicas, Maps.<String, Object>newHashMap());
+    }
+
+    /**
+     * Create a cluster state in which the collection consists of the given shards, and every document id is routed
+     * to the shard it is mapped to.
+     */
+    private static ClusterState createClusterState(Map<String, Slice> slicesById, Slice... slices) {
+        ClusterState state = mock(ClusterState.class);
+        DocCollection docCollection = mock(DocCollection.class);
+        DocRouter docRouter = mock(DocRouter.class);
+        when(state.hasCollection("collection")).thenReturn(true);
+        when(state.getCollection("collection")).thenReturn(docCollection);
+        when(state.liveNodesContain(anyString())).thenReturn(true);
+        when(docCollection.getRouter()).thenReturn(docRouter);
+        when(docCollection.getSlices()).thenReturn(Lists.newArrayList(slices));
+        for (Map.Entry<String, Slice> entry : slicesById.entrySet()) {
+            when(docRouter.getTargetSlice(eq(entry.getKey()), any(SolrInputDocument.class), any(SolrParams.class),
+                    eq(docCollection))).thenReturn(entry.getValue());
+        }
+        return state;
+    }
+
+    @Test
+    public void testAdd_RoutedToLeader() throws Exception {
+        Slice shard1 = createSlice("shard1", "node1", "collection_shard1_replica1");
+        Slice shard2 = createSlice("shard2", "node2", "collection_shard2_replica1");
+        when(zkStateReader.getClusterState()).thenReturn(
+                createClusterState(ImmutableMap.of("a", shard1), shard1, shard2));
+        Map<String, SolrInputDocument> documents = ImmutableMap.of("a", new SolrInputDocument());
+
+        createWriter(null).add(-1, documents);
+
+        assertEquals(Lists.newArrayList(LEADER1_URL), Lists.newArrayList(leaderWriters.keySet()));
+        verify(leaderWriters.get(LEADER1_URL)).add(-1, documents);
+        verify(cloudSolrServer, never()).add(any(Collection.class));
+    }
+
+    @Test
+    public void testAdd_SplitPerLeader() throws Exception {
+        Slice shard1 = createSlice("shard1", "node1", "collection_shard1_replica1");
+        Slice shard2 = createSlice("shard2", "node2", "collection_shard2_replica1");
+        when(zkStateReader.getClusterState()).thenReturn(createClusterState(
+                ImmutableMap.of("a", shard1, "b", shard2, "c", shard1), shard1, shard2));
+        SolrInputDocument documentA = new SolrInputDocument();
+        SolrInputDocument documentB = new SolrInputDocument();
+        SolrInputDocument documentC = new SolrInputDocument();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            createWriter(executor).add(-1, ImmutableMap.of("a", documentA, "b", documentB, "c", documentC));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(2, leaderWriters.size());
+        verify(leaderWriters.get(LEADER1_URL)).add(-1, ImmutableMap.of("a", documentA, "c", documentC));
+        verify(leaderWriters.get(LEADER2_URL)).add(-1, ImmutableMap.of("b", documentB));
+    }
+
+    @Test
+    public void testAdd_LeaderFailureWrittenThroughCloud() throws Exception {
+        Slice shard1 = createSlice("shard1", "node1", "collection_shard1_replica1");
+        Slice shard2 = createSlice("shard2", "node2", "collection_shard2_replica1");
+        when(zkStateReader.getClusterState()).thenReturn(
+                createClusterState(ImmutableMap.of("a", shard1, "b", shard2), shard1, shard2));
+        LeaderRoutingSolrInputDocumentWriter writer = createWriter(null);
+        // Makes the writer create the writer for the first leader, so that it can be made to fail
+        writer.deleteById(-1, Lists.newArrayList("a"));
+        doThrow(new SolrServerException("Leader unavailable")).when(leaderWriters.get(LEADER1_URL))
+                .add(eq(-1), anyMap());
+        SolrInputDocument documentA = new SolrInputDocument();
+        SolrInputDocument documentB = new SolrInputDocument();
+
+        writer.add(-1, ImmutableMap.of("a", documentA, "b", documentB));
+
+        // Only the updates of the failed leader are written through SolrCloud
+        verify(leaderWriters.get(LEADER2_URL)).add(-1, ImmutableMap.of("b", documentB));
+        ArgumentCaptor<Collection> documentsCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(cloudSolrServer).add(documentsCaptor.capture());
+        assertEquals(Lists.newArrayList(documentA), Lists.newArrayList(documentsCaptor.getValue()));
+    }
+
+    @Test
+    public void testLeaderWriterEvictedOnClusterStateChange() throws Exception {
+        Slice shard1 = createSlice("shard1", "node1", "collection_shard1_replica1");
+        Slice shard2 = createSlice("shard2", "node2", "collection_shard2_replica1");
+        when(zkStateReader.getClusterState()).thenReturn(
+                createClusterState(ImmutableMap.of("a", shard1, "b", shard2), shard1, shard2));
+        LeaderRoutingSolrInputDocumentWriter writer = createWriter(null);
+        writer.deleteById(-1, Lists.newArrayList("a", "b"));
+        DirectSolrInputDocumentWriter leader1Writer = leaderWriters.get(LEADER1_URL);
+        DirectSolrInputDocumentWriter leader2Writer = leaderWriters.get(LEADER2_URL);
+
+        // The leadership of shard1 moves to another node
+        Slice movedShard1 = createSlice("shard1", "node3", "collection_shard1_replica2");
+        when(zkStateReader.getClusterState()).thenReturn(
+                createClusterState(ImmutableMap.of("a", movedShard1, "b", shard2), movedShard1, shard2));
+        writer.deleteById(-1, Lists.newArrayList("a"));
+
+        verify(leader1Writer).close();
+        verify(leader2Writer, never()).close();
+        verify(leaderWriters.get(LEADER3_URL)).deleteById(-1, Lists.newArrayList("a"));
+    }
+
+    @Test
+    public void testAdd_UnknownCollection() throws Exception {
+        when(clusterState.hasCollection("collection")).thenReturn(false);
+        SolrInputDocument document = new SolrInputDocument();
+
+        createWriter(null).add(-1, ImmutableMap.of("a", document));
+
+        ArgumentCaptor<Collection> documentsCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(cloudSolrServer).add(documentsCaptor.capture());
+        assertEquals(Lists.newArrayList(document), Lists.newArrayList(documentsCaptor.getValue()));
+    }
+
+    @Test
+    public void testDeleteById_NoLiveLeader() throws Exception {
+        DocCollection docCollection = mock(DocCollection.class);
+        DocRouter docRouter = mock(DocRouter.class);
+        Slice slice = mock(Slice.class);
+        Replica leader = mock(Replica.class);
+        when(clusterState.hasCollection("collection")).thenReturn(true);
+        when(clusterState.getCollection("collection")).thenReturn(docCollection);
+        when(docCollection.getRouter()).thenReturn(docRouter);
+        when(docCollection.getSlices()).thenReturn(Lists.newArrayList(slice));
+        when(docRouter.getTargetSlice(anyString(), any(SolrInputDocument.class), any(SolrParams.class),
+                eq(docCollection))).thenReturn(slice);
+        when(slice.getLeader()).thenReturn(leader);
+        when(leader.getNodeName()).thenReturn("node1");
+        when(clusterState.liveNodesContain("node1")).thenReturn(false);
+        List<String> idsToDelete = Lists.newArrayList("a", "b");
+
+        createWriter(null).deleteById(-1, idsToDelete);
+
+        verify(cloudSolrServer).deleteById(idsToDelete);
+    }
+
+}
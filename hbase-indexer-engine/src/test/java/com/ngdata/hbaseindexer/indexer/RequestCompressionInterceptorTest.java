@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.io.ByteStreams;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.Test;
+
+public class RequestCompressionInterceptorTest {
+
+    private static final String BODY = "<add><doc><field name=\"id\">row1</field></doc></add>";
+
+    private byte[] write(HttpEntity entity) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        entity.writeTo(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    public void testProcess_Gzip() throws Exception {
+        HttpPost post = new HttpPost("http://localhost:8983/solr/update");
+        post.setEntity(new StringEntity(BODY));
+
+        new RequestCompressionInterceptor("gzip").process(post, new BasicHttpContext());
+
+        HttpEntity entity = post.getEntity();
+        assertEquals("gzip", entity.getContentEncoding().getValue());
+        assertEquals(-1, entity.getContentLength());
+        assertTrue(entity.isChunked());
+        InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(write(entity)));
+        assertEquals(BODY, new String(ByteStreams.toByteArray(inputStream), "UTF-8"));
+    }
+
+    @Test
+    public void testProcess_Deflate() throws Exception {
+        HttpPost post = new HttpPost("http://localhost:8983/solr/update");
+        post.setEntity(new StringEntity(BODY));
+
+        new RequestCompressionInterceptor("deflate").process(post, new BasicHttpContext());
+
+        assertEquals("deflate", post.getEntity().getContentEncoding().getValue());
+        InputStream inputStream = new InflaterInputStream(new ByteArrayInputStream(write(post.getEntity())));
+        assertEquals(BODY, new String(ByteStreams.toByteArray(inputStream), "UTF-8"));
+    }
+
+    @Test
+    public void testProcess_AlreadyEncoded() throws Exception {
+        HttpPost post = new HttpPost("http://localhost:8983/solr/update");
+        post.setEntity(new StringEntity(BODY));
+        RequestCompressionInterceptor interceptor = new RequestCompressionInterceptor("gzip");
+
+        interceptor.process(post, new BasicHttpContext());
+        HttpEntity compressedEntity = post.getEntity();
+        interceptor.process(post, new BasicHttpContext());
+
+        assertSame(compressedEntity, post.getEntity());
+    }
+
+    @Test
+    public void testProcess_NoBody() throws Exception {
+        HttpGet get = new HttpGet("http://localhost:8983/solr/select");
+
+        new RequestCompressionInterceptor("gzip").process(get, new BasicHttpContext());
+
+        assertEquals(0, get.getAllHeaders().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedEncoding() {
+        new RequestCompressionInterceptor("snappy");
+    }
+
+}
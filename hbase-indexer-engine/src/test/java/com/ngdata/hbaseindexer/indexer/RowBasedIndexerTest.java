@@ -15,29 +15,57 @@
  */
 package com.ngdata.hbaseindexer.indexer;
 
+import static com.ngdata.sep.impl.HBaseShims.newResult;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.anyListOf;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.ngdata.hbaseindexer.conf.DocumentExtractDefinition;
+import com.ngdata.hbaseindexer.conf.FieldDefinition;
+import com.ngdata.hbaseindexer.conf.FieldDefinition.ValueSource;
 import com.ngdata.hbaseindexer.conf.IndexerConf;
 import com.ngdata.hbaseindexer.conf.IndexerConf.MappingType;
+import com.ngdata.hbaseindexer.conf.IndexerConf.RowReadMode;
 import com.ngdata.hbaseindexer.conf.IndexerConfBuilder;
 import com.ngdata.hbaseindexer.indexer.Indexer.RowBasedIndexer;
+import com.ngdata.hbaseindexer.parse.DefaultResultToSolrMapper;
 import com.ngdata.hbaseindexer.parse.ResultToSolrMapper;
 import com.ngdata.sep.SepEvent;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrInputDocument;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class RowBasedIndexerTest {
     
@@ -145,4 +173,250 @@ public class RowBasedIndexerTest {
         assertTrue(updateCollector.getDocumentsToAdd().isEmpty());
     }
 
+    @Test
+    public void testCalculateIndexUpdates_RereadRowsWithSingleMultiGet() throws IOException {
+        ResultToSolrMapper mapper = new DefaultResultToSolrMapper("row-based-reread",
+                Lists.newArrayList(new FieldDefinition("value", "_cf_:_qual_", ValueSource.VALUE, "string")),
+                Collections.<DocumentExtractDefinition>emptyList());
+        HTableInterface table = mockTableWithoutRow("row2");
+        RowBasedIndexer rereadingIndexer = new RowBasedIndexer("row-based-reread", indexerConf, TABLE_NAME, mapper,
+                tablePool, null, solrWriter);
+
+        // The events don't contain the indexed column, so all rows need to be re-read
+        List<RowData> rowDatas = Lists.newArrayList();
+        for (String row : new String[] { "row1", "row2", "row3" }) {
+            rowDatas.add(createEventRowData(row,
+                    new KeyValue(row.getBytes(), "_cf_".getBytes(), "_qual_".getBytes(), 0L, Type.DeleteColumn)));
+        }
+        rereadingIndexer.calculateIndexUpdates(rowDatas, updateCollector);
+
+        verify(tablePool, times(1)).getTable(TABLE_NAME.getBytes());
+        verify(table, times(1)).get(anyListOf(Get.class));
+        verify(table).close();
+
+        assertEquals(Lists.newArrayList("row2"), updateCollector.getIdsToDelete());
+        assertEquals(2, updateCollector.getDocumentsToAdd().size());
+        assertEquals("value-row1", updateCollector.getDocumentsToAdd().get("row1").getFieldValue("value"));
+        assertEquals("value-row3", updateCollector.getDocumentsToAdd().get("row3").getFieldValue("value"));
+    }
+
+    /**
+     * Mock a table in which every row has a value for _cf_:_qual_, except for the given deleted row.
+     */
+    private HTableInterface mockTableWithoutRow(final String deletedRow) throws IOException {
+        HTableInterface table = mock(HTableInterface.class);
+        when(tablePool.getTable(TABLE_NAME.getBytes())).thenReturn(table);
+        when(table.get(anyListOf(Get.class))).thenAnswer(new Answer<Result[]>() {
+            @Override
+            public Result[] answer(InvocationOnMock invocation) {
+                List<Get> gets = (List<Get>)invocation.getArguments()[0];
+                Result[] results = new Result[gets.size()];
+                for (int i = 0; i < gets.size(); i++) {
+                    String row = new String(gets.get(i).getRow());
+                    List<KeyValue> keyValues = Lists.newArrayList();
+                    if (!row.equals(deletedRow)) {
+                        keyValues.add(new KeyValue(row.getBytes(), "_cf_".getBytes(), "_qual_".getBytes(),
+                                ("value-" + row).getBytes()));
+                    }
+                    results[i] = newResult(keyValues);
+                }
+                return results;
+            }
+        });
+        return table;
+    }
+
+    @Test
+    public void testCalculateIndexUpdates_Pipelined() throws IOException {
+        ResultToSolrMapper mapper = new DefaultResultToSolrMapper("row-based-pipelined",
+                Lists.newArrayList(new FieldDefinition("value", "_cf_:_qual_", ValueSource.VALUE, "string")),
+                Collections.<DocumentExtractDefinition>emptyList());
+        HTableInterface table = mockTableWithoutRow("row7");
+        RowIndexingPipeline pipeline = new RowIndexingPipeline(2, 2, 10, 10, 2);
+        try {
+            RowBasedIndexer pipelinedIndexer = new RowBasedIndexer("row-based-pipelined", indexerConf, TABLE_NAME,
+                    mapper, tablePool, null, solrWriter, pipeline, null, null, null);
+
+            List<RowData> rowDatas = Lists.newArrayList();
+            for (int i = 0; i < 45; i++) {
+                String row = "row" + i;
+                rowDatas.add(createEventRowData(row,
+                        new KeyValue(row.getBytes(), "_cf_".getBytes(), "_qual_".getBytes(), 0L, Type.DeleteColumn)));
+            }
+            pipelinedIndexer.calculateIndexUpdates(rowDatas, updateCollector);
+        } finally {
+            pipeline.shutdown();
+        }
+
+        // The 45 rows are divided over 5 chunks, each of which re-reads its rows with a multi-get
+        verify(table, times(5)).get(anyListOf(Get.class));
+        assertEquals(Lists.newArrayList("row7"), updateCollector.getIdsToDelete());
+        assertEquals(44, updateCollector.getDocumentsToAdd().size());
+        for (int i = 0; i < 45; i++) {
+            if (i != 7) {
+                assertEquals("value-row" + i, updateCollector.getDocumentsToAdd().get("row" + i).getFieldValue("value"));
+            }
+        }
+    }
+
+    @Test
+    public void testCalculateIndexUpdates_RowCache() throws IOException {
+        ResultToSolrMapper mapper = new DefaultResultToSolrMapper("row-based-cached",
+                Lists.newArrayList(new FieldDefinition("a", "_cf_:a", ValueSource.VALUE, "string"),
+                        new FieldDefinition("b", "_cf_:b", ValueSource.VALUE, "string")),
+                Collections.<DocumentExtractDefinition>emptyList());
+        HTableInterface table = mock(HTableInterface.class);
+        when(tablePool.getTable(TABLE_NAME.getBytes())).thenReturn(table);
+        when(table.get(anyListOf(Get.class))).thenReturn(new Result[] { newResult(Lists.newArrayList(
+                new KeyValue("row1".getBytes(), "_cf_".getBytes(), "a".getBytes(), 1L, "a1".getBytes()),
+                new KeyValue("row1".getBytes(), "_cf_".getBytes(), "b".getBytes(), 1L, "b1".getBytes()))) });
+        RowBasedIndexer cachingIndexer = new RowBasedIndexer("row-based-cached", indexerConf, TABLE_NAME, mapper,
+                tablePool, null, solrWriter, null, new RowCache(100, 60000L), null, null);
+
+        // The event lacks _cf_:b, so the row is read and cached
+        cachingIndexer.calculateIndexUpdates(Lists.newArrayList(createEventRowData("row1",
+                new KeyValue("row1".getBytes(), "_cf_".getBytes(), "a".getBytes(), 1L, "a1".getBytes()))),
+                updateCollector);
+        verify(table, times(1)).get(anyListOf(Get.class));
+
+        // The next event is applied to the cached row, which then has all required data
+        updateCollector = new SolrUpdateCollector(10);
+        cachingIndexer.calculateIndexUpdates(Lists.newArrayList(createEventRowData("row1",
+                new KeyValue("row1".getBytes(), "_cf_".getBytes(), "a".getBytes(), 2L, "a2".getBytes()))),
+                updateCollector);
+        verify(table, times(1)).get(anyListOf(Get.class));
+        SolrInputDocument document = updateCollector.getDocumentsToAdd().get("row1");
+        assertEquals("a2", document.getFieldValue("a"));
+        assertEquals("b1", document.getFieldValue("b"));
+
+        // Once _cf_:b is deleted, the cached row doesn't have all required data anymore
+        updateCollector = new SolrUpdateCollector(10);
+        cachingIndexer.calculateIndexUpdates(Lists.newArrayList(createEventRowData("row1",
+                new KeyValue("row1".getBytes(), "_cf_".getBytes(), "b".getBytes(), 3L, Type.DeleteColumn))),
+                updateCollector);
+        verify(table, times(2)).get(anyListOf(Get.class));
+    }
+
+    @Test
+    public void testCalculateIndexUpdates_AtomicUpdate() throws IOException {
+        doReturn(RowReadMode.ATOMIC).when(indexerConf).getRowReadMode();
+        ResultToSolrMapper mapper = new DefaultResultToSolrMapper("row-based-atomic",
+                Lists.newArrayList(new FieldDefinition("a", "_cf_:a", ValueSource.VALUE, "string"),
+                        new FieldDefinition("b", "_cf_:b", ValueSource.VALUE, "string")),
+                Collections.<DocumentExtractDefinition>emptyList());
+        RowBasedIndexer atomicIndexer = new RowBasedIndexer("row-based-atomic", indexerConf, TABLE_NAME, mapper,
+                tablePool, null, solrWriter);
+
+        // Neither event contains all fields, the changes of both end up in a single atomic update
+        atomicIndexer.calculateIndexUpdates(Lists.newArrayList(
+                createEventRowData("row1",
+                        new KeyValue("row1".getBytes(), "_cf_".getBytes(), "a".getBytes(), 1L, "a1".getBytes())),
+                createEventRowData("row1",
+                        new KeyValue("row1".getBytes(), "_cf_".getBytes(), "b".getBytes(), 2L, Type.DeleteColumn))),
+                updateCollector);
+
+        verifyZeroInteractions(tablePool);
+        SolrInputDocument document = updateCollector.getDocumentsToAdd().get("row1");
+        assertEquals("row1", document.getFieldValue("id"));
+        assertEquals(Collections.singletonMap("set", Lists.newArrayList("a1")), document.getFieldValue("a"));
+        assertEquals(Collections.singletonMap("set", null), document.getFieldValue("b"));
+    }
+
+    @Test
+    public void testCalculateIndexUpdates_AtomicUpdateWithoutStaleChanges() throws IOException {
+        doReturn(RowReadMode.ATOMIC).when(indexerConf).getRowReadMode();
+        ResultToSolrMapper mapper = new DefaultResultToSolrMapper("row-based-atomic-versioned",
+                Lists.newArrayList(new FieldDefinition("a", "_cf_:a", ValueSource.VALUE, "string"),
+                        new FieldDefinition("b", "_cf_:b", ValueSource.VALUE, "string")),
+                Collections.<DocumentExtractDefinition>emptyList());
+        DocumentVersionTracker versionTracker = new DocumentVersionTracker(100);
+        versionTracker.update(Collections.singletonMap("row1", 5L));
+        RowBasedIndexer atomicIndexer = new RowBasedIndexer("row-based-atomic-versioned", indexerConf, TABLE_NAME,
+                mapper, tablePool, null, solrWriter, null, null, versionTracker, null);
+
+        // The replayed event is older than the indexed version of the document, only the new change is applied
+        atomicIndexer.calculateIndexUpdates(Lists.newArrayList(
+                createEventRowData("row1",
+                        new KeyValue("row1".getBytes(), "_cf_".getBytes(), "b".getBytes(), 3L, "b3".getBytes())),
+                createEventRowData("row1",
+                        new KeyValue("row1".getBytes(), "_cf_".getBytes(), "a".getBytes(), 6L, "a6".getBytes()))),
+                updateCollector);
+
+        verifyZeroInteractions(tablePool);
+        SolrInputDocument document = updateCollector.getDocumentsToAdd().get("row1");
+        assertEquals(Collections.singletonMap("set", Lists.newArrayList("a6")), document.getFieldValue("a"));
+        assertNull(document.getField("b"));
+    }
+
+    @Test
+    public void testIndexRowData_StaleEventsDropped() throws Exception {
+        ResultToSolrMapper mapper = new DefaultResultToSolrMapper("row-based-versioned",
+                Lists.newArrayList(new FieldDefinition("value", "_cf_:_qual_", ValueSource.VALUE, "string")),
+                Collections.<DocumentExtractDefinition>emptyList());
+        RowBasedIndexer versionedIndexer = new RowBasedIndexer("row-based-versioned", indexerConf, TABLE_NAME, mapper,
+                tablePool, null, solrWriter, null, null, new DocumentVersionTracker(100), null);
+
+        // Within a batch, the event with the most recent timestamp is indexed, whatever its position
+        versionedIndexer.calculateIndexUpdates(Lists.newArrayList(
+                createEventRowData("row1", createKeyValue("row1", 3L, "v3")),
+                createEventRowData("row1", createKeyValue("row1", 2L, "v2"))), updateCollector);
+        assertEquals("v3", updateCollector.getDocumentsToAdd().get("row1").getFieldValue("value"));
+
+        versionedIndexer.indexRowData(Lists.newArrayList(createEventRowData("row1", createKeyValue("row1", 3L, "v3"))));
+        // A replay of an older event is dropped, a replay of the indexed event is not
+        versionedIndexer.indexRowData(Lists.newArrayList(createEventRowData("row1", createKeyValue("row1", 2L, "v2"))));
+        versionedIndexer.indexRowData(Lists.newArrayList(createEventRowData("row1", createKeyValue("row1", 3L, "v3"))));
+
+        verify(solrWriter, times(2)).add(eq(-1), anyMap());
+    }
+
+    @Test
+    public void testIndexRowData_ShardsWrittenConcurrently() throws Exception {
+        final Sharder sharder = new HashSharder(4);
+        final Set<Integer> writtenShards = Collections.synchronizedSet(Sets.<Integer>newHashSet());
+        final int failingShard = sharder.getShard("row0");
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                int shard = (Integer)invocation.getArguments()[0];
+                writtenShards.add(shard);
+                if (shard == failingShard) {
+                    throw new SolrServerException("Shard unavailable");
+                }
+                return null;
+            }
+        }).when(solrWriter).add(anyInt(), anyMap());
+
+        ExecutorService shardWriteExecutor = Executors.newFixedThreadPool(4);
+        try {
+            RowBasedIndexer shardingIndexer = new RowBasedIndexer("row-based-sharded", indexerConf, TABLE_NAME,
+                    IndexingEventListenerTest.createHbaseToSolrMapper(true), tablePool, sharder, solrWriter, null, null,
+                    null, shardWriteExecutor);
+
+            List<RowData> rowDatas = Lists.newArrayList();
+            Set<Integer> expectedShards = Sets.newHashSet();
+            for (int i = 0; i < 20; i++) {
+                String row = "row" + i;
+                rowDatas.add(createEventRowData(row, createKeyValue(row, 1L, "value")));
+                expectedShards.add(sharder.getShard(row));
+            }
+            assertTrue(expectedShards.size() > 1);
+
+            try {
+                shardingIndexer.indexRowData(rowDatas);
+                fail("Expected the failure of the shard to be thrown");
+            } catch (SolrServerException e) {
+                assertEquals("Shard unavailable", e.getMessage());
+            }
+            // The failure of one shard doesn't prevent the others from being written
+            assertEquals(expectedShards, writtenShards);
+        } finally {
+            shardWriteExecutor.shutdown();
+        }
+    }
+
+    private KeyValue createKeyValue(String row, long timestamp, String value) {
+        return new KeyValue(row.getBytes(), "_cf_".getBytes(), "_qual_".getBytes(), timestamp, value.getBytes());
+    }
+
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static com.ngdata.sep.impl.HBaseShims.newResult;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RowCacheTest {
+
+    private static final byte[] TABLE = Bytes.toBytes("table");
+    private static final byte[] ROW = Bytes.toBytes("row");
+    private static final byte[] CF1 = Bytes.toBytes("cf1");
+    private static final byte[] CF2 = Bytes.toBytes("cf2");
+    private static final byte[] QUAL_A = Bytes.toBytes("a");
+    private static final byte[] QUAL_B = Bytes.toBytes("b");
+
+    private RowCache rowCache;
+
+    @Before
+    public void setUp() {
+        rowCache = new RowCache(10, 60000L);
+        rowCache.put(TABLE, ROW, newResult(Lists.newArrayList(
+                new KeyValue(ROW, CF1, QUAL_A, 10L, Bytes.toBytes("a10")),
+                new KeyValue(ROW, CF1, QUAL_B, 10L, Bytes.toBytes("b10")),
+                new KeyValue(ROW, CF2, QUAL_A, 10L, Bytes.toBytes("cf2a10")))));
+    }
+
+    @Test
+    public void testGet_NotCached() {
+        assertNull(rowCache.get(TABLE, Bytes.toBytes("other-row")));
+        assertNull(rowCache.get(Bytes.toBytes("other-table"), ROW));
+    }
+
+    @Test
+    public void testPut_EmptyRowNotCached() {
+        byte[] deletedRow = Bytes.toBytes("deleted-row");
+        rowCache.put(TABLE, deletedRow, newResult(Collections.<KeyValue>emptyList()));
+        assertNull(rowCache.get(TABLE, deletedRow));
+    }
+
+    @Test
+    public void testApply_Put() {
+        rowCache.apply(TABLE, ROW, Lists.newArrayList(
+                new KeyValue(ROW, CF1, QUAL_A, 11L, Bytes.toBytes("a11")),
+                new KeyValue(ROW, CF2, QUAL_B, 11L, Bytes.toBytes("cf2b11"))));
+
+        Result result = rowCache.get(TABLE, ROW);
+        assertEquals("a11", Bytes.toString(result.getValue(CF1, QUAL_A)));
+        assertEquals("b10", Bytes.toString(result.getValue(CF1, QUAL_B)));
+        assertEquals("cf2b11", Bytes.toString(result.getValue(CF2, QUAL_B)));
+        assertEquals(4, result.size());
+    }
+
+    @Test
+    public void testApply_OlderPutIgnored() {
+        rowCache.apply(TABLE, ROW, Lists.newArrayList(new KeyValue(ROW, CF1, QUAL_A, 9L, Bytes.toBytes("a9"))));
+
+        assertEquals("a10", Bytes.toString(rowCache.get(TABLE, ROW).getValue(CF1, QUAL_A)));
+    }
+
+    @Test
+    public void testApply_DeleteColumn() {
+        rowCache.apply(TABLE, ROW, Lists.newArrayList(
+                new KeyValue(ROW, CF1, QUAL_A, 10L, Type.DeleteColumn),
+                new KeyValue(ROW, CF1, QUAL_B, 9L, Type.DeleteColumn)));
+
+        Result result = rowCache.get(TABLE, ROW);
+        assertNull(result.getValue(CF1, QUAL_A));
+        // The delete is older than the cached cell
+        assertEquals("b10", Bytes.toString(result.getValue(CF1, QUAL_B)));
+    }
+
+    @Test
+    public void testApply_DeleteFamily() {
+        rowCache.apply(TABLE, ROW, Lists.newArrayList(new KeyValue(ROW, CF1, null, 12L, Type.DeleteFamily)));
+
+        Result result = rowCache.get(TABLE, ROW);
+        assertEquals(1, result.size());
+        assertArrayEquals(Bytes.toBytes("cf2a10"), result.getValue(CF2, QUAL_A));
+    }
+
+    @Test
+    public void testApply_DeleteOfAllCellsEvictsRow() {
+        rowCache.apply(TABLE, ROW, Lists.newArrayList(
+                new KeyValue(ROW, CF1, null, 12L, Type.DeleteFamily),
+                new KeyValue(ROW, CF2, null, 12L, Type.DeleteFamily)));
+
+        assertNull(rowCache.get(TABLE, ROW));
+    }
+
+    @Test
+    public void testApply_DeleteOfSingleVersionEvictsRow() {
+        rowCache.apply(TABLE, ROW, Lists.newArrayList(new KeyValue(ROW, CF1, QUAL_A, 10L, Type.Delete)));
+
+        assertNull(rowCache.get(TABLE, ROW));
+    }
+
+    @Test
+    public void testGet_Expired() throws InterruptedException {
+        RowCache shortLivedCache = new RowCache(10, 20L);
+        shortLivedCache.put(TABLE, ROW, newResult(Lists.newArrayList(
+                new KeyValue(ROW, CF1, QUAL_A, 10L, Bytes.toBytes("a10")))));
+        Thread.sleep(50);
+
+        // Applying events doesn't extend the lifetime of a cached row
+        shortLivedCache.apply(TABLE, ROW, Lists.newArrayList(new KeyValue(ROW, CF1, QUAL_A, 11L, Bytes.toBytes("a11"))));
+        assertNull(shortLivedCache.get(TABLE, ROW));
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RowIndexingPipelineTest {
+
+    private RowIndexingPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        pipeline = new RowIndexingPipeline(2, 2, 2, 10, 3);
+    }
+
+    @After
+    public void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testExecute_ReadsAndMapsAllChunks() throws IOException {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<RecordingChunk> chunks = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            chunks.add(new RecordingChunk(inFlight, maxInFlight, null));
+        }
+
+        pipeline.execute(chunks);
+
+        for (RecordingChunk chunk : chunks) {
+            assertTrue(chunk.read);
+            assertTrue(chunk.mappedAfterRead);
+        }
+        assertTrue("More chunks in flight than allowed: " + maxInFlight.get(), maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void testExecute_ReadFailure() {
+        IOException failure = new IOException("read failed");
+        List<RecordingChunk> chunks = Lists.newArrayList();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        chunks.add(new RecordingChunk(inFlight, maxInFlight, null));
+        chunks.add(new RecordingChunk(inFlight, maxInFlight, failure));
+        for (int i = 0; i < 20; i++) {
+            chunks.add(new RecordingChunk(inFlight, maxInFlight, null));
+        }
+
+        try {
+            pipeline.execute(chunks);
+            fail("Expected the read failure to be thrown");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        assertFalse(chunks.get(1).mappedAfterRead);
+        // Chunks that were not started yet when the failure happened are skipped
+        assertFalse(chunks.get(chunks.size() - 1).read);
+        assertEquals(0, inFlight.get());
+    }
+
+    @Test
+    public void testExecute_AfterShutdown() throws IOException {
+        List<RecordingChunk> chunks = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            chunks.add(new RecordingChunk(new AtomicInteger(), new AtomicInteger(), null));
+        }
+
+        pipeline.shutdown();
+        pipeline.execute(chunks);
+
+        // The stages are run by the calling thread instead of being dropped
+        for (RecordingChunk chunk : chunks) {
+            assertTrue(chunk.read);
+            assertTrue(chunk.mappedAfterRead);
+        }
+    }
+
+    private static class RecordingChunk implements RowIndexingPipeline.Chunk {
+        private final AtomicInteger inFlight;
+        private final AtomicInteger maxInFlight;
+        private final IOException readFailure;
+        private volatile boolean read;
+        private volatile boolean mappedAfterRead;
+
+        RecordingChunk(AtomicInteger inFlight, AtomicInteger maxInFlight, IOException readFailure) {
+            this.inFlight = inFlight;
+            this.maxInFlight = maxInFlight;
+            this.readFailure = readFailure;
+        }
+
+        @Override
+        public void read() throws IOException {
+            int current = inFlight.incrementAndGet();
+            synchronized (maxInFlight) {
+                maxInFlight.set(Math.max(maxInFlight.get(), current));
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            read = true;
+            if (readFailure != null) {
+                inFlight.decrementAndGet();
+                throw readFailure;
+            }
+        }
+
+        @Override
+        public void map() {
+            mappedAfterRead = read;
+            inFlight.decrementAndGet();
+        }
+    }
+
+}
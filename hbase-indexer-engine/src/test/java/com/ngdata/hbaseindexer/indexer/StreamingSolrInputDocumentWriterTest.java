@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.ngdata.hbaseindexer.indexer.StreamingSolrInputDocumentWriter.UpdateCallback;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class StreamingSolrInputDocumentWriterTest {
+
+    private SolrInputDocumentWriter delegate;
+    private StreamingSolrInputDocumentWriter writer;
+
+    @Before
+    public void setUp() {
+        delegate = mock(SolrInputDocumentWriter.class);
+        writer = new StreamingSolrInputDocumentWriter("index", delegate, 10, 1, 100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writer.close();
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        Map<String, SolrInputDocument> documents = ImmutableMap.of("a", new SolrInputDocument());
+
+        writer.add(0, documents);
+
+        verify(delegate).add(0, documents);
+    }
+
+    @Test
+    public void testAddAsync_MergedWhileRunnerBusy() throws Exception {
+        final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstWrite = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (firstWriteStarted.getCount() > 0) {
+                    firstWriteStarted.countDown();
+                    releaseFirstWrite.await();
+                }
+                return null;
+            }
+        }).when(delegate).add(eq(0), anyMap());
+        RecordingCallback callback = new RecordingCallback();
+
+        writer.addAsync(0, ImmutableMap.of("a", new SolrInputDocument()), callback);
+        firstWriteStarted.await();
+        writer.addAsync(0, ImmutableMap.of("b", new SolrInputDocument()), callback);
+        writer.addAsync(0, ImmutableMap.of("c", new SolrInputDocument()), callback);
+        releaseFirstWrite.countDown();
+        writer.flush();
+
+        ArgumentCaptor<Map> documentsCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(delegate, times(2)).add(eq(0), documentsCaptor.capture());
+        assertEquals(1, documentsCaptor.getAllValues().get(0).size());
+        assertEquals(2, documentsCaptor.getAllValues().get(1).size());
+        assertEquals(3, callback.flushed.get());
+    }
+
+    @Test
+    public void testAdd_FailureThrown() throws Exception {
+        SolrServerException failure = new SolrServerException("Solr unavailable");
+        doThrow(failure).when(delegate).add(eq(0), anyMap());
+
+        try {
+            writer.add(0, ImmutableMap.of("a", new SolrInputDocument()));
+            fail("Expected the write failure to be thrown");
+        } catch (SolrServerException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testAddAsync_ErrorCallback() throws Exception {
+        SolrServerException failure = new SolrServerException("Solr unavailable");
+        doThrow(failure).when(delegate).add(eq(0), anyMap());
+        RecordingCallback callback = new RecordingCallback();
+
+        writer.addAsync(0, ImmutableMap.of("a", new SolrInputDocument()), callback);
+        writer.flush();
+
+        assertSame(failure, callback.failure);
+    }
+
+    @Test
+    public void testDeleteByQuery_AfterPendingUpdates() throws Exception {
+        List<String> idsToDelete = Lists.newArrayList("a", "b");
+
+        writer.deleteByIdAsync(1, idsToDelete, new RecordingCallback());
+        writer.deleteByQuery("*:*");
+
+        InOrder inOrder = inOrder(delegate);
+        inOrder.verify(delegate).deleteById(1, idsToDelete);
+        inOrder.verify(delegate).deleteByQuery("*:*");
+    }
+
+    private static class RecordingCallback implements UpdateCallback {
+        private final AtomicInteger flushed = new AtomicInteger();
+        private volatile Throwable failure;
+
+        @Override
+        public void onFlushed() {
+            flushed.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable failure) {
+            this.failure = failure;
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.hbaseindexer.indexer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.ngdata.hbaseindexer.model.api.IndexerDefinition;
+import com.ngdata.hbaseindexer.model.api.IndexerDefinitionBuilder;
+import com.ngdata.hbaseindexer.model.api.IndexerModel;
+import com.ngdata.hbaseindexer.model.api.IndexerModelEvent;
+import com.ngdata.hbaseindexer.model.api.IndexerModelEventType;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SubscriptionEventFilterTest {
+
+    private static final String SUBSCRIPTION = "_subscription_";
+
+    private IndexerModel indexerModel;
+
+    @Before
+    public void setUp() {
+        indexerModel = mock(IndexerModel.class);
+    }
+
+    private static IndexerDefinition indexer(String name, String subscriptionId, String configuration) {
+        return new IndexerDefinitionBuilder()
+                .name(name)
+                .subscriptionId(subscriptionId)
+                .configuration(Bytes.toBytes(configuration))
+                .build();
+    }
+
+    private static boolean acceptColumn(SubscriptionEventFilter filter, String family, String qualifier) {
+        byte[] familyBytes = Bytes.toBytes(family);
+        byte[] qualifierBytes = Bytes.toBytes(qualifier);
+        return filter.acceptColumn(familyBytes, 0, familyBytes.length, qualifierBytes, 0, qualifierBytes.length);
+    }
+
+    @Test
+    public void testUnionOfIndexers() {
+        List<IndexerDefinition> indexers = Lists.newArrayList(
+                indexer("idx1", SUBSCRIPTION, "<indexer table='table1'><field name='f' value='cf1:q1'/></indexer>"),
+                indexer("idx2", SUBSCRIPTION, "<indexer table='table2'><field name='f' value='cf2:*'/></indexer>"),
+                indexer("idx3", "_other_", "<indexer table='table3'><field name='f' value='cf3:q1'/></indexer>"));
+        when(indexerModel.getIndexers()).thenReturn(indexers);
+
+        SubscriptionEventFilter filter = new SubscriptionEventFilter(SUBSCRIPTION, indexerModel);
+        verify(indexerModel).registerListener(filter);
+
+        assertTrue(filter.acceptTable(Bytes.toBytes("table1")));
+        assertTrue(filter.acceptTable(Bytes.toBytes("table2")));
+        assertFalse(filter.acceptTable(Bytes.toBytes("table3")));
+
+        assertTrue(acceptColumn(filter, "cf1", "q1"));
+        assertFalse(acceptColumn(filter, "cf1", "q2"));
+        assertTrue(acceptColumn(filter, "cf2", "anything"));
+        assertFalse(acceptColumn(filter, "cf3", "q1"));
+    }
+
+    @Test
+    public void testInvalidConfiguration_AcceptsAll() {
+        List<IndexerDefinition> indexers = Lists.newArrayList(
+                indexer("idx1", SUBSCRIPTION, "<indexer table='table1'><field name='f' value='cf1:q1'/></indexer>"),
+                indexer("idx2", SUBSCRIPTION, "<not-an-indexer/>"));
+        when(indexerModel.getIndexers()).thenReturn(indexers);
+
+        SubscriptionEventFilter filter = new SubscriptionEventFilter(SUBSCRIPTION, indexerModel);
+
+        assertTrue(filter.acceptTable(Bytes.toBytes("table3")));
+        assertTrue(acceptColumn(filter, "cf3", "q1"));
+    }
+
+    @Test
+    public void testNoIndexers_AcceptsAll() {
+        when(indexerModel.getIndexers()).thenReturn(Collections.<IndexerDefinition>emptyList());
+
+        SubscriptionEventFilter filter = new SubscriptionEventFilter(SUBSCRIPTION, indexerModel);
+
+        assertTrue(filter.acceptTable(Bytes.toBytes("table1")));
+        assertTrue(acceptColumn(filter, "cf1", "q1"));
+    }
+
+    @Test
+    public void testRebuildOnModelEvent() {
+        when(indexerModel.getIndexers()).thenReturn(Lists.newArrayList(
+                indexer("idx1", SUBSCRIPTION, "<indexer table='table1'><field name='f' value='cf1:q1'/></indexer>")));
+        SubscriptionEventFilter filter = new SubscriptionEventFilter(SUBSCRIPTION, indexerModel);
+        assertFalse(filter.acceptTable(Bytes.toBytes("table2")));
+
+        when(indexerModel.getIndexers()).thenReturn(Lists.newArrayList(
+                indexer("idx1", SUBSCRIPTION, "<indexer table='table2'><field name='f' value='cf1:q1'/></indexer>")));
+        assertFalse("Filter is only rebuilt after a model event", filter.acceptTable(Bytes.toBytes("table2")));
+
+        filter.process(new IndexerModelEvent(IndexerModelEventType.INDEXER_UPDATED, "idx1"));
+        assertTrue(filter.acceptTable(Bytes.toBytes("table2")));
+        assertFalse(filter.acceptTable(Bytes.toBytes("table1")));
+    }
+
+}
@@ -190,6 +190,44 @@ public class DefaultResultToSolrMapperTest {
         assertFalse(resultToSolrMapper.containsRequiredData(result));
     }
 
+    @Test
+    public void testMapAtomicUpdate() {
+        FieldDefinition fieldDefA = new FieldDefinition("fieldA", "cfA:qualifierA", ValueSource.VALUE, "int");
+        FieldDefinition fieldDefB = new FieldDefinition("fieldB", "cfB:qualifierB", ValueSource.VALUE, "string");
+        FieldDefinition fieldDefC = new FieldDefinition("fieldC", "cfB:qualifierA", ValueSource.VALUE, "string");
+        DefaultResultToSolrMapper resultMapper = new DefaultResultToSolrMapper("index-name",
+                Lists.newArrayList(fieldDefA, fieldDefB, fieldDefC), Collections.<DocumentExtractDefinition>emptyList());
+
+        SolrInputDocument solrDocument = resultMapper.mapAtomicUpdate(Lists.newArrayList(
+                new KeyValue(ROW, COLUMN_FAMILY_A, QUALIFIER_A, 2L, Bytes.toBytes(43)),
+                new KeyValue(ROW, COLUMN_FAMILY_A, QUALIFIER_A, 1L, Bytes.toBytes(42)),
+                new KeyValue(ROW, COLUMN_FAMILY_B, QUALIFIER_B, 1L, Bytes.toBytes("value")),
+                new KeyValue(ROW, COLUMN_FAMILY_B, QUALIFIER_B, 2L, KeyValue.Type.DeleteColumn)));
+
+        // The most recent change of each column is used, the unchanged fieldC is left alone
+        assertEquals(Sets.newHashSet("fieldA", "fieldB"), solrDocument.keySet());
+        assertEquals(Collections.singletonMap("set", Lists.newArrayList(43)), solrDocument.getFieldValue("fieldA"));
+        assertEquals(Collections.singletonMap("set", null), solrDocument.getFieldValue("fieldB"));
+    }
+
+    @Test
+    public void testMapAtomicUpdate_NotPossible() {
+        FieldDefinition fieldDefA = new FieldDefinition("fieldA", "cfA:qualifierA", ValueSource.VALUE, "int");
+        FieldDefinition fieldDefB = new FieldDefinition("fieldB", "cfB:qual*", ValueSource.VALUE, "string");
+        DefaultResultToSolrMapper resultMapper = new DefaultResultToSolrMapper("index-name",
+                Lists.newArrayList(fieldDefA, fieldDefB), Collections.<DocumentExtractDefinition>emptyList());
+
+        // A field from multiple columns can't be set from a single one of them
+        assertNull(resultMapper.mapAtomicUpdate(Lists.newArrayList(
+                new KeyValue(ROW, COLUMN_FAMILY_B, QUALIFIER_B, Bytes.toBytes("value")))));
+        // Deletes of a family (or a row) can't be expressed as an atomic update
+        assertNull(resultMapper.mapAtomicUpdate(Lists.newArrayList(
+                new KeyValue(ROW, COLUMN_FAMILY_A, null, 1L, KeyValue.Type.DeleteFamily))));
+        // Neither can the deletion of a single version, which can uncover an older one
+        assertNull(resultMapper.mapAtomicUpdate(Lists.newArrayList(
+                new KeyValue(ROW, COLUMN_FAMILY_A, QUALIFIER_A, 1L, KeyValue.Type.Delete))));
+    }
+
     public static class DummyValueMapper implements ByteArrayValueMapper {
 
         @Override
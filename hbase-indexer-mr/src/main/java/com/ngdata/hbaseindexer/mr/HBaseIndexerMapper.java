@@ -15,6 +15,7 @@
  */
 package com.ngdata.hbaseindexer.mr;
 
+import static com.ngdata.hbaseindexer.indexer.SolrServerFactory.createCloudSolrServer;
 import static com.ngdata.hbaseindexer.indexer.SolrServerFactory.createHttpSolrServers;
 import static com.ngdata.hbaseindexer.indexer.SolrServerFactory.createSharder;
 import static com.ngdata.hbaseindexer.util.solr.SolrConnectionParamUtil.getSolrMaxConnectionsPerRoute;
@@ -42,7 +43,6 @@ import org.apache.hadoop.hbase.mapreduce.TableMapper;
 import org.apache.hadoop.hbase.mapreduce.TableSplit;
 import org.apache.hadoop.io.Text;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.impl.CloudSolrServer;
 import org.apache.solr.hadoop.SolrInputDocumentWritable;
 import org.apache.solr.hadoop.SolrOutputFormat;
 import org.apache.solr.hadoop.Utils;
@@ -266,8 +266,7 @@ public class HBaseIndexerMapper extends TableMapper<Text, SolrInputDocumentWrita
         if (collectionName == null) {
             throw new IllegalStateException("No collection name defined");
         }
-        CloudSolrServer solrServer = new CloudSolrServer(indexZkHost);
-        solrServer.setDefaultCollection(collectionName);
+        SolrServer solrServer = createCloudSolrServer(indexConnectionParams);
 
         return new DirectSolrInputDocumentWriter(context.getConfiguration().get(INDEX_NAME_CONF_KEY), solrServer);
     }
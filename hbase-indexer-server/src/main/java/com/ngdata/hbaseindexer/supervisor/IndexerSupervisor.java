@@ -17,12 +17,17 @@ package com.ngdata.hbaseindexer.supervisor;
 
 import static com.ngdata.hbaseindexer.indexer.SolrServerFactory.createCloudSolrServer;
 import static com.ngdata.hbaseindexer.indexer.SolrServerFactory.createHttpSolrServers;
+import static com.ngdata.hbaseindexer.indexer.SolrServerFactory.createRequestWriter;
 import static com.ngdata.hbaseindexer.indexer.SolrServerFactory.createSharder;
 import static com.ngdata.hbaseindexer.model.api.IndexerModelEventType.INDEXER_ADDED;
 import static com.ngdata.hbaseindexer.model.api.IndexerModelEventType.INDEXER_DELETED;
 import static com.ngdata.hbaseindexer.model.api.IndexerModelEventType.INDEXER_UPDATED;
 import static com.ngdata.hbaseindexer.util.solr.SolrConnectionParamUtil.getSolrMaxConnectionsPerRoute;
 import static com.ngdata.hbaseindexer.util.solr.SolrConnectionParamUtil.getSolrMaxConnectionsTotal;
+import static com.ngdata.hbaseindexer.util.solr.SolrConnectionParamUtil.getSolrUpdateBatchSize;
+import static com.ngdata.hbaseindexer.util.solr.SolrConnectionParamUtil.getSolrUpdateQueueSize;
+import static com.ngdata.hbaseindexer.util.solr.SolrConnectionParamUtil.getSolrUpdateRunners;
+import static com.ngdata.hbaseindexer.util.solr.SolrConnectionParamUtil.isSolrCloudLeaderRouting;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -35,20 +40,32 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.ngdata.hbaseindexer.conf.IndexerComponentFactory;
 import com.ngdata.hbaseindexer.conf.IndexerComponentFactoryUtil;
 import com.ngdata.hbaseindexer.conf.IndexerConf;
+import com.ngdata.hbaseindexer.indexer.CoalescingSolrInputDocumentWriter;
 import com.ngdata.hbaseindexer.indexer.DirectSolrClassicInputDocumentWriter;
 import com.ngdata.hbaseindexer.indexer.DirectSolrInputDocumentWriter;
+import com.ngdata.hbaseindexer.indexer.DocumentVersionTracker;
 import com.ngdata.hbaseindexer.indexer.Indexer;
 import com.ngdata.hbaseindexer.indexer.IndexingEventListener;
+import com.ngdata.hbaseindexer.indexer.LeaderRoutingSolrInputDocumentWriter;
+import com.ngdata.hbaseindexer.indexer.RowCache;
+import com.ngdata.hbaseindexer.indexer.RowIndexingPipeline;
+import com.ngdata.hbaseindexer.indexer.RunInCallerPolicy;
 import com.ngdata.hbaseindexer.indexer.Sharder;
 import com.ngdata.hbaseindexer.indexer.SolrInputDocumentWriter;
+import com.ngdata.hbaseindexer.indexer.StreamingSolrInputDocumentWriter;
 import com.ngdata.hbaseindexer.model.api.IndexerDefinition;
 import com.ngdata.hbaseindexer.model.api.IndexerDefinition.IncrementalIndexingState;
 import com.ngdata.hbaseindexer.model.api.IndexerModel;
@@ -58,6 +75,7 @@ import com.ngdata.hbaseindexer.model.api.IndexerNotFoundException;
 import com.ngdata.hbaseindexer.model.api.IndexerProcessRegistry;
 import com.ngdata.hbaseindexer.parse.ResultToSolrMapper;
 import com.ngdata.hbaseindexer.util.solr.SolrConnectionParamUtil;
+import com.ngdata.sep.impl.SepConfKeys;
 import com.ngdata.sep.impl.SepConsumer;
 import com.ngdata.sep.util.io.Closer;
 import com.ngdata.sep.util.zookeeper.ZooKeeperItf;
@@ -106,6 +124,17 @@ public class IndexerSupervisor {
 
     private final Configuration hbaseConf;
 
+    /**
+     * Shared by the row-based indexers, null if row indexing isn't pipelined.
+     */
+    private RowIndexingPipeline rowIndexingPipeline;
+
+    /**
+     * Shared by the indexers that write to classic Solr shards or to SolrCloud leaders, null if these are written one
+     * after the other.
+     */
+    private ExecutorService shardWriteExecutor;
+
     private final Log log = LogFactory.getLog(getClass());
 
     /**
@@ -129,6 +158,27 @@ public class IndexerSupervisor {
 
     @PostConstruct
     public void init() {
+        int pipelineReadThreads = hbaseConf.getInt("hbaseindexer.indexer.pipeline.read.threads", 0);
+        if (pipelineReadThreads > 0) {
+            int pipelineMapThreads = hbaseConf.getInt("hbaseindexer.indexer.pipeline.map.threads", 0);
+            if (pipelineMapThreads <= 0) {
+                pipelineMapThreads = Runtime.getRuntime().availableProcessors();
+            }
+            rowIndexingPipeline = new RowIndexingPipeline(pipelineReadThreads, pipelineMapThreads,
+                    hbaseConf.getInt("hbaseindexer.indexer.pipeline.queue.capacity", 100),
+                    hbaseConf.getInt("hbaseindexer.indexer.pipeline.chunk.size", 20),
+                    hbaseConf.getInt("hbaseindexer.indexer.pipeline.max.inflight.chunks", 4));
+        }
+
+        int shardWriteThreads = hbaseConf.getInt("hbaseindexer.indexer.shard.write.threads", 0);
+        if (shardWriteThreads > 0) {
+            // Without a queue, the indexer thread writes a shard itself when all threads are busy
+            shardWriteExecutor = new ThreadPoolExecutor(shardWriteThreads, shardWriteThreads, 0L, TimeUnit.MILLISECONDS,
+                    new SynchronousQueue<Runnable>(),
+                    new ThreadFactoryBuilder().setNameFormat("indexer-shard-write-%d").setDaemon(true).build(),
+                    new RunInCallerPolicy());
+        }
+
         eventWorker = new EventWorker();
         eventWorkerThread = new Thread(eventWorker, "IndexerWorkerEventWorker");
         eventWorkerThread.start();
@@ -162,6 +212,15 @@ public class IndexerSupervisor {
             }
         }
 
+        // Stopping the indexers waited for their workers, so these pools are no longer used
+        if (rowIndexingPipeline != null) {
+            rowIndexingPipeline.shutdown();
+        }
+
+        if (shardWriteExecutor != null) {
+            shardWriteExecutor.shutdown();
+        }
+
     }
 
     public int getEventCount() {
@@ -207,7 +266,14 @@ public class IndexerSupervisor {
                 Map<String, String> connectionParams = indexerDef.getConnectionParams();
                 String solrMode = SolrConnectionParamUtil.getSolrMode(connectionParams);
                 if (solrMode.equals("cloud")) {
-                    solrWriter = new DirectSolrInputDocumentWriter(indexerDef.getName(), createCloudSolrServer(connectionParams));
+                    if (isSolrCloudLeaderRouting(connectionParams)) {
+                        solrWriter = new LeaderRoutingSolrInputDocumentWriter(indexerDef.getName(),
+                                createCloudSolrServer(connectionParams), createRequestWriter(connectionParams),
+                                shardWriteExecutor);
+                    } else {
+                        solrWriter = new DirectSolrInputDocumentWriter(indexerDef.getName(),
+                                createCloudSolrServer(connectionParams));
+                    }
                 } else if (solrMode.equals("classic")) {
                     connectionManager = new PoolingClientConnectionManager();
                     connectionManager.setDefaultMaxPerRoute(getSolrMaxConnectionsPerRoute(connectionParams));
@@ -216,6 +282,12 @@ public class IndexerSupervisor {
                     httpClient = new DefaultHttpClient(connectionManager);
                     List<SolrServer> solrServers = createHttpSolrServers(connectionParams, httpClient);
                     solrWriter = new DirectSolrClassicInputDocumentWriter(indexerDef.getName(), solrServers);
+                    int updateRunners = getSolrUpdateRunners(connectionParams);
+                    if (updateRunners > 0) {
+                        solrWriter = new StreamingSolrInputDocumentWriter(indexerDef.getName(), solrWriter,
+                                getSolrUpdateQueueSize(connectionParams), updateRunners,
+                                getSolrUpdateBatchSize(connectionParams));
+                    }
                     sharder = createSharder(connectionParams, solrServers.size());
                 } else {
                     throw new RuntimeException("Only 'cloud' and 'classic' are valid values for solr.mode, but got " + solrMode);
@@ -225,8 +297,28 @@ public class IndexerSupervisor {
                         "Invalid connection type: " + indexerDef.getConnectionType() + ". Only 'solr' is supported");
             }
 
+            if (hbaseConf.getBoolean("hbaseindexer.indexer.write.coalescing", false)) {
+                solrWriter = new CoalescingSolrInputDocumentWriter(indexerDef.getName(), solrWriter,
+                        hbaseConf.getInt("hbaseindexer.indexer.write.coalescing.max.documents", 500),
+                        hbaseConf.getLong("hbaseindexer.indexer.write.coalescing.max.bytes", 5242880L),
+                        hbaseConf.getLong("hbaseindexer.indexer.write.coalescing.linger.ms", 10L));
+            }
+
+            RowCache rowCache = null;
+            int rowCacheSize = hbaseConf.getInt("hbaseindexer.indexer.rowcache.size", 0);
+            if (rowCacheSize > 0) {
+                rowCache = new RowCache(rowCacheSize, hbaseConf.getLong("hbaseindexer.indexer.rowcache.ttl", 5000L));
+            }
+
+            DocumentVersionTracker versionTracker = null;
+            int versionTrackingSize = hbaseConf.getInt("hbaseindexer.indexer.version.tracking.size", 0);
+            if (versionTrackingSize > 0) {
+                versionTracker = new DocumentVersionTracker(versionTrackingSize);
+            }
+
             Indexer indexer = Indexer.createIndexer(indexerDef.getName(), indexerConf, indexerConf.getTable(),
-                    mapper, htablePool, sharder, solrWriter);
+                    mapper, htablePool, sharder, solrWriter, rowIndexingPipeline, rowCache, versionTracker,
+                    shardWriteExecutor);
             IndexingEventListener eventListener = new IndexingEventListener(
                     indexer, indexerConf.getTable(), indexerConf.tableNameIsRegex());
 
@@ -235,7 +327,7 @@ public class IndexerSupervisor {
                     indexerDef.getSubscriptionTimestamp(), eventListener, threads, hostName,
                     zk, hbaseConf, null);
 
-            handle = new IndexerHandle(indexerDef, indexer, sepConsumer, solr, connectionManager);
+            handle = new IndexerHandle(indexerDef, indexer, sepConsumer, solr, solrWriter, connectionManager);
             handle.start();
 
             indexers.put(indexerDef.getName(), handle);
@@ -352,14 +444,17 @@ public class IndexerSupervisor {
         private final Indexer indexer;
         private final SepConsumer sepConsumer;
         private final SolrServer solrServer;
+        private final SolrInputDocumentWriter solrWriter;
         private final PoolingClientConnectionManager connectionManager;
 
         public IndexerHandle(IndexerDefinition indexerDef, Indexer indexer, SepConsumer sepEventSlave,
-                             SolrServer solrServer, PoolingClientConnectionManager connectionManager) {
+                             SolrServer solrServer, SolrInputDocumentWriter solrWriter,
+                             PoolingClientConnectionManager connectionManager) {
             this.indexerDef = indexerDef;
             this.indexer = indexer;
             this.sepConsumer = sepEventSlave;
             this.solrServer = solrServer;
+            this.solrWriter = solrWriter;
             this.connectionManager = connectionManager;
         }
 
@@ -369,9 +464,18 @@ public class IndexerSupervisor {
 
         public void stop() throws InterruptedException {
             Closer.close(sepConsumer);
-            Closer.close(solrServer);
-            Closer.close(indexer);
-            Closer.close(connectionManager);
+            try {
+                // The workers can still be using the Solr connections and the pools that are shared by the indexers
+                long timeout = hbaseConf.getLong(SepConfKeys.STOP_TIMEOUT, SepConfKeys.DEFAULT_STOP_TIMEOUT);
+                if (!sepConsumer.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                    log.warn("Indexer " + indexerDef.getName() + " was still busy " + timeout + " ms after stopping");
+                }
+            } finally {
+                Closer.close(solrServer);
+                Closer.close(indexer);
+                Closer.close(solrWriter);
+                Closer.close(connectionManager);
+            }
         }
     }
 
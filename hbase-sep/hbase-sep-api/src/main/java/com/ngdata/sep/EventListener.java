@@ -27,6 +27,9 @@ public interface EventListener {
      * <p>
      * If an exception is thrown while processing a batch of messages, all messages in the batch will be retried later
      * by the SEP. For this reason, message handling should be idempotent.
+     * <p>
+     * The supplied list is reused by the SEP once this method returns, so implementations that want to keep hold of
+     * the events should copy them.
      * 
      * @param events contains events representing the HBase update
      */
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep;
+
+/**
+ * {@link EventListener} that only needs to receive part of the replicated data, as described by a
+ * {@link SepEventFilter}. The SEP consumer applies the filter while it reads the replicated cells, so that no events are
+ * created for data that would be ignored by the listener anyway.
+ */
+public interface FilteringEventListener extends EventListener {
+
+    /**
+     * Returns the filter for the events to be delivered to this listener. This is called once, when the listener is
+     * registered with a consumer.
+     *
+     * @return the filter to apply, or null to receive all events
+     */
+    SepEventFilter getEventFilter();
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep;
+
+/**
+ * {@link EventListener} that wants to be informed about the replication lag of the events that it has processed, for
+ * instance to expose it in its metrics.
+ */
+public interface LagAwareEventListener extends EventListener {
+
+    /**
+     * Called when all events of a replication shipment have been processed. Can be called concurrently from
+     * multiple threads, so should be quick and thread-safe.
+     *
+     * @param source identifies the replication source (region server) that sent the shipment
+     * @param lag time in milliseconds between the write of the oldest WAL entry of the shipment and the moment at
+     *        which all its events were processed
+     */
+    void shipmentProcessed(String source, long lag);
+
+}
@@ -15,16 +15,17 @@
  */
 package com.ngdata.sep;
 
+import java.util.Arrays;
 import java.util.List;
 
-import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
-import org.apache.commons.lang.builder.ToStringBuilder;
-import org.apache.commons.lang.builder.ToStringStyle;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * Contains information about a single atomic mutation that has occurred on a row in HBase.
+ * <p>
+ * Subclasses can provide the row and KeyValues lazily (e.g. from the HBase version-specific representation in which
+ * they were received) by overriding {@link #getRow()} and {@link #getKeyValues()}.
  */
 public class SepEvent {
 
@@ -48,6 +49,16 @@ public class SepEvent {
         this.keyValues = keyValues;
     }
 
+    /**
+     * Constructor for subclasses that override {@link #getRow()} and {@link #getKeyValues()}.
+     *
+     * @param table The HBase table on which the event was triggered
+     * @param payload Optional additional payload containing data about the data mutation(s)
+     */
+    protected SepEvent(byte[] table, byte[] payload) {
+        this(table, null, null, payload);
+    }
+
     /**
      * Retrieve the table where this event was triggered.
      * 
@@ -92,23 +103,33 @@ public class SepEvent {
         if (obj == this) {
             return true;
         }
-        if (obj.getClass() != getClass()) {
+        if (!(obj instanceof SepEvent)) {
             return false;
         }
         SepEvent rhs = (SepEvent)obj;
-        return new EqualsBuilder().append(table, rhs.table).append(row, rhs.row).append(keyValues, rhs.keyValues).append(
-                payload, rhs.payload).isEquals();
+        List<KeyValue> keyValues = getKeyValues();
+        List<KeyValue> rhsKeyValues = rhs.getKeyValues();
+        return Arrays.equals(getTable(), rhs.getTable()) && Arrays.equals(getRow(), rhs.getRow())
+                && (keyValues == null ? rhsKeyValues == null : keyValues.equals(rhsKeyValues))
+                && Arrays.equals(getPayload(), rhs.getPayload());
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder().append(table).append(row).append(keyValues).append(payload).toHashCode();
+        // The KeyValues are left out, as they are relatively expensive to hash and mostly determined by the row
+        int hash = Arrays.hashCode(getTable());
+        hash = 31 * hash + Arrays.hashCode(getRow());
+        return 31 * hash + Arrays.hashCode(getPayload());
     }
 
     @Override
     public String toString() {
-        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).append(table).append(row).append(keyValues).append(
-                payload).toString();
+        return "SepEvent[table=" + toStringBinary(getTable()) + ",row=" + toStringBinary(getRow()) + ",keyValues="
+                + getKeyValues() + ",payload=" + toStringBinary(getPayload()) + "]";
+    }
+
+    private static String toStringBinary(byte[] bytes) {
+        return bytes != null ? Bytes.toStringBinary(bytes) : "null";
     }
 
 }
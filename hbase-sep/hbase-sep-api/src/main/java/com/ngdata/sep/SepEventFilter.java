@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep;
+
+/**
+ * Filter that is supplied by a {@link FilteringEventListener} to skip data in which the listener has no interest,
+ * before any {@link SepEvent}s are created for it.
+ * <p>
+ * Filtering is done per cell, rows of which no cells are accepted don't result in an event at all. Delete markers are
+ * always passed on regardless of their column, as listeners typically need them to remove data. Payloads are
+ * extracted before filtering.
+ * <p>
+ * Implementations are called concurrently from multiple threads, for every replicated cell, so they should be
+ * thread-safe and cheap.
+ */
+public interface SepEventFilter {
+
+    /**
+     * Check if the listener is interested in any data of a table.
+     *
+     * @param table name of the table
+     * @return true if the cells of the table should be considered, false to skip them all
+     */
+    boolean acceptTable(byte[] table);
+
+    /**
+     * Check if the listener is interested in a column. The family and qualifier are supplied as ranges within arrays
+     * (typically the backing array of the cell), which must not be modified.
+     *
+     * @return true if cells of the column should be included in events
+     */
+    boolean acceptColumn(byte[] familyArray, int familyOffset, int familyLength, byte[] qualifierArray,
+            int qualifierOffset, int qualifierLength);
+
+}
@@ -15,7 +15,7 @@
  */
 package com.ngdata.sep;
 
-import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
 
 /**
  * Filter for removing non-applicable {@code KeyValue}s from {@code WALEdit}s before they are replicated via HBase replication.
@@ -23,12 +23,14 @@ import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 public interface WALEditFilter {
 
     /**
-     * Apply filtering to a WALEdit.
+     * Apply filtering to a WAL entry.
      * <p>
-     * All KeyValues that are to not be replicated are removed from the WALEdit in this call.
+     * All KeyValues that are to not be replicated are removed from the entry's {@code WALEdit} ({@code
+     * entry.getEdit()}) in this call. The entry's key, which identifies the table and region of the edit, is
+     * available to base the filtering on.
      *
-     * @param walEdit edit from which KeyValues can be removed before replication
+     * @param entry WAL entry from whose edit KeyValues can be removed before replication
      */
-    void apply(WALEdit walEdit);
+    void apply(HLog.Entry entry);
 
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.ngdata.sep.SepEventFilter;
+import com.ngdata.sep.WALEditFilter;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
+
+/**
+ * {@link WALEditFilter} that applies a {@link SepEventFilter} on the region server, so that data which is of no
+ * interest to the SEP consumers is not shipped to them at all.
+ * <p>
+ * All KeyValues of tables that are not accepted are removed. For accepted tables, KeyValues for columns that are not
+ * accepted are removed, except for delete markers which are always replicated. Payload columns are not treated
+ * specially, so the filter should accept them if the consumers make use of a {@code PayloadExtractor}.
+ */
+public class EventFilterWALEditFilter implements WALEditFilter {
+
+    private final SepEventFilter eventFilter;
+
+    public EventFilterWALEditFilter(SepEventFilter eventFilter) {
+        this.eventFilter = Preconditions.checkNotNull(eventFilter, "eventFilter");
+    }
+
+    @Override
+    public void apply(HLog.Entry entry) {
+        List<KeyValue> keyValues = entry.getEdit().getKeyValues();
+        if (keyValues.isEmpty()) {
+            return;
+        }
+        if (!eventFilter.acceptTable(entry.getKey().getTablename())) {
+            keyValues.clear();
+            return;
+        }
+        // Compact the accepted KeyValues to the front of the list, rather than removing them one by one
+        int size = keyValues.size();
+        int accepted = 0;
+        for (int i = 0; i < size; i++) {
+            KeyValue keyValue = keyValues.get(i);
+            if (isAccepted(keyValue)) {
+                if (accepted != i) {
+                    keyValues.set(accepted, keyValue);
+                }
+                accepted++;
+            }
+        }
+        if (accepted < size) {
+            keyValues.subList(accepted, size).clear();
+        }
+    }
+
+    private boolean isAccepted(KeyValue keyValue) {
+        // Delete markers are always passed on, the consumers need them to remove data
+        return keyValue.isDelete() || keyValue.isDeleteFamily()
+                || eventFilter.acceptColumn(keyValue.getBuffer(), keyValue.getFamilyOffset(),
+                        keyValue.getFamilyLength(), keyValue.getBuffer(), keyValue.getQualifierOffset(),
+                        keyValue.getQualifierLength());
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + eventFilter + "]";
+    }
+
+}
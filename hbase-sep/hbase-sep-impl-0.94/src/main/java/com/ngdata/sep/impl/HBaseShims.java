@@ -21,12 +21,31 @@ import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Result;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import com.ngdata.sep.SepEvent;
+
 
 public class HBaseShims {
   public static Get newGet() { return new Get(); }
   public static Result newResult(List<KeyValue> list) { return new Result(list); }
   public static EmptyWatcher getEmptyWatcherInstance() { return EmptyWatcher.instance; }
   public static String getHLogDirectoryName(String serverName) { return HLog.getHLogDirectoryName(serverName); }
+
+  /**
+   * Makes a Result of the KeyValues of a SepEvent, leaving out the delete-type KeyValues.
+   */
+  public static Result newResult(SepEvent sepEvent) {
+    List<KeyValue> filteredKeyValues = new ArrayList<KeyValue>(sepEvent.getKeyValues().size());
+    for (KeyValue kv : sepEvent.getKeyValues()) {
+      if (!kv.isDelete() && !kv.isDeleteFamily()) {
+        filteredKeyValues.add(kv);
+      }
+    }
+    // A Result object requires that the KeyValues are sorted (e.g., it does binary search on them)
+    Collections.sort(filteredKeyValues, KeyValue.COMPARATOR);
+    return new Result(filteredKeyValues);
+  }
 }
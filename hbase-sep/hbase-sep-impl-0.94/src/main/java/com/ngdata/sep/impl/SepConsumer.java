@@ -16,24 +16,19 @@
 package com.ngdata.sep.impl;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.ngdata.sep.EventListener;
+import com.ngdata.sep.FilteringEventListener;
+import com.ngdata.sep.LagAwareEventListener;
 import com.ngdata.sep.PayloadExtractor;
 import com.ngdata.sep.SepEvent;
+import com.ngdata.sep.SepEventFilter;
 import com.ngdata.sep.SepModel;
-import com.ngdata.sep.util.concurrent.WaitPolicy;
+import com.ngdata.sep.util.concurrent.PartitionedExecutor;
+import com.ngdata.sep.util.concurrent.ThreadFactories;
 import com.ngdata.sep.util.io.Closer;
 import com.ngdata.sep.util.zookeeper.ZooKeeperItf;
 import org.apache.commons.logging.Log;
@@ -42,6 +37,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.ipc.HBaseRPC;
+import org.apache.hadoop.hbase.ipc.HBaseServer;
 import org.apache.hadoop.hbase.ipc.HRegionInterface;
 import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
@@ -74,9 +70,14 @@ public class SepConsumer extends BaseHRegionServer {
     private ServerName serverName;
     private ZooKeeperWatcher zkWatcher;
     private SepMetrics sepMetrics;
+    private final LagTracker lagTracker;
     private final PayloadExtractor payloadExtractor;
     private String zkNodePath;
-    private List<ThreadPoolExecutor> executors;
+    private final PartitionedExecutor executor;
+    private SepEventExecutor eventExecutor;
+    private EventSpiller eventSpiller;
+    private final boolean coalesceRows;
+    private final SepEventFilter eventFilter;
     boolean running = false;
     private Log log = LogFactory.getLog(getClass());
 
@@ -112,8 +113,9 @@ public class SepConsumer extends BaseHRegionServer {
         this.zk = zk;
         this.hbaseConf = hbaseConf;
         this.sepMetrics = new SepMetrics(subscriptionId);
+        this.lagTracker = new LagTracker(sepMetrics,
+                listener instanceof LagAwareEventListener ? (LagAwareEventListener)listener : null);
         this.payloadExtractor = payloadExtractor;
-        this.executors = Lists.newArrayListWithCapacity(threadCnt);
         
         // TODO see same call in HBase's HRegionServer:
         // - should we do HBaseRPCErrorHandler ?
@@ -133,16 +135,30 @@ public class SepConsumer extends BaseHRegionServer {
         User.login(hbaseConf, "hbase.regionserver.keytab.file",
                    "hbase.regionserver.kerberos.principal", hostName);
 
-        for (int i = 0; i < threadCnt; i++) {
-            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
-                    new ArrayBlockingQueue<Runnable>(100));
-            executor.setRejectedExecutionHandler(new WaitPolicy());
-            executors.add(executor);
-        }
+        int queueCapacity = hbaseConf.getInt(SepConfKeys.QUEUE_CAPACITY, SepConfKeys.DEFAULT_QUEUE_CAPACITY);
+        int numPartitions = threadCnt * hbaseConf.getInt(SepConfKeys.PARTITIONS_PER_THREAD,
+                SepConfKeys.DEFAULT_PARTITIONS_PER_THREAD);
+        this.executor = new PartitionedExecutor(threadCnt, numPartitions, threadCnt * queueCapacity,
+                ThreadFactories.newThreadFactory(hbaseConf.get(SepConfKeys.THREAD_FACTORY), "sep-" + subscriptionId));
+
+        boolean spilling = EventSpiller.isEnabled(hbaseConf);
+        // HBase can't redeliver the events of shipments that are acknowledged before they are processed
+        this.eventExecutor = new SepEventExecutor(listener, executor.getPartitions(),
+                BatchSizeController.create(hbaseConf, numPartitions), sepMetrics, spilling);
+        this.eventSpiller = EventSpiller.create(hbaseConf, subscriptionId, eventExecutor, lagTracker);
+        this.coalesceRows = hbaseConf.getBoolean(SepConfKeys.COALESCE_ROWS, false);
+        this.eventFilter = listener instanceof FilteringEventListener
+                ? ((FilteringEventListener)listener).getEventFilter() : null;
+        // Registered last, as nothing unregisters it when constructing the consumer fails
+        this.lagTracker.registerMBean(subscriptionId);
     }
 
     public void start() throws IOException, InterruptedException, KeeperException {
 
+        if (eventSpiller != null) {
+            // Replay the events that were spilled before a restart
+            eventSpiller.start();
+        }
         rpcServer.start();
 
         // Publish our existence in ZooKeeper
@@ -169,12 +185,37 @@ public class SepConsumer extends BaseHRegionServer {
                 }
             }
         }
+        if (eventSpiller != null) {
+            eventSpiller.stop();
+        }
         sepMetrics.shutdown();
-        for (ThreadPoolExecutor executor : executors) {
+        lagTracker.unregisterMBean();
+        if (eventSpiller != null) {
+            // Failed batches are retried indefinitely in spilling mode, so interrupt them
+            executor.shutdownNow();
+        } else {
             executor.shutdown();
         }
     }
 
+    /**
+     * Identifies the replication source (i.e. the region server) that sent the RPC that is currently being handled.
+     */
+    private String getRemoteSource() {
+        String remoteAddress = HBaseServer.getRemoteAddress();
+        return remoteAddress != null ? remoteAddress : "unknown";
+    }
+
+    /**
+     * Wait until the worker threads have finished processing the events that were handed to them before
+     * {@link #stop()}.
+     *
+     * @return false if the workers were still busy when the timeout expired
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
     public boolean isRunning() {
         return running;
     }
@@ -182,75 +223,135 @@ public class SepConsumer extends BaseHRegionServer {
     @Override
     public void replicateLogEntries(HLog.Entry[] entries) throws IOException {
 
-        // TODO Recording of last processed timestamp won't work if two batches of log entries are sent out of order
-        long lastProcessedTimestamp = -1;
+        // Write times of the oldest and newest WAL entry, to keep track of the lag per source
+        long firstWriteTime = -1;
+        long lastWriteTime = -1;
 
-        SepEventExecutor eventExecutor = new SepEventExecutor(listener, executors, 100, sepMetrics);
-        
-        for (final HLog.Entry entry : entries) {
-            final HLogKey entryKey = entry.getKey();
-            if (entryKey.getWriteTime() < subscriptionTimestamp) {
-                continue;
+        String source = getRemoteSource();
+        // When spilling, the events are written to the spill log instead, and acknowledged once they are durable
+        SepEventExecutor.Shipment shipment = eventSpiller == null ? eventExecutor.startShipment() : null;
+        EventSpiller.Batch spillBatch = eventSpiller != null ? eventSpiller.startBatch(source) : null;
+        SepEventSink sink = shipment != null ? shipment : spillBatch;
+        try {
+            RowGrouper<KeyValue> rowGrouper = new RowGrouper<KeyValue>();
+            RowCoalescer<KeyValue> rowCoalescer = coalesceRows ? new KeyValueRowCoalescer() : null;
+            for (final HLog.Entry entry : entries) {
+                final HLogKey entryKey = entry.getKey();
+                if (entryKey.getWriteTime() < subscriptionTimestamp) {
+                    continue;
+                }
+                firstWriteTime = firstWriteTime < 0 ? entryKey.getWriteTime()
+                        : Math.min(firstWriteTime, entryKey.getWriteTime());
+                lastWriteTime = Math.max(lastWriteTime, entryKey.getWriteTime());
+                byte[] tableName = entryKey.getTablename();
+                if (eventFilter != null && !eventFilter.acceptTable(tableName)) {
+                    continue;
+                }
+                rowGrouper.reset();
+                for (final KeyValue kv : entry.getEdit().getKeyValues()) {
+                    byte[] payload = payloadExtractor != null ? payloadExtractor.extractPayload(tableName, kv) : null;
+                    if (payload == null && isFilteredOut(kv)) {
+                        continue;
+                    }
+                    RowGrouper.RowGroup<KeyValue> rowGroup = rowGrouper.add(kv, kv.getBuffer(), kv.getRowOffset(),
+                            kv.getRowLength());
+                    if (payload != null) {
+                        if (rowGroup.getPayload() != null) {
+                            log.error("Multiple payloads encountered for row " + rowGroup
+                                    + ", choosing " + Bytes.toStringBinary(rowGroup.getPayload()));
+                        } else {
+                            rowGroup.setPayload(payload);
+                        }
+                    }
+                }
+            
+                for (int i = 0; i < rowGrouper.getGroupCount(); i++) {
+                    RowGrouper.RowGroup<KeyValue> rowGroup = rowGrouper.getGroup(i);
+                    if (rowCoalescer != null) {
+                        rowCoalescer.add(tableName, rowGroup);
+                    } else {
+                        scheduleSepEvent(sink, tableName, rowGroup);
+                    }
+                }
+
+            }
+            if (rowCoalescer != null) {
+                for (int t = 0; t < rowCoalescer.getTableCount(); t++) {
+                    RowGrouper<KeyValue> coalescedRows = rowCoalescer.getRowGrouper(t);
+                    for (int i = 0; i < coalescedRows.getGroupCount(); i++) {
+                        scheduleSepEvent(sink, rowCoalescer.getTable(t), coalescedRows.getGroup(i));
+                    }
+                }
+            }
+            if (spillBatch != null) {
+                // The spiller registers the shipment with the lag tracker once it has been appended
+                if (spillBatch.getEventCount() > 0 || lastWriteTime > 0) {
+                    eventSpiller.append(spillBatch, firstWriteTime, lastWriteTime);
+                }
+                return;
             }
-            byte[] tableName = entryKey.getTablename();
-            Multimap<ByteBuffer, KeyValue> keyValuesPerRowKey = ArrayListMultimap.create();
-            final Map<ByteBuffer, byte[]> payloadPerRowKey = Maps.newHashMap();
-            for (final KeyValue kv : entry.getEdit().getKeyValues()) {
-                ByteBuffer rowKey = ByteBuffer.wrap(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
-                byte[] payload;
-                if (payloadExtractor != null && (payload = payloadExtractor.extractPayload(tableName, kv)) != null) {
-                    if (payloadPerRowKey.containsKey(rowKey)) {
-                        log.error("Multiple payloads encountered for row " + Bytes.toStringBinary(kv.getRow())
-                                + ", choosing " + Bytes.toStringBinary(payloadPerRowKey.get(rowKey)));
+            shipment.flush();
+            LagTracker.PendingShipment lagShipment = lastWriteTime > 0
+                    ? lagTracker.register(source, firstWriteTime, lastWriteTime) : null;
+            boolean processed = false;
+            try {
+                waitOnSepEventCompletion(shipment);
+                processed = true;
+            } finally {
+                if (lagShipment != null) {
+                    if (processed) {
+                        lagTracker.completed(lagShipment);
                     } else {
-                        payloadPerRowKey.put(rowKey, payload);
+                        lagTracker.failed(lagShipment);
                     }
                 }
-                keyValuesPerRowKey.put(rowKey, kv);
             }
-            
-            for (final ByteBuffer rowKeyBuffer : keyValuesPerRowKey.keySet()) {
-                final List<KeyValue> keyValues = (List<KeyValue>)keyValuesPerRowKey.get(rowKeyBuffer);
-
-                final SepEvent sepEvent = new SepEvent(tableName, keyValues.get(0).getRow(), keyValues,
-                        payloadPerRowKey.get(rowKeyBuffer));
-                eventExecutor.scheduleSepEvent(sepEvent);
-                lastProcessedTimestamp = Math.max(lastProcessedTimestamp, entry.getKey().getWriteTime());
+        } finally {
+            if (shipment != null) {
+                shipment.release();
             }
-
         }
-        List<Future<?>> futures = eventExecutor.flush();
-        waitOnSepEventCompletion(futures);
+    }
+
+    /**
+     * Checks if a KeyValue should be skipped according to the event filter of the listener.
+     */
+    private boolean isFilteredOut(KeyValue kv) {
+        // Delete markers are always passed on, the listener needs them to remove data
+        return eventFilter != null && !kv.isDelete() && !kv.isDeleteFamily()
+                && !eventFilter.acceptColumn(kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength(),
+                        kv.getBuffer(), kv.getQualifierOffset(), kv.getQualifierLength());
+    }
 
-        if (lastProcessedTimestamp > 0) {
-            sepMetrics.reportSepTimestamp(lastProcessedTimestamp);
+    private void scheduleSepEvent(SepEventSink sink, byte[] tableName,
+            RowGrouper.RowGroup<KeyValue> rowGroup) {
+        List<KeyValue> keyValues = rowGroup.getCells();
+        if (keyValues.isEmpty()) {
+            return;
         }
+        sink.scheduleSepEvent(new SepEvent(tableName, keyValues.get(0).getRow(), keyValues,
+                rowGroup.getPayload()));
     }
 
-    private void waitOnSepEventCompletion(List<Future<?>> futures) throws IOException {
+    private void waitOnSepEventCompletion(SepEventExecutor.Shipment shipment) throws IOException {
         // We should wait for all operations to finish before returning, because otherwise HBase might
         // deliver a next batch from the same HLog to a different server. This becomes even more important
-        // if an exception has been thrown in the batch, as waiting for all futures increases the back-off that
+        // if an exception has been thrown in the batch, as waiting for all batches increases the back-off that
         // occurs before the next attempt
-        List<Exception> exceptionsThrown = Lists.newArrayList();
-        for (Future<?> future : futures) {
-            try {
-                future.get();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new IOException("Interrupted in processing events.", e);
-            } catch (Exception e) {
-                // While we throw the error higher up, to HBase, where it will also be logged, apparently the
-                // nested exceptions don't survive somewhere, therefore log it client-side as well.
-                log.warn("Error processing a batch of SEP events, the error will be forwarded to HBase for retry", e);
-                exceptionsThrown.add(e);
-            }
+        try {
+            shipment.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted in processing events.", e);
         }
 
-        if (!exceptionsThrown.isEmpty()) {
-            log.error("Encountered exceptions on " + exceptionsThrown.size() + " batches (out of " + futures.size()
-                    + " total batches)");
-            throw new RuntimeException(exceptionsThrown.get(0));
+        if (shipment.getFailedBatchCount() > 0) {
+            // While we throw the error higher up, to HBase, where it will also be logged, apparently the
+            // nested exceptions don't survive somewhere, therefore log it client-side as well.
+            log.error("Encountered exceptions on " + shipment.getFailedBatchCount() + " batches (out of "
+                    + shipment.getBatchCount() + " total batches), the first error will be forwarded to HBase "
+                    + "for retry", shipment.getFirstFailure());
+            throw new RuntimeException(shipment.getFirstFailure());
         }
     }
     
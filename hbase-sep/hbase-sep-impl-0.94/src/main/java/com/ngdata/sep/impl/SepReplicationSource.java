@@ -29,7 +29,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.hbase.Stoppable;
-import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.replication.regionserver.ReplicationSourceManager;
 
 /**
@@ -71,10 +71,10 @@ public class SepReplicationSource extends ForkedReplicationSource {
     }
 
     @Override
-    protected void removeNonReplicableEdits(WALEdit edit) {
-        super.removeNonReplicableEdits(edit);
+    protected void removeNonReplicableEdits(HLog.Entry entry) {
+        super.removeNonReplicableEdits(entry);
         if (walEditFilter != null) {
-            walEditFilter.apply(edit);
+            walEditFilter.apply(entry);
         }
     }
 
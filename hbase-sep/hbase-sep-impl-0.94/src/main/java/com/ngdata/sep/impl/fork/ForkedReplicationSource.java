@@ -579,7 +579,7 @@ public class ForkedReplicationSource extends Thread
             HLogKey logKey = entry.getKey();
             // don't replicate if the log entries originated in the peer
             if (!logKey.getClusterId().equals(peerClusterId)) {
-                removeNonReplicableEdits(edit);
+                removeNonReplicableEdits(entry);
                 // Don't replicate catalog entries, if the WALEdit wasn't
                 // containing anything to replicate and if we're currently not set to replicate
                 if (!(Bytes.equals(logKey.getTablename(), HConstants.ROOT_TABLE_NAME) ||
@@ -761,6 +761,14 @@ public class ForkedReplicationSource extends Thread
         return sleepMultiplier < maxRetriesMultiplier;
     }
 
+    /**
+     * We only want KVs that are scoped other than local
+     * @param entry The entry to check for replication
+     */
+    protected void removeNonReplicableEdits(HLog.Entry entry) {
+        removeNonReplicableEdits(entry.getEdit());
+    }
+
     /**
      * We only want KVs that are scoped other than local
      * @param edit The KV to check for replication
@@ -22,6 +22,7 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.List;
 
 import com.google.common.collect.Lists;
 import com.ngdata.sep.EventListener;
@@ -55,7 +56,8 @@ public class SepConsumerTest {
         eventListener = mock(EventListener.class);
         zkItf = mock(ZooKeeperItf.class);
         PayloadExtractor payloadExtractor = new BasePayloadExtractor(TABLE_NAME, DATA_COLFAM, PAYLOAD_QUALIFIER);
-        sepConsumer = new SepConsumer("subscriptionId", SUBSCRIPTION_TIMESTAMP, eventListener, 1, "localhost", zkItf,
+        sepConsumer = new SepConsumer("subscriptionId", SUBSCRIPTION_TIMESTAMP,
+                new CopyingEventListener(eventListener), 1, "localhost", zkItf,
                 HBaseConfiguration.create(), payloadExtractor);
     }
 
@@ -164,4 +166,23 @@ public class SepConsumerTest {
 
         verify(eventListener).processEvents(Lists.newArrayList(expectedEventA, expectedEventB));
     }
+
+    /**
+     * The lists of events handed to an EventListener are reused after processing, so hand copies of them to the mock
+     * listener to be able to verify them afterwards.
+     */
+    static class CopyingEventListener implements EventListener {
+
+        private final EventListener delegate;
+
+        CopyingEventListener(EventListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void processEvents(List<SepEvent> events) {
+            delegate.processEvents(Lists.newArrayList(events));
+        }
+
+    }
 }
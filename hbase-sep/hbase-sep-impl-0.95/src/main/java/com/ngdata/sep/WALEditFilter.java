@@ -23,12 +23,14 @@ import org.apache.hadoop.hbase.regionserver.wal.HLog;
 public interface WALEditFilter {
 
     /**
-     * Apply filtering to a WALEdit.
+     * Apply filtering to a WAL entry.
      * <p>
-     * All KeyValues that are to not be replicated are removed from the WALEdit in this call.
+     * All KeyValues that are to not be replicated are removed from the entry's {@code WALEdit} ({@code
+     * entry.getEdit()}) in this call. The entry's key, which identifies the table and region of the edit, is
+     * available to base the filtering on.
      *
-     * @param walEdit edit from which KeyValues can be removed before replication
+     * @param entry WAL entry from whose edit KeyValues can be removed before replication
      */
-    void apply(HLog.Entry walEdit);
+    void apply(HLog.Entry entry);
 
 }
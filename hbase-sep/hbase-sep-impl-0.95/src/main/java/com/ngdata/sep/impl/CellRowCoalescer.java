@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * {@link RowCoalescer} for Cells, so that the cells don't need to be converted to KeyValues.
+ */
+public class CellRowCoalescer extends RowCoalescer<Cell> {
+
+    @Override
+    protected byte getTypeByte(Cell cell) {
+        return cell.getTypeByte();
+    }
+
+    @Override
+    protected long getTimestamp(Cell cell) {
+        return cell.getTimestamp();
+    }
+
+    @Override
+    protected boolean matchingFamily(Cell left, Cell right) {
+        return Bytes.compareTo(left.getFamilyArray(), left.getFamilyOffset(), left.getFamilyLength(),
+                right.getFamilyArray(), right.getFamilyOffset(), right.getFamilyLength()) == 0;
+    }
+
+    @Override
+    protected boolean matchingQualifier(Cell left, Cell right) {
+        return Bytes.compareTo(left.getQualifierArray(), left.getQualifierOffset(), left.getQualifierLength(),
+                right.getQualifierArray(), right.getQualifierOffset(), right.getQualifierLength()) == 0;
+    }
+
+}
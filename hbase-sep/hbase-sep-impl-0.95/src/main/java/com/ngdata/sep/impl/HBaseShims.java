@@ -23,11 +23,36 @@ import org.apache.hadoop.hbase.zookeeper.EmptyWatcher;
 import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import com.ngdata.sep.SepEvent;
+
 public class HBaseShims {
   public static Get newGet() { return new Get(" ".getBytes()); }
   public static Result newResult(List<KeyValue> list) { return Result.create(new ArrayList<Cell>(list)); }
   public static EmptyWatcher getEmptyWatcherInstance() { return EmptyWatcher.instance; }
   public static String getHLogDirectoryName(String serverName) { return HLogUtil.getHLogDirectoryName(serverName); }
+
+  /**
+   * Makes a Result of the cells of a SepEvent, leaving out the delete-type cells. For a {@link CellSepEvent}, the
+   * cells are used as received, without materializing them as KeyValues.
+   */
+  public static Result newResult(SepEvent sepEvent) {
+    List<? extends Cell> cells;
+    if (sepEvent instanceof CellSepEvent) {
+      cells = ((CellSepEvent)sepEvent).getCells();
+    } else {
+      cells = sepEvent.getKeyValues();
+    }
+    List<Cell> filteredCells = new ArrayList<Cell>(cells.size());
+    for (Cell cell : cells) {
+      if (!KeyValue.isDelete(cell.getTypeByte())) {
+        filteredCells.add(cell);
+      }
+    }
+    // A Result object requires that the cells are sorted (e.g., it does binary search on them)
+    Collections.sort(filteredCells, KeyValue.COMPARATOR);
+    return Result.create(filteredCells);
+  }
 }
@@ -17,13 +17,8 @@ package com.ngdata.sep.impl;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
@@ -34,20 +29,19 @@ import org.apache.hadoop.hbase.zookeeper.ZKUtil;
 
 import com.google.protobuf.RpcController;
 import com.google.protobuf.ServiceException;
-import com.ngdata.sep.util.concurrent.WaitPolicy;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.google.protobuf.RpcController;
 import com.google.protobuf.ServiceException;
 import com.ngdata.sep.EventListener;
+import com.ngdata.sep.FilteringEventListener;
+import com.ngdata.sep.LagAwareEventListener;
 import com.ngdata.sep.PayloadExtractor;
 import com.ngdata.sep.SepEvent;
+import com.ngdata.sep.SepEventFilter;
 import com.ngdata.sep.SepModel;
-import com.ngdata.sep.util.concurrent.WaitPolicy;
+import com.ngdata.sep.util.concurrent.PartitionedExecutor;
+import com.ngdata.sep.util.concurrent.ThreadFactories;
 import com.ngdata.sep.util.io.Closer;
 import com.ngdata.sep.util.zookeeper.ZooKeeperItf;
 import org.apache.commons.logging.Log;
@@ -87,9 +81,14 @@ public class SepConsumer extends BaseHRegionServer {
     private ServerName serverName;
     private ZooKeeperWatcher zkWatcher;
     private SepMetrics sepMetrics;
+    private final LagTracker lagTracker;
     private final PayloadExtractor payloadExtractor;
     private String zkNodePath;
-    private List<ThreadPoolExecutor> executors;
+    private final PartitionedExecutor executor;
+    private SepEventExecutor eventExecutor;
+    private EventSpiller eventSpiller;
+    private final boolean coalesceRows;
+    private final SepEventFilter eventFilter;
     boolean running = false;
     private Log log = LogFactory.getLog(getClass());
 
@@ -125,8 +124,9 @@ public class SepConsumer extends BaseHRegionServer {
         this.zk = zk;
         this.hbaseConf = hbaseConf;
         this.sepMetrics = new SepMetrics(subscriptionId);
+        this.lagTracker = new LagTracker(sepMetrics,
+                listener instanceof LagAwareEventListener ? (LagAwareEventListener)listener : null);
         this.payloadExtractor = payloadExtractor;
-        this.executors = Lists.newArrayListWithCapacity(threadCnt);
 
         InetSocketAddress initialIsa = new InetSocketAddress(hostName, 0);
         if (initialIsa.getAddress() == null) {
@@ -150,16 +150,30 @@ public class SepConsumer extends BaseHRegionServer {
         User.login(hbaseConf, "hbase.regionserver.keytab.file",
                    "hbase.regionserver.kerberos.principal", hostName);
 
-        for (int i = 0; i < threadCnt; i++) {
-            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
-                    new ArrayBlockingQueue<Runnable>(100));
-            executor.setRejectedExecutionHandler(new WaitPolicy());
-            executors.add(executor);
-        }
+        int queueCapacity = hbaseConf.getInt(SepConfKeys.QUEUE_CAPACITY, SepConfKeys.DEFAULT_QUEUE_CAPACITY);
+        int numPartitions = threadCnt * hbaseConf.getInt(SepConfKeys.PARTITIONS_PER_THREAD,
+                SepConfKeys.DEFAULT_PARTITIONS_PER_THREAD);
+        this.executor = new PartitionedExecutor(threadCnt, numPartitions, threadCnt * queueCapacity,
+                ThreadFactories.newThreadFactory(hbaseConf.get(SepConfKeys.THREAD_FACTORY), "sep-" + subscriptionId));
+
+        boolean spilling = EventSpiller.isEnabled(hbaseConf);
+        // HBase can't redeliver the events of shipments that are acknowledged before they are processed
+        this.eventExecutor = new SepEventExecutor(listener, executor.getPartitions(),
+                BatchSizeController.create(hbaseConf, numPartitions), sepMetrics, spilling);
+        this.eventSpiller = EventSpiller.create(hbaseConf, subscriptionId, eventExecutor, lagTracker);
+        this.coalesceRows = hbaseConf.getBoolean(SepConfKeys.COALESCE_ROWS, false);
+        this.eventFilter = listener instanceof FilteringEventListener
+                ? ((FilteringEventListener)listener).getEventFilter() : null;
+        // Registered last, as nothing unregisters it when constructing the consumer fails
+        this.lagTracker.registerMBean(subscriptionId);
     }
 
     public void start() throws IOException, InterruptedException, KeeperException {
 
+        if (eventSpiller != null) {
+            // Replay the events that were spilled before a restart
+            eventSpiller.start();
+        }
         rpcServer.start();
 
         // Publish our existence in ZooKeeper
@@ -194,12 +208,37 @@ public class SepConsumer extends BaseHRegionServer {
                 }
             }
         }
+        if (eventSpiller != null) {
+            eventSpiller.stop();
+        }
         sepMetrics.shutdown();
-        for (ThreadPoolExecutor executor : executors) {
+        lagTracker.unregisterMBean();
+        if (eventSpiller != null) {
+            // Failed batches are retried indefinitely in spilling mode, so interrupt them
+            executor.shutdownNow();
+        } else {
             executor.shutdown();
         }
     }
 
+    /**
+     * Identifies the replication source (i.e. the region server) that sent the RPC that is currently being handled.
+     */
+    private String getRemoteSource() {
+        String remoteAddress = RpcServer.getRemoteAddress();
+        return remoteAddress != null ? remoteAddress : "unknown";
+    }
+
+    /**
+     * Wait until the worker threads have finished processing the events that were handed to them before
+     * {@link #stop()}.
+     *
+     * @return false if the workers were still busy when the timeout expired
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
     public boolean isRunning() {
         return running;
     }
@@ -209,60 +248,108 @@ public class SepConsumer extends BaseHRegionServer {
                                   final AdminProtos.ReplicateWALEntryRequest request) throws ServiceException {
       try {
 
-        // TODO Recording of last processed timestamp won't work if two batches of log entries are sent out of order
-        long lastProcessedTimestamp = -1;
-
-        SepEventExecutor eventExecutor = new SepEventExecutor(listener, executors, 100, sepMetrics);
+        // Write times of the oldest and newest WAL entry, to keep track of the lag per source
+        long firstWriteTime = -1;
+        long lastWriteTime = -1;
+
+        String source = getRemoteSource();
+        // When spilling, the events are written to the spill log instead, and acknowledged once they are durable
+        SepEventExecutor.Shipment shipment = eventSpiller == null ? eventExecutor.startShipment() : null;
+        EventSpiller.Batch spillBatch = eventSpiller != null ? eventSpiller.startBatch(source) : null;
+        SepEventSink sink = shipment != null ? shipment : spillBatch;
+        try {
+            List<AdminProtos.WALEntry> entries = request.getEntryList();
+            CellScanner cells = ((PayloadCarryingRpcController)controller).cellScanner();
+            RowGrouper<Cell> rowGrouper = new RowGrouper<Cell>();
+            RowCoalescer<Cell> rowCoalescer = coalesceRows ? new CellRowCoalescer() : null;
+
+            for (final AdminProtos.WALEntry entry : entries) {
+                byte[] tableName = (entry.getKey().getWriteTime() < subscriptionTimestamp) ? null :
+                                   TableName.valueOf(entry.getKey().getTableName().toByteArray()).toBytes();
+                if (tableName != null) {
+                    long writeTime = entry.getKey().getWriteTime();
+                    firstWriteTime = firstWriteTime < 0 ? writeTime : Math.min(firstWriteTime, writeTime);
+                    lastWriteTime = Math.max(lastWriteTime, writeTime);
+                    if (eventFilter != null && !eventFilter.acceptTable(tableName)) {
+                        tableName = null;
+                    }
+                }
+                rowGrouper.reset();
+                int count = entry.getAssociatedCellCount();
+                for (int i = 0; i < count; i++) {
+                    if (!cells.advance()) {
+                        throw new ArrayIndexOutOfBoundsException("Expected=" + count + ", index=" + i);
+                    }
 
-        List<AdminProtos.WALEntry> entries = request.getEntryList();
-        CellScanner cells = ((PayloadCarryingRpcController)controller).cellScanner();
+                    // this signals to us that we simply need to skip over count of cells
+                    if (tableName == null) {
+                        continue;
+                    }
 
-        for (final AdminProtos.WALEntry entry : entries) {
-            TableName tableName = (entry.getKey().getWriteTime() < subscriptionTimestamp) ? null :
-                                  TableName.valueOf(entry.getKey().getTableName().toByteArray());
-            Multimap<ByteBuffer, KeyValue> keyValuesPerRowKey = ArrayListMultimap.create();
-            final Map<ByteBuffer, byte[]> payloadPerRowKey = Maps.newHashMap();
-            int count = entry.getAssociatedCellCount();
-            for (int i = 0; i < count; i++) {
-                if (!cells.advance()) {
-                    throw new ArrayIndexOutOfBoundsException("Expected=" + count + ", index=" + i);
+                    Cell cell = cells.current();
+                    // Only the payload extractor needs a KeyValue, the event itself keeps the cell as is
+                    byte[] payload = payloadExtractor != null
+                            ? payloadExtractor.extractPayload(tableName, KeyValueUtil.ensureKeyValue(cell)) : null;
+                    if (payload == null && isFilteredOut(cell)) {
+                        continue;
+                    }
+                    RowGrouper.RowGroup<Cell> rowGroup = rowGrouper.add(cell, cell.getRowArray(), cell.getRowOffset(),
+                            cell.getRowLength());
+                    if (payload != null) {
+                        if (rowGroup.getPayload() != null) {
+                            log.error("Multiple payloads encountered for row " + rowGroup
+                                    + ", choosing " + Bytes.toStringBinary(rowGroup.getPayload()));
+                        } else {
+                            rowGroup.setPayload(payload);
+                        }
+                    }
                 }
-
-                // this signals to us that we simply need to skip over count of cells
-                if (tableName == null) {
-                    continue;
+            
+                for (int i = 0; i < rowGrouper.getGroupCount(); i++) {
+                    RowGrouper.RowGroup<Cell> rowGroup = rowGrouper.getGroup(i);
+                    if (rowCoalescer != null) {
+                        rowCoalescer.add(tableName, rowGroup);
+                    } else {
+                        scheduleSepEvent(sink, tableName, rowGroup);
+                    }
                 }
 
-                Cell cell = cells.current();
-                ByteBuffer rowKey = ByteBuffer.wrap(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
-                byte[] payload;
-                KeyValue kv = KeyValueUtil.ensureKeyValue(cell);
-                if (payloadExtractor != null && (payload = payloadExtractor.extractPayload(tableName.toBytes(), kv)) != null) {
-                    if (payloadPerRowKey.containsKey(rowKey)) {
-                        log.error("Multiple payloads encountered for row " + Bytes.toStringBinary(rowKey)
-                                + ", choosing " + Bytes.toStringBinary(payloadPerRowKey.get(rowKey)));
+            }
+            if (rowCoalescer != null) {
+                for (int t = 0; t < rowCoalescer.getTableCount(); t++) {
+                    RowGrouper<Cell> coalescedRows = rowCoalescer.getRowGrouper(t);
+                    for (int i = 0; i < coalescedRows.getGroupCount(); i++) {
+                        scheduleSepEvent(sink, rowCoalescer.getTable(t), coalescedRows.getGroup(i));
+                    }
+                }
+            }
+            if (spillBatch != null) {
+                // The spiller registers the shipment with the lag tracker once it has been appended
+                if (spillBatch.getEventCount() > 0 || lastWriteTime > 0) {
+                    eventSpiller.append(spillBatch, firstWriteTime, lastWriteTime);
+                }
+                return AdminProtos.ReplicateWALEntryResponse.newBuilder().build();
+            }
+            shipment.flush();
+            LagTracker.PendingShipment lagShipment = lastWriteTime > 0
+                    ? lagTracker.register(source, firstWriteTime, lastWriteTime) : null;
+            boolean processed = false;
+            try {
+                waitOnSepEventCompletion(shipment);
+                processed = true;
+            } finally {
+                if (lagShipment != null) {
+                    if (processed) {
+                        lagTracker.completed(lagShipment);
                     } else {
-                        payloadPerRowKey.put(rowKey, payload);
+                        lagTracker.failed(lagShipment);
                     }
                 }
-                keyValuesPerRowKey.put(rowKey, kv);
             }
-            
-            for (final ByteBuffer rowKeyBuffer : keyValuesPerRowKey.keySet()) {
-                final List<KeyValue> keyValues = (List<KeyValue>)keyValuesPerRowKey.get(rowKeyBuffer);
-
-                final SepEvent sepEvent = new SepEvent(tableName.toBytes(), keyValues.get(0).getRow(), keyValues,
-                        payloadPerRowKey.get(rowKeyBuffer));
-                eventExecutor.scheduleSepEvent(sepEvent);
-                lastProcessedTimestamp = Math.max(lastProcessedTimestamp, entry.getKey().getWriteTime());
+        } finally {
+            if (shipment != null) {
+                shipment.release();
             }
-
-        }
-        List<Future<?>> futures = eventExecutor.flush();
-        waitOnSepEventCompletion(futures);
-
-        if (lastProcessedTimestamp > 0) {
-            sepMetrics.reportSepTimestamp(lastProcessedTimestamp);
         }
         return AdminProtos.ReplicateWALEntryResponse.newBuilder().build();
       } catch (IOException ie) {
@@ -270,30 +357,42 @@ public class SepConsumer extends BaseHRegionServer {
       }
     }
 
-    private void waitOnSepEventCompletion(List<Future<?>> futures) throws IOException {
+    /**
+     * Checks if a cell should be skipped according to the event filter of the listener.
+     */
+    private boolean isFilteredOut(Cell cell) {
+        // Delete markers are always passed on, the listener needs them to remove data
+        return eventFilter != null && !KeyValue.isDelete(cell.getTypeByte())
+                && !eventFilter.acceptColumn(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength(),
+                        cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+    }
+
+    private void scheduleSepEvent(SepEventSink sink, byte[] tableName,
+            RowGrouper.RowGroup<Cell> rowGroup) {
+        if (!rowGroup.getCells().isEmpty()) {
+            sink.scheduleSepEvent(new CellSepEvent(tableName, rowGroup.getCells(), rowGroup.getPayload()));
+        }
+    }
+
+    private void waitOnSepEventCompletion(SepEventExecutor.Shipment shipment) throws IOException {
         // We should wait for all operations to finish before returning, because otherwise HBase might
         // deliver a next batch from the same HLog to a different server. This becomes even more important
-        // if an exception has been thrown in the batch, as waiting for all futures increases the back-off that
+        // if an exception has been thrown in the batch, as waiting for all batches increases the back-off that
         // occurs before the next attempt
-        List<Exception> exceptionsThrown = Lists.newArrayList();
-        for (Future<?> future : futures) {
-            try {
-                future.get();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new IOException("Interrupted in processing events.", e);
-            } catch (Exception e) {
-                // While we throw the error higher up, to HBase, where it will also be logged, apparently the
-                // nested exceptions don't survive somewhere, therefore log it client-side as well.
-                log.warn("Error processing a batch of SEP events, the error will be forwarded to HBase for retry", e);
-                exceptionsThrown.add(e);
-            }
+        try {
+            shipment.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted in processing events.", e);
         }
 
-        if (!exceptionsThrown.isEmpty()) {
-            log.error("Encountered exceptions on " + exceptionsThrown.size() + " batches (out of " + futures.size()
-                    + " total batches)");
-            throw new RuntimeException(exceptionsThrown.get(0));
+        if (shipment.getFailedBatchCount() > 0) {
+            // While we throw the error higher up, to HBase, where it will also be logged, apparently the
+            // nested exceptions don't survive somewhere, therefore log it client-side as well.
+            log.error("Encountered exceptions on " + shipment.getFailedBatchCount() + " batches (out of "
+                    + shipment.getBatchCount() + " total batches), the first error will be forwarded to HBase "
+                    + "for retry", shipment.getFirstFailure());
+            throw new RuntimeException(shipment.getFirstFailure());
         }
     }
     
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.Lists;
+import com.ngdata.sep.SepEvent;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class CellSepEventTest {
+
+    private static final byte[] TABLE = Bytes.toBytes("table");
+    private static final byte[] ROW = Bytes.toBytes("row");
+    private static final byte[] FAMILY = Bytes.toBytes("cf");
+
+    @Test
+    public void testGetRowAndKeyValues() {
+        KeyValue kvA = new KeyValue(ROW, FAMILY, Bytes.toBytes("a"), Bytes.toBytes("valueA"));
+        KeyValue kvB = new KeyValue(ROW, FAMILY, Bytes.toBytes("b"), Bytes.toBytes("valueB"));
+        CellSepEvent event = new CellSepEvent(TABLE, Lists.<Cell>newArrayList(kvA, kvB), null);
+
+        assertArrayEquals(ROW, event.getRow());
+        assertEquals(Lists.newArrayList(kvA, kvB), event.getKeyValues());
+        assertSame(event.getKeyValues(), event.getKeyValues());
+        assertEquals(2, event.getCells().size());
+    }
+
+    @Test
+    public void testEquals_PlainSepEvent() {
+        KeyValue kv = new KeyValue(ROW, FAMILY, Bytes.toBytes("a"), Bytes.toBytes("value"));
+        byte[] payload = Bytes.toBytes("payload");
+        CellSepEvent cellEvent = new CellSepEvent(TABLE, Lists.<Cell>newArrayList(kv), payload);
+        SepEvent plainEvent = new SepEvent(TABLE, ROW, Lists.newArrayList(kv), payload);
+
+        assertEquals(plainEvent, cellEvent);
+        assertEquals(cellEvent, plainEvent);
+        assertEquals(plainEvent.hashCode(), cellEvent.hashCode());
+    }
+
+    @Test
+    public void testNewResult_SkipsDeletesAndSorts() {
+        KeyValue kvB = new KeyValue(ROW, FAMILY, Bytes.toBytes("b"), Bytes.toBytes("valueB"));
+        KeyValue delete = new KeyValue(ROW, FAMILY, Bytes.toBytes("c"), Long.MAX_VALUE, KeyValue.Type.Delete);
+        KeyValue kvA = new KeyValue(ROW, FAMILY, Bytes.toBytes("a"), Bytes.toBytes("valueA"));
+        CellSepEvent event = new CellSepEvent(TABLE, Lists.<Cell>newArrayList(kvB, delete, kvA), null);
+
+        Result result = HBaseShims.newResult(event);
+
+        assertEquals(2, result.size());
+        assertArrayEquals(Bytes.toBytes("valueA"), result.getValue(FAMILY, Bytes.toBytes("a")));
+        assertArrayEquals(Bytes.toBytes("valueB"), result.getValue(FAMILY, Bytes.toBytes("b")));
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import com.ngdata.sep.SepEventFilter;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
+import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventFilterWALEditFilterTest {
+
+    private EventFilterWALEditFilter walEditFilter;
+
+    @Before
+    public void setUp() {
+        // Accepts table "indexed", and within it family "cf" except for qualifier "skip"
+        walEditFilter = new EventFilterWALEditFilter(new SepEventFilter() {
+            @Override
+            public boolean acceptTable(byte[] table) {
+                return Bytes.equals(Bytes.toBytes("indexed"), table);
+            }
+
+            @Override
+            public boolean acceptColumn(byte[] familyArray, int familyOffset, int familyLength,
+                    byte[] qualifierArray, int qualifierOffset, int qualifierLength) {
+                return Bytes.equals(familyArray, familyOffset, familyLength, Bytes.toBytes("cf"), 0, 2)
+                        && !Bytes.equals(qualifierArray, qualifierOffset, qualifierLength, Bytes.toBytes("skip"), 0, 4);
+            }
+        });
+    }
+
+    private HLog.Entry createEntry(String table, KeyValue... keyValues) {
+        HLogKey key = new HLogKey(Bytes.toBytes("region"), TableName.valueOf(table), 1L, System.currentTimeMillis(),
+                HConstants.DEFAULT_CLUSTER_ID);
+        WALEdit edit = new WALEdit();
+        for (KeyValue keyValue : keyValues) {
+            edit.add(keyValue);
+        }
+        return new HLog.Entry(key, edit);
+    }
+
+    private KeyValue keyValue(String family, String qualifier) {
+        return new KeyValue(Bytes.toBytes("row"), Bytes.toBytes(family), Bytes.toBytes(qualifier), 1L,
+                Bytes.toBytes("value"));
+    }
+
+    @Test
+    public void testApply_TableNotAccepted() {
+        HLog.Entry entry = createEntry("other", keyValue("cf", "q1"), keyValue("cf", "q2"));
+
+        walEditFilter.apply(entry);
+
+        assertTrue(entry.getEdit().isEmpty());
+    }
+
+    @Test
+    public void testApply_ColumnsFiltered() {
+        KeyValue kv1 = keyValue("cf", "q1");
+        KeyValue kv2 = keyValue("cf", "skip");
+        KeyValue kv3 = keyValue("other", "q1");
+        KeyValue kv4 = keyValue("cf", "q2");
+        HLog.Entry entry = createEntry("indexed", kv1, kv2, kv3, kv4);
+
+        walEditFilter.apply(entry);
+
+        List<KeyValue> keyValues = entry.getEdit().getKeyValues();
+        assertEquals(2, keyValues.size());
+        assertEquals(kv1, keyValues.get(0));
+        assertEquals(kv4, keyValues.get(1));
+    }
+
+    @Test
+    public void testApply_DeletesAlwaysAccepted() {
+        KeyValue deleteColumn = new KeyValue(Bytes.toBytes("row"), Bytes.toBytes("other"), Bytes.toBytes("q1"), 1L,
+                KeyValue.Type.DeleteColumn);
+        KeyValue deleteFamily = new KeyValue(Bytes.toBytes("row"), Bytes.toBytes("other"), null, 1L,
+                KeyValue.Type.DeleteFamily);
+        HLog.Entry entry = createEntry("indexed", deleteColumn, keyValue("other", "q1"), deleteFamily);
+
+        walEditFilter.apply(entry);
+
+        List<KeyValue> keyValues = entry.getEdit().getKeyValues();
+        assertEquals(2, keyValues.size());
+        assertEquals(deleteColumn, keyValues.get(0));
+        assertEquals(deleteFamily, keyValues.get(1));
+    }
+
+}
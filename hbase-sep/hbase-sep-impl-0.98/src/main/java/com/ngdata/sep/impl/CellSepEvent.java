@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ngdata.sep.SepEvent;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+
+/**
+ * {@link SepEvent} that keeps the {@link Cell}s as they were received by the {@code SepConsumer}.
+ * <p>
+ * The row key and the KeyValues are only materialized when they are requested, so consumers that can work with the
+ * cells directly (see {@link #getCells()} and {@link HBaseShims#newResult(SepEvent)}) avoid copying each cell into a
+ * new KeyValue.
+ */
+public class CellSepEvent extends SepEvent {
+
+    private final List<Cell> cells;
+    private byte[] row;
+    private List<KeyValue> keyValues;
+
+    /**
+     * @param table The HBase table on which the event was triggered
+     * @param cells The cells of the updates to the HBase row, should not be empty
+     * @param payload Optional additional payload containing data about the data mutation(s)
+     */
+    public CellSepEvent(byte[] table, List<Cell> cells, byte[] payload) {
+        super(table, payload);
+        this.cells = cells;
+    }
+
+    /**
+     * Retrieve all grouped cells that are involved in this event. The returned list should not be modified.
+     *
+     * @return list of cells
+     */
+    public List<Cell> getCells() {
+        return cells;
+    }
+
+    @Override
+    public byte[] getRow() {
+        if (row == null) {
+            row = CellUtil.cloneRow(cells.get(0));
+        }
+        return row;
+    }
+
+    @Override
+    public List<KeyValue> getKeyValues() {
+        if (keyValues == null) {
+            List<KeyValue> kvs = new ArrayList<KeyValue>(cells.size());
+            for (Cell cell : cells) {
+                kvs.add(KeyValueUtil.ensureKeyValue(cell));
+            }
+            keyValues = kvs;
+        }
+        return keyValues;
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Determines the size of the event batches that are handed to the {@code EventListener}, per partition of a
+ * {@link SepEventExecutor}.
+ * <p>
+ * Without a latency target, the batch size is fixed. With a latency target, the batch size is adapted from the
+ * observed processing time of each batch (which includes everything the listener does, e.g. the round trip to
+ * Solr), in an additive-increase/multiplicative-decrease fashion:
+ * <ul>
+ * <li>a batch that takes longer than the target halves the batch size of its partition</li>
+ * <li>a full batch that is processed well within the target (less than half of it) increases the batch size by
+ * a fixed step</li>
+ * </ul>
+ * Batches that are not full (because there were not enough events) don't grow the batch size, as they say nothing
+ * about whether a larger batch could be processed within the target.
+ * <p>
+ * This class is thread-safe. The batch size of a partition is only updated by the thread of that partition, but it
+ * can be read from any thread.
+ */
+public class BatchSizeController {
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long latencyTarget;
+    private final int increaseStep;
+    private final AtomicIntegerArray batchSizes;
+
+    /**
+     * Creates a controller with a fixed batch size.
+     */
+    public BatchSizeController(int numPartitions, int batchSize) {
+        this(numPartitions, batchSize, batchSize, batchSize, 0);
+    }
+
+    /**
+     * @param initialBatchSize batch size to start from
+     * @param minBatchSize lower bound for the batch size
+     * @param maxBatchSize upper bound for the batch size
+     * @param latencyTarget target processing time for a single batch, in milliseconds. If 0, the batch size is
+     *        not adapted.
+     */
+    public BatchSizeController(int numPartitions, int initialBatchSize, int minBatchSize, int maxBatchSize,
+            long latencyTarget) {
+        Preconditions.checkArgument(minBatchSize > 0, "Minimum batch size must be > 0");
+        Preconditions.checkArgument(minBatchSize <= initialBatchSize && initialBatchSize <= maxBatchSize,
+                "Initial batch size must be between the minimum and maximum batch size");
+        Preconditions.checkArgument(latencyTarget >= 0, "Latency target must be >= 0");
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.latencyTarget = latencyTarget;
+        this.increaseStep = Math.max(1, minBatchSize / 2);
+        this.batchSizes = new AtomicIntegerArray(numPartitions);
+        for (int i = 0; i < numPartitions; i++) {
+            batchSizes.set(i, initialBatchSize);
+        }
+    }
+
+    /**
+     * Creates a controller based on the {@link SepConfKeys} batch settings in the given configuration.
+     */
+    public static BatchSizeController create(Configuration conf, int numPartitions) {
+        int batchSize = conf.getInt(SepConfKeys.BATCH_SIZE, SepConfKeys.DEFAULT_BATCH_SIZE);
+        long latencyTarget = conf.getLong(SepConfKeys.BATCH_LATENCY_TARGET, 0L);
+        if (latencyTarget <= 0) {
+            return new BatchSizeController(numPartitions, batchSize);
+        }
+        int minBatchSize = conf.getInt(SepConfKeys.BATCH_SIZE_MIN, SepConfKeys.DEFAULT_BATCH_SIZE_MIN);
+        int maxBatchSize = conf.getInt(SepConfKeys.BATCH_SIZE_MAX, SepConfKeys.DEFAULT_BATCH_SIZE_MAX);
+        int initialBatchSize = Math.max(minBatchSize, Math.min(batchSize, maxBatchSize));
+        return new BatchSizeController(numPartitions, initialBatchSize, minBatchSize, maxBatchSize, latencyTarget);
+    }
+
+    /**
+     * Returns true if the batch size is adapted to the observed latency.
+     */
+    public boolean isAdaptive() {
+        return latencyTarget > 0 && minBatchSize < maxBatchSize;
+    }
+
+    /**
+     * Returns the batch size to use for new batches of the given partition.
+     */
+    public int getBatchSize(int partition) {
+        return batchSizes.get(partition);
+    }
+
+    /**
+     * Returns the largest batch size that can be returned by {@link #getBatchSize(int)}.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Report the processing time of a batch. Should only be called from the thread of the partition.
+     *
+     * @param partition partition of the batch
+     * @param eventCount number of events in the batch
+     * @param duration time spent processing the batch, in milliseconds
+     */
+    public void batchProcessed(int partition, int eventCount, long duration) {
+        if (!isAdaptive()) {
+            return;
+        }
+        int batchSize = batchSizes.get(partition);
+        if (duration > latencyTarget) {
+            batchSizes.set(partition, Math.max(minBatchSize, Math.min(batchSize, eventCount) / 2));
+        } else if (eventCount >= batchSize && duration * 2 <= latencyTarget) {
+            batchSizes.set(partition, Math.min(maxBatchSize, batchSize + increaseStep));
+        }
+    }
+
+}
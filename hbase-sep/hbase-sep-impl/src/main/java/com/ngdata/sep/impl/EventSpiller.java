@@ -0,0 +1,329 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import com.ngdata.sep.SepEvent;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Decouples the acknowledgement of replication shipments from their processing by spilling their events to a
+ * {@link SpillLog}, from which a drain thread replays them to a {@link SepEventExecutor} at its own pace.
+ * <p>
+ * The events of a shipment are collected in a {@link Batch}, which is appended to the log as a single record, in
+ * which the events are encoded with a {@link SepEventCodec}. Once
+ * {@link #append(Batch, long, long)} has returned, the events are durable and the shipment can be acknowledged to
+ * HBase. Spilling is thus what pipelines acknowledgement with processing: without it, a shipment is only acknowledged
+ * once its events have been processed.
+ * When the listener is slow or failing, the events thus pile up in the local log, instead of HBase having to
+ * redeliver the same shipments over and over. When the log is full, appending fails, so that HBase backs off as it
+ * would without spilling.
+ * <p>
+ * The drain thread checkpoints the log after every group of records of which all events have been processed, so
+ * after a restart, the events that were not processed yet (and possibly some that were) are replayed. When
+ * replaying a group fails, the drain thread rewinds the log to the last checkpoint and replays the group again
+ * after a back-off. Should the drain thread die nevertheless, appending fails, so that events don't pile up in a log
+ * that is no longer replayed.
+ * <p>
+ * Shipments are registered with the {@link LagTracker} as soon as they have been appended, and marked as completed
+ * once their events have been replayed and checkpointed, so that the lag includes the time the events spend in the
+ * log. The shipments that are still in the log when it is opened are registered again.
+ */
+public class EventSpiller {
+
+    /**
+     * Maximum number of records (shipments) of which the events are executed together, between checkpoints.
+     */
+    private static final int MAX_RECORDS_PER_SHIPMENT = 16;
+
+    /**
+     * Size of the fixed part of the record header: the write times of the oldest and newest WAL entry, and the
+     * length of the replication source. The source follows it, and then the encoded events.
+     */
+    private static final int RECORD_HEADER_SIZE = 2 * Bytes.SIZEOF_LONG + Bytes.SIZEOF_INT;
+
+    private static final long MIN_RETRY_DELAY = 100L;
+    private static final long MAX_RETRY_DELAY = 30000L;
+
+    private final Log log = LogFactory.getLog(getClass());
+    private final SpillLog spillLog;
+    private final SepEventExecutor eventExecutor;
+    private final LagTracker lagTracker;
+    private final long stopTimeout;
+    private final Thread drainThread;
+    /**
+     * The shipments of the records that have been appended but not checkpointed yet, in the order of the log. Null
+     * for records without write times, which are not tracked. Guarded by itself.
+     */
+    private final LinkedList<LagTracker.PendingShipment> lagShipments = new LinkedList<LagTracker.PendingShipment>();
+    private volatile boolean stopped;
+    /** Set when the drain thread died unexpectedly. */
+    private volatile Throwable drainFailure;
+
+    /**
+     * @param stopTimeout maximum time, in milliseconds, that {@link #stop()} waits for the events that are being
+     *        processed before interrupting the drain thread
+     */
+    public EventSpiller(SpillLog spillLog, SepEventExecutor eventExecutor, LagTracker lagTracker, long stopTimeout,
+            String name) throws IOException {
+        this.spillLog = spillLog;
+        this.eventExecutor = eventExecutor;
+        this.lagTracker = lagTracker;
+        this.stopTimeout = stopTimeout;
+        this.drainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, name);
+        this.drainThread.setDaemon(true);
+        restoreLagShipments();
+    }
+
+    /**
+     * Registers the shipments of the records that were spilled before the log was opened.
+     */
+    private void restoreLagShipments() throws IOException {
+        try {
+            byte[] record;
+            while ((record = spillLog.read(0, TimeUnit.MILLISECONDS)) != null) {
+                registerLagShipment(record);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the spill log");
+        } finally {
+            spillLog.rewind();
+        }
+    }
+
+    private void registerLagShipment(byte[] record) {
+        long firstWriteTime = Bytes.toLong(record, 0);
+        long lastWriteTime = Bytes.toLong(record, Bytes.SIZEOF_LONG);
+        int sourceLength = Bytes.toInt(record, 2 * Bytes.SIZEOF_LONG);
+        String source = Bytes.toString(record, RECORD_HEADER_SIZE, sourceLength);
+        synchronized (lagShipments) {
+            lagShipments.add(lastWriteTime > 0 ? lagTracker.register(source, firstWriteTime, lastWriteTime) : null);
+        }
+    }
+
+    private void completeLagShipments(int recordCount) {
+        for (int i = 0; i < recordCount; i++) {
+            LagTracker.PendingShipment lagShipment;
+            synchronized (lagShipments) {
+                lagShipment = lagShipments.removeFirst();
+            }
+            if (lagShipment != null) {
+                lagTracker.completed(lagShipment);
+            }
+        }
+    }
+
+    /**
+     * Checks if spilling is enabled, i.e. if {@link SepConfKeys#SPILL_DIR} is set.
+     */
+    public static boolean isEnabled(Configuration conf) {
+        String spillDir = conf.get(SepConfKeys.SPILL_DIR);
+        return spillDir != null && !spillDir.trim().isEmpty();
+    }
+
+    /**
+     * Creates a spiller for a subscription as configured by {@link SepConfKeys#SPILL_DIR}, or returns null if
+     * spilling is not enabled.
+     */
+    public static EventSpiller create(Configuration conf, String subscriptionId, SepEventExecutor eventExecutor,
+            LagTracker lagTracker) throws IOException {
+        if (!isEnabled(conf)) {
+            return null;
+        }
+        String spillDir = conf.get(SepConfKeys.SPILL_DIR);
+        long segmentSize = conf.getLong(SepConfKeys.SPILL_SEGMENT_SIZE, SepConfKeys.DEFAULT_SPILL_SEGMENT_SIZE);
+        long maxSize = conf.getLong(SepConfKeys.SPILL_MAX_SIZE, SepConfKeys.DEFAULT_SPILL_MAX_SIZE);
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid " + SepConfKeys.SPILL_SEGMENT_SIZE + ": " + segmentSize);
+        }
+        // The log needs room for at least 2 segments, so that it can move on to a new segment while the previous
+        // one hasn't been replayed completely yet
+        SpillLog spillLog = new SpillLog(new File(spillDir.trim(), subscriptionId), (int)segmentSize,
+                Math.max(maxSize, 2 * segmentSize));
+        return new EventSpiller(spillLog, eventExecutor, lagTracker,
+                conf.getLong(SepConfKeys.STOP_TIMEOUT, SepConfKeys.DEFAULT_STOP_TIMEOUT), "sep-spill-" + subscriptionId);
+    }
+
+    public void start() {
+        drainThread.start();
+    }
+
+    /**
+     * Stops the drain thread and closes the log. Events that have not been processed completely by then are
+     * replayed when the log is opened again.
+     */
+    public void stop() {
+        stopped = true;
+        try {
+            drainThread.join(stopTimeout);
+            if (drainThread.isAlive()) {
+                log.warn("Spilled events were not processed within " + stopTimeout + " ms, they will be replayed "
+                        + "after a restart");
+                drainThread.interrupt();
+                drainThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spillLog.close();
+    }
+
+    /**
+     * Returns the number of bytes of spilled events that have not been replayed yet.
+     */
+    public long getBacklog() {
+        return spillLog.getBacklog();
+    }
+
+    /**
+     * Start a new batch to which the events of a replication shipment can be added.
+     *
+     * @param source the replication source that sent the shipment
+     */
+    public Batch startBatch(String source) {
+        return new Batch(source);
+    }
+
+    /**
+     * Durably append the events of a batch to the log, after which they will be replayed to the event executor.
+     *
+     * @param firstWriteTime write time of the oldest WAL entry of the shipment, or -1 if unknown
+     * @param lastWriteTime write time of the newest WAL entry of the shipment, or -1 if unknown
+     * @throws IOException if the log is full, if writing to it fails, or if its events are no longer replayed
+     */
+    public void append(Batch batch, long firstWriteTime, long lastWriteTime) throws IOException {
+        if (drainFailure != null) {
+            throw new IOException("Spilled events are no longer replayed", drainFailure);
+        }
+        byte[] source = Bytes.toBytes(batch.source);
+        byte[] record = new byte[RECORD_HEADER_SIZE + source.length + batch.encoder.getSize()];
+        Bytes.putLong(record, 0, firstWriteTime);
+        Bytes.putLong(record, Bytes.SIZEOF_LONG, lastWriteTime);
+        Bytes.putInt(record, 2 * Bytes.SIZEOF_LONG, source.length);
+        System.arraycopy(source, 0, record, RECORD_HEADER_SIZE, source.length);
+        batch.encoder.copyTo(record, RECORD_HEADER_SIZE + source.length);
+        // The shipment is registered in the same order as the records are appended, and before the drain thread
+        // can read the record, which only happens once it has been synced
+        long sequence;
+        synchronized (spillLog) {
+            sequence = spillLog.append(record, 0, record.length);
+            registerLagShipment(record);
+        }
+        // Concurrent shipments share a single sync, rather than each forcing the log while holding its lock
+        spillLog.sync(sequence);
+    }
+
+    private void drain() {
+        long retryDelay = MIN_RETRY_DELAY;
+        try {
+            while (!stopped) {
+                try {
+                    drainRecords();
+                    retryDelay = MIN_RETRY_DELAY;
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    log.error("Error while replaying spilled events, replaying them again in " + retryDelay + " ms",
+                            e);
+                    // The log has already been read past the records that failed
+                    spillLog.rewind();
+                    try {
+                        Thread.sleep(retryDelay);
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
+                    retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+                }
+            }
+        } catch (Throwable t) {
+            drainFailure = t;
+            log.error("Spilled events are no longer replayed, the remaining events will be replayed after a restart",
+                    t);
+        }
+    }
+
+    private void drainRecords() throws IOException, InterruptedException {
+        byte[] record = spillLog.read(1, TimeUnit.SECONDS);
+        if (record == null) {
+            return;
+        }
+        int recordCount = 0;
+        SepEventExecutor.Shipment shipment = eventExecutor.startShipment();
+        try {
+            while (record != null) {
+                ByteBuffer input = ByteBuffer.wrap(record);
+                input.position(RECORD_HEADER_SIZE + Bytes.toInt(record, 2 * Bytes.SIZEOF_LONG));
+                SepEventCodec.Decoder decoder = new SepEventCodec.Decoder(input);
+                while (decoder.hasNext()) {
+                    shipment.scheduleSepEvent(decoder.next());
+                }
+                if (++recordCount == MAX_RECORDS_PER_SHIPMENT) {
+                    break;
+                }
+                record = spillLog.read(0, TimeUnit.MILLISECONDS);
+            }
+            shipment.flush();
+            shipment.awaitCompletion();
+            if (shipment.getFailedBatchCount() > 0) {
+                throw new IOException("Failed to process " + shipment.getFailedBatchCount() + " batches of spilled "
+                        + "events", shipment.getFirstFailure());
+            }
+        } finally {
+            shipment.release();
+        }
+        spillLog.checkpoint();
+        // Failed records stay registered, as they are replayed again
+        completeLagShipments(recordCount);
+    }
+
+    /**
+     * The events of a single replication shipment, encoded as one record of the log. A batch should only be used
+     * from within a single thread.
+     */
+    public static class Batch implements SepEventSink {
+        private final String source;
+        private final SepEventCodec.Encoder encoder = new SepEventCodec.Encoder(true);
+
+        private Batch(String source) {
+            this.source = source;
+        }
+
+        @Override
+        public void scheduleSepEvent(SepEvent sepEvent) {
+            encoder.encode(sepEvent);
+        }
+
+        public int getEventCount() {
+            return encoder.getEventCount();
+        }
+    }
+
+}
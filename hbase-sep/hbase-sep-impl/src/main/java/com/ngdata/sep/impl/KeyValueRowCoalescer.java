@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * {@link RowCoalescer} for KeyValues.
+ */
+public class KeyValueRowCoalescer extends RowCoalescer<KeyValue> {
+
+    @Override
+    protected byte getTypeByte(KeyValue kv) {
+        return kv.getType();
+    }
+
+    @Override
+    protected long getTimestamp(KeyValue kv) {
+        return kv.getTimestamp();
+    }
+
+    @Override
+    protected boolean matchingFamily(KeyValue left, KeyValue right) {
+        return Bytes.compareTo(left.getBuffer(), left.getFamilyOffset(), left.getFamilyLength(),
+                right.getBuffer(), right.getFamilyOffset(), right.getFamilyLength()) == 0;
+    }
+
+    @Override
+    protected boolean matchingQualifier(KeyValue left, KeyValue right) {
+        return Bytes.compareTo(left.getBuffer(), left.getQualifierOffset(), left.getQualifierLength(),
+                right.getBuffer(), right.getQualifierOffset(), right.getQualifierLength()) == 0;
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.ObjectName;
+
+import com.ngdata.sep.LagAwareEventListener;
+import org.apache.hadoop.metrics.util.MBeanUtil;
+
+/**
+ * Tracks how far the WAL entries that were received from each replication source (region server) have been
+ * processed.
+ * <p>
+ * A shipment is registered with the write times of its oldest and newest entries once its events have been
+ * scheduled, and is marked as completed when they have all been processed. Per source, the tracker keeps a low
+ * watermark: the write time up to which all entries that were received from the source have been processed. Unlike
+ * the write time of the most recently processed shipment, the watermark doesn't run ahead when shipments complete
+ * out of order, and it never moves back.
+ * <p>
+ * The lowest watermark of the sources that have unprocessed entries (or the highest one when everything has been
+ * processed) is reported as the SEP timestamp in the {@link SepMetrics}. The lag of every processed shipment is
+ * passed on to the {@link LagAwareEventListener}, if any, and the watermarks and lags per source are exposed over
+ * JMX.
+ */
+public class LagTracker implements LagTrackerMXBean {
+
+    private final SepMetrics sepMetrics;
+    private final LagAwareEventListener lagListener;
+    /** Guarded by this. */
+    private final Map<String, SourceState> sources = new HashMap<String, SourceState>();
+    /** Guarded by this. */
+    private long lowWatermark = -1;
+    private ObjectName mbeanName;
+
+    /**
+     * @param lagListener listener to inform about the lag of processed shipments, can be null
+     */
+    public LagTracker(SepMetrics sepMetrics, LagAwareEventListener lagListener) {
+        this.sepMetrics = sepMetrics;
+        this.lagListener = lagListener;
+    }
+
+    /**
+     * Register a shipment of which the events have been scheduled.
+     *
+     * @param firstWriteTime write time of the oldest WAL entry of the shipment
+     * @param lastWriteTime write time of the newest WAL entry of the shipment
+     * @return handle to pass to {@link #completed(PendingShipment)} or {@link #failed(PendingShipment)}
+     */
+    public synchronized PendingShipment register(String source, long firstWriteTime, long lastWriteTime) {
+        SourceState state = sources.get(source);
+        if (state == null) {
+            state = new SourceState();
+            sources.put(source, state);
+        }
+        state.addPending(firstWriteTime);
+        return new PendingShipment(source, firstWriteTime, lastWriteTime);
+    }
+
+    /**
+     * Mark a shipment as completely processed.
+     */
+    public void completed(PendingShipment shipment) {
+        long watermark;
+        synchronized (this) {
+            SourceState state = sources.get(shipment.source);
+            state.removePending(shipment.firstWriteTime);
+            state.lastCompleted = Math.max(state.lastCompleted, shipment.lastWriteTime);
+            state.updateWatermark();
+            watermark = updateLowWatermark();
+        }
+        if (watermark > 0) {
+            sepMetrics.reportSepTimestamp(watermark);
+        }
+        if (lagListener != null) {
+            lagListener.shipmentProcessed(shipment.source, System.currentTimeMillis() - shipment.firstWriteTime);
+        }
+    }
+
+    /**
+     * Forget about a shipment that could not be processed. Its entries will be redelivered by HBase, and registered
+     * again.
+     */
+    public synchronized void failed(PendingShipment shipment) {
+        SourceState state = sources.get(shipment.source);
+        state.removePending(shipment.firstWriteTime);
+        state.updateWatermark();
+    }
+
+    private long updateLowWatermark() {
+        long lowestPending = Long.MAX_VALUE;
+        long highest = -1;
+        for (SourceState state : sources.values()) {
+            if (!state.pending.isEmpty()) {
+                lowestPending = Math.min(lowestPending, state.watermark);
+            }
+            highest = Math.max(highest, state.watermark);
+        }
+        lowWatermark = Math.max(lowWatermark, lowestPending != Long.MAX_VALUE ? lowestPending : highest);
+        return lowWatermark;
+    }
+
+    @Override
+    public synchronized long getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * Returns the low watermark of a single source, or -1 if no entries of it have been processed yet.
+     */
+    public synchronized long getLowWatermark(String source) {
+        SourceState state = sources.get(source);
+        return state != null ? state.watermark : -1;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getLowWatermarks() {
+        Map<String, Long> watermarks = new TreeMap<String, Long>();
+        for (Map.Entry<String, SourceState> entry : sources.entrySet()) {
+            watermarks.put(entry.getKey(), entry.getValue().watermark);
+        }
+        return watermarks;
+    }
+
+    /**
+     * Returns the age, in milliseconds, of the oldest entry of a source that has not been processed yet, or 0 if all
+     * entries of the source have been processed.
+     */
+    public synchronized long getLag(String source) {
+        SourceState state = sources.get(source);
+        return state != null ? state.getLag(System.currentTimeMillis()) : 0;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getLags() {
+        long now = System.currentTimeMillis();
+        Map<String, Long> lags = new TreeMap<String, Long>();
+        for (Map.Entry<String, SourceState> entry : sources.entrySet()) {
+            lags.put(entry.getKey(), entry.getValue().getLag(now));
+        }
+        return lags;
+    }
+
+    /**
+     * Expose this tracker over JMX, under {@code hadoop:service=SEPLag,name=<name>}.
+     */
+    public void registerMBean(String name) {
+        mbeanName = MBeanUtil.registerMBean("SEPLag", name, this);
+    }
+
+    public void unregisterMBean() {
+        if (mbeanName != null) {
+            MBeanUtil.unregisterMBean(mbeanName);
+            mbeanName = null;
+        }
+    }
+
+    /**
+     * A shipment that has been registered but not completed yet.
+     */
+    public static class PendingShipment {
+        private final String source;
+        private final long firstWriteTime;
+        private final long lastWriteTime;
+
+        private PendingShipment(String source, long firstWriteTime, long lastWriteTime) {
+            this.source = source;
+            this.firstWriteTime = firstWriteTime;
+            this.lastWriteTime = lastWriteTime;
+        }
+    }
+
+    private static class SourceState {
+        /** Number of unprocessed shipments by the write time of their oldest entry. */
+        private final TreeMap<Long, Integer> pending = new TreeMap<Long, Integer>();
+        private long lastCompleted = -1;
+        private long watermark = -1;
+
+        void addPending(long writeTime) {
+            Integer count = pending.get(writeTime);
+            pending.put(writeTime, count == null ? 1 : count + 1);
+        }
+
+        void removePending(long writeTime) {
+            Integer count = pending.get(writeTime);
+            if (count == null || count == 1) {
+                pending.remove(writeTime);
+            } else {
+                pending.put(writeTime, count - 1);
+            }
+        }
+
+        void updateWatermark() {
+            // Everything before the oldest pending entry has been processed, as far as we know
+            long candidate = pending.isEmpty() ? lastCompleted : Math.min(lastCompleted, pending.firstKey() - 1);
+            watermark = Math.max(watermark, candidate);
+        }
+
+        long getLag(long now) {
+            return pending.isEmpty() ? 0 : Math.max(0, now - pending.firstKey());
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import java.util.Map;
+
+/**
+ * JMX view on a {@link LagTracker}. The maps are keyed by replication source.
+ */
+public interface LagTrackerMXBean {
+
+    /**
+     * The write time up to which all WAL entries that were received from any source have been processed, or -1 if
+     * no entries have been processed yet.
+     */
+    long getLowWatermark();
+
+    /**
+     * The write time up to which all WAL entries that were received from each source have been processed.
+     */
+    Map<String, Long> getLowWatermarks();
+
+    /**
+     * The age, in milliseconds, of the oldest WAL entry of each source that has not been processed yet.
+     */
+    Map<String, Long> getLags();
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Merges the row groups of all WAL entries of a single replication shipment, so that a row which is mutated several
+ * times within the shipment results in a single event.
+ * <p>
+ * The cells of a row are kept in the order in which they were received. When a delete marker is added, the earlier
+ * cells of the row that it covers are dropped, so that the merged cells describe the same end state as applying the
+ * individual mutations one after the other (last write wins). The delete markers themselves are retained.
+ * <p>
+ * Rows for which a payload was extracted are not merged, since the payload describes that single mutation: such a
+ * row group becomes an event on its own, and later mutations of the same row start a new group.
+ * <p>
+ * Subclasses provide access to the cell type of the HBase version in use. Instances are not thread-safe.
+ *
+ * @param <T> the type of the cells, i.e. KeyValue or Cell depending on the HBase version
+ */
+public abstract class RowCoalescer<T> {
+
+    /**
+     * Type code of {@code KeyValue.Type.DeleteFamilyVersion}, which doesn't exist in all supported HBase versions.
+     */
+    private static final byte DELETE_FAMILY_VERSION_CODE = (byte)10;
+
+    private final List<byte[]> tables = new ArrayList<byte[]>();
+    private final List<RowGrouper<T>> groupers = new ArrayList<RowGrouper<T>>();
+
+    /**
+     * Add the cells of a row group of a single WAL entry.
+     *
+     * @param table the table of the WAL entry
+     * @param entryGroup the row group within the WAL entry
+     */
+    public void add(byte[] table, RowGrouper.RowGroup<T> entryGroup) {
+        RowGrouper<T> grouper = getGrouper(table);
+        RowGrouper.RowGroup<T> group = grouper.getOrCreateGroup(entryGroup);
+
+        if (entryGroup.getPayload() != null) {
+            if (!group.getCells().isEmpty()) {
+                group.close();
+                group = grouper.getOrCreateGroup(entryGroup);
+            }
+            group.getCells().addAll(entryGroup.getCells());
+            group.setPayload(entryGroup.getPayload());
+            group.close();
+            return;
+        }
+
+        List<T> cells = group.getCells();
+        for (T cell : entryGroup.getCells()) {
+            if (isDelete(getTypeByte(cell))) {
+                removeCoveredCells(cells, cell);
+            }
+            cells.add(cell);
+        }
+    }
+
+    /**
+     * Returns the number of distinct tables for which row groups were added.
+     */
+    public int getTableCount() {
+        return tables.size();
+    }
+
+    public byte[] getTable(int i) {
+        return tables.get(i);
+    }
+
+    /**
+     * Returns the merged row groups of a table, in the order in which the rows were first encountered.
+     */
+    public RowGrouper<T> getRowGrouper(int i) {
+        return groupers.get(i);
+    }
+
+    private RowGrouper<T> getGrouper(byte[] table) {
+        // There are typically only one or a few tables in a shipment
+        for (int i = 0; i < tables.size(); i++) {
+            if (Bytes.equals(tables.get(i), table)) {
+                return groupers.get(i);
+            }
+        }
+        RowGrouper<T> grouper = new RowGrouper<T>();
+        tables.add(table);
+        groupers.add(grouper);
+        return grouper;
+    }
+
+    private void removeCoveredCells(List<T> cells, T deleteMarker) {
+        Iterator<T> cellIt = cells.iterator();
+        while (cellIt.hasNext()) {
+            T cell = cellIt.next();
+            if (!isDelete(getTypeByte(cell)) && isCoveredBy(cell, deleteMarker)) {
+                cellIt.remove();
+            }
+        }
+    }
+
+    /**
+     * Checks if a delete marker deletes a cell, following the semantics of the different delete types.
+     */
+    boolean isCoveredBy(T cell, T deleteMarker) {
+        if (!matchingFamily(cell, deleteMarker)) {
+            return false;
+        }
+        byte type = getTypeByte(deleteMarker);
+        long cellTimestamp = getTimestamp(cell);
+        long deleteTimestamp = getTimestamp(deleteMarker);
+        if (type == KeyValue.Type.DeleteFamily.getCode()) {
+            return cellTimestamp <= deleteTimestamp;
+        } else if (type == DELETE_FAMILY_VERSION_CODE) {
+            return cellTimestamp == deleteTimestamp;
+        } else if (!matchingQualifier(cell, deleteMarker)) {
+            return false;
+        } else if (type == KeyValue.Type.DeleteColumn.getCode()) {
+            return cellTimestamp <= deleteTimestamp;
+        } else if (type == KeyValue.Type.Delete.getCode()) {
+            return cellTimestamp == deleteTimestamp;
+        }
+        return false;
+    }
+
+    static boolean isDelete(byte type) {
+        return type >= KeyValue.Type.Delete.getCode() && type <= KeyValue.Type.DeleteFamily.getCode();
+    }
+
+    protected abstract byte getTypeByte(T cell);
+
+    protected abstract long getTimestamp(T cell);
+
+    protected abstract boolean matchingFamily(T left, T right);
+
+    protected abstract boolean matchingQualifier(T left, T right);
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Groups the cells of a single WAL entry per row, in the order in which the rows are first encountered.
+ * <p>
+ * WAL entries are row-clustered (the cells of a row are written consecutively), so a new cell is first compared with
+ * the row of the previous cell. Rows that are not consecutive are looked up by their hash, which is computed once per
+ * cell; a hash table on primitive ints is only built when an entry contains many rows.
+ * <p>
+ * The grouper itself is reused for all entries of a shipment (see {@link #reset()}), the row of a group refers to the
+ * row bytes of its first cell without copying them. Instances are not thread-safe.
+ *
+ * @param <T> the type of the cells, i.e. KeyValue or Cell depending on the HBase version
+ */
+public class RowGrouper<T> {
+
+    /**
+     * Number of groups up to which non-consecutive rows are looked up by a linear scan.
+     */
+    private static final int LINEAR_SCAN_LIMIT = 8;
+
+    private final List<RowGroup<T>> groups = new ArrayList<RowGroup<T>>();
+    private int groupCount = 0;
+    /** Open-addressing table of group index + 1 (0 meaning empty), only used when there are many groups. */
+    private int[] index = new int[0];
+    private boolean indexed = false;
+
+    /**
+     * Clears all groups, to start grouping the cells of a new entry.
+     */
+    public void reset() {
+        for (int i = 0; i < groupCount; i++) {
+            groups.get(i).clear();
+        }
+        groupCount = 0;
+        if (indexed) {
+            Arrays.fill(index, 0);
+            indexed = false;
+        }
+    }
+
+    /**
+     * Add a cell to the group of its row.
+     *
+     * @return the group to which the cell was added
+     */
+    public RowGroup<T> add(T cell, byte[] rowArray, int rowOffset, int rowLength) {
+        RowGroup<T> group = getOrCreateGroup(hash(rowArray, rowOffset, rowLength), rowArray, rowOffset, rowLength);
+        group.cells.add(cell);
+        return group;
+    }
+
+    /**
+     * Returns the open group for the row of the given group (typically of another grouper), creating it if needed.
+     */
+    RowGroup<T> getOrCreateGroup(RowGroup<?> sameRowAs) {
+        return getOrCreateGroup(sameRowAs.hash, sameRowAs.rowArray, sameRowAs.rowOffset, sameRowAs.rowLength);
+    }
+
+    private RowGroup<T> getOrCreateGroup(int hash, byte[] rowArray, int rowOffset, int rowLength) {
+        RowGroup<T> group = null;
+        if (groupCount > 0) {
+            RowGroup<T> lastGroup = groups.get(groupCount - 1);
+            if (lastGroup.matches(hash, rowArray, rowOffset, rowLength)) {
+                group = lastGroup;
+            } else {
+                group = findGroup(hash, rowArray, rowOffset, rowLength);
+            }
+        }
+
+        if (group == null) {
+            group = newGroup(hash, rowArray, rowOffset, rowLength);
+        }
+        return group;
+    }
+
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    public RowGroup<T> getGroup(int i) {
+        if (i >= groupCount) {
+            throw new IndexOutOfBoundsException("Group " + i + " requested, only " + groupCount + " groups");
+        }
+        return groups.get(i);
+    }
+
+    private RowGroup<T> findGroup(int hash, byte[] rowArray, int rowOffset, int rowLength) {
+        if (!indexed) {
+            // The last group has already been checked by the caller
+            for (int i = 0; i < groupCount - 1; i++) {
+                RowGroup<T> group = groups.get(i);
+                if (group.matches(hash, rowArray, rowOffset, rowLength)) {
+                    return group;
+                }
+            }
+            return null;
+        }
+        int mask = index.length - 1;
+        for (int slot = hash & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            RowGroup<T> group = groups.get(index[slot] - 1);
+            if (group.matches(hash, rowArray, rowOffset, rowLength)) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private RowGroup<T> newGroup(int hash, byte[] rowArray, int rowOffset, int rowLength) {
+        RowGroup<T> group;
+        if (groupCount < groups.size()) {
+            group = groups.get(groupCount);
+        } else {
+            group = new RowGroup<T>();
+            groups.add(group);
+        }
+        group.init(hash, rowArray, rowOffset, rowLength);
+        groupCount++;
+
+        if (indexed) {
+            if (groupCount * 2 > index.length) {
+                rebuildIndex();
+            } else {
+                insertIntoIndex(groupCount - 1);
+            }
+        } else if (groupCount > LINEAR_SCAN_LIMIT) {
+            rebuildIndex();
+        }
+        return group;
+    }
+
+    private void rebuildIndex() {
+        int size = Integer.highestOneBit(groupCount * 4 - 1) << 1;
+        if (index.length < size) {
+            index = new int[size];
+        } else {
+            Arrays.fill(index, 0);
+        }
+        indexed = true;
+        for (int i = 0; i < groupCount; i++) {
+            insertIntoIndex(i);
+        }
+    }
+
+    private void insertIntoIndex(int groupIndex) {
+        int mask = index.length - 1;
+        int slot = groups.get(groupIndex).hash & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = groupIndex + 1;
+    }
+
+    static int hash(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spread the bits, as the low bits are used to address the index
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        return hash ^ (hash >>> 7) ^ (hash >>> 4);
+    }
+
+    /**
+     * The cells of a single row within an entry, and the payload that was extracted for that row (if any).
+     */
+    public static class RowGroup<T> {
+        private int hash;
+        private byte[] rowArray;
+        private int rowOffset;
+        private int rowLength;
+        private List<T> cells;
+        private byte[] payload;
+        private boolean closed;
+
+        private void init(int hash, byte[] rowArray, int rowOffset, int rowLength) {
+            this.hash = hash;
+            this.rowArray = rowArray;
+            this.rowOffset = rowOffset;
+            this.rowLength = rowLength;
+            this.closed = false;
+            // The cells are handed over to the event that is created for the group, so they need a new list
+            this.cells = new ArrayList<T>();
+        }
+
+        private void clear() {
+            rowArray = null;
+            cells = null;
+            payload = null;
+        }
+
+        private boolean matches(int hash, byte[] rowArray, int rowOffset, int rowLength) {
+            return !closed && this.hash == hash && this.rowLength == rowLength
+                    && Bytes.compareTo(this.rowArray, this.rowOffset, this.rowLength, rowArray, rowOffset,
+                            rowLength) == 0;
+        }
+
+        /**
+         * Prevents more cells from being added to this group, later cells of the same row will go to a new group.
+         */
+        void close() {
+            closed = true;
+        }
+
+        /**
+         * Returns the cells of the row, in the order in which they were added.
+         */
+        public List<T> getCells() {
+            return cells;
+        }
+
+        /**
+         * Returns a copy of the row key.
+         */
+        public byte[] getRow() {
+            return Arrays.copyOfRange(rowArray, rowOffset, rowOffset + rowLength);
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public void setPayload(byte[] payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public String toString() {
+            return Bytes.toStringBinary(rowArray, rowOffset, rowLength);
+        }
+    }
+}
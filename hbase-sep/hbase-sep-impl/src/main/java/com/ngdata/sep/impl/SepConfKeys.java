@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+/**
+ * Configuration keys that influence the behaviour of a {@code SepConsumer}. These are read from the
+ * configuration that is supplied when constructing the consumer.
+ */
+public class SepConfKeys {
+
+    /**
+     * Maximum time (in milliseconds) that stopping a consumer will wait for accepted shipments to finish
+     * processing. Defaults to 30 seconds.
+     */
+    public static final String STOP_TIMEOUT = "hbasesep.consumer.stop.timeout";
+
+    public static final long DEFAULT_STOP_TIMEOUT = 30000L;
+
+    /**
+     * When true, all mutations of the same row within a single replication shipment are merged into one event
+     * (see {@link RowCoalescer}), instead of producing an event per WAL entry. Defaults to false.
+     */
+    public static final String COALESCE_ROWS = "hbasesep.consumer.coalesce.rows";
+
+    /**
+     * Number of events that are passed to the {@code EventListener} in a single call. When
+     * {@link #BATCH_LATENCY_TARGET} is set, this is the initial batch size. Defaults to 100.
+     */
+    public static final String BATCH_SIZE = "hbasesep.consumer.batch.size";
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Target time (in milliseconds) for the processing of a single batch of events by the {@code EventListener}.
+     * When set, the batch size of each consumer thread is adapted to the observed processing time, within the
+     * bounds of {@link #BATCH_SIZE_MIN} and {@link #BATCH_SIZE_MAX} (see {@link BatchSizeController}). Defaults to
+     * 0, meaning that a fixed batch size of {@link #BATCH_SIZE} is used.
+     */
+    public static final String BATCH_LATENCY_TARGET = "hbasesep.consumer.batch.latency.target";
+
+    /**
+     * Lower bound of the adaptive batch size, see {@link #BATCH_LATENCY_TARGET}. Defaults to 10.
+     */
+    public static final String BATCH_SIZE_MIN = "hbasesep.consumer.batch.size.min";
+
+    public static final int DEFAULT_BATCH_SIZE_MIN = 10;
+
+    /**
+     * Upper bound of the adaptive batch size, see {@link #BATCH_LATENCY_TARGET}. Defaults to 1000.
+     */
+    public static final String BATCH_SIZE_MAX = "hbasesep.consumer.batch.size.max";
+
+    public static final int DEFAULT_BATCH_SIZE_MAX = 1000;
+
+    /**
+     * Number of batches that can be queued per consumer thread before the scheduling of new batches blocks. The
+     * resulting bound applies to all threads together. Defaults to 100.
+     */
+    public static final String QUEUE_CAPACITY = "hbasesep.consumer.queue.capacity";
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 100;
+
+    /**
+     * Number of partitions per consumer thread. Rows are assigned to partitions, and each partition is executed by
+     * one thread at a time, which keeps the events of a row in order. Idle threads pick up any partition that has
+     * pending batches, so more partitions spread skewed row distributions better over the threads, at the cost of
+     * smaller batches. Defaults to 8.
+     */
+    public static final String PARTITIONS_PER_THREAD = "hbasesep.consumer.partitions.per.thread";
+
+    public static final int DEFAULT_PARTITIONS_PER_THREAD = 8;
+
+    /**
+     * Type of the consumer threads: {@code platform} (the default), {@code virtual} or the name of a
+     * {@code ThreadFactory} class, see {@link com.ngdata.sep.util.concurrent.ThreadFactories}. Virtual threads
+     * make it affordable to use a lot more consumer threads, so that more listener calls (and the Solr and HBase
+     * requests that they do) can be in progress at the same time.
+     */
+    public static final String THREAD_FACTORY = "hbasesep.consumer.thread.factory";
+
+    /**
+     * Directory in which a consumer spills the events it receives, see {@link EventSpiller}. When set, shipments
+     * are acknowledged to HBase as soon as their events have been written to a log in a subdirectory per
+     * subscription, and a separate thread replays them to the {@code EventListener}, retrying failed batches until
+     * they succeed. This is how a consumer acknowledges shipments before their events have been processed (pipelined
+     * acknowledgement), without losing events when the process dies. Not set by default, meaning that events are
+     * not spilled, and shipments are acknowledged once their events have been processed.
+     */
+    public static final String SPILL_DIR = "hbasesep.consumer.spill.dir";
+
+    /**
+     * Size of the segment files of the spill log, in bytes. Defaults to 64 MB.
+     */
+    public static final String SPILL_SEGMENT_SIZE = "hbasesep.consumer.spill.segment.size";
+
+    public static final long DEFAULT_SPILL_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Maximum disk usage of the spill log of a consumer, in bytes. Once the log is full, shipments are refused
+     * until the backlog has been processed. Defaults to 1 GB.
+     */
+    public static final String SPILL_MAX_SIZE = "hbasesep.consumer.spill.max.size";
+
+    public static final long DEFAULT_SPILL_MAX_SIZE = 1024L * 1024 * 1024;
+
+    private SepConfKeys() {
+        // prevent construction, constants only
+    }
+}
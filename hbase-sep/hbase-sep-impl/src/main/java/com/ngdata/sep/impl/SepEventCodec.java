@@ -0,0 +1,389 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.ngdata.sep.SepEvent;
+import org.apache.hadoop.hbase.KeyValue;
+
+/**
+ * Compact binary encoding of a stream of {@link SepEvent}s.
+ * <p>
+ * A stream starts with a version byte and a flags byte, followed by the events until the end of the buffer. An event
+ * consists of its table, row, payload and KeyValues, of which the latter are stored as their row (only when it differs
+ * from the event row), family, qualifier, timestamp, type and value. All lengths and counts are unsigned varints,
+ * timestamps are zigzag varints of the difference with the previous timestamp.
+ * <p>
+ * When prefix compression is enabled, tables, rows, families and qualifiers are stored as the length of the prefix
+ * that they share with the previous one in the stream, followed by the remaining bytes. As the events of a batch
+ * usually belong to the same table and often to neighbouring rows, this takes away most of the key overhead.
+ * <p>
+ * Encoders and decoders keep state between events, so the events of a stream must be decoded in the same order as
+ * they were encoded, starting from the beginning of the stream. Tags of KeyValues are not encoded.
+ */
+public class SepEventCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final int FLAG_PREFIX_COMPRESSION = 0x01;
+    private static final int CELL_FLAG_OTHER_ROW = 0x01;
+
+    private SepEventCodec() {
+        // static nested classes only
+    }
+
+    /**
+     * Encodes SepEvents into a heap ByteBuffer, which grows as needed.
+     */
+    public static class Encoder {
+        private final boolean prefixCompression;
+        private ByteBuffer buffer;
+        private final ByteArrayRef previousTable = new ByteArrayRef();
+        private final ByteArrayRef previousRow = new ByteArrayRef();
+        private final ByteArrayRef previousFamily = new ByteArrayRef();
+        private final ByteArrayRef previousQualifier = new ByteArrayRef();
+        private long previousTimestamp;
+        private int eventCount;
+
+        /**
+         * @param prefixCompression whether to store tables, rows, families and qualifiers relative to the previous
+         *        one in the stream
+         */
+        public Encoder(boolean prefixCompression) {
+            this(prefixCompression, 4096);
+        }
+
+        public Encoder(boolean prefixCompression, int initialCapacity) {
+            this.prefixCompression = prefixCompression;
+            this.buffer = ByteBuffer.allocate(Math.max(initialCapacity, 16));
+            reset();
+        }
+
+        /**
+         * Start a new stream, discarding everything that was encoded so far.
+         */
+        public void reset() {
+            buffer.clear();
+            buffer.put(VERSION);
+            buffer.put((byte)(prefixCompression ? FLAG_PREFIX_COMPRESSION : 0));
+            previousTable.clear();
+            previousRow.clear();
+            previousFamily.clear();
+            previousQualifier.clear();
+            previousTimestamp = 0;
+            eventCount = 0;
+        }
+
+        public void encode(SepEvent event) {
+            byte[] table = event.getTable();
+            byte[] row = event.getRow();
+            writeBytes(previousTable, table, 0, table.length);
+            writeBytes(previousRow, row, 0, row.length);
+            byte[] payload = event.getPayload();
+            if (payload == null) {
+                writeVarInt(0);
+            } else {
+                writeVarInt(payload.length + 1);
+                ensureCapacity(payload.length);
+                buffer.put(payload);
+            }
+            List<KeyValue> keyValues = event.getKeyValues();
+            writeVarInt(keyValues.size());
+            for (KeyValue keyValue : keyValues) {
+                encode(keyValue, row);
+            }
+            eventCount++;
+        }
+
+        private void encode(KeyValue keyValue, byte[] eventRow) {
+            byte[] kvBuffer = keyValue.getBuffer();
+            int rowOffset = keyValue.getRowOffset();
+            int rowLength = keyValue.getRowLength();
+            boolean otherRow = !equals(eventRow, 0, eventRow.length, kvBuffer, rowOffset, rowLength);
+            ensureCapacity(1);
+            buffer.put((byte)(otherRow ? CELL_FLAG_OTHER_ROW : 0));
+            if (otherRow) {
+                writeVarInt(rowLength);
+                ensureCapacity(rowLength);
+                buffer.put(kvBuffer, rowOffset, rowLength);
+            }
+            writeBytes(previousFamily, kvBuffer, keyValue.getFamilyOffset(), keyValue.getFamilyLength());
+            writeBytes(previousQualifier, kvBuffer, keyValue.getQualifierOffset(), keyValue.getQualifierLength());
+            long timestamp = keyValue.getTimestamp();
+            writeVarLong(zigzag(timestamp - previousTimestamp));
+            previousTimestamp = timestamp;
+            ensureCapacity(1);
+            buffer.put(keyValue.getType());
+            int valueLength = keyValue.getValueLength();
+            writeVarInt(valueLength);
+            ensureCapacity(valueLength);
+            buffer.put(kvBuffer, keyValue.getValueOffset(), valueLength);
+        }
+
+        private void writeBytes(ByteArrayRef previous, byte[] bytes, int offset, int length) {
+            int prefix = 0;
+            if (prefixCompression) {
+                prefix = previous.commonPrefix(bytes, offset, length);
+                writeVarInt(prefix);
+            }
+            writeVarInt(length - prefix);
+            ensureCapacity(length - prefix);
+            buffer.put(bytes, offset + prefix, length - prefix);
+            if (prefixCompression && (prefix != length || previous.length != length)) {
+                previous.set(bytes, offset, length);
+            }
+        }
+
+        private void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte)value);
+        }
+
+        private void ensureCapacity(int length) {
+            if (buffer.remaining() < length) {
+                ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+                buffer.flip();
+                newBuffer.put(buffer);
+                buffer = newBuffer;
+            }
+        }
+
+        private static boolean equals(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+            if (aLength != bLength) {
+                return false;
+            }
+            for (int i = 0; i < aLength; i++) {
+                if (a[aOffset + i] != b[bOffset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the number of events that were encoded since the last reset.
+         */
+        public int getEventCount() {
+            return eventCount;
+        }
+
+        /**
+         * Returns the number of bytes that were encoded since the last reset.
+         */
+        public int getSize() {
+            return buffer.position();
+        }
+
+        /**
+         * Returns a read-only view on the encoded stream, which is only valid until the next call to
+         * {@link #encode(SepEvent)} or {@link #reset()}.
+         */
+        public ByteBuffer getEncoded() {
+            ByteBuffer encoded = buffer.asReadOnlyBuffer();
+            encoded.flip();
+            return encoded;
+        }
+
+        /**
+         * Copies the encoded stream into a byte array at the given offset, which should leave room for
+         * {@link #getSize()} bytes.
+         */
+        public void copyTo(byte[] target, int offset) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset(), target, offset, buffer.position());
+        }
+    }
+
+    /**
+     * Decodes SepEvents from a ByteBuffer, from its position up to its limit.
+     */
+    public static class Decoder {
+        private final ByteBuffer buffer;
+        private final boolean prefixCompression;
+        private byte[] previousTable = new byte[0];
+        private byte[] previousRow = new byte[0];
+        private byte[] previousFamily = new byte[0];
+        private byte[] previousQualifier = new byte[0];
+        private long previousTimestamp;
+
+        /**
+         * @throws IllegalArgumentException if the stream has an unsupported version
+         */
+        public Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+            byte version = buffer.get();
+            Preconditions.checkArgument(version == VERSION, "Unsupported SepEvent encoding version: " + version);
+            prefixCompression = (buffer.get() & FLAG_PREFIX_COMPRESSION) != 0;
+        }
+
+        public boolean hasNext() {
+            return buffer.hasRemaining();
+        }
+
+        /**
+         * Decodes the next event.
+         *
+         * @throws BufferUnderflowException if the stream is truncated
+         */
+        public SepEvent next() {
+            previousTable = readBytes(previousTable);
+            previousRow = readBytes(previousRow);
+            byte[] table = previousTable;
+            byte[] row = previousRow;
+            int payloadLength = readVarInt();
+            byte[] payload = null;
+            if (payloadLength > 0) {
+                payload = new byte[payloadLength - 1];
+                buffer.get(payload);
+            }
+            int keyValueCount = readVarInt();
+            List<KeyValue> keyValues = new ArrayList<KeyValue>(keyValueCount);
+            for (int i = 0; i < keyValueCount; i++) {
+                keyValues.add(decodeKeyValue(row));
+            }
+            return new SepEvent(table, row, keyValues, payload);
+        }
+
+        /**
+         * Decodes all remaining events.
+         */
+        public List<SepEvent> decodeAll() {
+            List<SepEvent> events = new ArrayList<SepEvent>();
+            while (hasNext()) {
+                events.add(next());
+            }
+            return events;
+        }
+
+        private KeyValue decodeKeyValue(byte[] eventRow) {
+            byte flags = buffer.get();
+            byte[] row = eventRow;
+            if ((flags & CELL_FLAG_OTHER_ROW) != 0) {
+                row = new byte[readVarInt()];
+                buffer.get(row);
+            }
+            previousFamily = readBytes(previousFamily);
+            previousQualifier = readBytes(previousQualifier);
+            long timestamp = previousTimestamp + unzigzag(readVarLong());
+            previousTimestamp = timestamp;
+            KeyValue.Type type = KeyValue.Type.codeToType(buffer.get());
+            int valueLength = readVarInt();
+            byte[] value;
+            int valueOffset;
+            if (buffer.hasArray()) {
+                // The KeyValue copies the value, so it can be taken from the buffer as is
+                value = buffer.array();
+                valueOffset = buffer.arrayOffset() + buffer.position();
+                if (valueLength > buffer.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                buffer.position(buffer.position() + valueLength);
+            } else {
+                value = new byte[valueLength];
+                valueOffset = 0;
+                buffer.get(value);
+            }
+            return new KeyValue(row, 0, row.length, previousFamily, 0, previousFamily.length, previousQualifier, 0,
+                    previousQualifier.length, timestamp, type, value, valueOffset, valueLength);
+        }
+
+        /**
+         * Reads a byte array that might share a prefix with the previous one. As the previous array is never
+         * modified, unchanged arrays are shared between the decoded events.
+         */
+        private byte[] readBytes(byte[] previous) {
+            int prefix = prefixCompression ? readVarInt() : 0;
+            int suffix = readVarInt();
+            if (suffix == 0 && prefix == previous.length) {
+                return previous;
+            }
+            byte[] bytes = new byte[prefix + suffix];
+            System.arraycopy(previous, 0, bytes, 0, prefix);
+            buffer.get(bytes, prefix, suffix);
+            return bytes;
+        }
+
+        private int readVarInt() {
+            long value = readVarLong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid length in SepEvent encoding: " + value);
+            }
+            return (int)value;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in SepEvent encoding");
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Copy of the previously encoded table, row, family or qualifier.
+     */
+    private static class ByteArrayRef {
+        private byte[] bytes = new byte[16];
+        private int length;
+
+        void clear() {
+            length = 0;
+        }
+
+        void set(byte[] source, int offset, int sourceLength) {
+            if (bytes.length < sourceLength) {
+                bytes = new byte[Math.max(sourceLength, bytes.length * 2)];
+            }
+            System.arraycopy(source, offset, bytes, 0, sourceLength);
+            length = sourceLength;
+        }
+
+        int commonPrefix(byte[] other, int offset, int otherLength) {
+            int max = Math.min(length, otherLength);
+            int i = 0;
+            while (i < max && bytes[i] == other[offset + i]) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+}
@@ -15,111 +15,355 @@
  */
 package com.ngdata.sep.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
-
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+import com.google.common.base.Preconditions;
 import com.ngdata.sep.EventListener;
 import com.ngdata.sep.SepEvent;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
- * Executes SepEvents in batches over multiple threads. All events for the same row will be executed by the same thread,
- * and will be batched in the order that they were received in.
+ * Executes SepEvents in batches over multiple threads. Rows are divided over a number of partitions, each of which is
+ * backed by an executor that runs its batches one at a time and in order. All events for the same row will therefore
+ * be executed in the order that they were received in, and never concurrently.
+ * <p>
+ * A single executor is meant to live as long as its {@code SepConsumer}. Events are scheduled within a
+ * {@link Shipment}, which is obtained via {@link #startShipment()} for every replication RPC. As SepEvents are executed
+ * in batches, after scheduling they will be buffered until their batch size is reached or {@link Shipment#flush()} is
+ * called. The batch size is determined per partition by a {@link BatchSizeController}, which can adapt it to the
+ * observed processing time of the batches.
  * <p>
- * As SepEvents are executed in batches, after scheduling they will be buffered until their batch size is reached or the
- * {@code flush} method is called.
+ * Shipments and event batches are pooled and reused, so that the steady-state scheduling path doesn't allocate
+ * anything. As a consequence, the list of events that is handed to the {@link EventListener} is only valid for the
+ * duration of the {@link EventListener#processEvents(List)} call.
  * <p>
- * Note that although this class uses multiple threads, its use is not thread-safe. Events should only be scheduled from
- * within a single thread.
+ * This class is thread-safe, shipments can be started and used concurrently from multiple threads. A single shipment
+ * should only be used from within a single thread.
  */
 public class SepEventExecutor {
 
+    private static final long MIN_RETRY_DELAY = 100L;
+    private static final long MAX_RETRY_DELAY = 30000L;
+
+    /**
+     * Number of idle shipments that are kept for reuse.
+     */
+    private static final int SHIPMENT_POOL_SIZE = 64;
+
+    /**
+     * Number of idle batches that are kept for reuse, per partition. This covers the default executor queue size (100)
+     * plus the batch that is being executed and the ones that are being filled.
+     */
+    private static final int BATCH_POOL_SIZE_PER_PARTITION = 128;
+
     private Log log = LogFactory.getLog(getClass());
-    private EventListener eventListener;
-    private int numThreads;
-    private int batchSize;
-    private SepMetrics sepMetrics;
-    private List<ThreadPoolExecutor> executors;
-    private Multimap<Integer, SepEvent> eventBuffers;
-    private List<Future<?>> futures;
-    private HashFunction hashFunction = Hashing.murmur3_32();
-    private boolean stopped = false;
-
-    public SepEventExecutor(EventListener eventListener, List<ThreadPoolExecutor> executors, int batchSize, SepMetrics sepMetrics) {
+    private final EventListener eventListener;
+    private final int numPartitions;
+    private final BatchSizeController batchSizeController;
+    private final SepMetrics sepMetrics;
+    private final List<? extends Executor> executors;
+    private final boolean retryFailedBatches;
+    private final BlockingQueue<Shipment> shipmentPool;
+    private final BlockingQueue<EventBatch> batchPool;
+
+    /**
+     * @param executors an executor for every partition, each of which must execute its tasks one at a time and in the
+     *        order in which they were submitted (e.g. single-threaded executors, or the partitions of a
+     *        {@link com.ngdata.sep.util.concurrent.PartitionedExecutor})
+     */
+    public SepEventExecutor(EventListener eventListener, List<? extends Executor> executors, int batchSize, SepMetrics sepMetrics) {
+        this(eventListener, executors, batchSize, sepMetrics, false);
+    }
+
+    /**
+     * @param retryFailedBatches if true, a batch that fails is retried (with back-off) on the same thread until it
+     *        succeeds, instead of being reported as failed to its {@link Shipment}. This keeps the ordering of events
+     *        for a row intact in cases where the batch can no longer be redelivered by HBase.
+     */
+    public SepEventExecutor(EventListener eventListener, List<? extends Executor> executors, int batchSize,
+            SepMetrics sepMetrics, boolean retryFailedBatches) {
+        this(eventListener, executors, new BatchSizeController(executors.size(), batchSize), sepMetrics,
+                retryFailedBatches);
+    }
+
+    /**
+     * @param batchSizeController determines the batch size for each partition, should have been created for the
+     *        same number of partitions as there are executors
+     * @param retryFailedBatches see {@link #SepEventExecutor(EventListener, List, int, SepMetrics, boolean)}
+     */
+    public SepEventExecutor(EventListener eventListener, List<? extends Executor> executors,
+            BatchSizeController batchSizeController, SepMetrics sepMetrics, boolean retryFailedBatches) {
+        this.retryFailedBatches = retryFailedBatches;
         this.eventListener = eventListener;
         this.executors = executors;
-        this.numThreads = executors.size();
-        this.batchSize = batchSize;
+        this.numPartitions = executors.size();
+        this.batchSizeController = batchSizeController;
         this.sepMetrics = sepMetrics;
-        eventBuffers = ArrayListMultimap.create(numThreads, batchSize);
-        futures = Lists.newArrayList();
+        this.shipmentPool = new ArrayBlockingQueue<Shipment>(SHIPMENT_POOL_SIZE);
+        this.batchPool = new ArrayBlockingQueue<EventBatch>(numPartitions * BATCH_POOL_SIZE_PER_PARTITION);
     }
 
     /**
-     * Schedule a {@link SepEvent} for execution.
-     * <p>
-     * The event will be buffered until it can be executed within a batch of the configured batch size, or until the
-     * {@link #flush()} method is called.
-     * 
-     * @param sepEvent event to be scheduled
+     * Start a new shipment, within which events can be scheduled. The shipment should be given back by calling
+     * {@link Shipment#release()} once it is no longer used.
      */
-    public void scheduleSepEvent(SepEvent sepEvent) {
+    public Shipment startShipment() {
+        Shipment shipment = shipmentPool.poll();
+        if (shipment == null) {
+            shipment = new Shipment();
+        }
+        return shipment;
+    }
+
+    /**
+     * Determines the partition for a row. We don't want messages of the same row to be processed
+     * concurrently, therefore the partition is chosen based on the hash of the row key.
+     */
+    int getPartition(byte[] row) {
+        int hash = Arrays.hashCode(row);
+        // Spread the bits of the polynomial hash, as consecutive row keys tend to differ in their last bytes only
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return (hash & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    private EventBatch takeBatch(Shipment shipment, int partition) {
+        EventBatch batch = batchPool.poll();
+        if (batch == null) {
+            batch = new EventBatch();
+        }
+        batch.shipment = shipment;
+        batch.partition = partition;
+        batch.targetSize = batchSizeController.getBatchSize(partition);
+        return batch;
+    }
+
+    /**
+     * Callback that is notified when all batches of a flushed {@link Shipment} have been executed.
+     */
+    public interface ShipmentListener {
+        /**
+         * Called from the thread that executed the last batch of the shipment, so should not block.
+         */
+        void shipmentCompleted(Shipment shipment);
+    }
+
+    /**
+     * The events scheduled for a single replication RPC. Tracks the completion of all batches that are created for it.
+     */
+    public class Shipment implements SepEventSink {
+        private final EventBatch[] openBatches = new EventBatch[numPartitions];
+        private int scheduledBatches;
+        private int pendingBatches;
+        private int failedBatches;
+        private Throwable firstFailure;
+        private boolean flushed;
+        private ShipmentListener listener;
+
+        private Shipment() {
+        }
+
+        /**
+         * Schedule a {@link SepEvent} for execution.
+         * <p>
+         * The event will be buffered until it can be executed within a batch of the configured batch size, or until
+         * the {@link #flush()} method is called.
+         *
+         * @param sepEvent event to be scheduled
+         */
+        @Override
+        public void scheduleSepEvent(SepEvent sepEvent) {
+            Preconditions.checkState(!flushed, "Shipment has already been flushed");
+            int partition = getPartition(sepEvent.getRow());
+            EventBatch batch = openBatches[partition];
+            if (batch == null) {
+                batch = takeBatch(this, partition);
+                openBatches[partition] = batch;
+            }
+            batch.events.add(sepEvent);
+            if (batch.events.size() >= batch.targetSize) {
+                openBatches[partition] = null;
+                dispatch(batch);
+            }
+        }
+
+        /**
+         * Flush all buffered SepEvent batches, causing them to be started up for execution. No more events can be
+         * scheduled in this shipment afterwards.
+         */
+        public void flush() {
+            for (int partition = 0; partition < openBatches.length; partition++) {
+                EventBatch batch = openBatches[partition];
+                if (batch != null) {
+                    openBatches[partition] = null;
+                    dispatch(batch);
+                }
+            }
+            synchronized (this) {
+                flushed = true;
+                notifyIfComplete();
+            }
+        }
+
+        private void dispatch(EventBatch batch) {
+            synchronized (this) {
+                scheduledBatches++;
+                pendingBatches++;
+            }
+            try {
+                executors.get(batch.partition).execute(batch);
+            } catch (RuntimeException e) {
+                // Typically a RejectedExecutionException because the consumer is being stopped
+                synchronized (this) {
+                    scheduledBatches--;
+                    pendingBatches--;
+                }
+                batch.events.clear();
+                batch.shipment = null;
+                batchPool.offer(batch);
+                throw e;
+            }
+        }
+
+        private synchronized void batchCompleted(Throwable failure) {
+            pendingBatches--;
+            if (failure != null) {
+                failedBatches++;
+                if (firstFailure == null) {
+                    firstFailure = failure;
+                }
+            }
+            notifyIfComplete();
+        }
+
+        private void notifyIfComplete() {
+            if (flushed && pendingBatches == 0) {
+                notifyAll();
+                if (listener != null) {
+                    ShipmentListener completionListener = listener;
+                    listener = null;
+                    completionListener.shipmentCompleted(this);
+                }
+            }
+        }
+
+        /**
+         * Register a listener that will be notified once this shipment has been flushed and all of its batches have
+         * been executed. If that is already the case, the listener is notified immediately.
+         */
+        public synchronized void setListener(ShipmentListener listener) {
+            this.listener = listener;
+            notifyIfComplete();
+        }
+
+        /**
+         * Wait until this shipment has been flushed and all of its batches have been executed.
+         */
+        public synchronized void awaitCompletion() throws InterruptedException {
+            while (!flushed || pendingBatches > 0) {
+                wait();
+            }
+        }
 
-        if (stopped) {
-            throw new IllegalStateException("This executor is stopped");
+        public synchronized boolean isComplete() {
+            return flushed && pendingBatches == 0;
         }
 
-        // We don't want messages of the same row to be processed concurrently, therefore choose
-        // a thread based on the hash of the row key
-        int partition = (hashFunction.hashBytes(sepEvent.getRow()).asInt() & Integer.MAX_VALUE) % numThreads;
-        List<SepEvent> eventBuffer = (List<SepEvent>)eventBuffers.get(partition);
-        eventBuffer.add(sepEvent);
-        if (eventBuffer.size() == batchSize) {
-            scheduleEventBatch(partition, Lists.newArrayList(eventBuffer));
-            eventBuffers.removeAll(partition);
+        /**
+         * Returns the number of batches that have been handed to the executor threads for this shipment.
+         */
+        public synchronized int getBatchCount() {
+            return scheduledBatches;
+        }
+
+        public synchronized int getFailedBatchCount() {
+            return failedBatches;
+        }
+
+        /**
+         * Returns the error of the first batch that failed, or null if no batches failed.
+         */
+        public synchronized Throwable getFirstFailure() {
+            return firstFailure;
+        }
+
+        /**
+         * Give this shipment back to the executor for reuse. A shipment that has not completed yet is simply
+         * discarded, as its batches still refer to it.
+         */
+        public void release() {
+            synchronized (this) {
+                if (!flushed || pendingBatches > 0) {
+                    return;
+                }
+                scheduledBatches = 0;
+                failedBatches = 0;
+                firstFailure = null;
+                flushed = false;
+                listener = null;
+            }
+            shipmentPool.offer(this);
         }
     }
 
-    private void scheduleEventBatch(int partition, final List<SepEvent> events) {
-        Future<?> future = executors.get(partition).submit(new Runnable() {
-            @Override
-            public void run() {
+    /**
+     * A batch of events for a single partition. Batches are reused, the events list keeps its capacity.
+     */
+    private class EventBatch implements Runnable {
+        private final List<SepEvent> events = new ArrayList<SepEvent>();
+        private Shipment shipment;
+        private int partition;
+        /** Number of events at which the batch is dispatched, fixed when the batch is taken. */
+        private int targetSize;
+
+        @Override
+        public void run() {
+            Throwable failure = null;
+            try {
+                process();
+            } catch (Throwable t) {
+                failure = t;
+            }
+            Shipment completedShipment = shipment;
+            events.clear();
+            shipment = null;
+            batchPool.offer(this);
+            completedShipment.batchCompleted(failure);
+        }
+
+        private void process() {
+            long retryDelay = MIN_RETRY_DELAY;
+            while (true) {
                 try {
                     long before = System.currentTimeMillis();
                     log.debug("Delivering message to listener");
                     eventListener.processEvents(events);
-                    sepMetrics.reportFilteredSepOperation(System.currentTimeMillis() - before);
+                    long duration = System.currentTimeMillis() - before;
+                    sepMetrics.reportFilteredSepOperation(duration);
+                    batchSizeController.batchProcessed(partition, events.size(), duration);
+                    return;
                 } catch (RuntimeException e) {
-                    log.error("Error while processing event", e);
-                    throw e;
+                    if (!retryFailedBatches) {
+                        log.error("Error while processing event", e);
+                        throw e;
+                    }
+                    log.error("Error while processing event, retrying batch in " + retryDelay + " ms", e);
                 }
-            }
-        });
-        futures.add(future);
-    }
-
-    /**
-     * Flush all buffered SepEvent batches, causing them to be started up for execution.
-     * <p>
-     * Returns all {@code Future}s for all events that have been scheduled since the last time this method was called.
-     */
-    public List<Future<?>> flush() {
-        for (int partition : eventBuffers.keySet()) {
-            List<SepEvent> buffer = (List<SepEvent>)eventBuffers.get(partition);
-            if (!buffer.isEmpty()) {
-                scheduleEventBatch(partition, Lists.newArrayList(buffer));
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while retrying a failed batch of events", e);
+                }
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
             }
         }
-        eventBuffers.clear();
-        List<Future<?>> flushedFutures = Lists.newArrayList(futures);
-        return flushedFutures;
     }
 
 }
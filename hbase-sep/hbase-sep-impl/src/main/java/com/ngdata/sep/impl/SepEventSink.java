@@ -0,0 +1,28 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import com.ngdata.sep.SepEvent;
+
+/**
+ * Destination of the SepEvents that a {@code SepConsumer} creates for a replication shipment: either a
+ * {@link SepEventExecutor.Shipment} that executes them, or an {@link EventSpiller.Batch} that spills them to disk.
+ */
+interface SepEventSink {
+
+    void scheduleSepEvent(SepEvent sepEvent);
+
+}
@@ -73,12 +73,10 @@ public class SepMetrics implements Updater {
     }
 
     /**
-     * Report the original write timestamp of a SEP operation that was received. Assuming that SEP
-     * operations are delivered in the same order as they are originally written in HBase (which
-     * will always be the case except for when a region split or move takes place), this metric will always
-     * hold the write timestamp of the most recent operation in HBase that has been handled by the SEP system.
+     * Report the write timestamp up to which all received SEP operations have been handled, as tracked by the
+     * {@link LagTracker}. Shipments that complete out of order don't make this metric run ahead.
      * 
-     * @param timestamp The write timestamp of the last SEP operation
+     * @param writeTimestamp The low watermark of the write timestamps of the handled SEP operations
      */
     public void reportSepTimestamp(long writeTimestamp) {
         lastTimestampInputProcessed.set(writeTimestamp);
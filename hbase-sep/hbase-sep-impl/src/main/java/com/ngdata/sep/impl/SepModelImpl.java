@@ -176,7 +176,7 @@ public class SepModelImpl implements SepModel {
         return subscriptionName.replace('-', INTERNAL_HYPHEN_REPLACEMENT);
     }
 
-    static String toExternalSubscriptionName(String subscriptionName) {
+    public static String toExternalSubscriptionName(String subscriptionName) {
         return subscriptionName.replace(INTERNAL_HYPHEN_REPLACEMENT, '-');
     }
 }
@@ -0,0 +1,573 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Durable, append-only log of records, stored in a directory as a sequence of fixed-size, memory-mapped segment
+ * files.
+ * <p>
+ * Records are appended by any number of threads and consumed in order by a single reader. Appended records become
+ * durable, and visible to the reader, once they have been synced. Threads that sync concurrently share a single
+ * force of the segments to disk: one of them forces all records appended so far, while the others wait for it.
+ * The reader marks the
+ * records that it has completely handled by calling {@link #checkpoint()}: the read position is persisted, so that
+ * reading resumes from there after a restart, and segments that have been read completely are deleted. Records
+ * that were read but not checkpointed are read again after a restart, or after calling {@link #rewind()}.
+ * <p>
+ * Every record is stored as its length, a CRC32 checksum and the data. Segment files are zero-filled when they are
+ * created, a zero length marks the end of the data in a segment. When a log is opened, the records that follow the
+ * checkpoint are verified, and the log is truncated at the first incomplete or corrupt record.
+ * <p>
+ * The disk usage is bounded by a maximum size, the total size of the segment files: appending a record that needs an
+ * additional segment fails if the segment would make the log exceed that size. A record that doesn't fit in a
+ * segment gets a larger segment of its own.
+ */
+public class SpillLog {
+
+    private static final String SEGMENT_SUFFIX = ".spill";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final Log log = LogFactory.getLog(getClass());
+    private final File directory;
+    private final int segmentSize;
+    private final long maxSize;
+
+    /** The segments that have not been deleted yet, in order. Guarded by this. */
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    /** Segments that have been written to since the last sync. Guarded by this. */
+    private final List<Segment> unsyncedSegments = new ArrayList<Segment>();
+    /** Total size of the segments. Guarded by this. */
+    private long size;
+    /** Segment to which new records are appended, the last one of the segments. Guarded by this. */
+    private Segment writeSegment;
+    /** Number of records appended so far. Guarded by this. */
+    private long appendSequence;
+    /** Number of the appended records that have been forced to disk. Guarded by this. */
+    private long syncSequence;
+    /** True while a thread forces segments to disk outside of the lock. Guarded by this. */
+    private boolean syncing;
+
+    /** Position of the reader. Only accessed by the reader thread, apart from its initialization. */
+    private Segment readSegment;
+    private int readPosition;
+    /** Read position of the last checkpoint. Only accessed by the reader thread, apart from its initialization. */
+    private Segment checkpointReadSegment;
+    private int checkpointReadPosition;
+    private boolean closed;
+
+    /**
+     * Opens the log in the given directory, creating the directory if needed.
+     *
+     * @param segmentSize size of the segment files, in bytes
+     * @param maxSize maximum total size of the segment files, in bytes
+     */
+    public SpillLog(File directory, int segmentSize, long maxSize) throws IOException {
+        Preconditions.checkArgument(segmentSize > RECORD_HEADER_SIZE, "Segment size too small: " + segmentSize);
+        Preconditions.checkArgument(maxSize >= 2L * segmentSize, "The maximum size should allow for at least 2 "
+                + "segments: " + maxSize);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create spill directory " + directory);
+        }
+        recover();
+    }
+
+    private void recover() throws IOException {
+        long checkpointSegment = -1;
+        int checkpointPosition = 0;
+        File checkpointFile = new File(directory, CHECKPOINT_FILE);
+        if (checkpointFile.exists()) {
+            DataInputStream input = new DataInputStream(new FileInputStream(checkpointFile));
+            try {
+                checkpointSegment = input.readLong();
+                checkpointPosition = input.readInt();
+            } finally {
+                input.close();
+            }
+        }
+
+        for (long sequenceNumber : listSegmentFiles()) {
+            if (sequenceNumber < checkpointSegment) {
+                deleteSegmentFile(sequenceNumber);
+            } else {
+                addSegment(openSegment(sequenceNumber, -1));
+            }
+        }
+
+        // Find the end of the valid data, everything after it is discarded
+        boolean truncated = false;
+        for (Iterator<Segment> it = segments.iterator(); it.hasNext();) {
+            Segment segment = it.next();
+            if (truncated) {
+                it.remove();
+                deleteSegment(segment);
+                continue;
+            }
+            int position = segment.sequenceNumber == checkpointSegment ? checkpointPosition : 0;
+            while (true) {
+                int next = segment.verifyRecord(position);
+                if (next < 0) {
+                    break;
+                }
+                position = next;
+            }
+            segment.writePosition = position;
+            segment.syncPosition = position;
+            if (segment.readLength(position) != 0) {
+                log.warn("Truncating spill log at incomplete record in segment " + segment.sequenceNumber
+                        + ", position " + position);
+                truncated = true;
+            }
+            if (truncated || !it.hasNext()) {
+                // Clear whatever follows the valid data, so that it can't be mistaken for records later on
+                segment.truncate(position);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            addSegment(openSegment(Math.max(checkpointSegment, 0), segmentSize));
+        }
+        writeSegment = segments.getLast();
+        readSegment = segments.getFirst();
+        readPosition = readSegment.sequenceNumber == checkpointSegment ? checkpointPosition : 0;
+        checkpointReadSegment = readSegment;
+        checkpointReadPosition = readPosition;
+    }
+
+    /**
+     * Append a record to the log. The record is durable once {@link #sync(long)} has returned for the returned
+     * sequence number.
+     *
+     * @return the sequence number of the record
+     * @throws IOException if the log is full, or if writing fails
+     */
+    public synchronized long append(byte[] data, int offset, int length) throws IOException {
+        Preconditions.checkState(!closed, "Spill log is closed");
+        Preconditions.checkArgument(length > 0, "Records can't be empty");
+        if (writeSegment.remaining() < RECORD_HEADER_SIZE + length) {
+            int newSegmentSize = Math.max(segmentSize, RECORD_HEADER_SIZE + length);
+            if (newSegmentSize > maxSize) {
+                throw new IOException("Record of " + length + " bytes exceeds the maximum size of spill log "
+                        + directory + " (" + maxSize + " bytes)");
+            }
+            if (size + newSegmentSize > maxSize) {
+                throw new IOException("Spill log " + directory + " is full (" + size + " of " + maxSize + " bytes)");
+            }
+            Segment newSegment = openSegment(writeSegment.sequenceNumber + 1, newSegmentSize);
+            addSegment(newSegment);
+            writeSegment = newSegment;
+        }
+        writeSegment.write(data, offset, length);
+        if (!unsyncedSegments.contains(writeSegment)) {
+            unsyncedSegments.add(writeSegment);
+        }
+        return ++appendSequence;
+    }
+
+    /**
+     * Forces all appended records to disk.
+     */
+    public void sync() {
+        long sequence;
+        synchronized (this) {
+            sequence = appendSequence;
+        }
+        sync(sequence);
+    }
+
+    /**
+     * Forces the records up to the given sequence number to disk. If another thread is forcing segments already,
+     * this waits for it, and only forces segments itself if records up to the sequence number are still unsynced
+     * after that, in which case it forces all records appended so far on behalf of the threads that wait for it.
+     */
+    public void sync(long sequence) {
+        boolean interrupted = false;
+        Segment[] forceSegments;
+        int[] forcePositions;
+        long forceSequence;
+        synchronized (this) {
+            while (syncing && syncSequence < sequence) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // The force in progress is not interruptible either, so keep waiting for it
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (syncSequence >= sequence) {
+                return;
+            }
+            syncing = true;
+            forceSequence = appendSequence;
+            forceSegments = unsyncedSegments.toArray(new Segment[unsyncedSegments.size()]);
+            forcePositions = new int[forceSegments.length];
+            for (int i = 0; i < forceSegments.length; i++) {
+                forcePositions[i] = forceSegments[i].writePosition;
+            }
+            unsyncedSegments.clear();
+        }
+
+        // Force outside of the lock, so that other threads can append, and the reader can read, in the meantime
+        boolean forced = false;
+        try {
+            for (Segment segment : forceSegments) {
+                segment.buffer.force();
+            }
+            forced = true;
+        } finally {
+            synchronized (this) {
+                if (forced) {
+                    for (int i = 0; i < forceSegments.length; i++) {
+                        forceSegments[i].syncPosition = forcePositions[i];
+                    }
+                    syncSequence = forceSequence;
+                } else {
+                    for (Segment segment : forceSegments) {
+                        if (!unsyncedSegments.contains(segment)) {
+                            unsyncedSegments.add(segment);
+                        }
+                    }
+                }
+                syncing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the next record, waiting at most the given time for one to be appended. Returns null if no record is
+     * available within that time. Should only be called from a single thread.
+     */
+    public byte[] read(long timeout, TimeUnit unit) throws InterruptedException {
+        long waitUntil = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (this) {
+            while (true) {
+                Preconditions.checkState(!closed, "Spill log is closed");
+                if (readPosition < readSegment.syncPosition) {
+                    break;
+                }
+                // Only move on once the segment has been synced completely, so that segments that are being forced
+                // are never deleted by a checkpoint
+                if (readSegment != writeSegment && readSegment.syncPosition == readSegment.writePosition) {
+                    readSegment = segments.get(segments.indexOf(readSegment) + 1);
+                    readPosition = 0;
+                    continue;
+                }
+                long wait = waitUntil - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return null;
+                }
+                wait(wait);
+            }
+        }
+        // The record is complete, as the sync position only moves past complete records
+        int length = readSegment.readLength(readPosition);
+        byte[] record = new byte[length];
+        readSegment.read(readPosition + RECORD_HEADER_SIZE, record);
+        readPosition += RECORD_HEADER_SIZE + length;
+        return record;
+    }
+
+    /**
+     * Persist the current read position, so that the records that have been read so far are not read again when
+     * the log is opened again. Segments that have been read completely are deleted.
+     */
+    public void checkpoint() throws IOException {
+        Segment segment;
+        int position;
+        synchronized (this) {
+            segment = readSegment;
+            position = readPosition;
+        }
+        long sequenceNumber = segment.sequenceNumber;
+        File tmpFile = new File(directory, CHECKPOINT_FILE + ".tmp");
+        FileOutputStream fileOutput = new FileOutputStream(tmpFile);
+        try {
+            DataOutputStream output = new DataOutputStream(fileOutput);
+            output.writeLong(sequenceNumber);
+            output.writeInt(position);
+            output.flush();
+            fileOutput.getFD().sync();
+        } finally {
+            fileOutput.close();
+        }
+        if (!tmpFile.renameTo(new File(directory, CHECKPOINT_FILE))) {
+            throw new IOException("Could not write checkpoint of spill log " + directory);
+        }
+
+        synchronized (this) {
+            checkpointReadSegment = segment;
+            checkpointReadPosition = position;
+            while (segments.getFirst().sequenceNumber < sequenceNumber) {
+                deleteSegment(segments.removeFirst());
+            }
+        }
+    }
+
+    /**
+     * Move the read position back to the last checkpoint, so that the records that have been read since then are
+     * read again, as they would be after a restart.
+     */
+    public synchronized void rewind() {
+        Preconditions.checkState(!closed, "Spill log is closed");
+        readSegment = checkpointReadSegment;
+        readPosition = checkpointReadPosition;
+    }
+
+    /**
+     * Returns the number of bytes of records that have not been read yet.
+     */
+    public synchronized long getBacklog() {
+        long backlog = 0;
+        boolean counting = false;
+        for (Segment segment : segments) {
+            if (segment == readSegment) {
+                counting = true;
+                backlog += segment.writePosition - readPosition;
+            } else if (counting) {
+                backlog += segment.writePosition;
+            }
+        }
+        return backlog;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the total size of the segment files, in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Syncs the appended records and releases the segments. Should not be called while the reader is reading.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        // Appending is no longer possible, so this syncs the last records
+        sync();
+        synchronized (this) {
+            for (Segment segment : segments) {
+                unmap(segment.buffer);
+            }
+        }
+    }
+
+    private List<Long> listSegmentFiles() {
+        List<Long> sequenceNumbers = new ArrayList<Long>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        sequenceNumbers.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        log.warn("Ignoring unexpected file in spill directory: " + name);
+                    }
+                }
+            }
+        }
+        Long[] sorted = sequenceNumbers.toArray(new Long[sequenceNumbers.size()]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    private static String segmentFileName(long sequenceNumber) {
+        return String.format("%020d", sequenceNumber) + SEGMENT_SUFFIX;
+    }
+
+    /**
+     * @param size size of the segment to create if it doesn't exist yet, or -1 to open an existing segment
+     */
+    private Segment openSegment(long sequenceNumber, int size) throws IOException {
+        File file = new File(directory, segmentFileName(sequenceNumber));
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (size >= 0 && randomAccessFile.length() < size) {
+                randomAccessFile.setLength(size);
+            }
+            int capacity = (int)randomAccessFile.length();
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new Segment(sequenceNumber, buffer, capacity);
+        } finally {
+            // The mapping stays valid after closing the file
+            randomAccessFile.close();
+        }
+    }
+
+    private void addSegment(Segment segment) {
+        segments.add(segment);
+        size += segment.capacity;
+    }
+
+    /**
+     * Deletes a segment that has been removed from the segments.
+     */
+    private void deleteSegment(Segment segment) {
+        size -= segment.capacity;
+        // Otherwise the disk space of the file is only released once the buffer has been garbage collected
+        unmap(segment.buffer);
+        deleteSegmentFile(segment.sequenceNumber);
+    }
+
+    /**
+     * Releases the mapping of a buffer right away, in the same way as HBase and Lucene do. The buffer should not be
+     * accessed anymore afterwards.
+     */
+    private void unmap(final MappedByteBuffer buffer) {
+        try {
+            AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
+                @Override
+                public Void run() throws Exception {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                    return null;
+                }
+            });
+        } catch (PrivilegedActionException e) {
+            log.warn("Could not unmap spill log segment, it is released once it is garbage collected",
+                    e.getException());
+        }
+    }
+
+    private void deleteSegmentFile(long sequenceNumber) {
+        File file = new File(directory, segmentFileName(sequenceNumber));
+        if (file.exists() && !file.delete()) {
+            log.warn("Could not delete spill log segment " + file);
+        }
+    }
+
+    private static class Segment {
+        private final long sequenceNumber;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        /** Position after the last complete record. Guarded by the SpillLog. */
+        private int writePosition;
+        /** Position after the last record that has been forced to disk. Guarded by the SpillLog. */
+        private int syncPosition;
+
+        Segment(long sequenceNumber, MappedByteBuffer buffer, int capacity) {
+            this.sequenceNumber = sequenceNumber;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        int remaining() {
+            return capacity - writePosition;
+        }
+
+        int readLength(int position) {
+            return position + RECORD_HEADER_SIZE <= capacity ? buffer.getInt(position) : 0;
+        }
+
+        /**
+         * Checks the record at the given position, returns the position after it, or -1 if there is no valid record
+         * at the position.
+         */
+        int verifyRecord(int position) {
+            int length = readLength(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > capacity) {
+                return -1;
+            }
+            byte[] data = new byte[length];
+            read(position + RECORD_HEADER_SIZE, data);
+            return checksum(data, 0, length) == buffer.getInt(position + 4)
+                    ? position + RECORD_HEADER_SIZE + length : -1;
+        }
+
+        void write(byte[] data, int offset, int length) {
+            int position = writePosition;
+            // Write the length last, so that a partially written record is never seen as complete
+            buffer.putInt(position + 4, checksum(data, offset, length));
+            ByteBuffer target = buffer.duplicate();
+            target.position(position + RECORD_HEADER_SIZE);
+            target.put(data, offset, length);
+            buffer.putInt(position, length);
+            writePosition = position + RECORD_HEADER_SIZE + length;
+        }
+
+        void read(int position, byte[] target) {
+            ByteBuffer source = buffer.duplicate();
+            source.position(position);
+            source.get(target);
+        }
+
+        void truncate(int position) {
+            boolean modified = false;
+            for (int i = position; i < capacity; i++) {
+                if (buffer.get(i) != 0) {
+                    buffer.put(i, (byte)0);
+                    modified = true;
+                }
+            }
+            if (modified) {
+                buffer.force();
+            }
+        }
+
+        private static int checksum(byte[] data, int offset, int length) {
+            CRC32 crc = new CRC32();
+            crc.update(data, offset, length);
+            return (int)crc.getValue();
+        }
+    }
+
+}
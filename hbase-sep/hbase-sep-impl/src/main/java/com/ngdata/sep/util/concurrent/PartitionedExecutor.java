@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Executes tasks in a number of partitions, using a shared pool of worker threads.
+ * <p>
+ * The tasks of a single partition are executed one at a time, in the order in which they were submitted. Different
+ * partitions are executed concurrently by any of the worker threads: a partition that has pending tasks is queued
+ * for the workers, and the first idle worker takes it. After executing a single task, the worker puts the partition
+ * back at the end of the queue if it has more tasks. This way, a partition that receives a lot of tasks (or a single
+ * slow task) only occupies one worker, while the other workers keep serving the other partitions. Using more
+ * partitions than threads spreads the work more evenly over the threads.
+ * <p>
+ * The number of tasks that are waiting to be executed is bounded over all partitions together, submitting a task
+ * blocks while this bound is reached.
+ */
+public class PartitionedExecutor {
+
+    private final ThreadPoolExecutor workers;
+    private final Semaphore queuePermits;
+    private final List<Partition> partitions;
+    private volatile boolean abandoned;
+
+    public PartitionedExecutor(int numThreads, int numPartitions, int queueCapacity) {
+        this(numThreads, numPartitions, queueCapacity, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * @param numThreads number of worker threads
+     * @param numPartitions number of partitions
+     * @param queueCapacity maximum number of tasks that are waiting for execution, over all partitions
+     * @param threadFactory factory for the worker threads, see {@link ThreadFactories}
+     */
+    public PartitionedExecutor(int numThreads, int numPartitions, int queueCapacity, ThreadFactory threadFactory) {
+        Preconditions.checkArgument(numThreads > 0, "Thread count must be > 0");
+        Preconditions.checkArgument(numPartitions > 0, "Partition count must be > 0");
+        Preconditions.checkArgument(queueCapacity > 0, "Queue capacity must be > 0");
+        // The work queue never holds more entries than there are partitions, so it doesn't need a bound
+        this.workers = new ThreadPoolExecutor(numThreads, numThreads, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        this.queuePermits = new Semaphore(queueCapacity);
+        List<Partition> partitionList = new ArrayList<Partition>(numPartitions);
+        for (int i = 0; i < numPartitions; i++) {
+            partitionList.add(new Partition());
+        }
+        this.partitions = Collections.unmodifiableList(partitionList);
+    }
+
+    /**
+     * Returns an executor for every partition.
+     */
+    public List<? extends Executor> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Stop accepting new tasks. Tasks that were already submitted are still executed.
+     */
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    /**
+     * Stop accepting new tasks, interrupt the running tasks and drop all tasks that are waiting to be executed.
+     */
+    public void shutdownNow() {
+        abandoned = true;
+        workers.shutdownNow();
+        for (Partition partition : partitions) {
+            partition.clear();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return workers.awaitTermination(timeout, unit);
+    }
+
+    private class Partition implements Executor, Runnable {
+        private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+        /** True while this partition is queued for, or being executed by, a worker. */
+        private boolean scheduled;
+
+        @Override
+        public void execute(Runnable task) {
+            if (workers.isShutdown()) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            try {
+                queuePermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+            boolean schedule;
+            synchronized (this) {
+                tasks.add(task);
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if (schedule) {
+                try {
+                    workers.execute(this);
+                } catch (RejectedExecutionException e) {
+                    synchronized (this) {
+                        tasks.remove(task);
+                        scheduled = !tasks.isEmpty();
+                    }
+                    queuePermits.release();
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                runNextTask();
+            } finally {
+                if (hasMoreTasks()) {
+                    reschedule();
+                }
+            }
+        }
+
+        private void reschedule() {
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Shut down while this partition still had tasks: finish them here, as the workers would have
+                // done if they had been queued to them
+                while (!abandoned && hasMoreTasks()) {
+                    runNextTask();
+                }
+            }
+        }
+
+        private void runNextTask() {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.poll();
+            }
+            if (task == null) {
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                queuePermits.release();
+            }
+        }
+
+        /**
+         * Returns true if there are more tasks, otherwise marks this partition as no longer scheduled.
+         */
+        private synchronized boolean hasMoreTasks() {
+            scheduled = !tasks.isEmpty();
+            return scheduled;
+        }
+
+        private void clear() {
+            int cleared;
+            synchronized (this) {
+                cleared = tasks.size();
+                tasks.clear();
+            }
+            queuePermits.release(cleared);
+        }
+    }
+
+}
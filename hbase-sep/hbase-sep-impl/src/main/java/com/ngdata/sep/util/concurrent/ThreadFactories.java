@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.util.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Creates the {@code ThreadFactory} for worker threads based on a configured type.
+ * <p>
+ * Supported types are:
+ * <ul>
+ * <li>{@code platform}: regular threads</li>
+ * <li>{@code virtual}: virtual threads, if the JVM supports them (Java 21 or later), otherwise regular threads are
+ * used. Virtual threads are cheap to create and to block, so a lot more of them can be used for work that mostly
+ * waits on I/O.</li>
+ * <li>the name of a class implementing {@code ThreadFactory}, which should have a no-argument constructor</li>
+ * </ul>
+ */
+public class ThreadFactories {
+
+    public static final String PLATFORM = "platform";
+
+    public static final String VIRTUAL = "virtual";
+
+    private static final Log log = LogFactory.getLog(ThreadFactories.class);
+
+    private ThreadFactories() {
+    }
+
+    /**
+     * @param type one of the types listed in the class description, null means {@link #PLATFORM}
+     * @param namePrefix prefix for the names of the created threads (not applied to custom factories)
+     */
+    public static ThreadFactory newThreadFactory(String type, String namePrefix) {
+        if (type == null || PLATFORM.equals(type)) {
+            return newPlatformThreadFactory(namePrefix);
+        } else if (VIRTUAL.equals(type)) {
+            ThreadFactory threadFactory = newVirtualThreadFactory(namePrefix);
+            if (threadFactory == null) {
+                log.warn("Virtual threads are not supported by this JVM, using platform threads instead");
+                return newPlatformThreadFactory(namePrefix);
+            }
+            return threadFactory;
+        } else {
+            try {
+                return Class.forName(type).asSubclass(ThreadFactory.class).newInstance();
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Invalid thread factory: " + type, e);
+            }
+        }
+    }
+
+    private static ThreadFactory newPlatformThreadFactory(String namePrefix) {
+        return new ThreadFactoryBuilder().setNameFormat(namePrefix + "-%d").build();
+    }
+
+    /**
+     * Creates a factory for virtual threads via reflection, as they are not available in the Java version that we
+     * compile against. Returns null if virtual threads are not supported.
+     */
+    static ThreadFactory newVirtualThreadFactory(String namePrefix) {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = ofVirtual.invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix + "-", 0L);
+            return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (Exception e) {
+            // E.g. an UnsupportedOperationException when virtual threads are a preview feature that is not enabled
+            log.debug("Error creating virtual thread factory", e);
+            return null;
+        }
+    }
+
+}
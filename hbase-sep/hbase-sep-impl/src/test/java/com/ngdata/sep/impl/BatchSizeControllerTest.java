@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class BatchSizeControllerTest {
+
+    @Test
+    public void testFixedBatchSize() {
+        BatchSizeController controller = new BatchSizeController(2, 100);
+        assertFalse(controller.isAdaptive());
+
+        controller.batchProcessed(0, 100, 100000L);
+        controller.batchProcessed(1, 100, 0L);
+
+        assertEquals(100, controller.getBatchSize(0));
+        assertEquals(100, controller.getBatchSize(1));
+    }
+
+    @Test
+    public void testDecreaseOnSlowBatch() {
+        BatchSizeController controller = new BatchSizeController(2, 100, 10, 1000, 500L);
+        assertTrue(controller.isAdaptive());
+
+        controller.batchProcessed(0, 100, 600L);
+        assertEquals(50, controller.getBatchSize(0));
+        assertEquals("Other partitions are not affected", 100, controller.getBatchSize(1));
+
+        controller.batchProcessed(0, 50, 600L);
+        controller.batchProcessed(0, 25, 600L);
+        controller.batchProcessed(0, 12, 600L);
+        assertEquals(10, controller.getBatchSize(0));
+    }
+
+    @Test
+    public void testDecreaseBasedOnActualBatchSize() {
+        BatchSizeController controller = new BatchSizeController(1, 100, 10, 1000, 500L);
+
+        // A partial batch that is already too slow
+        controller.batchProcessed(0, 40, 600L);
+
+        assertEquals(20, controller.getBatchSize(0));
+    }
+
+    @Test
+    public void testIncreaseOnFastFullBatch() {
+        BatchSizeController controller = new BatchSizeController(1, 100, 10, 110, 500L);
+
+        controller.batchProcessed(0, 100, 100L);
+        assertEquals(105, controller.getBatchSize(0));
+
+        controller.batchProcessed(0, 105, 100L);
+        controller.batchProcessed(0, 110, 100L);
+        assertEquals(110, controller.getBatchSize(0));
+    }
+
+    @Test
+    public void testNoIncreaseOnPartialOrModeratelySlowBatch() {
+        BatchSizeController controller = new BatchSizeController(1, 100, 10, 1000, 500L);
+
+        controller.batchProcessed(0, 50, 10L);
+        controller.batchProcessed(0, 100, 400L);
+
+        assertEquals(100, controller.getBatchSize(0));
+    }
+
+    @Test
+    public void testCreate() {
+        Configuration conf = new Configuration(false);
+        assertFalse(BatchSizeController.create(conf, 1).isAdaptive());
+        assertEquals(SepConfKeys.DEFAULT_BATCH_SIZE, BatchSizeController.create(conf, 1).getBatchSize(0));
+
+        conf.setLong(SepConfKeys.BATCH_LATENCY_TARGET, 1000L);
+        conf.setInt(SepConfKeys.BATCH_SIZE, 5000);
+        BatchSizeController controller = BatchSizeController.create(conf, 1);
+        assertTrue(controller.isAdaptive());
+        assertEquals(SepConfKeys.DEFAULT_BATCH_SIZE_MAX, controller.getBatchSize(0));
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.ngdata.sep.EventListener;
+import com.ngdata.sep.SepEvent;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventSpillerTest {
+
+    private File directory;
+    private SepMetrics sepMetrics;
+    private List<SepEvent> receivedEvents;
+    private SepEventExecutor eventExecutor;
+    private LagTracker lagTracker;
+    private EventSpiller eventSpiller;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDir();
+        sepMetrics = mock(SepMetrics.class);
+        receivedEvents = new CopyOnWriteArrayList<SepEvent>();
+        EventListener eventListener = new EventListener() {
+            @Override
+            public void processEvents(List<SepEvent> events) {
+                receivedEvents.addAll(events);
+            }
+        };
+        List<Executor> executors = Collections.<Executor>singletonList(MoreExecutors.sameThreadExecutor());
+        eventExecutor = new SepEventExecutor(eventListener, executors, 10, sepMetrics, true);
+        lagTracker = new LagTracker(sepMetrics, null);
+        eventSpiller = new EventSpiller(new SpillLog(directory, 1024, 4096), eventExecutor, lagTracker, 1000L,
+                "test-spill");
+    }
+
+    @After
+    public void tearDown() {
+        eventSpiller.stop();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private SepEvent createSepEvent(String row, String payload) {
+        byte[] rowBytes = Bytes.toBytes(row);
+        KeyValue put = new KeyValue(rowBytes, Bytes.toBytes("cf"), Bytes.toBytes("q"), 1L, Bytes.toBytes("value"));
+        KeyValue delete = new KeyValue(rowBytes, Bytes.toBytes("cf"), Bytes.toBytes("q2"), 2L, KeyValue.Type.Delete);
+        return new SepEvent(Bytes.toBytes("table"), rowBytes, Lists.newArrayList(put, delete),
+                payload != null ? Bytes.toBytes(payload) : null);
+    }
+
+    @Test
+    public void testAppendAndDrain() throws Exception {
+        SepEvent event1 = createSepEvent("row1", "payload");
+        SepEvent event2 = createSepEvent("row2", null);
+        SepEvent event3 = createSepEvent("row3", null);
+
+        EventSpiller.Batch batch = eventSpiller.startBatch("rs1");
+        batch.scheduleSepEvent(event1);
+        batch.scheduleSepEvent(event2);
+        eventSpiller.append(batch, 900L, 1000L);
+        batch = eventSpiller.startBatch("rs1");
+        batch.scheduleSepEvent(event3);
+        eventSpiller.append(batch, 2000L, 2000L);
+        assertTrue(eventSpiller.getBacklog() > 0);
+
+        eventSpiller.start();
+        for (int retry = 0; retry < 100 && receivedEvents.size() < 3; retry++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(Lists.newArrayList(event1, event2, event3), receivedEvents);
+        verify(sepMetrics, timeout(1000)).reportSepTimestamp(2000L);
+        assertEquals(0, eventSpiller.getBacklog());
+    }
+
+    @Test
+    public void testLagOfSpilledShipments() throws Exception {
+        EventSpiller.Batch batch = eventSpiller.startBatch("rs1");
+        batch.scheduleSepEvent(createSepEvent("row1", null));
+        eventSpiller.append(batch, 1000L, 1000L);
+
+        // Registered as soon as it is appended
+        assertTrue(lagTracker.getLag("rs1") > 0);
+
+        // Registered again when the log is opened
+        eventSpiller.stop();
+        lagTracker = new LagTracker(sepMetrics, null);
+        eventSpiller = new EventSpiller(new SpillLog(directory, 1024, 4096), eventExecutor, lagTracker, 1000L,
+                "test-spill");
+        assertTrue(lagTracker.getLag("rs1") > 0);
+
+        // Completed once it has been replayed
+        eventSpiller.start();
+        for (int retry = 0; retry < 100 && lagTracker.getLag("rs1") > 0; retry++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, lagTracker.getLag("rs1"));
+        assertEquals(1000L, lagTracker.getLowWatermark("rs1"));
+        assertEquals(1, receivedEvents.size());
+    }
+
+    @Test
+    public void testDrainReplaysFailedRecords() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        EventListener eventListener = new EventListener() {
+            @Override
+            public void processEvents(List<SepEvent> events) {
+                if (calls.incrementAndGet() == 1) {
+                    throw new RuntimeException("Listener failure");
+                }
+                receivedEvents.addAll(events);
+            }
+        };
+        List<Executor> executors = Collections.<Executor>singletonList(MoreExecutors.sameThreadExecutor());
+        // Without retries in the executor, the failed batch fails the replay of the record
+        SepEventExecutor failingEventExecutor = new SepEventExecutor(eventListener, executors, 10, sepMetrics,
+                false);
+        eventSpiller.stop();
+        eventSpiller = new EventSpiller(new SpillLog(directory, 1024, 4096), failingEventExecutor, lagTracker, 1000L,
+                "test-spill");
+        SepEvent event = createSepEvent("row1", null);
+
+        EventSpiller.Batch batch = eventSpiller.startBatch("rs1");
+        batch.scheduleSepEvent(event);
+        eventSpiller.append(batch, 1000L, 1000L);
+        eventSpiller.start();
+        for (int retry = 0; retry < 100 && receivedEvents.isEmpty(); retry++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(Lists.newArrayList(event), receivedEvents);
+        assertEquals(2, calls.get());
+        verify(sepMetrics, timeout(1000)).reportSepTimestamp(1000L);
+        assertEquals(0, eventSpiller.getBacklog());
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.ngdata.sep.LagAwareEventListener;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LagTrackerTest {
+
+    private SepMetrics sepMetrics;
+    private LagAwareEventListener lagListener;
+    private LagTracker lagTracker;
+
+    @Before
+    public void setUp() {
+        sepMetrics = mock(SepMetrics.class);
+        lagListener = mock(LagAwareEventListener.class);
+        lagTracker = new LagTracker(sepMetrics, lagListener);
+    }
+
+    @Test
+    public void testCompleted() {
+        lagTracker.completed(lagTracker.register("rs1", 100L, 200L));
+
+        assertEquals(200L, lagTracker.getLowWatermark("rs1"));
+        assertEquals(200L, lagTracker.getLowWatermark());
+        assertEquals(0L, lagTracker.getLag("rs1"));
+        verify(sepMetrics).reportSepTimestamp(200L);
+        verify(lagListener).shipmentProcessed(eq("rs1"), anyLong());
+    }
+
+    @Test
+    public void testCompletedOutOfOrder() {
+        LagTracker.PendingShipment first = lagTracker.register("rs1", 100L, 200L);
+        LagTracker.PendingShipment second = lagTracker.register("rs1", 300L, 400L);
+
+        lagTracker.completed(second);
+        // The entries of the first shipment haven't been processed yet
+        assertEquals(99L, lagTracker.getLowWatermark("rs1"));
+        verify(sepMetrics, never()).reportSepTimestamp(400L);
+
+        lagTracker.completed(first);
+        assertEquals(400L, lagTracker.getLowWatermark("rs1"));
+        verify(sepMetrics).reportSepTimestamp(400L);
+    }
+
+    @Test
+    public void testLowWatermarkOverSources() {
+        LagTracker.PendingShipment rs1 = lagTracker.register("rs1", 100L, 200L);
+        lagTracker.completed(lagTracker.register("rs2", 150L, 300L));
+
+        // rs1 has unprocessed entries
+        assertEquals(300L, lagTracker.getLowWatermark("rs2"));
+        assertEquals(-1L, lagTracker.getLowWatermark());
+        verify(sepMetrics, never()).reportSepTimestamp(anyLong());
+
+        lagTracker.completed(rs1);
+        assertEquals(300L, lagTracker.getLowWatermark());
+        assertEquals(2, lagTracker.getLowWatermarks().size());
+    }
+
+    @Test
+    public void testLag() {
+        long now = System.currentTimeMillis();
+        LagTracker.PendingShipment shipment = lagTracker.register("rs1", now - 5000L, now - 1000L);
+
+        assertTrue(lagTracker.getLag("rs1") >= 5000L);
+        assertTrue(lagTracker.getLags().get("rs1") >= 5000L);
+        assertEquals(0L, lagTracker.getLag("rs2"));
+
+        lagTracker.completed(shipment);
+        assertEquals(0L, lagTracker.getLag("rs1"));
+    }
+
+    @Test
+    public void testFailed() {
+        lagTracker.failed(lagTracker.register("rs1", 100L, 200L));
+
+        assertEquals(-1L, lagTracker.getLowWatermark("rs1"));
+        assertEquals(0L, lagTracker.getLag("rs1"));
+        verify(sepMetrics, never()).reportSepTimestamp(anyLong());
+        verify(lagListener, never()).shipmentProcessed(eq("rs1"), anyLong());
+    }
+
+}
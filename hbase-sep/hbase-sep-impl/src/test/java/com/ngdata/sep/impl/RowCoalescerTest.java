@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RowCoalescerTest {
+
+    private static final byte[] TABLE = Bytes.toBytes("table");
+    private static final byte[] OTHER_TABLE = Bytes.toBytes("other_table");
+    private static final byte[] FAMILY = Bytes.toBytes("cf");
+    private static final byte[] QUALIFIER_A = Bytes.toBytes("a");
+    private static final byte[] QUALIFIER_B = Bytes.toBytes("b");
+
+    private KeyValueRowCoalescer rowCoalescer;
+
+    @Before
+    public void setUp() {
+        rowCoalescer = new KeyValueRowCoalescer();
+    }
+
+    /**
+     * Simulates a WAL entry containing the given KeyValues.
+     */
+    private void addEntry(byte[] table, byte[] payload, KeyValue... keyValues) {
+        RowGrouper<KeyValue> entryGrouper = new RowGrouper<KeyValue>();
+        for (KeyValue kv : keyValues) {
+            RowGrouper.RowGroup<KeyValue> group = entryGrouper.add(kv, kv.getBuffer(), kv.getRowOffset(),
+                    kv.getRowLength());
+            if (payload != null) {
+                group.setPayload(payload);
+            }
+        }
+        for (int i = 0; i < entryGrouper.getGroupCount(); i++) {
+            rowCoalescer.add(table, entryGrouper.getGroup(i));
+        }
+    }
+
+    private KeyValue put(String row, byte[] qualifier, long timestamp, String value) {
+        return new KeyValue(Bytes.toBytes(row), FAMILY, qualifier, timestamp, Bytes.toBytes(value));
+    }
+
+    private KeyValue delete(String row, byte[] qualifier, long timestamp, KeyValue.Type type) {
+        return new KeyValue(Bytes.toBytes(row), FAMILY, qualifier, timestamp, type);
+    }
+
+    @Test
+    public void testMergeAcrossEntries() {
+        KeyValue kv1 = put("row1", QUALIFIER_A, 1, "v1");
+        KeyValue kv2 = put("row2", QUALIFIER_A, 1, "v1");
+        KeyValue kv3 = put("row1", QUALIFIER_B, 2, "v2");
+        addEntry(TABLE, null, kv1);
+        addEntry(TABLE, null, kv2);
+        addEntry(TABLE, null, kv3);
+
+        assertEquals(1, rowCoalescer.getTableCount());
+        RowGrouper<KeyValue> rows = rowCoalescer.getRowGrouper(0);
+        assertEquals(2, rows.getGroupCount());
+        assertEquals(Lists.newArrayList(kv1, kv3), rows.getGroup(0).getCells());
+        assertEquals(Lists.newArrayList(kv2), rows.getGroup(1).getCells());
+    }
+
+    @Test
+    public void testSameRowInDifferentTables() {
+        addEntry(TABLE, null, put("row1", QUALIFIER_A, 1, "v1"));
+        addEntry(OTHER_TABLE, null, put("row1", QUALIFIER_A, 1, "v1"));
+
+        assertEquals(2, rowCoalescer.getTableCount());
+        assertArrayEquals(TABLE, rowCoalescer.getTable(0));
+        assertArrayEquals(OTHER_TABLE, rowCoalescer.getTable(1));
+    }
+
+    @Test
+    public void testDeleteColumn_RemovesEarlierPuts() {
+        KeyValue putA = put("row1", QUALIFIER_A, 1, "v1");
+        KeyValue putB = put("row1", QUALIFIER_B, 1, "v1");
+        KeyValue deleteA = delete("row1", QUALIFIER_A, 2, KeyValue.Type.DeleteColumn);
+        KeyValue newPutA = put("row1", QUALIFIER_A, 3, "v3");
+        addEntry(TABLE, null, putA, putB);
+        addEntry(TABLE, null, deleteA);
+        addEntry(TABLE, null, newPutA);
+
+        assertEquals(Lists.newArrayList(putB, deleteA, newPutA), rowCoalescer.getRowGrouper(0).getGroup(0).getCells());
+    }
+
+    @Test
+    public void testDeleteFamily_RemovesEarlierPuts() {
+        KeyValue putA = put("row1", QUALIFIER_A, 1, "v1");
+        KeyValue putB = put("row1", QUALIFIER_B, 5, "v1");
+        KeyValue deleteFamily = delete("row1", null, 2, KeyValue.Type.DeleteFamily);
+        addEntry(TABLE, null, putA, putB);
+        addEntry(TABLE, null, deleteFamily);
+
+        // The put with a timestamp after the delete marker is not covered by it
+        assertEquals(Lists.newArrayList(putB, deleteFamily), rowCoalescer.getRowGrouper(0).getGroup(0).getCells());
+    }
+
+    @Test
+    public void testDeleteVersion_OnlyRemovesExactTimestamp() {
+        KeyValue put1 = put("row1", QUALIFIER_A, 1, "v1");
+        KeyValue put2 = put("row1", QUALIFIER_A, 2, "v2");
+        KeyValue deleteVersion = delete("row1", QUALIFIER_A, 1, KeyValue.Type.Delete);
+        addEntry(TABLE, null, put1);
+        addEntry(TABLE, null, put2);
+        addEntry(TABLE, null, deleteVersion);
+
+        assertEquals(Lists.newArrayList(put2, deleteVersion), rowCoalescer.getRowGrouper(0).getGroup(0).getCells());
+    }
+
+    @Test
+    public void testPayloadRowsAreNotMerged() {
+        KeyValue kv1 = put("row1", QUALIFIER_A, 1, "v1");
+        KeyValue kv2 = put("row1", QUALIFIER_A, 2, "v2");
+        KeyValue kv3 = put("row1", QUALIFIER_A, 3, "v3");
+        KeyValue kv4 = put("row1", QUALIFIER_A, 4, "v4");
+        addEntry(TABLE, null, kv1);
+        addEntry(TABLE, Bytes.toBytes("payload"), kv2);
+        addEntry(TABLE, null, kv3);
+        addEntry(TABLE, null, kv4);
+
+        RowGrouper<KeyValue> rows = rowCoalescer.getRowGrouper(0);
+        assertEquals(3, rows.getGroupCount());
+        assertEquals(Lists.newArrayList(kv1), rows.getGroup(0).getCells());
+        assertNull(rows.getGroup(0).getPayload());
+        assertEquals(Lists.newArrayList(kv2), rows.getGroup(1).getCells());
+        assertArrayEquals(Bytes.toBytes("payload"), rows.getGroup(1).getPayload());
+        assertEquals(Lists.newArrayList(kv3, kv4), rows.getGroup(2).getCells());
+    }
+
+}
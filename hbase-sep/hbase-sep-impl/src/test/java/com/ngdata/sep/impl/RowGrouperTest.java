@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RowGrouperTest {
+
+    private RowGrouper<String> rowGrouper;
+
+    @Before
+    public void setUp() {
+        rowGrouper = new RowGrouper<String>();
+    }
+
+    private RowGrouper.RowGroup<String> add(String cell, String row) {
+        // Embed the row in a larger array to verify that offsets are respected
+        byte[] rowArray = Bytes.toBytes("xx" + row + "yy");
+        return rowGrouper.add(cell, rowArray, 2, rowArray.length - 4);
+    }
+
+    @Test
+    public void testConsecutiveRows() {
+        add("a1", "a");
+        add("a2", "a");
+        add("b1", "b");
+        add("b2", "b");
+
+        assertEquals(2, rowGrouper.getGroupCount());
+        assertArrayEquals(Bytes.toBytes("a"), rowGrouper.getGroup(0).getRow());
+        assertEquals(Lists.newArrayList("a1", "a2"), rowGrouper.getGroup(0).getCells());
+        assertArrayEquals(Bytes.toBytes("b"), rowGrouper.getGroup(1).getRow());
+        assertEquals(Lists.newArrayList("b1", "b2"), rowGrouper.getGroup(1).getCells());
+    }
+
+    @Test
+    public void testNonConsecutiveRows() {
+        add("a1", "a");
+        add("b1", "b");
+        add("a2", "a");
+
+        assertEquals(2, rowGrouper.getGroupCount());
+        assertEquals(Lists.newArrayList("a1", "a2"), rowGrouper.getGroup(0).getCells());
+        assertEquals(Lists.newArrayList("b1"), rowGrouper.getGroup(1).getCells());
+    }
+
+    @Test
+    public void testManyRows() {
+        // Enough rows to switch from a linear scan to the hash index, added twice in an interleaved way
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 100; i++) {
+                add("cell" + round, "row" + i);
+            }
+        }
+
+        assertEquals(100, rowGrouper.getGroupCount());
+        for (int i = 0; i < 100; i++) {
+            RowGrouper.RowGroup<String> group = rowGrouper.getGroup(i);
+            assertArrayEquals(Bytes.toBytes("row" + i), group.getRow());
+            assertEquals(Lists.newArrayList("cell0", "cell1"), group.getCells());
+        }
+    }
+
+    @Test
+    public void testPayload() {
+        RowGrouper.RowGroup<String> group = add("a1", "a");
+        group.setPayload(Bytes.toBytes("payload"));
+
+        assertSame(group, add("a2", "a"));
+        assertArrayEquals(Bytes.toBytes("payload"), group.getPayload());
+        assertNull(add("b1", "b").getPayload());
+    }
+
+    @Test
+    public void testReset() {
+        for (int i = 0; i < 20; i++) {
+            add("first", "row" + i);
+        }
+        rowGrouper.reset();
+        assertEquals(0, rowGrouper.getGroupCount());
+
+        add("second", "row5");
+        add("second", "row6");
+        add("second", "row5");
+
+        assertEquals(2, rowGrouper.getGroupCount());
+        assertEquals(Lists.newArrayList("second", "second"), rowGrouper.getGroup(0).getCells());
+        assertNull(rowGrouper.getGroup(0).getPayload());
+    }
+
+}
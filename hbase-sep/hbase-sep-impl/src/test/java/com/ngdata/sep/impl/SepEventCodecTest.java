@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.ngdata.sep.SepEvent;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class SepEventCodecTest {
+
+    private SepEvent createSepEvent(String table, String row, String payload) {
+        byte[] rowBytes = Bytes.toBytes(row);
+        KeyValue put = new KeyValue(rowBytes, Bytes.toBytes("cf"), Bytes.toBytes("qualifier"), 1000L,
+                Bytes.toBytes("value of " + row));
+        KeyValue delete = new KeyValue(rowBytes, Bytes.toBytes("cf"), Bytes.toBytes("qualifier2"), 900L,
+                KeyValue.Type.Delete);
+        return new SepEvent(Bytes.toBytes(table), rowBytes, Lists.newArrayList(put, delete),
+                payload != null ? Bytes.toBytes(payload) : null);
+    }
+
+    private List<SepEvent> roundTrip(List<SepEvent> events, boolean prefixCompression) {
+        SepEventCodec.Encoder encoder = new SepEventCodec.Encoder(prefixCompression, 16);
+        for (SepEvent event : events) {
+            encoder.encode(event);
+        }
+        assertEquals(events.size(), encoder.getEventCount());
+        return new SepEventCodec.Decoder(encoder.getEncoded()).decodeAll();
+    }
+
+    private void assertEventsEqual(List<SepEvent> expected, List<SepEvent> actual) {
+        assertEquals(expected, actual);
+        for (int i = 0; i < expected.size(); i++) {
+            List<KeyValue> expectedKeyValues = expected.get(i).getKeyValues();
+            List<KeyValue> actualKeyValues = actual.get(i).getKeyValues();
+            for (int j = 0; j < expectedKeyValues.size(); j++) {
+                // KeyValue.equals only compares the keys
+                assertArrayEquals(expectedKeyValues.get(j).getValue(), actualKeyValues.get(j).getValue());
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        List<SepEvent> events = Lists.newArrayList(
+                createSepEvent("table1", "row1", "payload1"),
+                createSepEvent("table1", "row2", null),
+                createSepEvent("table2", "row10", ""),
+                createSepEvent("table1", "", "payload4"));
+
+        assertEventsEqual(events, roundTrip(events, true));
+        assertEventsEqual(events, roundTrip(events, false));
+    }
+
+    @Test
+    public void testRoundTrip_NullAndEmptyPayload() {
+        List<SepEvent> decoded = roundTrip(Lists.newArrayList(
+                createSepEvent("table", "row1", null), createSepEvent("table", "row2", "")), true);
+
+        assertNull(decoded.get(0).getPayload());
+        assertArrayEquals(new byte[0], decoded.get(1).getPayload());
+    }
+
+    @Test
+    public void testRoundTrip_KeyValueOfOtherRow() {
+        KeyValue keyValue = new KeyValue(Bytes.toBytes("other-row"), Bytes.toBytes("cf"), Bytes.toBytes("q"), 1L,
+                Bytes.toBytes("value"));
+        List<SepEvent> events = Lists.newArrayList(new SepEvent(Bytes.toBytes("table"), Bytes.toBytes("row"),
+                Lists.newArrayList(keyValue), null));
+
+        List<SepEvent> decoded = roundTrip(events, true);
+
+        assertEventsEqual(events, decoded);
+        assertArrayEquals(Bytes.toBytes("other-row"), decoded.get(0).getKeyValues().get(0).getRow());
+    }
+
+    @Test
+    public void testRoundTrip_TimestampsAndTypes() {
+        byte[] row = Bytes.toBytes("row");
+        byte[] family = Bytes.toBytes("cf");
+        List<KeyValue> keyValues = Lists.newArrayList(
+                new KeyValue(row, family, Bytes.toBytes("a"), Long.MAX_VALUE, Bytes.toBytes("1")),
+                new KeyValue(row, family, Bytes.toBytes("b"), 0L, KeyValue.Type.DeleteColumn),
+                new KeyValue(row, family, null, 1234567890123L, KeyValue.Type.DeleteFamily),
+                new KeyValue(row, family, Bytes.toBytes("c"), 5L, new byte[0]));
+        List<SepEvent> events = Lists.newArrayList(new SepEvent(Bytes.toBytes("table"), row, keyValues, null));
+
+        List<SepEvent> decoded = roundTrip(events, true);
+
+        assertEventsEqual(events, decoded);
+        List<KeyValue> decodedKeyValues = decoded.get(0).getKeyValues();
+        assertEquals(Long.MAX_VALUE, decodedKeyValues.get(0).getTimestamp());
+        assertEquals(KeyValue.Type.DeleteColumn.getCode(), decodedKeyValues.get(1).getType());
+        assertEquals(KeyValue.Type.DeleteFamily.getCode(), decodedKeyValues.get(2).getType());
+    }
+
+    @Test
+    public void testPrefixCompression() {
+        SepEventCodec.Encoder compressed = new SepEventCodec.Encoder(true);
+        SepEventCodec.Encoder uncompressed = new SepEventCodec.Encoder(false);
+        for (int i = 0; i < 100; i++) {
+            SepEvent event = createSepEvent("a-table-with-a-long-name", String.format("row-%05d", i), null);
+            compressed.encode(event);
+            uncompressed.encode(event);
+        }
+
+        assertTrue(compressed.getSize() < uncompressed.getSize());
+    }
+
+    @Test
+    public void testReset() {
+        SepEventCodec.Encoder encoder = new SepEventCodec.Encoder(true);
+        encoder.encode(createSepEvent("table", "row1", null));
+        encoder.reset();
+        SepEvent event = createSepEvent("table", "row2", null);
+        encoder.encode(event);
+
+        assertEquals(1, encoder.getEventCount());
+        assertEquals(Lists.newArrayList(event), new SepEventCodec.Decoder(encoder.getEncoded()).decodeAll());
+    }
+
+    @Test
+    public void testCopyTo() {
+        SepEventCodec.Encoder encoder = new SepEventCodec.Encoder(true);
+        SepEvent event = createSepEvent("table", "row", "payload");
+        encoder.encode(event);
+        byte[] target = new byte[encoder.getSize() + 3];
+        encoder.copyTo(target, 3);
+
+        SepEventCodec.Decoder decoder = new SepEventCodec.Decoder(ByteBuffer.wrap(target, 3, encoder.getSize()));
+
+        assertTrue(decoder.hasNext());
+        assertEquals(event, decoder.next());
+        assertFalse(decoder.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedVersion() {
+        new SepEventCodec.Decoder(ByteBuffer.wrap(new byte[] { 99, 0 }));
+    }
+
+}
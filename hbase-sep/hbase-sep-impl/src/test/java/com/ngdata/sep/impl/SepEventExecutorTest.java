@@ -17,6 +17,7 @@ package com.ngdata.sep.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -24,7 +25,7 @@ import static org.mockito.Mockito.when;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Future;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -74,9 +75,10 @@ public class SepEventExecutorTest {
     public void testScheduleSepEvent() throws InterruptedException {
         RecordingEventListener eventListener = new RecordingEventListener();
         SepEventExecutor executor = new SepEventExecutor(eventListener, getExecutors(2), 1, sepMetrics);
+        SepEventExecutor.Shipment shipment = executor.startShipment();
         final int NUM_EVENTS = 10;
         for (int i = 0; i < NUM_EVENTS; i++) {
-            executor.scheduleSepEvent(createSepEvent(i));
+            shipment.scheduleSepEvent(createSepEvent(i));
         }
 
         for (int retry = 0; retry < 10; retry++) {
@@ -93,17 +95,18 @@ public class SepEventExecutorTest {
     public void testScheduleSepEvent_NotFullBatch() throws InterruptedException {
         RecordingEventListener eventListener = new RecordingEventListener();
         SepEventExecutor executor = new SepEventExecutor(eventListener, getExecutors(2), 100, sepMetrics);
+        SepEventExecutor.Shipment shipment = executor.startShipment();
         final int NUM_EVENTS = 10;
         for (int i = 0; i < NUM_EVENTS; i++) {
-            executor.scheduleSepEvent(createSepEvent(i));
+            shipment.scheduleSepEvent(createSepEvent(i));
         }
 
         Thread.sleep(50); // Give us a little bit of time to ensure nothing cam through yet
 
         assertTrue(eventListener.receivedEvents.isEmpty());
 
-        List<Future<?>> futures = executor.flush();
-        assertFalse(futures.isEmpty());
+        shipment.flush();
+        assertTrue(shipment.getBatchCount() > 0);
 
         for (int retry = 0; retry < 10; retry++) {
             if (eventListener.receivedEvents.size() >= NUM_EVENTS) {
@@ -119,27 +122,102 @@ public class SepEventExecutorTest {
     public void testScheduleSepEvent_EventOverflow() throws InterruptedException {
         DelayingEventListener eventListener = new DelayingEventListener();
         SepEventExecutor executor = new SepEventExecutor(eventListener, getExecutors(1), 1, sepMetrics);
+        SepEventExecutor.Shipment shipment = executor.startShipment();
         final int NUM_EVENTS = 50;
         for (int i = 0; i < NUM_EVENTS; i++) {
-            executor.scheduleSepEvent(createSepEvent(i));
+            shipment.scheduleSepEvent(createSepEvent(i));
         }
-        List<Future<?>> futures = executor.flush();
+        shipment.flush();
 
         // We're running with a single thread and no batching, so there should be just as many
-        // futures as there are events
-        assertEquals(NUM_EVENTS, futures.size());
+        // batches as there are events
+        assertEquals(NUM_EVENTS, shipment.getBatchCount());
 
-        Thread.sleep(500);
+        shipment.awaitCompletion();
 
-        for (int retry = 0; retry < 10; retry++) {
-            if (eventListener.receivedEvents.size() >= NUM_EVENTS) {
-                break;
-            }
-            Thread.sleep(10);
+        assertEquals(NUM_EVENTS, eventListener.receivedEvents.size());
+
+    }
+
+    @Test
+    public void testScheduleSepEvent_RetryFailedBatches() throws Exception {
+        FailingOnceEventListener eventListener = new FailingOnceEventListener();
+        SepEventExecutor executor = new SepEventExecutor(eventListener, getExecutors(1), 10, sepMetrics, true);
+        SepEventExecutor.Shipment shipment = executor.startShipment();
+        final int NUM_EVENTS = 5;
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            shipment.scheduleSepEvent(createSepEvent(i));
         }
+        shipment.flush();
+        assertEquals(1, shipment.getBatchCount());
+
+        // The failed batch is retried instead of failing the shipment
+        shipment.awaitCompletion();
 
+        assertEquals(0, shipment.getFailedBatchCount());
+        assertEquals(2, eventListener.attempts);
         assertEquals(NUM_EVENTS, eventListener.receivedEvents.size());
+    }
+
+    @Test
+    public void testShipment_FailedBatch() throws Exception {
+        FailingOnceEventListener eventListener = new FailingOnceEventListener();
+        SepEventExecutor executor = new SepEventExecutor(eventListener, getExecutors(1), 10, sepMetrics);
+        SepEventExecutor.Shipment shipment = executor.startShipment();
+        shipment.scheduleSepEvent(createSepEvent(1));
+        shipment.flush();
+        shipment.awaitCompletion();
 
+        assertEquals(1, shipment.getFailedBatchCount());
+        assertEquals("Simulated failure", shipment.getFirstFailure().getMessage());
+    }
+
+    @Test
+    public void testShipment_Reuse() throws Exception {
+        RecordingEventListener eventListener = new RecordingEventListener();
+        SepEventExecutor executor = new SepEventExecutor(eventListener, getExecutors(2), 3, sepMetrics);
+
+        SepEventExecutor.Shipment shipment = executor.startShipment();
+        for (int i = 0; i < 10; i++) {
+            shipment.scheduleSepEvent(createSepEvent(i));
+        }
+        shipment.flush();
+        shipment.awaitCompletion();
+        shipment.release();
+
+        // A released shipment is handed out again, in a clean state
+        SepEventExecutor.Shipment reusedShipment = executor.startShipment();
+        assertSame(shipment, reusedShipment);
+        assertEquals(0, reusedShipment.getBatchCount());
+        assertFalse(reusedShipment.isComplete());
+
+        for (int i = 10; i < 20; i++) {
+            reusedShipment.scheduleSepEvent(createSepEvent(i));
+        }
+        reusedShipment.flush();
+        reusedShipment.awaitCompletion();
+
+        assertEquals(20, eventListener.receivedEvents.size());
+    }
+
+    @Test
+    public void testShipment_Listener() throws Exception {
+        RecordingEventListener eventListener = new RecordingEventListener();
+        SepEventExecutor executor = new SepEventExecutor(eventListener, getExecutors(2), 100, sepMetrics);
+        SepEventExecutor.Shipment shipment = executor.startShipment();
+        shipment.scheduleSepEvent(createSepEvent(1));
+        shipment.flush();
+
+        final CountDownLatch completed = new CountDownLatch(1);
+        shipment.setListener(new SepEventExecutor.ShipmentListener() {
+            @Override
+            public void shipmentCompleted(SepEventExecutor.Shipment shipment) {
+                completed.countDown();
+            }
+        });
+
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, eventListener.receivedEvents.size());
     }
 
     static class RecordingEventListener implements EventListener {
@@ -153,6 +231,22 @@ public class SepEventExecutorTest {
 
     }
 
+    static class FailingOnceEventListener implements EventListener {
+
+        int attempts = 0;
+        List<SepEvent> receivedEvents = Lists.newArrayList();
+
+        @Override
+        public synchronized void processEvents(List<SepEvent> events) {
+            attempts++;
+            if (attempts == 1) {
+                throw new RuntimeException("Simulated failure");
+            }
+            receivedEvents.addAll(events);
+        }
+
+    }
+
     static class DelayingEventListener implements EventListener {
 
         List<SepEvent> receivedEvents = Collections.synchronizedList(Lists.<SepEvent> newArrayList());
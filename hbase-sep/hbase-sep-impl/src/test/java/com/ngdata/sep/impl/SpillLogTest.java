@@ -0,0 +1,265 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.io.Files;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpillLogTest {
+
+    private File directory;
+    private SpillLog spillLog;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDir();
+        // Room for 5 records of 4 bytes per segment
+        spillLog = new SpillLog(directory, 64, 256);
+    }
+
+    @After
+    public void tearDown() {
+        spillLog.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private void append(int... values) throws IOException {
+        for (int value : values) {
+            byte[] record = Bytes.toBytes(value);
+            spillLog.append(record, 0, record.length);
+        }
+        spillLog.sync();
+    }
+
+    private Integer read() throws InterruptedException {
+        byte[] record = spillLog.read(10, TimeUnit.MILLISECONDS);
+        return record != null ? Bytes.toInt(record) : null;
+    }
+
+    private void reopen() throws IOException {
+        spillLog.close();
+        spillLog = new SpillLog(directory, 64, 256);
+    }
+
+    @Test
+    public void testAppendAndRead() throws Exception {
+        assertNull(read());
+        append(1, 2, 3, 4, 5, 6, 7);
+
+        assertEquals(2, spillLog.getSegmentCount());
+        assertEquals(7 * 12, spillLog.getBacklog());
+        for (int i = 1; i <= 7; i++) {
+            assertEquals(Integer.valueOf(i), read());
+        }
+        assertNull(read());
+        assertEquals(0, spillLog.getBacklog());
+    }
+
+    @Test
+    public void testReadWaitsForAppend() throws Exception {
+        Thread appender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    append(42);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        appender.start();
+        byte[] record = spillLog.read(10, TimeUnit.SECONDS);
+        appender.join();
+
+        assertEquals(42, Bytes.toInt(record));
+    }
+
+    @Test
+    public void testRecordsAreReadOnceSynced() throws Exception {
+        byte[] record = Bytes.toBytes(1);
+        long sequence = spillLog.append(record, 0, record.length);
+        assertNull(read());
+
+        spillLog.sync(sequence);
+        assertEquals(Integer.valueOf(1), read());
+    }
+
+    @Test
+    public void testConcurrentAppendAndSync() throws Exception {
+        spillLog.close();
+        spillLog = new SpillLog(directory, 4096, 16384);
+        Thread[] appenders = new Thread[4];
+        for (int i = 0; i < appenders.length; i++) {
+            final int base = i * 100;
+            appenders[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int value = base; value < base + 100; value++) {
+                            byte[] record = Bytes.toBytes(value);
+                            spillLog.sync(spillLog.append(record, 0, record.length));
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            appenders[i].start();
+        }
+        Set<Integer> values = new HashSet<Integer>();
+        for (int i = 0; i < 400; i++) {
+            byte[] record = spillLog.read(10, TimeUnit.SECONDS);
+            values.add(Bytes.toInt(record));
+        }
+        for (Thread appender : appenders) {
+            appender.join();
+        }
+
+        assertEquals(400, values.size());
+        assertNull(read());
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        append(1, 2, 3, 4, 5, 6, 7);
+        for (int i = 1; i <= 6; i++) {
+            read();
+        }
+        spillLog.checkpoint();
+
+        // The first segment has been read completely
+        assertEquals(1, spillLog.getSegmentCount());
+
+        reopen();
+        assertEquals(Integer.valueOf(7), read());
+        assertNull(read());
+    }
+
+    @Test
+    public void testRecordsAfterCheckpointAreReadAgain() throws Exception {
+        append(1, 2, 3);
+        read();
+        spillLog.checkpoint();
+        read();
+
+        reopen();
+        assertEquals(Integer.valueOf(2), read());
+        assertEquals(Integer.valueOf(3), read());
+
+        // Appending continues after the existing records
+        append(4);
+        assertEquals(Integer.valueOf(4), read());
+    }
+
+    @Test
+    public void testRewind() throws Exception {
+        append(1, 2, 3, 4, 5, 6, 7);
+        read();
+        spillLog.checkpoint();
+        for (int i = 2; i <= 7; i++) {
+            read();
+        }
+
+        spillLog.rewind();
+
+        for (int i = 2; i <= 7; i++) {
+            assertEquals(Integer.valueOf(i), read());
+        }
+        assertNull(read());
+    }
+
+    @Test
+    public void testFull() throws Exception {
+        append(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20);
+        try {
+            append(21);
+            fail("Expected the log to be full");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // Reading into the second segment frees the first one
+        for (int i = 1; i <= 6; i++) {
+            read();
+        }
+        spillLog.checkpoint();
+        append(21);
+    }
+
+    @Test
+    public void testLargeRecordsCountTowardsMaximumSize() throws Exception {
+        // Records that don't fit in a segment get a segment of their own
+        byte[] record = new byte[100];
+        spillLog.append(record, 0, record.length);
+        assertEquals(2, spillLog.getSegmentCount());
+        assertEquals(64 + 108, spillLog.getSize());
+
+        try {
+            spillLog.append(record, 0, record.length);
+            fail("Expected the log to be full");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // A regular segment still fits
+        append(1, 2, 3, 4, 5);
+        assertEquals(3, spillLog.getSegmentCount());
+        assertEquals(64 + 108 + 64, spillLog.getSize());
+    }
+
+    @Test
+    public void testTruncateCorruptRecord() throws Exception {
+        append(1, 2, 3);
+        spillLog.close();
+
+        // Corrupt the data of the second record
+        File segment = new File(directory, String.format("%020d", 0) + ".spill");
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(12 + 8);
+        file.write(0xff);
+        file.close();
+
+        reopen();
+        assertEquals(Integer.valueOf(1), read());
+        assertNull(read());
+
+        // New records replace the corrupt ones
+        append(4);
+        assertEquals(Integer.valueOf(4), read());
+        reopen();
+        assertEquals(Integer.valueOf(1), read());
+        assertEquals(Integer.valueOf(4), read());
+    }
+
+}
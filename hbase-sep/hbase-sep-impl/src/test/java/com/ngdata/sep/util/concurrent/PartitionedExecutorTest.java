@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+
+public class PartitionedExecutorTest {
+
+    private PartitionedExecutor executor;
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOrderWithinPartition() throws InterruptedException {
+        executor = new PartitionedExecutor(4, 4, 1000);
+        final List<Integer> executed = Collections.synchronizedList(Lists.<Integer>newArrayList());
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        for (int i = 0; i < 500; i++) {
+            final int taskNumber = i;
+            executor.getPartitions().get(0).execute(new Runnable() {
+                @Override
+                public void run() {
+                    int running = concurrent.incrementAndGet();
+                    maxConcurrent.set(Math.max(maxConcurrent.get(), running));
+                    executed.add(taskNumber);
+                    concurrent.decrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(500, executed.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(Integer.valueOf(i), executed.get(i));
+        }
+        assertEquals(1, maxConcurrent.get());
+    }
+
+    @Test
+    public void testBlockedPartitionDoesNotBlockOthers() throws InterruptedException {
+        // More partitions than threads: the partitions of the blocked thread's queue are picked up by the other one
+        executor = new PartitionedExecutor(2, 8, 1000);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        executor.getPartitions().get(0).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        final CountDownLatch others = new CountDownLatch(7 * 10);
+        for (int partition = 1; partition < 8; partition++) {
+            for (int i = 0; i < 10; i++) {
+                executor.getPartitions().get(partition).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        others.countDown();
+                    }
+                });
+            }
+        }
+
+        assertTrue(others.await(10, TimeUnit.SECONDS));
+        blocker.countDown();
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStallPartition() throws InterruptedException {
+        executor = new PartitionedExecutor(1, 1, 10);
+        executor.getPartitions().get(0).execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("failing task");
+            }
+        });
+        final CountDownLatch latch = new CountDownLatch(1);
+        executor.getPartitions().get(0).execute(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testQueueCapacity() throws InterruptedException {
+        executor = new PartitionedExecutor(1, 2, 2);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        Runnable blockingTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        executor.getPartitions().get(0).execute(blockingTask);
+        executor.getPartitions().get(1).execute(blockingTask);
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread() {
+            @Override
+            public void run() {
+                executor.getPartitions().get(1).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                });
+                submitted.countDown();
+            }
+        };
+        submitter.start();
+
+        assertFalse("Submission should block while the queue is full", submitted.await(200, TimeUnit.MILLISECONDS));
+        blocker.countDown();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShutdownCompletesPendingTasks() throws InterruptedException {
+        executor = new PartitionedExecutor(2, 4, 1000);
+        final AtomicInteger counter = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            executor.getPartitions().get(i % 4).execute(new Runnable() {
+                @Override
+                public void run() {
+                    counter.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(100, counter.get());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testExecuteAfterShutdown() {
+        executor = new PartitionedExecutor(1, 1, 10);
+        executor.shutdown();
+        executor.getPartitions().get(0).execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ThreadFactoriesTest {
+
+    public static class CustomThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "custom");
+        }
+    }
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Test
+    public void testPlatform() {
+        ThreadFactory threadFactory = ThreadFactories.newThreadFactory(ThreadFactories.PLATFORM, "worker");
+        assertEquals("worker-0", threadFactory.newThread(NOOP).getName());
+        assertEquals("worker-1", threadFactory.newThread(NOOP).getName());
+    }
+
+    @Test
+    public void testDefaultIsPlatform() {
+        assertEquals("worker-0", ThreadFactories.newThreadFactory(null, "worker").newThread(NOOP).getName());
+    }
+
+    @Test
+    public void testCustom() {
+        ThreadFactory threadFactory = ThreadFactories.newThreadFactory(CustomThreadFactory.class.getName(), "worker");
+        assertEquals("custom", threadFactory.newThread(NOOP).getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalid() {
+        ThreadFactories.newThreadFactory("java.lang.String", "worker");
+    }
+
+    @Test
+    public void testVirtual() throws InterruptedException {
+        // Falls back to platform threads on JVMs without virtual threads, either way the threads should work
+        ThreadFactory threadFactory = ThreadFactories.newThreadFactory(ThreadFactories.VIRTUAL, "worker");
+        final CountDownLatch latch = new CountDownLatch(1);
+        Thread thread = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertEquals("worker-0", thread.getName());
+        thread.start();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+}
@@ -86,6 +86,10 @@ public class ReplicationStatus {
         String sleepReason;
         Integer sleepMultiplier;
         Long timestampLastSleep;
+        /** Age of the oldest entry from this server that a SEP consumer received but didn't process yet. */
+        Long sepLag;
+        /** Write time up to which the SEP consumers processed all entries they received from this server. */
+        Long sepLowWatermark;
 
         int getHLogCount() {
             int count = 0;
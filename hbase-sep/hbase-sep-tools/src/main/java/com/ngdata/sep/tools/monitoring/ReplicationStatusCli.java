@@ -49,6 +49,11 @@ public class ReplicationStatusCli {
                 .withRequiredArg().ofType(Integer.class)
                 .defaultsTo(60010);
 
+        OptionSpec<Integer> sepJmxPortOption = parser
+                .acceptsAll(ImmutableList.of("sep-jmx-port"), "use JMX to retrieve the processing lag from the SEP"
+                        + " consumers (e.g. the hbase-indexer servers), which listen for JMX on this port")
+                .withRequiredArg().ofType(Integer.class);
+
         OptionSet options = null;
         try {
             options = parser.parse(args);
@@ -78,6 +83,10 @@ public class ReplicationStatusCli {
             System.out.println();
         }
 
+        if (options.has(sepJmxPortOption)) {
+            retriever.addStatusFromSepConsumers(replicationStatus, options.valueOf(sepJmxPortOption));
+        }
+
         ReplicationStatusReport.printReport(replicationStatus, System.out);
 
         Closer.close(zk);
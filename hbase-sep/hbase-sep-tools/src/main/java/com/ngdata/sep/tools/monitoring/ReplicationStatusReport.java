@@ -56,6 +56,9 @@ public class ReplicationStatusReport {
         out.println("   is activity.");
         out.println(" * Recovered queues appear each time regionservers are restarted, they");
         out.println("   will disappear once processed.");
+        out.println(" * 'SEP lag' information (only with --sep-jmx-port): the age of the oldest");
+        out.println("   edit that the SEP consumers received from the regionserver, but did not");
+        out.println("   process yet, and the time up to which all received edits are processed.");
         out.println();
 
         out.format(columnFormat, "Host", "Queue size",      "Size all HLogs",  "Current HLog", "Age last",   "TS last",    "Peer");
@@ -80,6 +83,10 @@ public class ReplicationStatusReport {
                     out.format(columnFormatWide, "", "Last slept " + formatDuration(sleepAge) + " ago (muliplier: "
                             + status.sleepMultiplier + "): " + status.sleepReason);
                 }
+                if (status.sepLag != null) {
+                    out.format(columnFormatWide, "", "SEP lag " + formatDuration(status.sepLag)
+                            + ", processed up to " + formatTimestamp(status.sepLowWatermark));
+                }
             }
         }
         out.println();
@@ -22,8 +22,10 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.InetAddress;
 import java.net.URLEncoder;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
@@ -34,9 +36,13 @@ import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.ngdata.sep.SepModel;
+import com.ngdata.sep.impl.SepModelImpl;
 import com.ngdata.sep.tools.monitoring.ReplicationStatus.HLogInfo;
 import com.ngdata.sep.tools.monitoring.ReplicationStatus.Status;
 import com.ngdata.sep.util.zookeeper.ZooKeeperItf;
@@ -63,7 +69,8 @@ import org.apache.zookeeper.data.Stat;
  * Collects replication status information.
  *
  * <p>Usage: first call {@link #collectStatusFromZooKeepeer()}, then optionally call
- * {@link #addStatusFromJmx(ReplicationStatus)} for more information.
+ * {@link #addStatusFromJmx(ReplicationStatus)} and {@link #addStatusFromSepConsumers(ReplicationStatus, int)} for
+ * more information.
  */
 public class ReplicationStatusRetriever {
     private final ZooKeeperItf zk;
@@ -260,6 +267,99 @@ public class ReplicationStatusRetriever {
         jmxConnections.close();
     }
 
+    /**
+     * Adds the processing lag per regionserver, as tracked by the SEP consumers of each peer, which is read from
+     * their {@code LagTracker} mbeans.
+     *
+     * @param jmxPort the JMX port of the SEP consumer processes
+     */
+    public void addStatusFromSepConsumers(ReplicationStatus replicationStatus, int jmxPort) throws Exception {
+        JmxConnections jmxConnections = new JmxConnections();
+        Map<String, String> addressByHostName = new HashMap<String, String>();
+
+        for (String peerId : replicationStatus.getPeersAndRecoveredQueues()) {
+            // Recovered queues are named "peerId-servername..."
+            String subscription = replicationStatus.isRecoveredQueue(peerId)
+                    ? peerId.substring(0, peerId.indexOf('-')) : peerId;
+
+            List<String> consumers;
+            try {
+                consumers = zk.getChildren(SepModel.DEFAULT_ZK_ROOT_NODE + "/" + subscription + "/rs", false);
+            } catch (KeeperException.NoNodeException e) {
+                // not a SEP subscription
+                continue;
+            }
+
+            // The sources are identified by IP address by the consumers
+            Map<String, Status> statusBySource = new HashMap<String, Status>();
+            for (String server : replicationStatus.getServers(peerId)) {
+                String hostName = ServerName.parseHostname(server);
+                String address = addressByHostName.get(hostName);
+                if (address == null) {
+                    address = InetAddress.getByName(hostName).getHostAddress();
+                    addressByHostName.put(hostName, address);
+                }
+                statusBySource.put(address, replicationStatus.getStatus(peerId, server));
+            }
+
+            // Shipments are spread over all consumers, so the consumer that is furthest behind determines the lag
+            // and watermark. The watermarks of consumers that have nothing left to do are merely stale.
+            Map<Status, Long> behindWatermarks = new HashMap<Status, Long>();
+            Map<Status, Long> idleWatermarks = new HashMap<Status, Long>();
+
+            ObjectName lagBean = new ObjectName("hadoop:service=SEPLag,name="
+                    + SepModelImpl.toExternalSubscriptionName(subscription));
+            for (String consumer : consumers) {
+                MBeanServerConnection connection = jmxConnections.getConnector(ServerName.parseHostname(consumer),
+                        jmxPort).getMBeanServerConnection();
+                Map<String, Long> lags;
+                Map<String, Long> lowWatermarks;
+                try {
+                    lags = toMap(connection.getAttribute(lagBean, "Lags"));
+                    lowWatermarks = toMap(connection.getAttribute(lagBean, "LowWatermarks"));
+                } catch (InstanceNotFoundException e) {
+                    // the consumer was stopped since we read it from ZK
+                    continue;
+                }
+                for (Map.Entry<String, Long> entry : lags.entrySet()) {
+                    Status status = statusBySource.get(entry.getKey());
+                    if (status == null) {
+                        continue;
+                    }
+                    long lag = entry.getValue();
+                    Long reportedWatermark = lowWatermarks.get(entry.getKey());
+                    long lowWatermark = reportedWatermark != null ? reportedWatermark : -1;
+                    status.sepLag = status.sepLag == null ? lag : Math.max(status.sepLag, lag);
+                    if (lag > 0) {
+                        Long current = behindWatermarks.get(status);
+                        behindWatermarks.put(status, current == null ? lowWatermark : Math.min(current, lowWatermark));
+                    } else {
+                        Long current = idleWatermarks.get(status);
+                        idleWatermarks.put(status, current == null ? lowWatermark : Math.max(current, lowWatermark));
+                    }
+                }
+            }
+            for (Status status : statusBySource.values()) {
+                Long lowWatermark = behindWatermarks.get(status);
+                status.sepLowWatermark = lowWatermark != null ? lowWatermark : idleWatermarks.get(status);
+            }
+        }
+
+        jmxConnections.close();
+    }
+
+    /**
+     * Converts a map that was exposed by an MXBean (as tabular data) back into a map.
+     */
+    private static Map<String, Long> toMap(Object tabularData) {
+        Map<String, Long> map = new HashMap<String, Long>();
+        for (Object row : ((TabularData)tabularData).values()) {
+            CompositeData data = (CompositeData)row;
+            map.put((String)data.get("key"), (Long)data.get("value"));
+        }
+        return map;
+    }
+
     /**
      *
      * @param serverName the 'unique-over-restarts' name, i.e. hostname with start code suffix
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.tools.replay;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the number of bytes that are allocated on the heap by all threads of the JVM between two points in time,
+ * based on the per-thread allocation counters of HotSpot. Allocations by threads that terminate in between are not
+ * counted.
+ */
+class AllocationCounter {
+
+    private final com.sun.management.ThreadMXBean threadBean;
+    private Map<Long, Long> startCounts;
+
+    AllocationCounter() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+            threadBean = (com.sun.management.ThreadMXBean)bean;
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threadBean = null;
+        }
+    }
+
+    boolean isSupported() {
+        return threadBean != null;
+    }
+
+    void start() {
+        startCounts = readCounts();
+    }
+
+    /**
+     * Returns the number of bytes allocated since {@link #start()}, or -1 if allocations can't be measured.
+     */
+    long getAllocatedBytes() {
+        if (threadBean == null) {
+            return -1;
+        }
+        long allocated = 0;
+        for (Map.Entry<Long, Long> entry : readCounts().entrySet()) {
+            Long startCount = startCounts.get(entry.getKey());
+            allocated += entry.getValue() - (startCount != null ? startCount : 0L);
+        }
+        return allocated;
+    }
+
+    private Map<Long, Long> readCounts() {
+        Map<Long, Long> counts = new HashMap<Long, Long>();
+        if (threadBean == null) {
+            return counts;
+        }
+        long[] threadIds = threadBean.getAllThreadIds();
+        long[] allocatedBytes = threadBean.getThreadAllocatedBytes(threadIds);
+        for (int i = 0; i < threadIds.length; i++) {
+            // -1 for threads that terminated in the meantime
+            if (allocatedBytes[i] >= 0) {
+                counts.put(threadIds[i], allocatedBytes[i]);
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.tools.replay;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.ngdata.sep.EventListener;
+import com.ngdata.sep.SepEvent;
+
+/**
+ * EventListener that writes the batches of events it receives to a trace, before passing them on to another
+ * listener. Used to capture the events of a live SEP consumer for offline replay.
+ */
+public class RecordingEventListener implements EventListener {
+
+    private final SepTraceWriter traceWriter;
+    private final EventListener delegate;
+
+    /**
+     * @param delegate listener to pass the events on to, or null to only record them
+     */
+    public RecordingEventListener(SepTraceWriter traceWriter, EventListener delegate) {
+        this.traceWriter = traceWriter;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void processEvents(List<SepEvent> events) {
+        try {
+            traceWriter.write(events);
+        } catch (IOException e) {
+            throw new RuntimeException("Error recording SEP events", e);
+        }
+        if (delegate != null) {
+            delegate.processEvents(events);
+        }
+    }
+}
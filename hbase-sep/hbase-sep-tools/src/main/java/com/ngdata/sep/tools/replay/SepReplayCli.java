@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.tools.replay;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.ngdata.sep.EventListener;
+import com.ngdata.sep.PayloadExtractor;
+import com.ngdata.sep.SepEvent;
+import com.ngdata.sep.SepModel;
+import com.ngdata.sep.impl.BasePayloadExtractor;
+import com.ngdata.sep.impl.SepConfKeys;
+import com.ngdata.sep.impl.SepConsumer;
+import com.ngdata.sep.impl.SepModelImpl;
+import com.ngdata.sep.util.io.Closer;
+import com.ngdata.sep.util.zookeeper.ZkUtil;
+import com.ngdata.sep.util.zookeeper.ZooKeeperItf;
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.PropertyConfigurator;
+
+/**
+ * Tool to benchmark the processing of SEP events without a live HBase cluster. It has three commands:
+ * <ul>
+ * <li>record: capture the events of a live HBase cluster into a trace file, by running a SEP consumer for a
+ * temporary subscription</li>
+ * <li>synthesize: generate a trace file with the kind of rows that the hbase-sep-demo ingests</li>
+ * <li>replay: feed a trace file through the SEP event executor, to a simulated or a custom listener, and report
+ * the throughput, latency and allocation rate</li>
+ * </ul>
+ */
+public class SepReplayCli {
+
+    public static void main(String[] args) throws Exception {
+        new SepReplayCli().run(args);
+    }
+
+    public void run(String[] args) throws Exception {
+        LogManager.resetConfiguration();
+        PropertyConfigurator.configure(getClass().getResource("log4j.properties"));
+
+        String command = args.length > 0 ? args[0] : "";
+        String[] commandArgs = args.length > 0 ? Arrays.copyOfRange(args, 1, args.length) : args;
+        if (command.equals("record")) {
+            record(commandArgs);
+        } else if (command.equals("synthesize")) {
+            synthesize(commandArgs);
+        } else if (command.equals("replay")) {
+            replay(commandArgs);
+        } else {
+            System.out.println("Usage: " + getClass().getName() + " record|synthesize|replay [options] <trace file>");
+            System.out.println("Use --help after a command to list its options.");
+            System.exit(1);
+        }
+    }
+
+    private void record(String[] args) throws Exception {
+        OptionParser parser = new OptionParser();
+        OptionSpec<String> zkOption = parser
+                .acceptsAll(ImmutableList.of("z"), "ZooKeeper connection string, defaults to localhost")
+                .withRequiredArg().ofType(String.class)
+                .defaultsTo("localhost");
+        OptionSpec<String> subscriptionOption = parser
+                .acceptsAll(ImmutableList.of("subscription"), "name of the SEP subscription, which is created if it"
+                        + " doesn't exist and removed afterwards")
+                .withRequiredArg().ofType(String.class)
+                .defaultsTo("sep-trace");
+        OptionSpec<Integer> durationOption = parser
+                .acceptsAll(ImmutableList.of("duration"), "number of seconds to record")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(60);
+        OptionSpec<Long> maxEventsOption = parser
+                .acceptsAll(ImmutableList.of("max-events"), "stop recording after this number of events")
+                .withRequiredArg().ofType(Long.class);
+        OptionSpec<String> payloadOption = parser
+                .acceptsAll(ImmutableList.of("payload"), "column from which to extract the event payloads, as"
+                        + " table:family:qualifier")
+                .withRequiredArg().ofType(String.class);
+        OptionSet options = parse(parser, args);
+        File traceFile = getTraceFile(parser, options);
+
+        String subscription = options.valueOf(subscriptionOption);
+        PayloadExtractor payloadExtractor = null;
+        if (options.has(payloadOption)) {
+            String[] column = options.valueOf(payloadOption).split(":");
+            if (column.length != 3) {
+                System.out.println("Invalid payload column, expected table:family:qualifier");
+                System.exit(1);
+            }
+            payloadExtractor = new BasePayloadExtractor(Bytes.toBytes(column[0]), Bytes.toBytes(column[1]),
+                    Bytes.toBytes(column[2]));
+        }
+
+        Configuration conf = HBaseConfiguration.create();
+        conf.setBoolean("hbase.replication", true);
+        System.out.println("Connecting to Zookeeper " + options.valueOf(zkOption) + "...");
+        ZooKeeperItf zk = ZkUtil.connect(options.valueOf(zkOption), 30000);
+        SepModel sepModel = new SepModelImpl(zk, conf);
+        boolean createdSubscription = sepModel.addSubscriptionSilent(subscription);
+
+        SepTraceWriter traceWriter = new SepTraceWriter(traceFile);
+        SepConsumer sepConsumer = new SepConsumer(subscription, 0, new RecordingEventListener(traceWriter, null), 1,
+                InetAddress.getLocalHost().getHostName(), zk, conf, payloadExtractor);
+        try {
+            sepConsumer.start();
+            System.out.println("Recording events of subscription " + subscription + " to " + traceFile);
+            long stopAt = System.currentTimeMillis() + options.valueOf(durationOption) * 1000L;
+            long maxEvents = options.has(maxEventsOption) ? options.valueOf(maxEventsOption) : Long.MAX_VALUE;
+            while (System.currentTimeMillis() < stopAt && traceWriter.getEventCount() < maxEvents) {
+                Thread.sleep(100L);
+            }
+        } finally {
+            sepConsumer.stop();
+            Closer.close(traceWriter);
+            if (createdSubscription) {
+                sepModel.removeSubscriptionSilent(subscription);
+            }
+            Closer.close(zk);
+        }
+        System.out.println("Recorded " + traceWriter.getEventCount() + " events in " + traceWriter.getBatchCount()
+                + " batches");
+    }
+
+    private void synthesize(String[] args) throws Exception {
+        OptionParser parser = new OptionParser();
+        OptionSpec<Integer> batchesOption = parser
+                .acceptsAll(ImmutableList.of("batches"), "number of batches")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(1000);
+        OptionSpec<Integer> eventsPerBatchOption = parser
+                .acceptsAll(ImmutableList.of("events-per-batch"), "number of events per batch")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(100);
+        OptionSpec<Long> seedOption = parser
+                .acceptsAll(ImmutableList.of("seed"), "seed for the random generator")
+                .withRequiredArg().ofType(Long.class)
+                .defaultsTo(0L);
+        OptionSet options = parse(parser, args);
+        File traceFile = getTraceFile(parser, options);
+
+        SepTraceWriter traceWriter = new SepTraceWriter(traceFile);
+        try {
+            new SyntheticTraceGenerator(options.valueOf(seedOption)).generate(traceWriter,
+                    options.valueOf(batchesOption), options.valueOf(eventsPerBatchOption));
+        } finally {
+            Closer.close(traceWriter);
+        }
+        System.out.println("Wrote " + traceWriter.getEventCount() + " events in " + traceWriter.getBatchCount()
+                + " batches to " + traceFile);
+    }
+
+    private void replay(String[] args) throws Exception {
+        OptionParser parser = new OptionParser();
+        OptionSpec<Integer> threadsOption = parser
+                .acceptsAll(ImmutableList.of("threads"), "number of threads that process the events")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(10);
+        OptionSpec<Integer> partitionsPerThreadOption = parser
+                .acceptsAll(ImmutableList.of("partitions-per-thread"), "number of partitions per thread")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(SepConfKeys.DEFAULT_PARTITIONS_PER_THREAD);
+        OptionSpec<Integer> batchSizeOption = parser
+                .acceptsAll(ImmutableList.of("batch-size"), "number of events passed to the listener at once")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(SepConfKeys.DEFAULT_BATCH_SIZE);
+        OptionSpec<Long> rateOption = parser
+                .acceptsAll(ImmutableList.of("rate"), "target number of events per second, 0 to replay as fast as"
+                        + " possible")
+                .withRequiredArg().ofType(Long.class)
+                .defaultsTo(0L);
+        OptionSpec<Integer> warmupOption = parser
+                .acceptsAll(ImmutableList.of("warmup"), "number of times to replay the trace before measuring")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(1);
+        OptionSpec<Integer> iterationsOption = parser
+                .acceptsAll(ImmutableList.of("iterations"), "number of measured replays of the trace")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(3);
+        OptionSpec<Long> batchLatencyOption = parser
+                .acceptsAll(ImmutableList.of("batch-latency"), "simulated processing time per batch, in"
+                        + " microseconds")
+                .withRequiredArg().ofType(Long.class)
+                .defaultsTo(1000L);
+        OptionSpec<Long> eventLatencyOption = parser
+                .acceptsAll(ImmutableList.of("event-latency"), "simulated processing time per event, in"
+                        + " microseconds")
+                .withRequiredArg().ofType(Long.class)
+                .defaultsTo(0L);
+        OptionSpec<String> listenerOption = parser
+                .acceptsAll(ImmutableList.of("listener"), "class name of an EventListener with a no-argument"
+                        + " constructor to replay to, instead of the simulated listener")
+                .withRequiredArg().ofType(String.class);
+        OptionSet options = parse(parser, args);
+        File traceFile = getTraceFile(parser, options);
+
+        List<List<SepEvent>> batches = SepTraceReader.readAll(traceFile);
+        System.out.println("Read " + batches.size() + " batches from " + traceFile);
+
+        EventListener listener;
+        if (options.has(listenerOption)) {
+            listener = (EventListener)Class.forName(options.valueOf(listenerOption)).newInstance();
+        } else {
+            listener = new SimulatedEventListener(options.valueOf(batchLatencyOption),
+                    options.valueOf(eventLatencyOption));
+        }
+
+        SepReplayer replayer = new SepReplayer(listener, options.valueOf(threadsOption),
+                options.valueOf(partitionsPerThreadOption), options.valueOf(batchSizeOption));
+        try {
+            long rate = options.valueOf(rateOption);
+            for (int i = 0; i < options.valueOf(warmupOption); i++) {
+                System.out.println("Warmup " + (i + 1) + ": "
+                        + String.format("%.1f events/s", replayer.replay(batches, rate).getEventsPerSecond()));
+            }
+            for (int i = 0; i < options.valueOf(iterationsOption); i++) {
+                System.out.println();
+                System.out.println("Iteration " + (i + 1) + ":");
+                replayer.replay(batches, rate).print(System.out);
+            }
+        } finally {
+            replayer.shutdown();
+        }
+    }
+
+    private OptionSet parse(OptionParser parser, String[] args) throws Exception {
+        OptionSpec helpOption = parser.accepts("help", "print this help");
+        OptionSet options = null;
+        try {
+            options = parser.parse(args);
+        } catch (OptionException e) {
+            System.out.println("Error parsing command line options:");
+            System.out.println(e.getMessage());
+            parser.printHelpOn(System.out);
+            System.exit(1);
+        }
+        if (options.has(helpOption)) {
+            parser.printHelpOn(System.out);
+            System.exit(0);
+        }
+        return options;
+    }
+
+    private File getTraceFile(OptionParser parser, OptionSet options) throws Exception {
+        if (options.nonOptionArguments().size() != 1) {
+            System.out.println("Specify the trace file");
+            parser.printHelpOn(System.out);
+            System.exit(1);
+        }
+        return new File(options.nonOptionArguments().get(0));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.tools.replay;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.ngdata.sep.EventListener;
+import com.ngdata.sep.SepEvent;
+import com.ngdata.sep.impl.SepEventExecutor;
+import com.ngdata.sep.impl.SepMetrics;
+import com.ngdata.sep.util.concurrent.PartitionedExecutor;
+
+/**
+ * Replays batches of {@link SepEvent}s, typically read from a trace file, through the same {@link SepEventExecutor}
+ * that the SepConsumer uses, without the need for HBase.
+ * <p>
+ * Every batch is replayed as one shipment, i.e. as if it was the content of a single replication RPC: the events are
+ * scheduled, and the next batch is only started when all events of the batch have been processed. The batches can be
+ * replayed as fast as possible, or at a target rate. In the latter case, the latency of a batch is measured from the
+ * moment at which it should have been started according to the rate, so that a listener that can't keep up shows in
+ * the latencies, rather than only in a lower throughput.
+ */
+public class SepReplayer {
+
+    private final PartitionedExecutor executor;
+    private final SepMetrics sepMetrics;
+    private final SepEventExecutor eventExecutor;
+
+    /**
+     * @param threadCount number of threads that execute the events, as for the SepConsumer
+     * @param partitionsPerThread number of partitions per thread, see {@link PartitionedExecutor}
+     * @param batchSize number of events that are passed to the listener at once
+     */
+    public SepReplayer(EventListener listener, int threadCount, int partitionsPerThread, int batchSize) {
+        Preconditions.checkArgument(threadCount > 0, "Thread count must be > 0");
+        int numPartitions = threadCount * partitionsPerThread;
+        executor = new PartitionedExecutor(threadCount, numPartitions, threadCount * 100, Executors.defaultThreadFactory());
+        sepMetrics = new SepMetrics("sep-replay");
+        eventExecutor = new SepEventExecutor(listener, executor.getPartitions(), batchSize, sepMetrics);
+    }
+
+    /**
+     * Replay the given batches.
+     *
+     * @param eventsPerSecond target rate, or 0 to replay as fast as possible
+     */
+    public Result replay(List<List<SepEvent>> batches, long eventsPerSecond) throws InterruptedException {
+        long[] latencies = new long[batches.size()];
+        long eventCount = 0;
+        int failedBatches = 0;
+        AllocationCounter allocationCounter = new AllocationCounter();
+        allocationCounter.start();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < batches.size(); i++) {
+            List<SepEvent> batch = batches.get(i);
+            long batchStartTime = System.nanoTime();
+            if (eventsPerSecond > 0) {
+                long scheduledTime = startTime + eventCount * TimeUnit.SECONDS.toNanos(1) / eventsPerSecond;
+                long delay = scheduledTime - batchStartTime;
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+                batchStartTime = scheduledTime;
+            }
+
+            SepEventExecutor.Shipment shipment = eventExecutor.startShipment();
+            try {
+                for (SepEvent event : batch) {
+                    shipment.scheduleSepEvent(event);
+                }
+                shipment.flush();
+                shipment.awaitCompletion();
+                if (shipment.getFailedBatchCount() > 0) {
+                    failedBatches++;
+                }
+            } finally {
+                shipment.release();
+            }
+            latencies[i] = System.nanoTime() - batchStartTime;
+            eventCount += batch.size();
+        }
+        long elapsed = System.nanoTime() - startTime;
+        return new Result(batches.size(), failedBatches, eventCount, elapsed, latencies,
+                allocationCounter.getAllocatedBytes());
+    }
+
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        sepMetrics.shutdown();
+    }
+
+    /**
+     * Measurements of a replay run.
+     */
+    public static class Result {
+        private final int batchCount;
+        private final int failedBatchCount;
+        private final long eventCount;
+        private final long elapsedNanos;
+        /** Latency of every batch, in nanoseconds, sorted. */
+        private final long[] latencies;
+        private final long allocatedBytes;
+
+        Result(int batchCount, int failedBatchCount, long eventCount, long elapsedNanos, long[] latencies,
+                long allocatedBytes) {
+            this.batchCount = batchCount;
+            this.failedBatchCount = failedBatchCount;
+            this.eventCount = eventCount;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public int getBatchCount() {
+            return batchCount;
+        }
+
+        /**
+         * Returns the number of batches of which the processing of at least one event failed.
+         */
+        public int getFailedBatchCount() {
+            return failedBatchCount;
+        }
+
+        public long getEventCount() {
+            return eventCount;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getEventsPerSecond() {
+            return elapsedNanos > 0 ? eventCount * (double)TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        }
+
+        /**
+         * Returns the batch latency, in nanoseconds, below which the given percentage of the batches stayed.
+         *
+         * @param percentile value between 0 and 100
+         */
+        public long getLatencyPercentile(double percentile) {
+            Preconditions.checkArgument(percentile >= 0 && percentile <= 100, "Invalid percentile: " + percentile);
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int)Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+
+        /**
+         * Returns the number of bytes allocated on the heap per event, by all threads, or -1 if allocations could not
+         * be measured.
+         */
+        public double getAllocatedBytesPerEvent() {
+            if (allocatedBytes < 0 || eventCount == 0) {
+                return -1;
+            }
+            return allocatedBytes / (double)eventCount;
+        }
+
+        public void print(PrintStream out) {
+            out.println(String.format("Events:          %d in %d batches (%d failed)", eventCount, batchCount,
+                    failedBatchCount));
+            out.println(String.format("Elapsed:         %.1f ms", elapsedNanos / 1e6));
+            out.println(String.format("Throughput:      %.1f events/s", getEventsPerSecond()));
+            out.println(String.format("Batch latency:   p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms",
+                    getLatencyPercentile(50) / 1e6, getLatencyPercentile(90) / 1e6, getLatencyPercentile(99) / 1e6,
+                    getLatencyPercentile(99.9) / 1e6, getLatencyPercentile(100) / 1e6));
+            double allocated = getAllocatedBytesPerEvent();
+            out.println("Allocation:      " + (allocated < 0 ? "not measurable on this JVM"
+                    : String.format("%.0f bytes/event", allocated)));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.tools.replay;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ngdata.sep.SepEvent;
+import com.ngdata.sep.impl.SepEventCodec;
+
+/**
+ * Reads the batches of {@link SepEvent}s from a trace file that was written by a {@link SepTraceWriter}.
+ */
+public class SepTraceReader implements Closeable {
+
+    private final File file;
+    private final DataInputStream input;
+
+    public SepTraceReader(File file) throws IOException {
+        this.file = file;
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        byte[] magic = new byte[SepTraceWriter.MAGIC.length];
+        try {
+            input.readFully(magic);
+            if (!Arrays.equals(magic, SepTraceWriter.MAGIC)) {
+                throw new IOException("Not a SEP trace file: " + file);
+            }
+            int version = input.readInt();
+            if (version != SepTraceWriter.FORMAT_VERSION) {
+                throw new IOException("Unsupported version " + version + " of SEP trace file " + file);
+            }
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the next batch of events, or null at the end of the trace.
+     */
+    public List<SepEvent> next() throws IOException {
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        try {
+            input.readFully(bytes);
+        } catch (EOFException e) {
+            throw new IOException("SEP trace file " + file + " is truncated", e);
+        }
+        return new SepEventCodec.Decoder(ByteBuffer.wrap(bytes)).decodeAll();
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Reads all batches of a trace file into memory.
+     */
+    public static List<List<SepEvent>> readAll(File file) throws IOException {
+        SepTraceReader reader = new SepTraceReader(file);
+        try {
+            List<List<SepEvent>> batches = new ArrayList<List<SepEvent>>();
+            List<SepEvent> batch;
+            while ((batch = reader.next()) != null) {
+                batches.add(batch);
+            }
+            return batches;
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.tools.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.ngdata.sep.SepEvent;
+import com.ngdata.sep.impl.SepEventCodec;
+
+/**
+ * Writes batches of {@link SepEvent}s to a trace file, which can be replayed by the {@link SepReplayer}.
+ * <p>
+ * A trace file starts with a magic string and a format version, followed by the batches. Every batch is stored as its
+ * length and the batch's events encoded by a {@link SepEventCodec}, so that a batch can be decoded on its own.
+ * <p>
+ * This class is thread-safe.
+ */
+public class SepTraceWriter implements Closeable {
+
+    static final byte[] MAGIC = new byte[] { 'S', 'E', 'P', 'T', 'R', 'A', 'C', 'E' };
+    static final int FORMAT_VERSION = 1;
+
+    private final DataOutputStream output;
+    private final SepEventCodec.Encoder encoder = new SepEventCodec.Encoder(true);
+    private long batchCount;
+    private long eventCount;
+
+    public SepTraceWriter(File file) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        output.write(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+    }
+
+    /**
+     * Append a batch of events to the trace. Empty batches are skipped.
+     */
+    public synchronized void write(List<SepEvent> events) throws IOException {
+        if (events.isEmpty()) {
+            return;
+        }
+        encoder.reset();
+        for (SepEvent event : events) {
+            encoder.encode(event);
+        }
+        ByteBuffer encoded = encoder.getEncoded();
+        output.writeInt(encoded.remaining());
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        output.write(bytes);
+        batchCount++;
+        eventCount += events.size();
+    }
+
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        output.close();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.tools.replay;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ngdata.sep.EventListener;
+import com.ngdata.sep.SepEvent;
+
+/**
+ * EventListener that stands in for an indexer that writes to Solr: it touches every KeyValue of the events and then
+ * waits for a fixed time per batch (the round trip to Solr) plus a fixed time per event (the indexing work).
+ */
+public class SimulatedEventListener implements EventListener {
+
+    private final long batchLatencyNanos;
+    private final long eventLatencyNanos;
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+
+    /**
+     * @param batchLatencyMicros time to wait for every batch, in microseconds
+     * @param eventLatencyMicros additional time to wait for every event, in microseconds
+     */
+    public SimulatedEventListener(long batchLatencyMicros, long eventLatencyMicros) {
+        this.batchLatencyNanos = TimeUnit.MICROSECONDS.toNanos(batchLatencyMicros);
+        this.eventLatencyNanos = TimeUnit.MICROSECONDS.toNanos(eventLatencyMicros);
+    }
+
+    @Override
+    public void processEvents(List<SepEvent> events) {
+        long bytes = 0;
+        for (SepEvent event : events) {
+            for (int i = 0; i < event.getKeyValues().size(); i++) {
+                bytes += event.getKeyValues().get(i).getLength();
+            }
+        }
+        eventCount.addAndGet(events.size());
+        byteCount.addAndGet(bytes);
+
+        long latency = batchLatencyNanos + events.size() * eventLatencyNanos;
+        if (latency > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while simulating event processing", e);
+            }
+        }
+    }
+
+    public long getEventCount() {
+        return eventCount.get();
+    }
+
+    /**
+     * Returns the total size of the KeyValues of the processed events.
+     */
+    public long getByteCount() {
+        return byteCount.get();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ngdata.sep.tools.replay;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import com.ngdata.sep.SepEvent;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Generates SEP events for the user rows of the hbase-sep-demo: rows of the {@code sep-user-demo} table with a random
+ * UUID as key, and a name, email, age and JSON payload column in the {@code info} family, as written by its
+ * {@code DemoIngester}. The payload column doubles as the payload of the events.
+ */
+public class SyntheticTraceGenerator {
+
+    public static final byte[] TABLE = Bytes.toBytes("sep-user-demo");
+    public static final byte[] INFO_CF = Bytes.toBytes("info");
+
+    private static final byte[] NAME_CQ = Bytes.toBytes("name");
+    private static final byte[] EMAIL_CQ = Bytes.toBytes("email");
+    private static final byte[] AGE_CQ = Bytes.toBytes("age");
+    private static final byte[] PAYLOAD_CQ = Bytes.toBytes("payload");
+    private static final byte[] PAYLOAD = Bytes.toBytes("{\"partialUpdate\":false}");
+
+    private static final String[] NAMES = { "Emma", "Noah", "Olivia", "Liam", "Ava", "Lucas", "Mia", "Louis", "Lotte",
+            "Arthur", "Julie", "Jules", "Sophia", "Adam", "Elena", "Victor", "Marie", "Thomas", "Nora", "Finn" };
+    private static final String[] DOMAINS = { "gmail.com", "hotmail.com", "yahoo.com", "live.com", "ngdata.com" };
+
+    private final Random random;
+
+    public SyntheticTraceGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generate a batch of events, each of which is the insert of a new user row.
+     */
+    public List<SepEvent> generateBatch(int eventCount) {
+        List<SepEvent> events = new ArrayList<SepEvent>(eventCount);
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < eventCount; i++) {
+            byte[] row = Bytes.toBytes(new UUID(random.nextLong(), random.nextLong()).toString());
+            String name = NAMES[random.nextInt(NAMES.length)];
+            String email = name.toLowerCase() + "@" + DOMAINS[random.nextInt(DOMAINS.length)];
+            String age = String.valueOf(1 + random.nextInt(100));
+
+            List<KeyValue> keyValues = new ArrayList<KeyValue>(4);
+            keyValues.add(new KeyValue(row, INFO_CF, AGE_CQ, timestamp, Bytes.toBytes(age)));
+            keyValues.add(new KeyValue(row, INFO_CF, EMAIL_CQ, timestamp, Bytes.toBytes(email)));
+            keyValues.add(new KeyValue(row, INFO_CF, NAME_CQ, timestamp, Bytes.toBytes(name)));
+            keyValues.add(new KeyValue(row, INFO_CF, PAYLOAD_CQ, timestamp, PAYLOAD));
+            events.add(new SepEvent(TABLE, row, keyValues, PAYLOAD));
+        }
+        return events;
+    }
+
+    /**
+     * Write a number of generated batches to a trace.
+     */
+    public void generate(SepTraceWriter traceWriter, int batchCount, int eventsPerBatch) throws IOException {
+        for (int i = 0; i < batchCount; i++) {
+            traceWriter.write(generateBatch(eventsPerBatch));
+        }
+    }
+}